@@ -0,0 +1,161 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.graphics.Matrix;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import it.unipd.dei.sproject1819.myeyse.tracking.MultiBoxTracker;
+import it.unipd.dei.sproject1819.myeyse.tracking.ObjectTracker;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that replays a synthetic recording through the components used by
+ * DetectorActivity: the quantized model of the assets, the MultiBoxTracker with the native
+ * optical flow and the inference scheduler, wrapped by FrameProcessorAdapters. The report is
+ * written in the log (tag FrameReplay), so that it can be compared between two versions of the
+ * code on the same device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameReplayInstrumentedTest
+{
+    private static final String TAG = "FrameReplay";
+
+    //Same configuration of DetectorActivity
+    private static final String MODEL_FILE = "detect.tflite";
+    private static final String LABELS_FILE = "file:///android_asset/labelmap.txt";
+    private static final int INPUT_SIZE = 300;
+    private static final boolean IS_QUANTIZED = true;
+    private static final float MINIMUM_CONFIDENCE = 0.7f;
+    private static final int MAXIMUM_OBJECTS = 10;
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int Y_ROW_STRIDE = 672;
+    private static final int UV_PIXEL_STRIDE = 2;
+    private static final long FRAME_NS = 33000000L;
+
+    //Still scene, then a pan of PAN_STEP pixels per frame, then still again
+    private static final int STILL = 10;
+    private static final int PAN = 20;
+    private static final int PAN_STEP = 4;
+    private static final int NUM_FRAMES = 2 * STILL + PAN;
+
+    private TensorFlowObjectDetectionAPIModel model;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        model = TensorFlowObjectDetectionAPIModel.create(
+                InstrumentationRegistry.getTargetContext().getAssets(), MODEL_FILE, LABELS_FILE,
+                INPUT_SIZE, IS_QUANTIZED);
+        model.setResultFilter(MINIMUM_CONFIDENCE, MAXIMUM_OBJECTS);
+        ObjectTracker.clearInstance();
+    }
+
+    @After
+    public void tearDown()
+    {
+        ObjectTracker.clearInstance();
+        model.close();
+    }
+
+    /**
+     * Random values on a grid of 8 pixels, interpolated bilinearly, so that the tracker finds
+     * keypoints everywhere. The chroma is interleaved as in NV21, with padded rows.
+     */
+    private static byte[] record() throws Exception
+    {
+        final int textureWidth = WIDTH + PAN * PAN_STEP;
+        final int cell = 8;
+        final int cells = textureWidth / cell + 2;
+        final int[] grid = new int[cells * (HEIGHT / cell + 2)];
+        final Random random = new Random(42);
+        for (int i = 0; i < grid.length; i++)
+            grid[i] = random.nextInt(256);
+
+        final byte[] texture = new byte[textureWidth * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            for (int x = 0; x < textureWidth; x++)
+            {
+                final int cx = x / cell;
+                final int cy = y / cell;
+                final int fx = x % cell;
+                final int fy = y % cell;
+                final int top = grid[cy * cells + cx] * (cell - fx) +
+                        grid[cy * cells + cx + 1] * fx;
+                final int bottom = grid[(cy + 1) * cells + cx] * (cell - fx) +
+                        grid[(cy + 1) * cells + cx + 1] * fx;
+                texture[y * textureWidth + x] =
+                        (byte) ((top * (cell - fy) + bottom * fy) / (cell * cell));
+            }
+        }
+
+        final byte[] u = new byte[Y_ROW_STRIDE * HEIGHT / 2];
+        final byte[] v = new byte[Y_ROW_STRIDE * HEIGHT / 2];
+        random.nextBytes(u);
+        random.nextBytes(v);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final YuvRecording.Writer writer = new YuvRecording.Writer(bytes);
+        for (int t = 0; t < NUM_FRAMES; t++)
+        {
+            final int shift = Math.min(Math.max(t - STILL, 0), PAN) * PAN_STEP;
+            final byte[] y = new byte[Y_ROW_STRIDE * HEIGHT];
+            for (int row = 0; row < HEIGHT; row++)
+                System.arraycopy(texture, row * textureWidth + shift, y, row * Y_ROW_STRIDE,
+                        WIDTH);
+            writer.write(new YuvRecording.Image(t * FRAME_NS, WIDTH, HEIGHT, Y_ROW_STRIDE,
+                    Y_ROW_STRIDE, UV_PIXEL_STRIDE, y, u, v));
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void replayThroughTheModelAndTheTracker() throws Exception
+    {
+        final int sensorOrientation = 90;
+        final Matrix frameToCrop = ImageUtils.getTransformationMatrix(WIDTH, HEIGHT,
+                INPUT_SIZE, INPUT_SIZE, sensorOrientation, false);
+        final Matrix cropToFrame = new Matrix();
+        frameToCrop.invert(cropToFrame);
+        final float[] cropToFrameValues = new float[9];
+        cropToFrame.getValues(cropToFrameValues);
+
+        final MultiBoxTracker tracker = new MultiBoxTracker(
+                InstrumentationRegistry.getTargetContext(),
+                CameraActivity.Mode.MODE_OBJECT_DETECTION);
+        final InferenceScheduler scheduler = new InferenceScheduler();
+        final FrameReplay replay = new FrameReplay(FrameProcessorAdapters.forModel(model),
+                FrameProcessorAdapters.forMultiBoxTracker(tracker, model.getLabels(), cropToFrame,
+                        ObjectTracker.DOWNSAMPLE_FACTOR),
+                cropToFrameValues, sensorOrientation);
+        replay.setScheduler(scheduler);
+
+        final FrameReplay.Report report = replay.run(
+                new YuvRecording.Reader(new ByteArrayInputStream(record())));
+        Log.i(TAG, report.toString());
+
+        //Without real time pacing nothing is dropped, each frame is either analyzed or skipped
+        assertEquals(NUM_FRAMES, report.getNumFrames());
+        assertEquals(0, report.getNumDropped());
+        assertEquals(NUM_FRAMES, report.getNumProcessed() + report.getNumSkipped());
+
+        //The model has run on the frames of the pan, through the whole pipeline
+        assertTrue(scheduler.getNumInferences() > 0);
+        assertEquals(report.getNumProcessed(), report.getInferenceStats().getCount());
+        assertTrue(report.getInferenceStats().getPercentileNs(50) > 0);
+    }
+}
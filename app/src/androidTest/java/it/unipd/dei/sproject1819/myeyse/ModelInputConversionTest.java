@@ -0,0 +1,171 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks that the model input sampled directly from the YUV planes is
+ * the same obtained with the conversion to RGB, the bitmaps and Canvas.drawBitmap. The bilinear
+ * sampling is compared with drawBitmap with Paint.FILTER_BITMAP_FLAG on a smooth frame: it
+ * interpolates YUV and Skia RGB, with different weights, so only a small difference is allowed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ModelInputConversionTest
+{
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int Y_ROW_STRIDE = 672;
+    private static final int UV_ROW_STRIDE = 672;
+    private static final int UV_PIXEL_STRIDE = 2;
+    private static final int INPUT_SIZE = 300;
+    private static final float IMAGE_MEAN = 128.0f;
+    private static final float IMAGE_STD = 128.0f;
+
+    private final byte[] y = new byte[Y_ROW_STRIDE * HEIGHT];
+    private final byte[] u = new byte[UV_ROW_STRIDE * HEIGHT / 2];
+    private final byte[] v = new byte[UV_ROW_STRIDE * HEIGHT / 2];
+
+    public ModelInputConversionTest()
+    {
+        Random random = new Random(42);
+        random.nextBytes(y);
+        random.nextBytes(u);
+        random.nextBytes(v);
+    }
+
+    @Test
+    public void quantizedInputIsBitExact()
+    {
+        for (int rotation = 0; rotation < 360; rotation += 90)
+            compare(rotation, true);
+    }
+
+    @Test
+    public void floatInputIsBitExact()
+    {
+        compare(90, false);
+    }
+
+    private void compare(int rotation, boolean quantized)
+    {
+        final int bytesPerChannel = quantized ? 1 : 4;
+        final Matrix frameToCrop = ImageUtils.getTransformationMatrix(WIDTH, HEIGHT,
+                INPUT_SIZE, INPUT_SIZE, rotation, false);
+        final Matrix cropToFrame = new Matrix();
+        frameToCrop.invert(cropToFrame);
+        final float[] cropToFrameValues = new float[9];
+        cropToFrame.getValues(cropToFrameValues);
+
+        //Current path: RGB frame, bitmap, drawBitmap and packing of the pixels
+        final int[] rgb = new int[WIDTH * HEIGHT];
+        ImageUtils.convertYUV420ToARGB8888(y, u, v, WIDTH, HEIGHT, Y_ROW_STRIDE, UV_ROW_STRIDE,
+                UV_PIXEL_STRIDE, rgb);
+        final Bitmap frame = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        frame.setPixels(rgb, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        final Bitmap cropped = Bitmap.createBitmap(INPUT_SIZE, INPUT_SIZE,
+                Bitmap.Config.ARGB_8888);
+        new Canvas(cropped).drawBitmap(frame, frameToCrop, null);
+        final int[] pixels = new int[INPUT_SIZE * INPUT_SIZE];
+        cropped.getPixels(pixels, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
+
+        final ByteBuffer expected = ByteBuffer.allocateDirect(
+                INPUT_SIZE * INPUT_SIZE * 3 * bytesPerChannel);
+        expected.order(ByteOrder.nativeOrder());
+        for (int pixelValue : pixels)
+        {
+            if (quantized)
+            {
+                expected.put((byte) ((pixelValue >> 16) & 0xFF));
+                expected.put((byte) ((pixelValue >> 8) & 0xFF));
+                expected.put((byte) (pixelValue & 0xFF));
+            }
+            else
+            {
+                expected.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+                expected.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+                expected.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+            }
+        }
+
+        //Fused path
+        final ByteBuffer actual = ByteBuffer.allocateDirect(
+                INPUT_SIZE * INPUT_SIZE * 3 * bytesPerChannel);
+        actual.order(ByteOrder.nativeOrder());
+        ImageUtils.convertYUV420ToModelInput(y, u, v, WIDTH, HEIGHT, Y_ROW_STRIDE,
+                UV_ROW_STRIDE, UV_PIXEL_STRIDE, cropToFrameValues, actual, INPUT_SIZE, quantized,
+                IMAGE_MEAN, IMAGE_STD);
+
+        expected.rewind();
+        actual.rewind();
+        assertEquals("Rotation " + rotation, expected, actual);
+    }
+
+    @Test
+    public void bilinearInputFollowsFilteredDrawBitmap()
+    {
+        //Smooth gradients, far from the saturation of the conversion
+        final byte[] smoothY = new byte[Y_ROW_STRIDE * HEIGHT];
+        final byte[] smoothU = new byte[UV_ROW_STRIDE * HEIGHT / 2];
+        final byte[] smoothV = new byte[UV_ROW_STRIDE * HEIGHT / 2];
+        for (int row = 0; row < HEIGHT; row++)
+            for (int column = 0; column < WIDTH; column++)
+                smoothY[row * Y_ROW_STRIDE + column] = (byte) (60 + column / 5 + row / 5);
+        for (int row = 0; row < HEIGHT / 2; row++)
+        {
+            for (int column = 0; column < WIDTH / 2; column++)
+            {
+                final int offset = row * UV_ROW_STRIDE + column * UV_PIXEL_STRIDE;
+                smoothU[offset] = (byte) (108 + column / 8);
+                smoothV[offset] = (byte) (148 - row / 8);
+            }
+        }
+
+        for (int rotation = 0; rotation < 360; rotation += 90)
+        {
+            final Matrix frameToCrop = ImageUtils.getTransformationMatrix(WIDTH, HEIGHT,
+                    INPUT_SIZE, INPUT_SIZE, rotation, false);
+            final Matrix cropToFrame = new Matrix();
+            frameToCrop.invert(cropToFrame);
+            final float[] cropToFrameValues = new float[9];
+            cropToFrame.getValues(cropToFrameValues);
+
+            final int[] rgb = new int[WIDTH * HEIGHT];
+            ImageUtils.convertYUV420ToARGB8888(smoothY, smoothU, smoothV, WIDTH, HEIGHT,
+                    Y_ROW_STRIDE, UV_ROW_STRIDE, UV_PIXEL_STRIDE, rgb);
+            final Bitmap frame = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+            frame.setPixels(rgb, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+            final Bitmap cropped = Bitmap.createBitmap(INPUT_SIZE, INPUT_SIZE,
+                    Bitmap.Config.ARGB_8888);
+            new Canvas(cropped).drawBitmap(frame, frameToCrop,
+                    new Paint(Paint.FILTER_BITMAP_FLAG));
+            final int[] pixels = new int[INPUT_SIZE * INPUT_SIZE];
+            cropped.getPixels(pixels, 0, INPUT_SIZE, 0, 0, INPUT_SIZE, INPUT_SIZE);
+
+            final ByteBuffer actual = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3);
+            ImageUtils.convertYUV420ToModelInput(smoothY, smoothU, smoothV, WIDTH, HEIGHT,
+                    Y_ROW_STRIDE, UV_ROW_STRIDE, UV_PIXEL_STRIDE, cropToFrameValues, actual,
+                    INPUT_SIZE, true, IMAGE_MEAN, IMAGE_STD, true);
+
+            for (int i = 0; i < pixels.length; i++)
+            {
+                for (int shift = 16; shift >= 0; shift -= 8)
+                {
+                    assertEquals("Rotation " + rotation + ", pixel " + i,
+                            (pixels[i] >> shift) & 0xFF, actual.get() & 0xFF, 3);
+                }
+            }
+        }
+    }
+}
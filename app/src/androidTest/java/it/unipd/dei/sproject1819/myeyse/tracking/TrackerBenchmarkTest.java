@@ -0,0 +1,207 @@
+package it.unipd.dei.sproject1819.myeyse.tracking;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of the native tracker, on the library built for the device with the NEON
+ * kernels. The times are written in the log (tag TrackerBenchmark):
+ * <ul>
+ * <li>time of the tracker for each frame, with the frame downsampled in Java before the call
+ * (nextFrame) or with the pyramid built by the tracker from the full frame (nextFullFrame), for
+ * some objects tracked. The frames are a textured scene that moves of a few pixels in each
+ * frame, as in a slow pan;</li>
+ * <li>overhead of the JNI calls made at every frame to read the state of the tracked objects:
+ * the three calls keyed by the id of each object against the single call that fills a direct
+ * buffer for all the objects. The same comparison is run on the host by TrackerReadBenchmark of
+ * the JMH module.</li>
+ * </ul>
+ */
+@RunWith(AndroidJUnit4.class)
+public class TrackerBenchmarkTest
+{
+    private static final String TAG = "TrackerBenchmark";
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private static final int SEQUENCE_LENGTH = 16;
+    private static final int DX = 3;
+    private static final int DY = 1;
+
+    private static final int WARMUP_ITERATIONS = 50;
+    private static final int ITERATIONS = 500;
+
+    //Grid of the objects in the downsampled frame
+    private static final int COLUMNS = 10;
+
+    private byte[][] frames;
+    private byte[] downsampled;
+    private ObjectTracker tracker;
+    private long timestamp;
+
+    @Before
+    public void setUp()
+    {
+        //Random texture, smoothed on blocks of 4 pixels so that it has corners to track
+        final int textureWidth = WIDTH + SEQUENCE_LENGTH * DX;
+        final int textureHeight = HEIGHT + SEQUENCE_LENGTH * DY;
+        final Random random = new Random(42);
+        final byte[] cells = new byte[(textureWidth / 4 + 1) * (textureHeight / 4 + 1)];
+        random.nextBytes(cells);
+
+        frames = new byte[SEQUENCE_LENGTH][WIDTH * HEIGHT];
+        for (int t = 0; t < SEQUENCE_LENGTH; t++)
+        {
+            for (int y = 0; y < HEIGHT; y++)
+            {
+                for (int x = 0; x < WIDTH; x++)
+                {
+                    final int tx = x + t * DX;
+                    final int ty = y + t * DY;
+                    frames[t][y * WIDTH + x] = cells[(ty / 4) * (textureWidth / 4 + 1) + tx / 4];
+                }
+            }
+        }
+
+        final int factor = ObjectTracker.DOWNSAMPLE_FACTOR;
+        downsampled = new byte[(WIDTH / factor) * (HEIGHT / factor)];
+
+        tracker = new ObjectTracker(WIDTH, HEIGHT, WIDTH, true);
+        tracker.init();
+        ObjectTracker.downsampleImageNative(WIDTH, HEIGHT, WIDTH, frames[0], factor, downsampled);
+        tracker.nextFrameNative(downsampled, null, ++timestamp, null);
+    }
+
+    @After
+    public void tearDown()
+    {
+        tracker.releaseMemoryNative();
+    }
+
+    /**
+     * Registers numObjects objects on a grid that covers the downsampled frame
+     *
+     * @return the ids of the objects
+     */
+    private String[] registerObjects(int numObjects)
+    {
+        final int width = WIDTH / ObjectTracker.DOWNSAMPLE_FACTOR;
+        final int height = HEIGHT / ObjectTracker.DOWNSAMPLE_FACTOR;
+        final int rows = (numObjects + COLUMNS - 1) / COLUMNS;
+        final float cellWidth = width / (float) COLUMNS;
+        final float cellHeight = height / (float) rows;
+        final String[] ids = new String[numObjects];
+        for (int i = 0; i < numObjects; i++)
+        {
+            ids[i] = "object" + i;
+            final float left = (i % COLUMNS) * cellWidth + 2;
+            final float top = (i / COLUMNS) * cellHeight + 2;
+            tracker.registerNewObjectWithAppearanceNative(ids[i], left, top,
+                    left + cellWidth - 4, top + cellHeight - 4, downsampled);
+            tracker.setPreviousPositionNative(ids[i], left, top, left + cellWidth - 4,
+                    top + cellHeight - 4, timestamp);
+        }
+        return ids;
+    }
+
+    /**
+     * @return the next frame of the sequence, played back and forth so that the motion is always
+     * small
+     */
+    private byte[] nextSequenceFrame()
+    {
+        final int phase = (int) (timestamp % (2 * SEQUENCE_LENGTH - 2));
+        final int index = phase < SEQUENCE_LENGTH ? phase : 2 * SEQUENCE_LENGTH - 2 - phase;
+        return frames[index];
+    }
+
+    /**
+     * @return average time of an iteration, in microseconds, after the warm-up
+     */
+    private static double measure(String name, Runnable iteration)
+    {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+            iteration.run();
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            iteration.run();
+        final double averageUs = (System.nanoTime() - start) / 1000.0 / ITERATIONS;
+
+        Log.i(TAG, String.format("%s: %.1f us", name, averageUs));
+        return averageUs;
+    }
+
+    @Test
+    public void nextFrame()
+    {
+        registerObjects(4);
+        final double downsampledUs = measure("nextFrame 4 objects", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ObjectTracker.downsampleImageNative(WIDTH, HEIGHT, WIDTH, nextSequenceFrame(),
+                        ObjectTracker.DOWNSAMPLE_FACTOR, downsampled);
+                tracker.nextFrameNative(downsampled, null, ++timestamp, null);
+            }
+        });
+        final double fullUs = measure("nextFullFrame 4 objects", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                tracker.nextFullFrameNative(nextSequenceFrame(), WIDTH,
+                        ObjectTracker.DOWNSAMPLE_FACTOR, ++timestamp, null);
+            }
+        });
+        assertTrue(downsampledUs > 0 && fullUs > 0);
+    }
+
+    @Test
+    public void trackedObjectReads()
+    {
+        for (final int numObjects : new int[]{1, 10, 50})
+        {
+            final String[] ids = registerObjects(numObjects);
+            final float[] position = new float[4];
+            final FloatBuffer values = ObjectTracker.allocateTrackedValues(numObjects);
+
+            measure("byId " + numObjects + " objects", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (final String id : ids)
+                    {
+                        tracker.getTrackedPositionNative(id, position);
+                        tracker.getCurrentCorrelation(id);
+                        tracker.isObjectVisible(id);
+                    }
+                }
+            });
+            measure("byHandle " + numObjects + " objects", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    tracker.getTrackedObjectsNative(values, numObjects);
+                }
+            });
+
+            for (final String id : ids)
+                tracker.forgetNative(id);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import android.content.res.Configuration;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
@@ -32,6 +33,7 @@ import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.util.SizeF;
 import android.util.SparseIntArray;
@@ -42,6 +44,8 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Toast;
 
+import it.unipd.dei.sproject1819.myeyse.tracking.ObjectTracker;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -140,14 +144,14 @@ public class Camera2Fragment extends Fragment
     int previewWidth;
     int previewHeight;
 
-    Size inputSize;
+    //Side of the input of the largest detector, used to choose the size of the frames
+    private int detectorInputSize;
 
-    /**
-     * The camera preview size will be chosen to be the smallest frame by pixel size capable of
-     * containing a DESIRED_SIZE x DESIRED_SIZE square.
-     */
-    private static final int MINIMUM_PREVIEW_SIZE = 320;
+    //Number of frames that the listener can hold at the same time
+    private int framesInFlight = 1;
 
+    //Stream of frames chosen for the camera in use
+    private CaptureConfig captureConfig;
 
     /**
      * The frame, in addition to the surfice extracted from the texterview, is also sent to the
@@ -158,11 +162,17 @@ public class Camera2Fragment extends Fragment
     //Information return to CameraActivity
     private Size mRealCaptureSize;
 
+    /**
+     * @param detectorInputSize Side of the input of the largest detector that can be used
+     * @param framesInFlight    Maximum number of images that the listener can hold at the same
+     *                          time
+     */
     public static Camera2Fragment newInstance(
             final ImageReader.OnImageAvailableListener imageListener,
-            final ConnectionCallback connectionCallback, Size inputSize)
+            final ConnectionCallback connectionCallback, int detectorInputSize, int framesInFlight)
     {
-        return new Camera2Fragment(connectionCallback, imageListener, inputSize);
+        return new Camera2Fragment(connectionCallback, imageListener, detectorInputSize,
+                framesInFlight);
     }
 
     public Camera2Fragment()
@@ -175,11 +185,13 @@ public class Camera2Fragment extends Fragment
     @SuppressLint("ValidFragment")
     private Camera2Fragment(final ConnectionCallback connectionCallback,
                             final ImageReader.OnImageAvailableListener imageListener,
-                            final Size inputSize)
+                            final int detectorInputSize,
+                            final int framesInFlight)
     {
         this.mImageListener = imageListener;
         this.cameraConnectionCallback = connectionCallback;
-        this.inputSize = inputSize;
+        this.detectorInputSize = detectorInputSize;
+        this.framesInFlight = framesInFlight;
     }
 
     /**
@@ -402,11 +414,10 @@ public class Camera2Fragment extends Fragment
                 if (map == null)
                     continue;
 
-                //Get frame resolution
-                mRealCaptureSize =
-                        chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class),
-                                inputSize.getWidth(),
-                                inputSize.getHeight());
+                //Get frame resolution, format, number of images and frame rate
+                captureConfig = chooseCaptureConfig(characteristics, map);
+                mRealCaptureSize = new Size(captureConfig.getWidth(), captureConfig.getHeight());
+                Log.i(TAG, "Capture stream: " + captureConfig);
 
 
                 Size largest = null;
@@ -527,6 +538,15 @@ public class Camera2Fragment extends Fragment
         return mRealCaptureSize;
     }
 
+    /**
+     * @return factor by which the tracker must downsample the frames, the one for which their size
+     * has been chosen
+     */
+    public int getTrackerDownsample()
+    {
+        return captureConfig.getTrackerDownsample();
+    }
+
     /**
      * Creates a new {@link CameraCaptureSession} for camera preview.
      */
@@ -553,8 +573,8 @@ public class Camera2Fragment extends Fragment
             // Create the reader for the preview frames.
             mImageReader =
                     ImageReader.newInstance(
-                            mRealCaptureSize.getWidth(), mRealCaptureSize.getHeight(),
-                            ImageFormat.YUV_420_888, 2);
+                            captureConfig.getWidth(), captureConfig.getHeight(),
+                            captureConfig.getFormat(), captureConfig.getMaxImages());
 
             mImageReader.setOnImageAvailableListener(mImageListener, mBackgroundHandler);
             mPreviewRequestBuilder.addTarget(mImageReader.getSurface());
@@ -580,6 +600,13 @@ public class Camera2Fragment extends Fragment
                                 mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
                                         CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
 
+                                //The exposure keeps the frame rate in the chosen range
+                                if (captureConfig.hasFpsRange())
+                                    mPreviewRequestBuilder.set(
+                                            CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                                            new Range<>(captureConfig.getMinFps(),
+                                                    captureConfig.getMaxFps()));
+
                                 // Finally, we start displaying the camera preview.
                                 mPreviewRequest = mPreviewRequestBuilder.build();
                                 mCaptureSession.setRepeatingRequest(mPreviewRequest,
@@ -705,56 +732,46 @@ public class Camera2Fragment extends Fragment
 
 
     /**
-     * Given {@code choices} of {@code Size}s supported by a camera, chooses the smallest one whose
-     * width and height are at least as large as the minimum of both, or an exact match if possible.
-     *
-     * @param choices The list of sizes that the camera supports for the intended output class
-     * @param width   The minimum desired width
-     * @param height  The minimum desired height
-     * @return The optimal {@code Size}, or an arbitrary one if none were big enough
+     * Chooses the stream of frames for the analysis among the YUV_420_888 sizes and the frame
+     * rate ranges supported by the camera.
      */
-    protected static Size chooseOptimalSize(final Size[] choices, final int width, final int height)
+    private CaptureConfig chooseCaptureConfig(CameraCharacteristics characteristics,
+                                              StreamConfigurationMap map)
     {
-        final int minSize = Math.max(Math.min(width, height), MINIMUM_PREVIEW_SIZE);
-        final Size desiredSize = new Size(width, height);
-
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        boolean exactSizeFound = false;
-        final List<Size> bigEnough = new ArrayList<Size>();
-        final List<Size> tooSmall = new ArrayList<Size>();
-        for (final Size option : choices)
+        final Size[] outputSizes = map.getOutputSizes(CaptureConfig.FORMAT);
+        final int[] sizes = new int[outputSizes.length * 2];
+        for (int i = 0; i < outputSizes.length; i++)
         {
-            if (option.equals(desiredSize))
-            {
-                // Set the size but don't return yet so that remaining sizes will still be logged.
-                exactSizeFound = true;
-            }
-
-            if (option.getHeight() >= minSize && option.getWidth() >= minSize)
-            {
-                bigEnough.add(option);
-            }
-            else
-            {
-                tooSmall.add(option);
-            }
+            sizes[2 * i] = outputSizes[i].getWidth();
+            sizes[2 * i + 1] = outputSizes[i].getHeight();
         }
 
-        if (exactSizeFound)
+        final Range<Integer>[] availableRanges = characteristics.get(
+                CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        final int[] fpsRanges = new int[availableRanges == null ? 0 : availableRanges.length * 2];
+        for (int i = 0; i < fpsRanges.length / 2; i++)
         {
-            return desiredSize;
+            fpsRanges[2 * i] = availableRanges[i].getLower();
+            fpsRanges[2 * i + 1] = availableRanges[i].getUpper();
         }
 
-        // Pick the smallest of those, assuming we found any
-        if (bigEnough.size() > 0)
-        {
-            final Size chosenSize = Collections.min(bigEnough, new CompareSizesByArea());
-            return chosenSize;
-        }
-        else
-        {
-            return choices[0];
-        }
+        //The frames with the aspect ratio of the sensor keep its whole field of view
+        final Rect activeArray =
+                characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        final float sensorAspect = activeArray == null || activeArray.height() == 0 ? 0 :
+                (float) Math.max(activeArray.width(), activeArray.height()) /
+                        Math.min(activeArray.width(), activeArray.height());
+
+        /**
+         * The frames are at least as large as the detector needs: when they are big, the tracker
+         * can downsample them more and still have TRACKER_MIN_SIDE pixels
+         */
+        final int trackerDownsample = ObjectTracker.chooseDownsampleFactor(
+                CaptureConfig.getMinDetectorSide(detectorInputSize),
+                CaptureConfig.TRACKER_MIN_SIDE);
+
+        return CaptureConfig.choose(sizes, fpsRanges, sensorAspect, detectorInputSize,
+                trackerDownsample, framesInFlight, CaptureConfig.DEFAULT_FPS);
     }
 
     /**
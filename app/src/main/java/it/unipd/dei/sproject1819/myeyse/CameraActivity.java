@@ -25,9 +25,10 @@ import android.view.MotionEvent;
 import android.view.Surface;
 import android.view.WindowManager;
 
-import java.nio.ByteBuffer;
 import java.util.List;
 
+import it.unipd.dei.sproject1819.myeyse.tracking.ObjectTracker;
+
 public abstract class CameraActivity extends AppCompatActivity implements
         ImageReader.OnImageAvailableListener, GestureDetector.OnDoubleTapListener,
         GestureDetector.OnGestureListener
@@ -61,8 +62,29 @@ public abstract class CameraActivity extends AppCompatActivity implements
         UNDEFINED
     }
 
-    //Resolution in which we would like frames
-    private static final Size DESIRED_CAPTURE_SIZE = new Size(640, 480);
+    /**
+     * Number of camera frames that can be in flight at the same time: one tracked by the UI thread
+     * while the previous one is preprocessed by the bg thread.
+     */
+    protected static final int CAMERA_FRAMES = 2;
+
+    /**
+     * Camera frames acquired in onImageAvailable and frames discarded there, one counter for each
+     * reason, so that the telemetry shows where the frames are lost
+     */
+    private static final Telemetry.Counter FRAMES_ACQUIRED = Telemetry.counter("camera.acquired");
+    private static final Telemetry.Counter DROP_BUSY = Telemetry.counter("camera.drop.busy");
+    private static final Telemetry.Counter DROP_NO_MODE = Telemetry.counter("camera.drop.no-mode");
+    private static final Telemetry.Counter DROP_SENSOR_NOT_READY =
+            Telemetry.counter("camera.drop.sensor-not-ready");
+    private static final Telemetry.Counter DROP_NO_ORIENTATION =
+            Telemetry.counter("camera.drop.no-orientation");
+    private static final Telemetry.Counter DROP_WRONG_MOVE =
+            Telemetry.counter("camera.drop.wrong-move");
+    private static final Telemetry.Counter DROP_FAR_FROM_START =
+            Telemetry.counter("camera.drop.far-from-start");
+    private static final Telemetry.Counter DROP_POOL_FULL =
+            Telemetry.counter("camera.drop.pool-full");
 
     /**
      * The communication of the app with the user can only take place by sending audio messages.
@@ -71,16 +93,13 @@ public abstract class CameraActivity extends AppCompatActivity implements
     protected TextToSpeechImp t1;
 
     /**
-     * When this variable is true, the new frame NF isn't analyzed. It is discarded.
-     * Unlike what you might think, this variable is a true only for the time between a frame NF is
-     * get, converted from color space YUV to color space RGB and analyzed by the tracking algorithm.
-     * Then, if ssd is analyzing a frame, NF is discarded and this variable set to true,
-     * otherwise it is passed to the network.
-     * <p>
-     * The advantage of doing this is that however, even if it is not analyzed by the network,
-     * the tracking algorithm obtains information from the current frame.
+     * Frames in which the camera images are wrapped. When all of them are in flight, the new frame
+     * NF isn't analyzed: it is discarded. A frame is in flight only for the time between it is
+     * get, analyzed by the tracking algorithm and preprocessed for the network, so, even if it is
+     * not analyzed by the network, the tracking algorithm obtains information from almost every
+     * frame.
      */
-    protected static boolean isProcessingFrame;
+    private CameraFrame.Pool framePool;
 
     //Own orientation of the smartphone
     protected Integer sensorOrientation;
@@ -95,18 +114,14 @@ public abstract class CameraActivity extends AppCompatActivity implements
     protected int mRealFrameWidth = 0;
     protected int mRealFrameHeight = 0;
 
-    //Return by camera
-    private byte[][] yuvBytes = new byte[3][];
-    //Used to create a bitmap to send to send to the network
-    protected int[] rgbBytes = null;
+    //Factor by which the tracker downsamples the frames, the one for which their size was chosen
+    protected int mTrackerDownsample = ObjectTracker.DOWNSAMPLE_FACTOR;
 
-    //This is the distance between the start of 2 consecutive rows of pixel in the image
-    private int yRowStride;
-
-    //Used to close current image
-    private Runnable postInferenceCallback;
-    //Used to convert from space color YUV_420_888 to RGB
-    private Runnable imageConverter;
+    /**
+     * Current frame returned by camera. Its planes are read in place, so the activity holds a
+     * reference until readyForNextImage; the stages that use it later must retain it.
+     */
+    private CameraFrame currentFrame;
     protected Handler handler;
     protected HandlerThread handlerThread;
     //For speech recognition
@@ -141,8 +156,6 @@ public abstract class CameraActivity extends AppCompatActivity implements
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN,
                 WindowManager.LayoutParams.FLAG_FULLSCREEN);
 
-        isProcessingFrame = false;
-
         //We create a new SpeechRecognizer.
         mSpeechRecognizer = SpeechRecognizer.createSpeechRecognizer(this);
 
@@ -299,9 +312,10 @@ public abstract class CameraActivity extends AppCompatActivity implements
              * We do some obvious initializations the first time a frame is processed.
              * Then we start object detection mode
              */
-            if (rgbBytes == null)
+            if (framePool == null)
             {
-                rgbBytes = new int[mRealFrameWidth * mRealFrameHeight];
+                framePool = new CameraFrame.Pool(CAMERA_FRAMES, mRealFrameWidth,
+                        mRealFrameHeight);
                 initializationObjectDetectionMode();
             }
             //We acquire the current frame
@@ -309,16 +323,23 @@ public abstract class CameraActivity extends AppCompatActivity implements
 
             if (image == null)
                 return;
+            FRAMES_ACQUIRED.increment();
 
             /**
              * Check if I can process the current frame or not.
-             * Otherwise I close the current one and move on to the next one
+             * Otherwise I close the current one and move on to the next one. A change of mode is
+             * processed only when no other frame is in flight
              */
-            if (!(isProcessingFrame == false && isModeChange == true))
+            final int framesInFlight = framePool.getNumInFlight();
+            if (!(framesInFlight == 0 && isModeChange == true))
             {
-                if ((isProcessingFrame) || (mode == Mode.UNDEFINED) ||
+                if ((framesInFlight == framePool.getSize()) || (mode == Mode.UNDEFINED) ||
                         (mWaitingForUserResponse == true))
                 {
+                    if (framesInFlight == framePool.getSize())
+                        DROP_BUSY.increment();
+                    else
+                        DROP_NO_MODE.increment();
                     image.close();
                     return;
                 }
@@ -345,6 +366,7 @@ public abstract class CameraActivity extends AppCompatActivity implements
                     }
                     else
                     {
+                        DROP_SENSOR_NOT_READY.increment();
                         image.close();
                         return;
                     }
@@ -356,6 +378,7 @@ public abstract class CameraActivity extends AppCompatActivity implements
                      */
                     if ((pm.isEstablishedOrientation() == false))
                     {
+                        DROP_NO_ORIENTATION.increment();
                         image.close();
                         return;
                     }
@@ -397,6 +420,7 @@ public abstract class CameraActivity extends AppCompatActivity implements
                             mWaitingForUserResponse = true;
                         }
                         t1.resetSpeechRate();
+                        DROP_WRONG_MOVE.increment();
                         image.close();
                         return;
                     }
@@ -438,54 +462,26 @@ public abstract class CameraActivity extends AppCompatActivity implements
                      */
                     else if (pm.isUserNearStartPosition() == false)
                     {
+                        DROP_FAR_FROM_START.increment();
                         image.close();
                         return;
                     }
                 }
             }
 
-            //Later, other frames are discarded until this variable is true
-            isProcessingFrame = true;
-
-
-            //We have 3 plane(Y(brightness component), U(blu), V(plane red)
-            final Image.Plane[] planes = image.getPlanes();
-            fillBytes(planes, yuvBytes);
-            //This is the distance between the start of 2 consecutive rows of pixel in the image
-            yRowStride = planes[0].getRowStride();
-            //This is the distance between 2 consecutive pixel values in a row of pixel
-            final int uvRowStride = planes[1].getRowStride();
-            final int uvPixelStride = planes[1].getPixelStride();
-
-            imageConverter =
-                    new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            ImageUtils.convertYUV420ToARGB8888(
-                                    yuvBytes[0],
-                                    yuvBytes[1],
-                                    yuvBytes[2],
-                                    mRealFrameWidth,
-                                    mRealFrameHeight,
-                                    yRowStride,
-                                    uvRowStride,
-                                    uvPixelStride,
-                                    rgbBytes);
-                        }
-                    };
-
-            postInferenceCallback =
-                    new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            image.close();
-                            isProcessingFrame = false;
-                        }
-                    };
+            /**
+             * We have 3 plane(Y(brightness component), U(blu), V(plane red). They are not copied:
+             * the image is closed when the last reference to the frame is released. If all the
+             * frames are in flight, the image is discarded
+             */
+            currentFrame = framePool.acquire(image,
+                    mode == Mode.MODE_PANORAMIC ? pm.getCurrentPositionFrame() : 0);
+            if (currentFrame == null)
+            {
+                DROP_POOL_FULL.increment();
+                image.close();
+                return;
+            }
 
             if (mode == Mode.MODE_RETURN)
             {
@@ -512,24 +508,13 @@ public abstract class CameraActivity extends AppCompatActivity implements
     }
 
     /**
-     * I set the vector rgbBytes to the rgb values of the current frame.
+     * The planes stay valid until readyForNextImage is called, unless the frame is retained.
      *
-     * @return rgb vector of current frame
+     * @return the current frame
      */
-    protected int[] getRgbBytes()
-    {
-        imageConverter.run();
-        return rgbBytes;
-    }
-
-    protected int getLuminanceStride()
-    {
-        return yRowStride;
-    }
-
-    protected byte[] getLuminance()
+    protected CameraFrame getCameraFrame()
     {
-        return yuvBytes[0];
+        return currentFrame;
     }
 
     protected void setFragment()
@@ -550,9 +535,10 @@ public abstract class CameraActivity extends AppCompatActivity implements
                     {
                         mRealFrameHeight = size.getHeight();
                         mRealFrameWidth = size.getWidth();
+                        mTrackerDownsample = camera2Fragment.getTrackerDownsample();
                         CameraActivity.this.onPreviewSizeChosen(size, rotation, focalLength);
                     }
-                }, DESIRED_CAPTURE_SIZE);
+                }, getDetectorInputSize(), CAMERA_FRAMES);
 
         getSupportFragmentManager().beginTransaction()
                 .replace(R.id.container, camera2Fragment)
@@ -560,30 +546,16 @@ public abstract class CameraActivity extends AppCompatActivity implements
 
     }
 
-    protected void fillBytes(final Image.Plane[] planes, final byte[][] yuvBytes)
-    {
-        /**
-         * Because of the variable row stride it's not possible to know in
-         *  advance the actual necessary dimensions of the yuv planes.
-         */
-        for (int i = 0; i < planes.length; ++i)
-        {
-            final ByteBuffer buffer = planes[i].getBuffer();
-            if (yuvBytes[i] == null)
-            {
-                yuvBytes[i] = new byte[buffer.capacity()];
-            }
-            buffer.get(yuvBytes[i]);
-        }
-    }
-
-    //Close current image
+    /**
+     * Releases the reference of the activity to the current frame. The image is closed as soon
+     * as the background stages that retained it have finished too.
+     */
     protected void readyForNextImage()
     {
-        if (postInferenceCallback != null)
-        {
-            postInferenceCallback.run();
-        }
+        final CameraFrame frame = currentFrame;
+        currentFrame = null;
+        if (frame != null)
+            frame.release();
     }
 
     /**
@@ -859,4 +831,10 @@ public abstract class CameraActivity extends AppCompatActivity implements
     protected abstract void setNewMode(Mode newMode);
 
     protected abstract void initializationObjectDetectionMode();
+
+    /**
+     * @return side of the input of the largest detector that can be used, from which the size of
+     * the frames is chosen
+     */
+    protected abstract int getDetectorInputSize();
 }
\ No newline at end of file
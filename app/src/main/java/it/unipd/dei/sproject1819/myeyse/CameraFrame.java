@@ -0,0 +1,283 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.media.Image;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Camera frame in YUV_420_888 format, seen through the direct buffers of its planes.
+ * <p>
+ * The planes are not copied in Java arrays: the tracker and the conversions read them through
+ * JNI, directly from the memory of the camera. For this reason the image must stay open until
+ * everybody has finished with it. Each user holds a reference: the frame is acquired with one
+ * reference, every stage that needs it later (for example a background thread) calls retain
+ * and, when it has finished, release. When the last reference is released the image is closed
+ * and the frame goes back to its pool.
+ * <p>
+ * Everything that belongs to a frame (planes, strides, timestamp, position of the smartphone,
+ * derived products) is stored in the frame itself, so several frames can be in flight at the
+ * same time without sharing buffers.
+ * <p>
+ * The products derived from the planes are computed lazily, at most once per acquisition, and
+ * each of them directly from YUV: a consumer that only needs the thumbnail of the luminance or
+ * the color histograms doesn't pay for the conversion of the whole frame.
+ */
+public class CameraFrame
+{
+    private static final String TAG = "CameraFrame";
+
+    //Side of the grid on which the color histograms are sampled, the resolution at which frames
+    //are compared by their histograms.
+    //In according to https://pdfs.semanticscholar.org/b539/791e55d550b493701c82f76c4867b3b88a3a.pdf
+    public static final int THUMBNAIL_SIZE = 256;
+
+    //Side of the thumbnail of the luminance, a compact descriptor of the scene
+    public static final int LUMA_THUMBNAIL_SIZE = 16;
+
+    //Samples averaged in each pixel of the thumbnail of the luminance, in each direction
+    private static final int LUMA_SAMPLES_PER_PIXEL = 4;
+
+    private final Pool pool;
+
+    public final int width;
+    public final int height;
+
+    //Distance between the start of 2 consecutive rows of the Y plane
+    public int yRowStride;
+
+    //Row and pixel strides of the chroma planes
+    public int uvRowStride;
+    public int uvPixelStride;
+
+    //Timestamp of the image, in nanoseconds
+    public long timestamp;
+
+    //Position of the smartphone returned by the sensors when the frame was captured, in [0, 6[
+    //and relative to the start of the tour (see ManageRotation)
+    public float sensorPosition;
+
+    private ByteBuffer y;
+    private ByteBuffer u;
+    private ByteBuffer v;
+
+    //Source of the planes, closed with the last reference
+    private AutoCloseable image;
+
+    //Mean luminance of LUMA_THUMBNAIL_SIZE x LUMA_THUMBNAIL_SIZE areas of the frame
+    private final int[] lumaThumbnail = new int[LUMA_THUMBNAIL_SIZE * LUMA_THUMBNAIL_SIZE];
+    private boolean lumaThumbnailComputed;
+
+    //Color histograms, sampled on THUMBNAIL_SIZE x THUMBNAIL_SIZE pixels
+    private ColorHistograms colorHistograms;
+    private boolean colorHistogramsComputed;
+
+    private final AtomicInteger references = new AtomicInteger(0);
+
+    private CameraFrame(Pool pool, int width, int height)
+    {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Adds a reference. It must be called by the thread that already holds one, before passing
+     * the frame to another thread.
+     */
+    public CameraFrame retain()
+    {
+        while (true)
+        {
+            final int count = references.get();
+            if (count <= 0)
+                throw new IllegalStateException("Frame already released");
+            if (references.compareAndSet(count, count + 1))
+                return this;
+        }
+    }
+
+    /**
+     * Releases a reference. The last one closes the image and gives the frame back to the pool,
+     * after which the frame must not be used any more.
+     */
+    public void release()
+    {
+        final int count = references.decrementAndGet();
+        if (count > 0)
+            return;
+        if (count < 0)
+        {
+            references.incrementAndGet();
+            throw new IllegalStateException("Frame released too many times");
+        }
+
+        try
+        {
+            image.close();
+        }
+        catch (Exception e)
+        {
+            Log.e(TAG, "Unable to close the image", e);
+        }
+        image = null;
+        y = u = v = null;
+        pool.recycle(this);
+    }
+
+    public boolean isReleased()
+    {
+        return references.get() <= 0;
+    }
+
+    public ByteBuffer getY()
+    {
+        checkNotReleased();
+        return y;
+    }
+
+    public ByteBuffer getU()
+    {
+        checkNotReleased();
+        return u;
+    }
+
+    public ByteBuffer getV()
+    {
+        checkNotReleased();
+        return v;
+    }
+
+    /**
+     * Scales the luminance down to LUMA_THUMBNAIL_SIZE x LUMA_THUMBNAIL_SIZE pixels the first
+     * time it is called. Each pixel averages a few samples of the Y plane, so it is the cheapest
+     * description of the frame.
+     *
+     * @return values 0-255, in row order, valid until the frame is released
+     */
+    public synchronized int[] getLumaThumbnail()
+    {
+        checkNotReleased();
+        if (!lumaThumbnailComputed)
+        {
+            ImageUtils.downsampleLuma(y, width, height, yRowStride, lumaThumbnail,
+                    LUMA_THUMBNAIL_SIZE, LUMA_SAMPLES_PER_PIXEL);
+            lumaThumbnailComputed = true;
+        }
+        return lumaThumbnail;
+    }
+
+    /**
+     * Computes the first time it is called the color histograms of THUMBNAIL_SIZE x
+     * THUMBNAIL_SIZE pixels, directly from YUV: they are the histograms of the frame scaled down
+     * by ImageUtils.convertYUV420ToARGB8888Scaled, but the scaled frame is not built.
+     *
+     * @return histograms valid until the frame is released
+     */
+    public synchronized ColorHistograms getColorHistograms()
+    {
+        checkNotReleased();
+        if (!colorHistogramsComputed)
+        {
+            if (colorHistograms == null)
+                colorHistograms = new ColorHistograms();
+            colorHistograms.computeFromYUV(y, u, v, width, height, yRowStride, uvRowStride,
+                    uvPixelStride, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+            colorHistogramsComputed = true;
+        }
+        return colorHistograms;
+    }
+
+    private void checkNotReleased()
+    {
+        if (references.get() <= 0)
+            throw new IllegalStateException("Frame already released");
+    }
+
+    /**
+     * Fixed set of frames of the same size. All the frames are created in the constructor and
+     * their derived products are allocated the first time they are needed, so in steady state
+     * acquiring and releasing frames doesn't allocate memory.
+     * <p>
+     * The size of the pool is the number of camera images that can be in flight at the same
+     * time; the ImageReader must allow at least one more image, used by acquireLatestImage.
+     */
+    public static class Pool
+    {
+        private final int size;
+        private final ArrayDeque<CameraFrame> free;
+
+        public Pool(int size, int width, int height)
+        {
+            this.size = size;
+            free = new ArrayDeque<>(size);
+            for (int i = 0; i < size; i++)
+                free.push(new CameraFrame(this, width, height));
+        }
+
+        /**
+         * Wraps an image acquired from an ImageReader. The size of the frame is the one of the
+         * pool, because some devices return images with a larger crop.
+         *
+         * @return the frame with one reference, or null if all the frames are in flight: in this
+         * case the image is not closed
+         */
+        public CameraFrame acquire(Image image, float sensorPosition)
+        {
+            final Image.Plane[] planes = image.getPlanes();
+            return acquire(image, planes[0].getBuffer(), planes[1].getBuffer(),
+                    planes[2].getBuffer(), planes[0].getRowStride(), planes[1].getRowStride(),
+                    planes[1].getPixelStride(), image.getTimestamp(), sensorPosition);
+        }
+
+        public CameraFrame acquire(AutoCloseable image, ByteBuffer y, ByteBuffer u, ByteBuffer v,
+                                   int yRowStride, int uvRowStride, int uvPixelStride,
+                                   long timestamp, float sensorPosition)
+        {
+            final CameraFrame frame;
+            synchronized (this)
+            {
+                frame = free.poll();
+            }
+            if (frame == null)
+                return null;
+
+            synchronized (frame)
+            {
+                frame.image = image;
+                frame.y = y;
+                frame.u = u;
+                frame.v = v;
+                frame.yRowStride = yRowStride;
+                frame.uvRowStride = uvRowStride;
+                frame.uvPixelStride = uvPixelStride;
+                frame.timestamp = timestamp;
+                frame.sensorPosition = sensorPosition;
+                frame.lumaThumbnailComputed = false;
+                frame.colorHistogramsComputed = false;
+            }
+            frame.references.set(1);
+            return frame;
+        }
+
+        private synchronized void recycle(CameraFrame frame)
+        {
+            free.push(frame);
+        }
+
+        public int getSize()
+        {
+            return size;
+        }
+
+        /**
+         * @return number of frames acquired and not yet released
+         */
+        public synchronized int getNumInFlight()
+        {
+            return size - free.size();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.graphics.ImageFormat;
+
+/**
+ * Describes the stream of frames requested to the camera for the analysis: size, format, number
+ * of images of the ImageReader and frame rate.
+ * <p>
+ * The size is derived from what the consumers of the frames can use, instead of being fixed:
+ * <ul>
+ * <li>the detector resizes the frame to its input, and with the regions of interest of RoiMosaic
+ * it samples small objects at a higher resolution, up to the shorter side given by
+ * getMinDetectorSide</li>
+ * <li>the tracker works on the frame downsampled by its factor, and needs at least
+ * TRACKER_MIN_SIDE pixels on the shorter side of the downsampled frame</li>
+ * </ul>
+ * The smallest size supported by the camera that satisfies both is chosen, preferring the aspect
+ * ratio of the sensor so that the whole field of view is kept. Pixels beyond that would be
+ * captured, converted and then thrown away by the resizing.
+ */
+public class CaptureConfig
+{
+    //The frames are read from the planes of YUV_420_888 images
+    public static final int FORMAT = ImageFormat.YUV_420_888;
+
+    //Shorter side of the frame seen by the tracker, after its downsampling
+    public static final int TRACKER_MIN_SIDE = 240;
+
+    //Frame rate requested when the consumers don't ask otherwise
+    public static final int DEFAULT_FPS = 30;
+
+    //In low light the exposure can lower the frame rate down to this value, not further
+    public static final int MIN_FPS = 15;
+
+    /**
+     * Smallest object, as a fraction of the shorter side of the frame, that is sampled by the
+     * detector without being enlarged when it is in a region of interest
+     */
+    private static final float SMALL_OBJECT = 0.25f;
+
+    //Sizes whose aspect ratio differs less than this from the one of the sensor keep its field
+    private static final float ASPECT_TOLERANCE = 0.05f;
+
+    //Frames larger than this on their longer side are never requested
+    private static final int MAX_SIDE = 1920;
+
+    private final int width;
+    private final int height;
+    private final int maxImages;
+    private final int minFps;
+    private final int maxFps;
+    private final int trackerDownsample;
+
+    public CaptureConfig(int width, int height, int maxImages, int minFps, int maxFps,
+                         int trackerDownsample)
+    {
+        this.width = width;
+        this.height = height;
+        this.maxImages = maxImages;
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+        this.trackerDownsample = trackerDownsample;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getFormat()
+    {
+        return FORMAT;
+    }
+
+    /**
+     * @return number of images of the ImageReader: the frames in flight plus the one needed by
+     * acquireLatestImage
+     */
+    public int getMaxImages()
+    {
+        return maxImages;
+    }
+
+    /**
+     * @return true if a target frame rate range has been chosen, otherwise the default one of the
+     * camera is used
+     */
+    public boolean hasFpsRange()
+    {
+        return maxFps > 0;
+    }
+
+    public int getMinFps()
+    {
+        return minFps;
+    }
+
+    public int getMaxFps()
+    {
+        return maxFps;
+    }
+
+    /**
+     * @return factor by which the tracker downsamples the frames, the one for which the size has
+     * been chosen
+     */
+    public int getTrackerDownsample()
+    {
+        return trackerDownsample;
+    }
+
+    @Override
+    public String toString()
+    {
+        return width + "x" + height + ", " + maxImages + " images, " +
+                (hasFpsRange() ? "[" + minFps + ", " + maxFps + "] fps" : "default fps") +
+                ", tracked at 1/" + trackerDownsample;
+    }
+
+    /**
+     * @param detectorInputSize Side of the input of the largest detector that can be used
+     * @return shorter side of the frame above which the detector doesn't see more details
+     */
+    public static int getMinDetectorSide(int detectorInputSize)
+    {
+        /**
+         * A region of interest is the box enlarged by its margins, and it is resized to a tile of
+         * half the input: a box of SMALL_OBJECT times the frame is not enlarged as long as its
+         * region has at least the pixels of the tile
+         */
+        final float regionSide = (1 + 2 * RoiMosaic.DEFAULT_MARGIN) * SMALL_OBJECT;
+        return (int) Math.ceil(detectorInputSize / 2f / regionSide);
+    }
+
+    /**
+     * @param trackerDownsample Factor by which the tracker downsamples the frame
+     * @return shorter side of the frame needed by the tracker
+     */
+    public static int getMinTrackerSide(int trackerDownsample)
+    {
+        return TRACKER_MIN_SIDE * trackerDownsample;
+    }
+
+    /**
+     * Chooses the configuration of the stream.
+     *
+     * @param sizes             Sizes supported by the camera for FORMAT, in the form
+     *                          [width, height] for each size
+     * @param fpsRanges         Frame rate ranges supported by the camera, in the form
+     *                          [min, max] for each range; it can be empty
+     * @param sensorAspect      Width / height of the active array of the sensor, or 0 if unknown
+     * @param detectorInputSize Side of the input of the largest detector that can be used
+     * @param trackerDownsample Factor by which the tracker downsamples the frame
+     * @param framesInFlight    Number of frames that the app holds at the same time
+     * @param targetFps         Frame rate wanted
+     */
+    public static CaptureConfig choose(int[] sizes, int[] fpsRanges, float sensorAspect,
+                                       int detectorInputSize, int trackerDownsample,
+                                       int framesInFlight, int targetFps)
+    {
+        final int minSide = Math.max(getMinDetectorSide(detectorInputSize),
+                getMinTrackerSide(trackerDownsample));
+
+        final int size = chooseSize(sizes, minSide, sensorAspect);
+        final int range = chooseFpsRange(fpsRanges, targetFps);
+        return new CaptureConfig(sizes[size], sizes[size + 1], framesInFlight + 1,
+                range < 0 ? 0 : fpsRanges[range], range < 0 ? 0 : fpsRanges[range + 1],
+                trackerDownsample);
+    }
+
+    /**
+     * @return index in sizes of the smallest size whose shorter side is at least minSide,
+     * preferring the aspect ratio of the sensor. If no size is large enough, the largest one
+     */
+    static int chooseSize(int[] sizes, int minSide, float sensorAspect)
+    {
+        int best = -1;
+        boolean bestKeepsField = false;
+        int largest = -1;
+
+        for (int i = 0; i < sizes.length; i += 2)
+        {
+            final int w = sizes[i];
+            final int h = sizes[i + 1];
+            if (Math.max(w, h) > MAX_SIDE)
+                continue;
+            if (largest == -1 || w * h > sizes[largest] * sizes[largest + 1])
+                largest = i;
+            if (Math.min(w, h) < minSide)
+                continue;
+
+            final boolean keepsField = sensorAspect <= 0 ||
+                    Math.abs((float) Math.max(w, h) / Math.min(w, h) - sensorAspect) <
+                            ASPECT_TOLERANCE * sensorAspect;
+            if (best == -1 || (keepsField && !bestKeepsField) || (keepsField == bestKeepsField &&
+                    w * h < sizes[best] * sizes[best + 1]))
+            {
+                best = i;
+                bestKeepsField = keepsField;
+            }
+        }
+        if (best != -1)
+            return best;
+        return largest != -1 ? largest : 0;
+    }
+
+    /**
+     * @return index in fpsRanges of the range whose maximum is nearest to targetFps (at least
+     * targetFps, if possible) and whose minimum is nearest to MIN_FPS, or -1 if there are no
+     * ranges
+     */
+    static int chooseFpsRange(int[] fpsRanges, int targetFps)
+    {
+        final int minFps = Math.min(MIN_FPS, targetFps);
+        int best = -1;
+        int bestCost = Integer.MAX_VALUE;
+        for (int i = 0; i < fpsRanges.length; i += 2)
+        {
+            final int lower = fpsRanges[i];
+            final int upper = fpsRanges[i + 1];
+            final int upperCost = upper >= targetFps ? upper - targetFps : 1000 + targetFps - upper;
+            final int lowerCost = lower >= minFps ? lower - minFps : 500 + minFps - lower;
+            final int cost = upperCost * 1000 + lowerCost;
+            if (cost < bestCost)
+            {
+                best = i;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+}
@@ -99,6 +99,14 @@ public interface Classifier
 
     List<Recognition> recognizeImage(Bitmap bitmap);
 
+    /**
+     * Recognizes several images with a single run of the engine, when it supports it. The result
+     * of a single image is the same as recognizeImage.
+     *
+     * @return the recognitions of each image, in the same order of the images
+     */
+    List<List<Recognition>> recognizeImages(List<Bitmap> bitmaps);
+
     void enableStatLogging(final boolean debug);
 
     String getStatString();
@@ -0,0 +1,272 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Red, green and blue histograms of a frame, computed on a grid of samples.
+ * <p>
+ * The samples are read row by row, directly from the YUV planes of the camera or from an array of
+ * ARGB pixels, without intermediate bitmaps. The rows of the grid are split in bands, each one
+ * counted by a thread of the common fork-join pool in its own partial histograms, which are then
+ * summed. All the arrays are allocated in the constructor and reused for every frame.
+ */
+public class ColorHistograms
+{
+    public static final int NUM_BUCKETS = 256;
+
+    //Minimum number of samples counted by a band, below it the bands are not worth a thread
+    private static final int MIN_BAND_SAMPLES = 8192;
+
+    //At the i-th position, they contain the number of samples having value i in that channel
+    public final int[] red = new int[NUM_BUCKETS];
+    public final int[] green = new int[NUM_BUCKETS];
+    public final int[] blue = new int[NUM_BUCKETS];
+
+    private final Band[] bands;
+    private final ParallelBands parallelBands = new ParallelBands();
+    private boolean parallel = true;
+
+    //Source of the current computation, read by the bands
+    private ByteBuffer yData;
+    private ByteBuffer uData;
+    private ByteBuffer vData;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private int[] pixels;
+    private int width;
+    private int height;
+    private int samplesX;
+    private int samplesY;
+    private int step;
+
+    //Column of the frame and offset in the chroma rows of each column of the grid
+    private int[] columns = new int[0];
+    private int[] uvColumns = new int[0];
+
+    public ColorHistograms()
+    {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param numBands Maximum number of bands counted in parallel
+     */
+    public ColorHistograms(int numBands)
+    {
+        bands = new Band[Math.max(1, numBands)];
+        for (int i = 0; i < bands.length; i++)
+            bands[i] = new Band();
+    }
+
+    /**
+     * Enables or disables the split of the rows among the threads of the fork-join pool.
+     */
+    public void setParallel(boolean enabled)
+    {
+        parallel = enabled;
+    }
+
+    /**
+     * Counts samplesX x samplesY pixels of a YUV_420_888 frame, sampled on the same grid of
+     * ImageUtils.convertYUV420ToARGB8888Scaled: the result is the one of compute on the scaled
+     * frame, without converting it.
+     */
+    public void computeFromYUV(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, int width,
+                               int height, int yRowStride, int uvRowStride, int uvPixelStride,
+                               int samplesX, int samplesY)
+    {
+        this.yData = yData;
+        this.uData = uData;
+        this.vData = vData;
+        this.yRowStride = yRowStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+        this.pixels = null;
+        this.width = width;
+        this.height = height;
+        this.samplesX = samplesX;
+        this.samplesY = samplesY;
+
+        if (columns.length != samplesX)
+        {
+            columns = new int[samplesX];
+            uvColumns = new int[samplesX];
+        }
+        final float scaleX = width / (float) samplesX;
+        for (int x = 0; x < samplesX; x++)
+        {
+            columns[x] = ImageUtils.sampleIndex(x, scaleX, width);
+            uvColumns[x] = (columns[x] >> 1) * uvPixelStride;
+        }
+
+        compute();
+        this.yData = this.uData = this.vData = null;
+    }
+
+    /**
+     * Counts one pixel every step, in both directions, of an array of ARGB pixels.
+     */
+    public void compute(int[] pixels, int width, int height, int step)
+    {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.step = step;
+        this.samplesX = (width + step - 1) / step;
+        this.samplesY = (height + step - 1) / step;
+        compute();
+        this.pixels = null;
+    }
+
+    /**
+     * @return sum of the absolute differences between the buckets of the two histograms
+     */
+    public int distance(ColorHistograms other)
+    {
+        int sum = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            sum += Math.abs(green[i] - other.green[i]) +
+                    Math.abs(blue[i] - other.blue[i]) +
+                    Math.abs(red[i] - other.red[i]);
+        }
+        return sum;
+    }
+
+    /**
+     * Copies the buckets of other in these histograms.
+     */
+    public void set(ColorHistograms other)
+    {
+        System.arraycopy(other.red, 0, red, 0, NUM_BUCKETS);
+        System.arraycopy(other.green, 0, green, 0, NUM_BUCKETS);
+        System.arraycopy(other.blue, 0, blue, 0, NUM_BUCKETS);
+    }
+
+    private void compute()
+    {
+        final int numBands = parallel ?
+                Math.max(1, Math.min(bands.length, samplesX * samplesY / MIN_BAND_SAMPLES)) : 1;
+
+        if (numBands == 1)
+        {
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            countRows(0, samplesY, red, green, blue);
+            return;
+        }
+
+        for (int i = 0; i < numBands; i++)
+            bands[i].setRows(samplesY * i / numBands, samplesY * (i + 1) / numBands);
+        parallelBands.reinitialize();
+        parallelBands.numBands = numBands;
+        ForkJoinPool.commonPool().invoke(parallelBands);
+
+        System.arraycopy(bands[0].red, 0, red, 0, NUM_BUCKETS);
+        System.arraycopy(bands[0].green, 0, green, 0, NUM_BUCKETS);
+        System.arraycopy(bands[0].blue, 0, blue, 0, NUM_BUCKETS);
+        for (int i = 1; i < numBands; i++)
+        {
+            for (int j = 0; j < NUM_BUCKETS; j++)
+            {
+                red[j] += bands[i].red[j];
+                green[j] += bands[i].green[j];
+                blue[j] += bands[i].blue[j];
+            }
+        }
+    }
+
+    /**
+     * Counts the rows of the grid from rowStart to rowEnd excluded in the given histograms.
+     */
+    private void countRows(int rowStart, int rowEnd, int[] red, int[] green, int[] blue)
+    {
+        if (pixels != null)
+        {
+            for (int y = rowStart; y < rowEnd; y++)
+            {
+                final int rowEndIndex = y * step * width + width;
+                for (int i = y * step * width; i < rowEndIndex; i += step)
+                {
+                    final int pixel = pixels[i];
+                    red[(pixel >> 16) & 0xFF]++;
+                    green[(pixel >> 8) & 0xFF]++;
+                    blue[pixel & 0xFF]++;
+                }
+            }
+            return;
+        }
+
+        final float scaleY = height / (float) samplesY;
+        for (int y = rowStart; y < rowEnd; y++)
+        {
+            final int iy = ImageUtils.sampleIndex(y, scaleY, height);
+            final int yRow = yRowStride * iy;
+            final int uvRow = uvRowStride * (iy >> 1);
+
+            for (int x = 0; x < samplesX; x++)
+            {
+                final int uvOffset = uvRow + uvColumns[x];
+                final int pixel = ImageUtils.yuvToArgb(
+                        0xff & yData.get(yRow + columns[x]),
+                        0xff & uData.get(uvOffset),
+                        0xff & vData.get(uvOffset));
+                red[(pixel >> 16) & 0xFF]++;
+                green[(pixel >> 8) & 0xFF]++;
+                blue[pixel & 0xFF]++;
+            }
+        }
+    }
+
+    /**
+     * Range of rows of the grid with its partial histograms. The task is reinitialized and run
+     * again for every frame.
+     */
+    private class Band extends RecursiveAction
+    {
+        private final int[] red = new int[NUM_BUCKETS];
+        private final int[] green = new int[NUM_BUCKETS];
+        private final int[] blue = new int[NUM_BUCKETS];
+        private int rowStart;
+        private int rowEnd;
+
+        private void setRows(int rowStart, int rowEnd)
+        {
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            reinitialize();
+        }
+
+        @Override
+        protected void compute()
+        {
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            countRows(rowStart, rowEnd, red, green, blue);
+        }
+    }
+
+    /**
+     * Runs the first numBands bands and waits for all of them.
+     */
+    private class ParallelBands extends RecursiveAction
+    {
+        private int numBands;
+
+        @Override
+        protected void compute()
+        {
+            for (int i = 1; i < numBands; i++)
+                bands[i].fork();
+            bands[0].compute();
+            for (int i = 1; i < numBands; i++)
+                bands[i].join();
+        }
+    }
+}
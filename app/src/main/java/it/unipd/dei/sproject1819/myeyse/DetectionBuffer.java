@@ -0,0 +1,239 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable container for the output of a single inference.
+ * <p>
+ * Instead of creating a RectF and a Recognition for every detection of every frame, the model
+ * writes its results in flat arrays that are allocated only once. In this way, in steady state,
+ * the inference path does not produce garbage and the GC does not interrupt the tracking.
+ */
+public class DetectionBuffer
+{
+    //Number of values that describe a box: left, top, right, bottom
+    public static final int BOX_STEP = 4;
+
+    //Maximum number of detections that can be stored
+    private final int capacity;
+
+    //Boxes in the form [left, top, right, bottom] for each detection, in input image coordinates
+    private final float[] boxes;
+
+    //Confidence of each detection
+    private final float[] scores;
+
+    //Index, inside the label file, of the class of each detection
+    private final int[] classIds;
+
+    //Number of valid detections currently stored
+    private int count;
+
+    public DetectionBuffer(final int capacity)
+    {
+        this.capacity = capacity;
+        boxes = new float[capacity * BOX_STEP];
+        scores = new float[capacity];
+        classIds = new int[capacity];
+        count = 0;
+    }
+
+    /**
+     * Copies the output tensors of a SSD model in this buffer.
+     * <p>
+     * SSD models return boxes in the form [top, left, bottom, right] normalized in [0, 1], so
+     * they are reordered and scaled back to the input size.
+     *
+     * @param outputLocations Locations of the detected boxes, shape [NUM_DETECTIONS][4]
+     * @param outputClasses   Classes of the detected boxes, shape [NUM_DETECTIONS]
+     * @param outputScores    Scores of the detected boxes, shape [NUM_DETECTIONS]
+     * @param numDetections   Number of detections to copy
+     * @param inputSize       Size of the image given to the model
+     * @param labelOffset     Offset to add to the classes to obtain the index in the label file
+     */
+    public void setFromOutputs(final float[][] outputLocations,
+                               final float[] outputClasses,
+                               final float[] outputScores,
+                               final int numDetections,
+                               final int inputSize,
+                               final int labelOffset)
+    {
+        setFromOutputs(outputLocations, outputClasses, outputScores, numDetections, inputSize,
+                labelOffset, Float.NEGATIVE_INFINITY, capacity);
+    }
+
+    /**
+     * Same as above, but only the detections with score at least minScore are copied, up to
+     * maxResults.
+     * <p>
+     * The post-processing of SSD (non max suppression) returns the detections sorted by
+     * decreasing score, so the copy stops at the first detection below the threshold and the
+     * remaining ones are never read.
+     *
+     * @param minScore   Minimum confidence of a detection to be stored
+     * @param maxResults Maximum number of detections to store (top-K)
+     */
+    public void setFromOutputs(final float[][] outputLocations,
+                               final float[] outputClasses,
+                               final float[] outputScores,
+                               final int numDetections,
+                               final int inputSize,
+                               final int labelOffset,
+                               final float minScore,
+                               final int maxResults)
+    {
+        final int n = Math.min(numDetections, Math.min(maxResults, capacity));
+        int i = 0;
+        for (; i < n; ++i)
+        {
+            final float score = outputScores[i];
+            if (score < minScore)
+                break;
+
+            final float[] location = outputLocations[i];
+            final int base = i * BOX_STEP;
+            boxes[base] = location[1] * inputSize;
+            boxes[base + 1] = location[0] * inputSize;
+            boxes[base + 2] = location[3] * inputSize;
+            boxes[base + 3] = location[2] * inputSize;
+            scores[i] = score;
+            classIds[i] = (int) outputClasses[i] + labelOffset;
+        }
+        count = i;
+    }
+
+    public void clear()
+    {
+        count = 0;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Changes the number of valid detections, after the arrays have been modified directly.
+     */
+    void setCount(final int count)
+    {
+        this.count = Math.min(count, capacity);
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public float getScore(final int i)
+    {
+        return scores[i];
+    }
+
+    public int getClassId(final int i)
+    {
+        return classIds[i];
+    }
+
+    public float getLeft(final int i)
+    {
+        return boxes[i * BOX_STEP];
+    }
+
+    public float getTop(final int i)
+    {
+        return boxes[i * BOX_STEP + 1];
+    }
+
+    public float getRight(final int i)
+    {
+        return boxes[i * BOX_STEP + 2];
+    }
+
+    public float getBottom(final int i)
+    {
+        return boxes[i * BOX_STEP + 3];
+    }
+
+    /**
+     * Direct access to the boxes array. The box of the i-th detection starts at i * BOX_STEP.
+     */
+    public float[] getBoxes()
+    {
+        return boxes;
+    }
+
+    public float[] getScores()
+    {
+        return scores;
+    }
+
+    public int[] getClassIds()
+    {
+        return classIds;
+    }
+
+    /**
+     * Creates the recognitions passed to the tracker. This is the only point where objects are
+     * created for each detection.
+     *
+     * @param toFrame Transformation from the coordinates of the boxes to the ones of the frame,
+     *                null if the boxes are already in frame coordinates
+     */
+    public List<Recognition> toRecognitions(final Matrix toFrame)
+    {
+        final List<Recognition> recognitions = new ArrayList<Recognition>(count);
+        for (int i = 0; i < count; i++)
+        {
+            final RectF location = new RectF(getLeft(i), getTop(i), getRight(i), getBottom(i));
+            if (toFrame != null)
+                toFrame.mapRect(location);
+            recognitions.add(new Recognition(classIds[i], scores[i], location));
+        }
+        return recognitions;
+    }
+
+    /**
+     * Fixed set of buffers shared between the thread that makes the inference and the one that
+     * consumes the results. All buffers are created in the constructor, so acquire and release
+     * never allocate memory.
+     */
+    public static class Pool
+    {
+        private final ArrayDeque<DetectionBuffer> free;
+
+        public Pool(final int size, final int capacity)
+        {
+            free = new ArrayDeque<>(size);
+            for (int i = 0; i < size; i++)
+                free.push(new DetectionBuffer(capacity));
+        }
+
+        /**
+         * @return a free buffer, or null if all the buffers are in use
+         */
+        public synchronized DetectionBuffer acquire()
+        {
+            final DetectionBuffer buffer = free.poll();
+            if (buffer != null)
+                buffer.clear();
+            return buffer;
+        }
+
+        public synchronized void release(final DetectionBuffer buffer)
+        {
+            if (buffer != null)
+                free.push(buffer);
+        }
+
+        public synchronized int available()
+        {
+            return free.size();
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.os.Trace;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipeline that processes the frames in three stages running on different threads:
+ * <ol>
+ * <li>conversion and preprocessing, executed by the caller on the frame just acquired;</li>
+ * <li>inference, executed by the thread "detection-infer";</li>
+ * <li>tracking and audio messages, executed by the thread "detection-track".</li>
+ * </ol>
+ * In this way frame N+1 is converted while frame N is analyzed by the network.
+ * <p>
+ * The stages are connected by bounded ring buffers. If a stage is slower than the previous one,
+ * the oldest frame waiting in its queue is dropped, so the messages are always about the most
+ * recent frames. If all the frames of the pool are in use, acquireFrame returns null and the
+ * camera frame must be discarded (backpressure).
+ */
+public class DetectionPipeline
+{
+    private static final String TAG = "DetectionPipeline";
+
+    /**
+     * Executes the network on a preprocessed input. It is always called by the same thread.
+     */
+    public interface Inference
+    {
+        void runInference(ByteBuffer input, DetectionBuffer out);
+    }
+
+    /**
+     * Inference that can execute the network on several frames with a single call. The frames
+     * already waiting when the inference stage becomes free are analyzed together.
+     */
+    public interface BatchInference extends Inference
+    {
+        /**
+         * @param inputs Preprocessed inputs, the first count are valid
+         * @param outs   Buffers where the detections of each input are stored
+         * @param count  Number of frames, at least 2
+         */
+        void runInference(ByteBuffer[] inputs, DetectionBuffer[] outs, int count);
+    }
+
+    /**
+     * Consumes the results of the network (tracking and audio messages).
+     */
+    public interface Consumer
+    {
+        void onDetections(Frame frame);
+    }
+
+    /**
+     * Creates the input buffers of the network.
+     */
+    public interface InputFactory
+    {
+        ByteBuffer createInputBuffer();
+    }
+
+    /**
+     * Frame in flight in the pipeline. All the buffers are allocated once, when the pipeline is
+     * created, and reused.
+     */
+    public static class Frame
+    {
+        //Input of the network
+        public final ByteBuffer input;
+
+        //Results of the network
+        public final DetectionBuffer detections;
+
+        //Regions of the frame placed in the input, empty if the input contains the whole frame
+        public final RoiMosaic rois = new RoiMosaic();
+
+        //Luminance of the frame downsampled by the tracker, needed to register the detections
+        private byte[] luminance;
+
+        //Timestamp of the frame assigned by the activity
+        public long timestamp;
+
+        //Position of the smartphone when the frame was captured, in degrees (panoramic mode)
+        public float sensorPosition;
+
+        //Instant in which the frame entered the pipeline
+        private long startNs;
+
+        Frame(ByteBuffer input, int maxDetections)
+        {
+            this.input = input;
+            this.detections = new DetectionBuffer(maxDetections);
+        }
+
+        /**
+         * Keeps the luminance downsampled by the tracker, so that the camera image can be
+         * released before the end of the processing without copying its whole Y plane. The array
+         * is kept as it is and can be passed again to the tracker for the next use of the frame.
+         */
+        public void setLuminance(byte[] downsampled)
+        {
+            luminance = downsampled;
+        }
+
+        public byte[] getLuminance()
+        {
+            return luminance;
+        }
+    }
+
+    private final Inference inference;
+    private final Consumer consumer;
+
+    //Frames analyzed by the current call of the inference, with their inputs and outputs
+    private final Frame[] batchFrames;
+    private final ByteBuffer[] batchInputs;
+    private final DetectionBuffer[] batchOutputs;
+
+    //Frames not in use
+    private final FrameRingBuffer<Frame> freeFrames;
+
+    //Frames waiting for the inference
+    private final FrameRingBuffer<Frame> inferenceQueue;
+
+    //Frames waiting for tracking and audio messages
+    private final FrameRingBuffer<Frame> trackQueue;
+
+    //Number of frames acquired and not yet returned to the pool
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    //Notified when the last frame in flight returns to the pool
+    private final Object idleLock = new Object();
+
+    private final StageStats preprocessStats = new StageStats("preprocess");
+    private final StageStats inferenceStats = new StageStats("inference");
+    private final StageStats trackStats = new StageStats("track");
+    private final StageStats endToEndStats = new StageStats("end-to-end");
+
+    private final Thread inferenceThread;
+    private final Thread trackThread;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param numFrames     Number of frames that can be in flight at the same time
+     * @param queueCapacity Capacity of the queues between the stages
+     * @param inputFactory  Used to create the input buffers of the network
+     * @param maxDetections Maximum number of detections for each frame
+     */
+    public DetectionPipeline(int numFrames, int queueCapacity, InputFactory inputFactory,
+                             int maxDetections, Inference inference, Consumer consumer)
+    {
+        this(numFrames, queueCapacity, 1, inputFactory, maxDetections, inference, consumer);
+    }
+
+    /**
+     * @param maxBatch Maximum number of frames analyzed by a single call of the inference, used
+     *                 only if it is a BatchInference. The queues can hold a whole batch.
+     */
+    public DetectionPipeline(int numFrames, int queueCapacity, int maxBatch,
+                             InputFactory inputFactory, int maxDetections, Inference inference,
+                             Consumer consumer)
+    {
+        this.inference = inference;
+        this.consumer = consumer;
+
+        if (!(inference instanceof BatchInference))
+            maxBatch = 1;
+        batchFrames = new Frame[maxBatch];
+        batchInputs = new ByteBuffer[maxBatch];
+        batchOutputs = new DetectionBuffer[maxBatch];
+
+        freeFrames = new FrameRingBuffer<>(numFrames);
+        for (int i = 0; i < numFrames; i++)
+            freeFrames.offer(new Frame(inputFactory.createInputBuffer(), maxDetections));
+
+        inferenceQueue = new FrameRingBuffer<>(Math.max(queueCapacity, maxBatch));
+        trackQueue = new FrameRingBuffer<>(Math.max(queueCapacity, maxBatch));
+
+        inferenceThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                inferenceLoop();
+            }
+        }, "detection-infer");
+
+        trackThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                trackLoop();
+            }
+        }, "detection-track");
+
+        inferenceThread.start();
+        trackThread.start();
+    }
+
+    /**
+     * Takes a free frame that the caller fills in the preprocessing stage.
+     *
+     * @return a free frame, or null if all the frames are in use and the camera frame must be
+     * discarded
+     */
+    public Frame acquireFrame()
+    {
+        final Frame frame = freeFrames.poll();
+        if (frame == null)
+        {
+            preprocessStats.recordDrop();
+            return null;
+        }
+        inFlight.incrementAndGet();
+        frame.startNs = System.nanoTime();
+        return frame;
+    }
+
+    /**
+     * Returns to the pool a frame acquired but not submitted (for example because the
+     * preprocessing has been interrupted)
+     */
+    public void releaseFrame(Frame frame)
+    {
+        recycle(frame);
+    }
+
+    /**
+     * Passes a preprocessed frame to the inference stage.
+     */
+    public void submit(Frame frame)
+    {
+        preprocessStats.record(System.nanoTime() - frame.startNs);
+
+        final Frame dropped = inferenceQueue.offer(frame);
+        if (dropped != null)
+        {
+            inferenceStats.recordDrop();
+            recycle(dropped);
+        }
+    }
+
+    /**
+     * @return true if no frame is in flight
+     */
+    public boolean isIdle()
+    {
+        return inFlight.get() == 0;
+    }
+
+    /**
+     * Waits until no frame is in flight.
+     */
+    public void awaitIdle() throws InterruptedException
+    {
+        synchronized (idleLock)
+        {
+            while (inFlight.get() != 0)
+                idleLock.wait();
+        }
+    }
+
+    public int getInferenceQueueDepth()
+    {
+        return inferenceQueue.size();
+    }
+
+    public int getTrackQueueDepth()
+    {
+        return trackQueue.size();
+    }
+
+    public StageStats getPreprocessStats()
+    {
+        return preprocessStats;
+    }
+
+    public StageStats getInferenceStats()
+    {
+        return inferenceStats;
+    }
+
+    public StageStats getTrackStats()
+    {
+        return trackStats;
+    }
+
+    public StageStats getEndToEndStats()
+    {
+        return endToEndStats;
+    }
+
+    public String getStatString()
+    {
+        return preprocessStats + "\n" + inferenceStats + " queue=" + getInferenceQueueDepth() +
+                "\n" + trackStats + " queue=" + getTrackQueueDepth() + "\n" + endToEndStats;
+    }
+
+    /**
+     * Stops the threads of the pipeline. The frames still in the queues are discarded and
+     * returned to the pool.
+     */
+    public void close()
+    {
+        running = false;
+        inferenceQueue.close();
+        trackQueue.close();
+        try
+        {
+            inferenceThread.join();
+            trackThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Log.e(TAG, "Exception!");
+        }
+
+        Frame frame;
+        while ((frame = inferenceQueue.poll()) != null)
+            recycle(frame);
+        while ((frame = trackQueue.poll()) != null)
+            recycle(frame);
+    }
+
+    private void inferenceLoop()
+    {
+        try
+        {
+            Frame frame;
+            while (running && (frame = inferenceQueue.take()) != null)
+            {
+                //The frames already waiting are analyzed together with the first one
+                int count = 0;
+                batchFrames[count++] = frame;
+                while (count < batchFrames.length && (frame = inferenceQueue.poll()) != null)
+                    batchFrames[count++] = frame;
+
+                final long start = Telemetry.begin(inferenceStats);
+                try
+                {
+                    runBatch(count);
+                }
+                catch (RuntimeException e)
+                {
+                    /**
+                     * A failure of the network must not stop the stage: the frames of the batch
+                     * are dropped and returned to the pool, so that the pipeline can become idle
+                     */
+                    Trace.endSection();
+                    Log.e(TAG, "Exception in the inference stage", e);
+                    for (int i = 0; i < count; i++)
+                    {
+                        inferenceStats.recordDrop();
+                        recycle(batchFrames[i]);
+                        batchFrames[i] = null;
+                    }
+                    continue;
+                }
+                Telemetry.end(inferenceStats, start);
+
+                for (int i = 0; i < count; i++)
+                {
+                    final Frame dropped = trackQueue.offer(batchFrames[i]);
+                    batchFrames[i] = null;
+                    if (dropped != null)
+                    {
+                        trackStats.recordDrop();
+                        recycle(dropped);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Log.d(TAG, "Inference stage interrupted");
+        }
+    }
+
+    /**
+     * Executes the network on the first count frames of batchFrames
+     */
+    private void runBatch(int count)
+    {
+        if (count == 1)
+        {
+            inference.runInference(batchFrames[0].input, batchFrames[0].detections);
+            return;
+        }
+        for (int i = 0; i < count; i++)
+        {
+            batchInputs[i] = batchFrames[i].input;
+            batchOutputs[i] = batchFrames[i].detections;
+        }
+        ((BatchInference) inference).runInference(batchInputs, batchOutputs, count);
+    }
+
+    private void trackLoop()
+    {
+        try
+        {
+            Frame frame;
+            while (running && (frame = trackQueue.take()) != null)
+            {
+                final long start = System.nanoTime();
+                Trace.beginSection(trackStats.getName());
+                try
+                {
+                    consumer.onDetections(frame);
+                }
+                catch (RuntimeException e)
+                {
+                    Log.e(TAG, "Exception in the track stage", e);
+                }
+                finally
+                {
+                    Trace.endSection();
+                }
+                final long end = System.nanoTime();
+                trackStats.record(end - start);
+                endToEndStats.record(end - frame.startNs);
+                recycle(frame);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Log.d(TAG, "Track stage interrupted");
+        }
+    }
+
+    private void recycle(Frame frame)
+    {
+        frame.detections.clear();
+        frame.rois.clear();
+        freeFrames.offer(frame);
+        if (inFlight.decrementAndGet() == 0)
+        {
+            synchronized (idleLock)
+            {
+                idleLock.notifyAll();
+            }
+        }
+    }
+}
@@ -1,20 +1,22 @@
 package it.unipd.dei.sproject1819.myeyse;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.RectF;
 import android.media.ImageReader;
-import android.os.SystemClock;
+import android.os.PowerManager;
 import android.util.Log;
 import android.util.Size;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import it.unipd.dei.sproject1819.myeyse.tracking.MultiBoxTracker;
 
@@ -28,27 +30,71 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
     private static final String TF_OD_API_MODEL_FILE = "detect.tflite";
     private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labelmap.txt";
 
+    //Name of the model used when the device is not saving battery
+    private static final String DEFAULT_MODEL = "ssd_mobilenet_v1_300";
+
     // Minimum detection confidence to track a detection.
     private static final float MINIMUM_CONFIDENCE_OBJECT_RECOGNIZED = 0.7f;
 
+    // Maximum number of objects passed to the tracker for each frame.
+    private static final int MAXIMUM_OBJECTS_RECOGNIZED = 10;
+
     /**
      * Reference on TensorFlowLite framework which we start the inference on the cropped bitmap of
      * the current frame
      */
     private TensorFlowObjectDetectionAPIModel detector = null;
 
-    //private long lastProcessingTimeMs;
-    private Bitmap rgbFrameBitmap = null;
+    //Models that can be used by the app, loaded the first time they are selected
+    private DetectorRegistry registry = null;
+
+    //Model to activate as soon as the pipeline is empty, null if no change is requested
+    private volatile String requestedModel = null;
+
+    //Defines if the bg thread is loading (and calibrating, the first time) the requested model
+    private final AtomicBoolean modelLoading = new AtomicBoolean(false);
+
     /**
-     * Bitmap representing the current frame after resizing it to
-     * TF_OD_API_INPUT_SIZE x TF_OD_API_INPUT_SIZE
+     * When the battery saver is turned on or off, the model is changed with the cheapest or the
+     * default one
      */
-    private Bitmap croppedBitmap = null;
+    private final BroadcastReceiver powerSaveReceiver = new BroadcastReceiver()
+    {
+        @Override
+        public void onReceive(Context context, Intent intent)
+        {
+            if (registry != null)
+                requestModel(registry.choose(DEFAULT_MODEL, isPowerSaveMode()));
+        }
+    };
+
+    private boolean powerSaveReceiverRegistered = false;
 
-    private byte[] luminanceCopy;
+    /**
+     * Pipeline that executes, on different threads, the preprocessing, the inference and the
+     * tracking of the frames, so that a frame can be prepared while the previous one is analyzed
+     */
+    private DetectionPipeline pipeline = null;
 
-    //Defines if the network is inference of a frame
-    private boolean bgThreadRun = false;
+    //Number of frames that can be in flight in the pipeline at the same time
+    private static final int PIPELINE_FRAMES = 3;
+
+    //Capacity of the queues between the stages of the pipeline
+    private static final int PIPELINE_QUEUE_CAPACITY = 1;
+
+    /**
+     * Maximum number of frames analyzed by a single run of the network: the frames that wait
+     * while the network is busy, for example after a fast sweep in panoramic mode, are analyzed
+     * together instead of being dropped. The post-processing of the bundled SSD model doesn't
+     * accept batches, so with it the frames of a batch are run one after the other and nothing
+     * is gained in throughput
+     */
+    private static final int PIPELINE_MAX_BATCH = 2;
+
+    //private long lastProcessingTimeMs;
+
+    //Defines if the bg thread is comparing a frame with the start one, in return mode
+    private final AtomicBoolean returnTourRunning = new AtomicBoolean(false);
 
     private long timestamp = 0;
 
@@ -58,58 +104,199 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
      * Matrix used to perform the resize. This is used to resize image
      */
     private Matrix cropToFrameTransform;
+
+    /**
+     * Values of cropToFrameTransform. They are used to sample the model input directly from the
+     * YUV planes of the frame.
+     */
+    private final float[] cropToFrameValues = new float[9];
+
     private Mode newMode = Mode.UNDEFINED;
     //Object that manages the tracking of all recognized objects.
     private MultiBoxTracker tracker;
 
+    /**
+     * Decides, in object detection mode, if a frame must be analyzed by the network or if the
+     * tracker is enough
+     */
+    private final InferenceScheduler scheduler = new InferenceScheduler();
+
+    /**
+     * Steps followed by each frame, shared with FrameReplay. It is created with the pipeline, for
+     * the active model
+     */
+    private FrameProcessor processor = null;
+
+    //Tracker used by the processor. When the tracker changes, the processor and its scheduler
+    //follow it
+    private MultiBoxTracker processorTracker = null;
+
+    //If true the frames of the object detection mode are saved in the external files directory,
+    //so that they can be replayed with FrameReplay
+    private static final boolean RECORD_FRAMES = false;
+
+    private YuvRecording.Writer recorder = null;
+
+    /**
+     * Stage timed by the activity, in addition to the ones of the pipeline and of the processor:
+     * the hand-off of the messages to the speech synthesizer
+     */
+    private static final StageStats SPEECH_STATS = Telemetry.stage("speech");
+
+    //Frames discarded by the bg thread because a previous frame has changed the mode
+    private static final Telemetry.Counter DROP_MODE_CHANGED =
+            Telemetry.counter("pipeline.drop.mode-changed");
+
+    /**
+     * The registry is created only once, so the models already loaded are reused if the preview
+     * size is chosen again. It is needed before the camera is opened, to choose the size of the
+     * frames from the input of the models.
+     */
+    private DetectorRegistry getRegistry()
+    {
+        if (registry == null)
+        {
+            registry = new DetectorRegistry(this);
+            registry.register(new ModelDescriptor(DEFAULT_MODEL, TF_OD_API_MODEL_FILE,
+                    TF_OD_API_LABELS_FILE, TF_OD_API_INPUT_SIZE, TF_OD_API_IS_QUANTIZED,
+                    ModelDescriptor.OutputLayout.SSD_POSTPROCESS));
+        }
+        return registry;
+    }
+
+    @Override
+    protected int getDetectorInputSize()
+    {
+        return getRegistry().getMaxInputSize();
+    }
+
     @Override
     protected void onPreviewSizeChosen(final Size size, final int rotation, final float focalLength)
     {
-        try
-        {
-            detector = TensorFlowObjectDetectionAPIModel.create(
-                    getAssets(),
-                    TF_OD_API_MODEL_FILE,
-                    TF_OD_API_LABELS_FILE,
-                    TF_OD_API_INPUT_SIZE,
-                    TF_OD_API_IS_QUANTIZED);
+        sensorOrientation = rotation - getScreenOrientation();
 
+        /**
+         * The first time a model is loaded the interpreter is also calibrated on it, which takes
+         * seconds: as for the later changes of model, it is loaded by the bg thread and activated
+         * by processImage, that discards the frames until then. A model already loaded (after a
+         * pause) is activated immediately.
+         */
+        final String name = getRegistry().choose(DEFAULT_MODEL, isPowerSaveMode());
+        if (registry.isLoaded(name))
+        {
+            try
+            {
+                switchModel(name);
+            }
+            catch (final IOException e)
+            {
+                Log.e(TAG, "TF-Lite error");
+            }
         }
-        catch (final IOException e)
+        else
+            requestedModel = name;
+
+        if (!powerSaveReceiverRegistered)
         {
-            Log.e(TAG, "TF-Lite error");
+            registerReceiver(powerSaveReceiver,
+                    new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+            powerSaveReceiverRegistered = true;
         }
 
-        sensorOrientation = rotation - getScreenOrientation();
+        //Object for the manage of panoramic mode
+        pm = new PanoramicMode(this, focalLength);
+    }
 
-        /**
-         * We create an empty bitmap and then, using the setPixels method, add a color to each pixel.
-         */
-        rgbFrameBitmap = Bitmap.createBitmap(mRealFrameWidth, mRealFrameHeight,
-                Bitmap.Config.ARGB_8888);
+    /**
+     * Activates a model of the registry: the transformations between frame and model input are
+     * computed for its input size and a new pipeline, with buffers of the right size, is created.
+     * The camera and the tracker are not touched.
+     * <p>
+     * It must be called when no frame is in the pipeline.
+     *
+     * @param name Name of the model in the registry
+     */
+    private void switchModel(String name) throws IOException
+    {
+        detector = registry.select(name);
+
+        //The detections below the threshold are discarded directly by the detector
+        detector.setResultFilter(MINIMUM_CONFIDENCE_OBJECT_RECOGNIZED,
+                MAXIMUM_OBJECTS_RECOGNIZED);
 
-        //We create an empty bitmap and then store the clipped frame
-        croppedBitmap = Bitmap.createBitmap(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE,
-                Bitmap.Config.ARGB_8888);
+        final int inputSize = detector.getInputSize();
 
-        //We get the matrix needed to do the scaling from the frame to a 300x300 resolution
+        //We get the matrix needed to do the scaling from the frame to the input resolution
         frameToCropTransform =
                 ImageUtils.getTransformationMatrix(
                         mRealFrameWidth, mRealFrameHeight,
-                        TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE,
+                        inputSize, inputSize,
                         sensorOrientation, false);
 
         cropToFrameTransform = new Matrix();
 
         /**
-         *  We get the matrix needed to do the scaling from the frame to a
-         *  TF_OD_API_INPUT_SIZE x TF_OD_API_INPUT_SIZE resolution
+         *  We get the matrix needed to do the scaling from a inputSize x inputSize resolution
+         *  to the frame
          */
         frameToCropTransform.invert(cropToFrameTransform);
+        cropToFrameTransform.getValues(cropToFrameValues);
 
-        //Object for the manage of panoramic mode
-        pm = new PanoramicMode(this, mRealFrameWidth, mRealFrameHeight, sensorOrientation,
-                focalLength);
+        createPipeline();
+        Log.d(TAG, "Active model: " + registry.getActiveDescriptor());
+    }
+
+    /**
+     * Requests to change the model. The change is done by processImage as soon as the frames in
+     * the pipeline have been processed, without reopening the camera.
+     *
+     * @param name Name of the model in the registry
+     */
+    protected void requestModel(String name)
+    {
+        if (!name.equals(registry.getActiveName()))
+            requestedModel = name;
+    }
+
+    /**
+     * Loads a model of the registry in the bg thread, without activating it. If the model can't
+     * be loaded the request is discarded.
+     *
+     * @param name Name of the model in the registry
+     */
+    private void loadModel(final String name)
+    {
+        modelLoading.set(true);
+        runInBackground(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    registry.get(name);
+                }
+                catch (final IOException e)
+                {
+                    Log.e(TAG, "Unable to load the model " + name);
+                    if (name.equals(requestedModel))
+                        requestedModel = null;
+                }
+                finally
+                {
+                    modelLoading.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if the battery saver is on, in this case the cheapest model is used
+     */
+    private boolean isPowerSaveMode()
+    {
+        final PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        return powerManager != null && powerManager.isPowerSaveMode();
     }
 
     //Method that manages the return to the initial position
@@ -122,8 +309,11 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
          * If the frame in bg is calculating the histogram of an older frame, it does not process
          * it.
          */
-        if (bgThreadRun == true)
+        if (returnTourRunning.get())
+        {
             readyForNextImage();
+            return;
+        }
 
         /**
          * New mode can only Object detection
@@ -141,7 +331,10 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
             return;
         }
 
-        bgThreadRun = true;
+        returnTourRunning.set(true);
+
+        //The bg thread reads the planes of the frame after the UI thread has released it
+        final CameraFrame cameraFrame = getCameraFrame().retain();
 
         /**
          * I am interested in making the comparison only if the user is around the starting point
@@ -151,16 +344,22 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
             @Override
             public void run()
             {
-                getRgbBytes();
-                if (pm.stopUser(rgbBytes))
+                try
                 {
-                    pm.close(false);
-                    t1.speechMessage(getString(R.string.panoramic_mode_arrived_start_position));
-                    t1.speechMessage(getString(R.string.object_detection_mode_activated));
-                    mode = Mode.MODE_OBJECT_DETECTION;
-                    tracker = new MultiBoxTracker(context, mode);
+                    if (pm.stopUser(cameraFrame))
+                    {
+                        pm.close(false);
+                        t1.speechMessage(getString(R.string.panoramic_mode_arrived_start_position));
+                        t1.speechMessage(getString(R.string.object_detection_mode_activated));
+                        mode = Mode.MODE_OBJECT_DETECTION;
+                        tracker = new MultiBoxTracker(context, mode);
+                    }
                 }
-                bgThreadRun = false;
+                finally
+                {
+                    cameraFrame.release();
+                }
+                returnTourRunning.set(false);
             }
         });
         //UI thread prepare the next frame
@@ -176,22 +375,70 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
         final Context cont = this;
         ++timestamp;
         final long currTimestamp = timestamp;
-        final byte[] originalLuminance = getLuminance();
+        final CameraFrame cameraFrame = getCameraFrame();
 
         /**
-         * If the mode has changed and the bg thread has finished, I change the mode safely and
-         * without the UI thread having to wait
+         * The pipeline is closed in onPause while the camera can still deliver a frame: from here
+         * on this frame uses its own reference
          */
-        if ((newMode != Mode.UNDEFINED) && (bgThreadRun == false))
+        final DetectionPipeline pipeline = this.pipeline;
+
+        /**
+         * Change of model: no new frame enters the pipeline until the old model has finished,
+         * then the new model is activated. The first model is activated in the same way, when
+         * there is no pipeline yet
+         */
+        final String model = requestedModel;
+        if (model != null)
         {
-            if (newMode == Mode.MODE_OBJECT_DETECTION)
+            if (modelLoading.get())
+            {
+                readyForNextImage();
+                return;
+            }
+
+            /**
+             * Loading a model the first time also calibrates the interpreter on it, which takes
+             * seconds: it is done by the bg thread, and the frames are discarded until it ends
+             */
+            if (!registry.isLoaded(model))
+            {
+                loadModel(model);
+                readyForNextImage();
+                return;
+            }
+
+            if (pipeline == null || pipeline.isIdle())
             {
-                if (pm.isReturnMode() && bgThreadRun == true)
+                requestedModel = null;
+                try
                 {
-                    //I can't change mode
-                    readyForNextImage();
-                    return;
+                    switchModel(model);
                 }
+                catch (final IOException e)
+                {
+                    Log.e(TAG, "Unable to load the model " + model);
+                }
+            }
+            readyForNextImage();
+            return;
+        }
+
+        //The frame is discarded if the pipeline is gone
+        if (pipeline == null)
+        {
+            readyForNextImage();
+            return;
+        }
+
+        /**
+         * If the mode has changed and no frame is in the pipeline, I change the mode safely and
+         * without the UI thread having to wait
+         */
+        if ((newMode != Mode.UNDEFINED) && pipeline.isIdle())
+        {
+            if (newMode == Mode.MODE_OBJECT_DETECTION)
+            {
                 //Change mode
                 mode = Mode.MODE_OBJECT_DETECTION;
                 if (pm.isActive())
@@ -213,179 +460,304 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
         }
         else if (newMode != Mode.UNDEFINED)
         {
-            //This means that the bg thread has not finished
+            //This means that the pipeline has not finished
             readyForNextImage();
             return;
         }
 
+        final FrameProcessor processor = this.processor;
+        if (tracker != processorTracker)
+        {
+            processor.setTracker(FrameProcessorAdapters.forMultiBoxTracker(tracker,
+                    detector.getLabels(), cropToFrameTransform, mTrackerDownsample));
+            processorTracker = tracker;
+        }
+
         /**
          * We first update the tracking information regard tracking object(this used only current
-         * frame. This control is always true as if in return mode, you never pass this way
+         * frame. This control is always true as if in return mode, you never pass this way.
+         * Objects that have moved to another sector are announced (only in object detection mode)
          */
         if (!pm.isReturnMode())
         {
-            tracker.onFrame(
-                    mRealFrameWidth,
-                    mRealFrameHeight,
-                    getLuminanceStride(),
-                    sensorOrientation,
-                    originalLuminance,
-                    timestamp);
+            final List<InfoSpeech> moved = processor.onFrame(cameraFrame, currTimestamp);
+            if (moved != null)
+            {
+                final long speechStart = Telemetry.begin(SPEECH_STATS);
+                for (int i = 0; i < moved.size(); i++)
+                    t1.speechMessage(moved.get(i).getmMessToSpeech());
+                Telemetry.end(SPEECH_STATS, speechStart);
+            }
         }
 
-        if (bgThreadRun)
+        if (RECORD_FRAMES && mode == Mode.MODE_OBJECT_DETECTION)
+            recordFrame(cameraFrame);
+
+        /**
+         * The scheduler decides, in object detection mode, if the network must analyze the frame.
+         * If it doesn't, or if all the frames of the pipeline are in use, the frame is discarded
+         */
+        final DetectionPipeline.Frame frame = processor.acquireFrame(pipeline, cameraFrame,
+                currTimestamp, mode == Mode.MODE_OBJECT_DETECTION);
+        if (frame == null)
         {
             readyForNextImage();
             return;
         }
+        final Mode frameMode = mode;
 
-        //We use a so-called "worker thread" to perform frame analysis
+        /**
+         * The bg thread is the first stage of the pipeline: it converts and preprocesses the
+         * frame, then releases the camera image and passes the frame to the inference stage.
+         * It holds its own reference to the camera frame, the one of the UI thread is released
+         * as soon as the task is posted.
+         */
+        cameraFrame.retain();
         runInBackground(new Runnable()
         {
             @Override
             public void run()
             {
-                bgThreadRun = true;
-
-                int[] rgb = getRgbBytes();
-
-                if (mode == Mode.MODE_PANORAMIC)
+                boolean ready = false;
+                try
                 {
-                    if (pm.getNumFrameAnalyzed() == 0)
-                        t1.speechMessage(pm.getOrientation());
-                    /**
-                     * If the mode is panoramic, we may have to use the rgb vector just
-                     * calculate
-                     */
-
-                    /**
-                     * In the case in which the user has arrived in a neighborhood of
-                     * the initial position, we calculate the frame histogram.
-                     * If current frame is considered similar at the
-                     * starting frame, we can conclude that the panoramic mode is
-                     * complete
-                     *
-                     * It is possible to note that, with this code organization,
-                     * whatever the strategy adopted to estimate the similarity between
-                     * frames, the code here is independent to it
-                     *
-                     * However, if the neighborhood of the initial position is exceeded
-                     * without the recognition of a frame similar to the stop one,
-                     * however we block the user.
-                     *
-                     */
-                    if (pm.stopUser(rgbBytes))
-                    {
-                        /**
-                         * Even if we stopped the user, we cannot immediately switch to object
-                         * detection mode because the user is still listening to the results of
-                         * the rotation.
-                         *
-                         * For this reason he expects, by pressing double tap, to go into object
-                         * detection mode.
-                         *
-                         * For this reason, we switch to object detection mode only when the
-                         * reproduction of the results ends
-                         *
-                         */
-                        mode = Mode.UNDEFINED;
-                        endModePanoramic();
-                        bgThreadRun = false;
-                        readyForNextImage();
-                        return;
-                    }
-
+                    ready = preprocess(processor, cameraFrame, frame, frameMode);
                 }
-
-                rgbFrameBitmap.setPixels(rgb, 0, mRealFrameWidth, 0, 0, mRealFrameWidth,
-                        mRealFrameHeight);
-
-                if (luminanceCopy == null)
+                catch (RuntimeException e)
                 {
-                    luminanceCopy = new byte[originalLuminance.length];
+                    Log.e(TAG, "Exception in the preprocessing", e);
                 }
-                System.arraycopy(originalLuminance, 0, luminanceCopy, 0,
-                        originalLuminance.length);
-
-                readyForNextImage();
-
-                /**
-                 * An empty bitmap is passed to the canvas. We create the cropped bitmap using
-                 * drawBitmpa
-                 */
-                Canvas canvas = new Canvas(croppedBitmap);
-                canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
-
-                //Return list of message that may send to user
-                List<InfoSpeech> s = procImage(currTimestamp);
-
-                //We reproduce the audio messages
-                if ((s != null) && (s.size() > 0) && mode == Mode.MODE_OBJECT_DETECTION)
+                finally
                 {
-                    for (int i = 0; i < s.size(); i++)
-                        t1.speechMessage(s.get(i).getmMessToSpeech());
+                    cameraFrame.release();
                 }
 
-                //Processing of the current frame is finished, sdd can inference a new frame
-                bgThreadRun = false;
+                //A frame that doesn't reach the network returns its slot to the pool
+                if (ready)
+                    pipeline.submit(frame);
+                else
+                    pipeline.releaseFrame(frame);
             }
-
         });
+        readyForNextImage();
     }
 
     /**
-     * Method in which inference is made
+     * First stage of the pipeline, executed by the bg thread.
      *
-     * @param currTimestamp Current time stamp
-     * @return List of audio messages
+     * @param processor   Processor of the pipeline from which the frame has been acquired
+     * @param cameraFrame Camera frame, retained by the caller
+     * @param frame       Frame of the pipeline that receives the input of the network
+     * @param frameMode   Mode in which the camera frame has been tracked
+     * @return true if the frame must be passed to the network, false if it must be discarded
      */
-    private List<InfoSpeech> procImage(long currTimestamp)
+    private boolean preprocess(final FrameProcessor processor, final CameraFrame cameraFrame,
+                               final DetectionPipeline.Frame frame, final Mode frameMode)
     {
         /**
-         * SSD model makes the inference on the current clipped frame and returns a list
-         * of recognized objects
+         * More frames can be in flight: if a previous one has changed the mode, the ones that
+         * follow it are discarded
          */
-        final List<Recognition> results = detector.recognizeImage(croppedBitmap);
-        /**
-         * Store only object with confidence a >= MINIMUM_CONFIDENCE_TF_OD_API
-         * and localized
-         */
-        final List<Recognition> mappedRecognitions = new LinkedList<Recognition>();
-
-        for (final Recognition result : results)
+        if (mode != frameMode)
         {
-            /**
-             * Get reference of the four coordinate of the rectangle that surrounds
-             * the (current) object recognized
-             */
-            final RectF location = result.getLocation();
+            DROP_MODE_CHANGED.increment();
+            return false;
+        }
 
+        if (mode == Mode.MODE_PANORAMIC)
+        {
+            if (pm.getNumFrameAnalyzed() == 0)
+                t1.speechMessage(pm.getOrientation());
             /**
-             * Check if location is defined and if have confidence greater than
-             * the minimum threshold
+             * In the case in which the user has arrived in a neighborhood of
+             * the initial position, we calculate the frame histogram.
+             * If current frame is considered similar at the
+             * starting frame, we can conclude that the panoramic mode is
+             * complete
+             *
+             * It is possible to note that, with this code organization,
+             * whatever the strategy adopted to estimate the similarity between
+             * frames, the code here is independent to it
+             *
+             * However, if the neighborhood of the initial position is exceeded
+             * without the recognition of a frame similar to the stop one,
+             * however we block the user.
+             *
              */
-            if (location != null && result.getConfidence() >= MINIMUM_CONFIDENCE_OBJECT_RECOGNIZED)
+            if (pm.stopUser(cameraFrame))
             {
                 /**
-                 * Position coordinates are relative to the clipped frame, so we must
-                 * change them for the original frame
+                 * Even if we stopped the user, we cannot immediately switch to object
+                 * detection mode because the user is still listening to the results of
+                 * the rotation.
+                 *
+                 * For this reason he expects, by pressing double tap, to go into object
+                 * detection mode.
+                 *
+                 * For this reason, we switch to object detection mode only when the
+                 * reproduction of the results ends
+                 *
                  */
-                cropToFrameTransform.mapRect(location);
+                mode = Mode.UNDEFINED;
+                endModePanoramic();
+                return false;
+            }
 
-                //Set coordinate modify
-                result.setLocation(location);
+        }
 
-                //Add object recognize to list
-                mappedRecognitions.add(result);
-            }
+        processor.preprocess(cameraFrame, frame);
+        return true;
+    }
+
+    /**
+     * Creates the pipeline. The inference stage uses the detector, the last stage tracks the
+     * recognized objects and reproduces the audio messages.
+     */
+    private void createPipeline()
+    {
+        if (pipeline != null)
+            pipeline.close();
+
+        final FrameProcessor processor = new FrameProcessor(
+                FrameProcessorAdapters.forModel(detector), null, cropToFrameValues,
+                sensorOrientation);
+        processor.setScheduler(scheduler);
+
+        //The tracker is given to the new processor by the next frame
+        this.processor = processor;
+        processorTracker = null;
+
+        pipeline = new DetectionPipeline(PIPELINE_FRAMES, PIPELINE_QUEUE_CAPACITY,
+                PIPELINE_MAX_BATCH,
+                new DetectionPipeline.InputFactory()
+                {
+                    @Override
+                    public ByteBuffer createInputBuffer()
+                    {
+                        return detector.createInputBuffer();
+                    }
+                },
+                detector.getMaxDetections(),
+                new DetectionPipeline.BatchInference()
+                {
+                    @Override
+                    public void runInference(ByteBuffer input, DetectionBuffer out)
+                    {
+                        detector.runInference(input, out);
+                    }
+
+                    @Override
+                    public void runInference(ByteBuffer[] inputs, DetectionBuffer[] outs,
+                                             int count)
+                    {
+                        detector.runInference(inputs, outs, count);
+                    }
+                },
+                new DetectionPipeline.Consumer()
+                {
+                    @Override
+                    public void onDetections(DetectionPipeline.Frame frame)
+                    {
+                        //Return list of message that may send to user
+                        List<InfoSpeech> s = processor.onDetections(frame);
+
+                        //We reproduce the audio messages
+                        if ((s != null) && (s.size() > 0) && mode == Mode.MODE_OBJECT_DETECTION)
+                        {
+                            final long speechStart = Telemetry.begin(SPEECH_STATS);
+                            for (int i = 0; i < s.size(); i++)
+                                t1.speechMessage(s.get(i).getmMessToSpeech());
+                            Telemetry.end(SPEECH_STATS, speechStart);
+                        }
+                    }
+                });
+
+        //The statistics of the new pipeline replace the ones of the previous pipeline
+        Telemetry.register(pipeline.getPreprocessStats());
+        Telemetry.register(pipeline.getInferenceStats());
+        Telemetry.register(pipeline.getTrackStats());
+        Telemetry.register(pipeline.getEndToEndStats());
+    }
+
+    /**
+     * Appends the camera frame to the recording, with the timestamp of the camera in nanoseconds so
+     * that the replay can reproduce the frame rate.
+     */
+    private void recordFrame(final CameraFrame cameraFrame)
+    {
+        try
+        {
+            if (recorder == null)
+                recorder = new YuvRecording.Writer(new File(getExternalFilesDir(null),
+                        "replay-" + System.currentTimeMillis() + ".yuv"));
+
+            recorder.write(cameraFrame.timestamp, mRealFrameWidth,
+                    mRealFrameHeight, cameraFrame.yRowStride, cameraFrame.uvRowStride,
+                    cameraFrame.uvPixelStride, cameraFrame.getY(), cameraFrame.getU(),
+                    cameraFrame.getV());
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "Unable to record the frame", e);
+            closeRecorder();
         }
+    }
 
+    private void closeRecorder()
+    {
+        if (recorder == null)
+            return;
+        try
+        {
+            Log.d(TAG, "Recorded " + recorder.getNumFrames() + " frames");
+            recorder.close();
+        }
+        catch (IOException e)
+        {
+            Log.e(TAG, "Exception!");
+        }
+        recorder = null;
+    }
+
+    @Override
+    protected void onPause()
+    {
         /**
-         * Pass all the objects that we think are likely to be present in the photo, current frame
-         * and the timestamp
+         * The camera is closed and the bg thread has run its last tasks only when the pause of
+         * CameraActivity returns: the pipeline and the recorder they use are released after it
          */
-        List<InfoSpeech> s = tracker.trackResults(mappedRecognitions, luminanceCopy, currTimestamp);
-        return s;
+        super.onPause();
+
+        //The model is chosen again when the camera is reopened
+        requestedModel = null;
+        closeRecorder();
+        if (pipeline != null)
+        {
+            Log.d(TAG, pipeline.getStatString());
+            Log.d(TAG, scheduler.getStatString());
+            Log.d(TAG, Telemetry.toJson());
+            pipeline.close();
+            pipeline = null;
+        }
+        if (powerSaveReceiverRegistered)
+        {
+            unregisterReceiver(powerSaveReceiver);
+            powerSaveReceiverRegistered = false;
+        }
+    }
+
+    /**
+     * The models are released only here, so that they stay loaded across a pause
+     */
+    @Override
+    protected void onDestroy()
+    {
+        if (registry != null)
+        {
+            registry.close();
+            registry = null;
+        }
+        super.onDestroy();
     }
 
     /**
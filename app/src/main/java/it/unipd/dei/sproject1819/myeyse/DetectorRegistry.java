@@ -0,0 +1,224 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collection of the detection models available in the app, identified by name.
+ * <p>
+ * A model is loaded (memory-mapped and given to an interpreter) only the first time it is used,
+ * then it is kept in memory, so switching between models that have already been used costs
+ * only the creation of the pipeline buffers. The registry also remembers the active model.
+ */
+public class DetectorRegistry
+{
+    private static final String TAG = "DetectorRegistry";
+
+    /**
+     * Creates the detector of a model. It is called at most once per model.
+     */
+    public interface Loader
+    {
+        TensorFlowObjectDetectionAPIModel load(ModelDescriptor descriptor) throws IOException;
+    }
+
+    //Registered models, in order of registration
+    private final Map<String, ModelDescriptor> descriptors = new LinkedHashMap<>();
+
+    //Models already loaded
+    private final Map<String, TensorFlowObjectDetectionAPIModel> detectors = new HashMap<>();
+
+    private final Loader loader;
+
+    /**
+     * Held while a model is loaded, so that a model is never loaded twice. The monitor of the
+     * registry is held only to read and update the maps: loading and calibrating a model takes
+     * seconds, during which the UI thread can still query the registry.
+     */
+    private final Object loadLock = new Object();
+
+    //Name of the active model, null if no model has been selected
+    private String activeName = null;
+
+    public DetectorRegistry(Loader loader)
+    {
+        this.loader = loader;
+    }
+
+    /**
+     * Creates a registry whose models are loaded from the assets, with the interpreter
+     * configuration calibrated for each model on this device.
+     */
+    public DetectorRegistry(final Context context)
+    {
+        this(new Loader()
+        {
+            @Override
+            public TensorFlowObjectDetectionAPIModel load(ModelDescriptor descriptor)
+                    throws IOException
+            {
+                final InterpreterConfig config = InterpreterTuner.getOrCalibrate(context,
+                        context.getAssets(), descriptor.getModelFile(),
+                        descriptor.getInputSize(), descriptor.isQuantized());
+                return TensorFlowObjectDetectionAPIModel.create(context.getAssets(), descriptor,
+                        config);
+            }
+        });
+    }
+
+    /**
+     * Adds a model. The model is not loaded until it is selected.
+     */
+    public synchronized void register(ModelDescriptor descriptor)
+    {
+        if (descriptors.containsKey(descriptor.getName()))
+            throw new IllegalArgumentException("Model already registered: " + descriptor.getName());
+        descriptors.put(descriptor.getName(), descriptor);
+    }
+
+    public synchronized ModelDescriptor getDescriptor(String name)
+    {
+        return descriptors.get(name);
+    }
+
+    public synchronized List<ModelDescriptor> getDescriptors()
+    {
+        return new ArrayList<>(descriptors.values());
+    }
+
+    /**
+     * @return the largest input size among the registered models, or 0 if there are none
+     */
+    public synchronized int getMaxInputSize()
+    {
+        int max = 0;
+        for (ModelDescriptor descriptor : descriptors.values())
+            max = Math.max(max, descriptor.getInputSize());
+        return max;
+    }
+
+    /**
+     * @return the detector of the model, loaded now if it is the first request
+     */
+    public TensorFlowObjectDetectionAPIModel get(String name) throws IOException
+    {
+        TensorFlowObjectDetectionAPIModel detector = getLoaded(name);
+        if (detector != null)
+            return detector;
+
+        synchronized (loadLock)
+        {
+            //Another thread can have loaded the model while this one was waiting
+            detector = getLoaded(name);
+            if (detector != null)
+                return detector;
+
+            final ModelDescriptor descriptor = getDescriptor(name);
+            Log.d(TAG, "Loading " + descriptor);
+            detector = loader.load(descriptor);
+            synchronized (this)
+            {
+                detectors.put(name, detector);
+            }
+            return detector;
+        }
+    }
+
+    /**
+     * @return the detector of the model if it has already been loaded, null otherwise
+     */
+    private synchronized TensorFlowObjectDetectionAPIModel getLoaded(String name)
+    {
+        if (!descriptors.containsKey(name))
+            throw new IllegalArgumentException("Unknown model: " + name);
+        return detectors.get(name);
+    }
+
+    public synchronized boolean isLoaded(String name)
+    {
+        return detectors.containsKey(name);
+    }
+
+    /**
+     * Makes a model the active one.
+     *
+     * @return the detector of the model
+     */
+    public TensorFlowObjectDetectionAPIModel select(String name) throws IOException
+    {
+        final TensorFlowObjectDetectionAPIModel detector = get(name);
+        synchronized (this)
+        {
+            activeName = name;
+        }
+        return detector;
+    }
+
+    public synchronized String getActiveName()
+    {
+        return activeName;
+    }
+
+    public synchronized ModelDescriptor getActiveDescriptor()
+    {
+        return activeName == null ? null : descriptors.get(activeName);
+    }
+
+    /**
+     * Chooses the model to use given the state of the device.
+     *
+     * @param preferred Name of the model used in normal conditions
+     * @param lowPower  True if the device is saving battery or is too hot
+     * @return the name of the model to use
+     */
+    public synchronized String choose(String preferred, boolean lowPower)
+    {
+        return choose(descriptors.values(), preferred, lowPower);
+    }
+
+    /**
+     * In normal conditions the preferred model is used, otherwise the one with the lowest cost.
+     */
+    static String choose(Collection<ModelDescriptor> candidates, String preferred,
+                         boolean lowPower)
+    {
+        if (!lowPower)
+            return preferred;
+
+        ModelDescriptor cheapest = null;
+        for (ModelDescriptor descriptor : candidates)
+        {
+            if (cheapest == null || descriptor.getRelativeCost() < cheapest.getRelativeCost())
+                cheapest = descriptor;
+        }
+        return cheapest == null ? preferred : cheapest.getName();
+    }
+
+    /**
+     * Releases the interpreters of all the loaded models. It waits for the model being loaded,
+     * if any, so that its interpreter is released too.
+     */
+    public void close()
+    {
+        synchronized (loadLock)
+        {
+            closeDetectors();
+        }
+    }
+
+    private synchronized void closeDetectors()
+    {
+        for (TensorFlowObjectDetectionAPIModel detector : detectors.values())
+            detector.close();
+        detectors.clear();
+        activeName = null;
+    }
+}
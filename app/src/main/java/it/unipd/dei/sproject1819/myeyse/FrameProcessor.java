@@ -0,0 +1,257 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Steps followed by each camera frame in the detection modes, shared by DetectorActivity and by
+ * FrameReplay, so that a replay goes exactly through the code executed on the device:
+ * <ol>
+ * <li>onFrame: the tracker is updated with the frame, and the objects that have moved to another
+ * sector are returned;</li>
+ * <li>acquireFrame: the inference scheduler decides if the network has to run, on the whole
+ * frame or only on the regions of the objects tracked badly, and a frame of the pipeline is
+ * taken for it;</li>
+ * <li>preprocess: the input of the network is sampled from the YUV planes and the tracker keeps
+ * what it needs of the camera frame;</li>
+ * <li>onDetections: the detections of the network are passed to the tracker, that returns the
+ * audio messages.</li>
+ * </ol>
+ * The detector and the tracker are behind small interfaces, so this class doesn't depend on the
+ * TF-Lite runtime and on the native tracker: FrameProcessorAdapters implements them on the
+ * components of the app, a host test can pass implementations of its own.
+ */
+public class FrameProcessor
+{
+    //Conversion of the frame in the input of the network
+    private static final StageStats CONVERT_STATS = Telemetry.stage("convert");
+
+    //Frames not analyzed by the network because the tracker is enough
+    private static final Telemetry.Counter SKIPPED_BY_SCHEDULER =
+            Telemetry.counter("scheduler.skip");
+
+    /**
+     * Preprocessing and inference of a detection model.
+     */
+    public interface Detector extends DetectionPipeline.InputFactory, DetectionPipeline.Inference
+    {
+        int getInputSize();
+
+        int getMaxDetections();
+
+        /**
+         * Fills target with the whole frame, sampled with cropToFrame (values of a Matrix).
+         */
+        void preprocess(CameraFrame frame, float[] cropToFrame, ByteBuffer target);
+
+        /**
+         * Fills target with the regions of the frame placed in rois.
+         */
+        void preprocessRois(CameraFrame frame, RoiMosaic rois, ByteBuffer target);
+    }
+
+    /**
+     * Tracking of the objects and generation of the audio messages.
+     */
+    public interface Tracker
+    {
+        /**
+         * Updates the tracked objects with a new frame. Called for every frame, before the
+         * scheduler.
+         */
+        void onFrame(CameraFrame frame, long timestamp, int sensorOrientation);
+
+        /**
+         * @return the audio messages of the objects that have moved to another sector in the last
+         * frame, possibly null
+         */
+        List<InfoSpeech> updateSectors();
+
+        float getGlobalMotion();
+
+        float getMinCorrelation();
+
+        int getTrackedBoxes(float[] boxes, int maxBoxes, float priorityCorrelation);
+
+        /**
+         * Keeps in the frame of the pipeline what the tracker needs of the camera frame to
+         * register the objects detected in it, as the camera frame is released before the
+         * detections arrive.
+         */
+        void keepFrame(CameraFrame cameraFrame, DetectionPipeline.Frame frame);
+
+        /**
+         * Called by the last stage of the pipeline with the detections of the network, in input
+         * coordinates (or in mosaic coordinates if frame.rois is not empty).
+         *
+         * @return audio messages, possibly null
+         */
+        List<InfoSpeech> onDetections(DetectionPipeline.Frame frame);
+    }
+
+    private final Detector detector;
+    private final float[] cropToFrame;
+    private final int sensorOrientation;
+
+    //Replaced when the mode changes; read by the stages of the pipeline
+    private volatile Tracker tracker;
+
+    //Null if every frame is given to the network
+    private InferenceScheduler scheduler = null;
+
+    //Number of frames not given to the network by decision of the scheduler
+    private int numSkipped;
+
+    private final float[] trackedBoxes = new float[RoiMosaic.MAX_ROIS * DetectionBuffer.BOX_STEP];
+
+    /**
+     * @param cropToFrame       Values of the matrix that maps the model input in the frame
+     * @param sensorOrientation Rotation applied to the frame to obtain the model input
+     */
+    public FrameProcessor(Detector detector, Tracker tracker, float[] cropToFrame,
+                          int sensorOrientation)
+    {
+        this.detector = detector;
+        this.tracker = tracker;
+        this.cropToFrame = cropToFrame;
+        this.sensorOrientation = sensorOrientation;
+    }
+
+    /**
+     * Replaces the tracker. The scheduler, if any, starts again: its state refers to the objects
+     * of the previous tracker.
+     */
+    public void setTracker(Tracker tracker)
+    {
+        this.tracker = tracker;
+        if (scheduler != null)
+            scheduler.reset();
+    }
+
+    public void setScheduler(InferenceScheduler scheduler)
+    {
+        this.scheduler = scheduler;
+    }
+
+    public int getNumSkipped()
+    {
+        return numSkipped;
+    }
+
+    /**
+     * Updates the tracking information with the frame. This is done for every frame, regardless
+     * of whether the frame is then passed to the network.
+     *
+     * @return the audio messages of the objects that have moved to another sector, possibly null
+     */
+    public List<InfoSpeech> onFrame(CameraFrame cameraFrame, long timestamp)
+    {
+        tracker.onFrame(cameraFrame, timestamp, sensorOrientation);
+
+        /**
+         * Between two detections the positions just updated by the tracker are enough to know if
+         * an object has moved to another sector, so it is announced without waiting for the
+         * network
+         */
+        return tracker.updateSectors();
+    }
+
+    /**
+     * Takes a frame of the pipeline for the camera frame, if the network has to analyze it.
+     *
+     * @param scheduled If true the scheduler decides whether the network runs (object detection
+     *                  mode), otherwise every frame is analyzed
+     * @return the frame of the pipeline, or null if the camera frame has been skipped by the
+     * scheduler or all the frames of the pipeline are in use
+     */
+    public DetectionPipeline.Frame acquireFrame(DetectionPipeline pipeline,
+                                                CameraFrame cameraFrame, long timestamp,
+                                                boolean scheduled)
+    {
+        /**
+         * In object detection mode the network is run only if the scene is changed or some object
+         * is tracked badly. Otherwise the tracking information just updated is enough and the
+         * frame is discarded.
+         */
+        scheduled &= scheduler != null;
+        InferenceScheduler.Decision decision = InferenceScheduler.Decision.RUN;
+        if (scheduled)
+        {
+            decision = scheduler.decide(cameraFrame.getY(), cameraFrame.width,
+                    cameraFrame.height, cameraFrame.yRowStride, tracker.getGlobalMotion(),
+                    tracker.getMinCorrelation());
+            if (decision == InferenceScheduler.Decision.SKIP)
+            {
+                numSkipped++;
+                SKIPPED_BY_SCHEDULER.increment();
+                return null;
+            }
+        }
+
+        /**
+         * If all the frames of the pipeline are in use, the current frame is discarded (but at
+         * least the tracking information has been updated)
+         */
+        final DetectionPipeline.Frame frame = pipeline.acquireFrame();
+        if (frame == null)
+            return null;
+
+        /**
+         * If the scene is steady but some object is tracked badly, only the regions around the
+         * tracked objects are analyzed, at full resolution, in a single inference
+         */
+        if (decision == InferenceScheduler.Decision.REDETECT)
+        {
+            final int numBoxes = tracker.getTrackedBoxes(trackedBoxes, RoiMosaic.MAX_ROIS,
+                    InferenceScheduler.DEFAULT_MIN_CORRELATION);
+            frame.rois.layout(trackedBoxes, numBoxes, RoiMosaic.DEFAULT_MARGIN,
+                    cameraFrame.width, cameraFrame.height, detector.getInputSize(),
+                    sensorOrientation);
+        }
+
+        if (scheduled)
+        {
+            if (frame.rois.getCount() > 0)
+                scheduler.onRedetectStarted();
+            else
+                scheduler.onInferenceStarted();
+        }
+        frame.timestamp = timestamp;
+        frame.sensorPosition = cameraFrame.sensorPosition;
+        return frame;
+    }
+
+    /**
+     * Samples the input of the network directly from the YUV planes: the frame is cropped,
+     * rotated, resized and converted in a single pass. It can be executed by another thread
+     * than the previous steps, before the camera frame is released.
+     */
+    public void preprocess(CameraFrame cameraFrame, DetectionPipeline.Frame frame)
+    {
+        final long start = Telemetry.begin(CONVERT_STATS);
+        try
+        {
+            if (frame.rois.getCount() > 0)
+                detector.preprocessRois(cameraFrame, frame.rois, frame.input);
+            else
+                detector.preprocess(cameraFrame, cropToFrame, frame.input);
+
+            //The tracker needs the luminance after the camera image has been closed
+            tracker.keepFrame(cameraFrame, frame);
+        }
+        finally
+        {
+            Telemetry.end(CONVERT_STATS, start);
+        }
+    }
+
+    /**
+     * Last stage of the pipeline: the results of the network are passed to the tracker.
+     *
+     * @return the audio messages, possibly null
+     */
+    public List<InfoSpeech> onDetections(DetectionPipeline.Frame frame)
+    {
+        return tracker.onDetections(frame);
+    }
+}
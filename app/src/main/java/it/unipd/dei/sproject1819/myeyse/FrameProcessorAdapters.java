@@ -0,0 +1,140 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.graphics.Matrix;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import it.unipd.dei.sproject1819.myeyse.tracking.MultiBoxTracker;
+
+/**
+ * Implementations of the interfaces of FrameProcessor on the components of the app, used by
+ * DetectorActivity and by the replays on a device. They need the TF-Lite runtime and the native
+ * tracking library; FrameProcessor and FrameReplay themselves don't depend on them.
+ */
+public class FrameProcessorAdapters
+{
+    private FrameProcessorAdapters()
+    {
+    }
+
+    /**
+     * Wraps a model loaded from the assets.
+     */
+    public static FrameProcessor.Detector forModel(final TensorFlowObjectDetectionAPIModel model)
+    {
+        return new FrameProcessor.Detector()
+        {
+            @Override
+            public ByteBuffer createInputBuffer()
+            {
+                return model.createInputBuffer();
+            }
+
+            @Override
+            public void runInference(ByteBuffer input, DetectionBuffer out)
+            {
+                model.runInference(input, out);
+            }
+
+            @Override
+            public int getInputSize()
+            {
+                return model.getInputSize();
+            }
+
+            @Override
+            public int getMaxDetections()
+            {
+                return model.getMaxDetections();
+            }
+
+            @Override
+            public void preprocess(CameraFrame frame, float[] cropToFrame, ByteBuffer target)
+            {
+                model.preprocessYUV420(frame.getY(), frame.getU(), frame.getV(), frame.width,
+                        frame.height, frame.yRowStride, frame.uvRowStride, frame.uvPixelStride,
+                        cropToFrame, target);
+            }
+
+            @Override
+            public void preprocessRois(CameraFrame frame, RoiMosaic rois, ByteBuffer target)
+            {
+                model.preprocessRoisYUV420(frame.getY(), frame.getU(), frame.getV(), frame.width,
+                        frame.height, frame.yRowStride, frame.uvRowStride, frame.uvPixelStride,
+                        rois, target);
+            }
+        };
+    }
+
+    /**
+     * Wraps the tracker used by DetectorActivity, with the native optical flow.
+     *
+     * @param labels               Labels of the model that produces the detections
+     * @param cropToFrameTransform Transformation from the model input to the frame
+     * @param downsampleFactor     Factor by which the tracker downsamples the frames, the one
+     *                             chosen with the capture stream
+     */
+    public static FrameProcessor.Tracker forMultiBoxTracker(final MultiBoxTracker multiBoxTracker,
+                                                         final String[] labels,
+                                                         final Matrix cropToFrameTransform,
+                                                         final int downsampleFactor)
+    {
+        return new FrameProcessor.Tracker()
+        {
+            @Override
+            public void onFrame(CameraFrame frame, long timestamp, int sensorOrientation)
+            {
+                multiBoxTracker.onFrame(frame.width, frame.height, frame.yRowStride,
+                        downsampleFactor, sensorOrientation, frame.getY(), timestamp);
+            }
+
+            @Override
+            public List<InfoSpeech> updateSectors()
+            {
+                return multiBoxTracker.updateSectors();
+            }
+
+            @Override
+            public float getGlobalMotion()
+            {
+                return multiBoxTracker.getGlobalMotion();
+            }
+
+            @Override
+            public float getMinCorrelation()
+            {
+                return multiBoxTracker.getMinCorrelation();
+            }
+
+            @Override
+            public int getTrackedBoxes(float[] boxes, int maxBoxes, float priorityCorrelation)
+            {
+                return multiBoxTracker.getTrackedBoxes(boxes, maxBoxes, priorityCorrelation);
+            }
+
+            @Override
+            public void keepFrame(CameraFrame cameraFrame, DetectionPipeline.Frame frame)
+            {
+                frame.setLuminance(multiBoxTracker.downsampleFrame(cameraFrame.getY(),
+                        frame.getLuminance()));
+            }
+
+            @Override
+            public List<InfoSpeech> onDetections(DetectionPipeline.Frame frame)
+            {
+                /**
+                 * In ROI mode the detections are brought back in the frame tile by tile,
+                 * otherwise with cropToFrameTransform. The detector has already discarded the
+                 * objects with low confidence, so all the detections are passed to the tracker.
+                 */
+                final boolean roiMode = frame.rois.getCount() > 0;
+                if (roiMode)
+                    frame.rois.mapToFrame(frame.detections);
+                return multiBoxTracker.trackResults(
+                        frame.detections.toRecognitions(roiMode ? null : cropToFrameTransform),
+                        labels, frame.getLuminance(), frame.timestamp, frame.sensorPosition);
+            }
+        };
+    }
+}
@@ -0,0 +1,324 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a YuvRecording through the same path followed by the camera frames in
+ * DetectorActivity: each frame is wrapped in a CameraFrame and goes through the steps of
+ * FrameProcessor (tracker update, inference scheduler, preprocessing directly from the YUV
+ * planes) and the DetectionPipeline with the inference and the tracking stages.
+ * <p>
+ * The replay itself doesn't depend on the Android classes and runs on the host:
+ * FrameProcessorAdapters wraps the real TensorFlowObjectDetectionAPIModel and MultiBoxTracker on
+ * a device, while a host test can pass implementations of its own and still exercise the
+ * conversion, the scheduler and the pipeline.
+ * <p>
+ * The result is a Report with the latency percentiles of each stage, the frames dropped and the
+ * audio messages produced, that can be compared between two versions of the code.
+ */
+public class FrameReplay
+{
+    //Same configuration of the pipeline used by DetectorActivity
+    public static final int DEFAULT_PIPELINE_FRAMES = 3;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1;
+
+    /**
+     * Audio message produced during the replay.
+     */
+    public static class Announcement
+    {
+        //Timestamp of the frame that has produced the message
+        public final long timestamp;
+        public final String message;
+
+        public Announcement(long timestamp, String message)
+        {
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+
+        @Override
+        public String toString()
+        {
+            return timestamp + ": " + message;
+        }
+    }
+
+    /**
+     * Results of a replay.
+     */
+    public static class Report
+    {
+        private final int numFrames;
+        private final int numSkipped;
+        private final StageStats preprocessStats;
+        private final StageStats inferenceStats;
+        private final StageStats trackStats;
+        private final StageStats endToEndStats;
+        private final List<Announcement> announcements;
+
+        Report(int numFrames, int numSkipped, DetectionPipeline pipeline,
+               List<Announcement> announcements)
+        {
+            this.numFrames = numFrames;
+            this.numSkipped = numSkipped;
+            this.preprocessStats = pipeline.getPreprocessStats();
+            this.inferenceStats = pipeline.getInferenceStats();
+            this.trackStats = pipeline.getTrackStats();
+            this.endToEndStats = pipeline.getEndToEndStats();
+            this.announcements = announcements;
+        }
+
+        /**
+         * @return number of frames read from the recording
+         */
+        public int getNumFrames()
+        {
+            return numFrames;
+        }
+
+        /**
+         * @return number of frames not given to the network by decision of the scheduler
+         */
+        public int getNumSkipped()
+        {
+            return numSkipped;
+        }
+
+        /**
+         * @return number of frames dropped by the pipeline, because all the frames were in use
+         * or because a stage was too slow
+         */
+        public long getNumDropped()
+        {
+            return preprocessStats.getDropped() + inferenceStats.getDropped() +
+                    trackStats.getDropped();
+        }
+
+        /**
+         * @return number of frames that have reached the end of the pipeline
+         */
+        public long getNumProcessed()
+        {
+            return endToEndStats.getCount();
+        }
+
+        public StageStats getPreprocessStats()
+        {
+            return preprocessStats;
+        }
+
+        public StageStats getInferenceStats()
+        {
+            return inferenceStats;
+        }
+
+        public StageStats getTrackStats()
+        {
+            return trackStats;
+        }
+
+        public StageStats getEndToEndStats()
+        {
+            return endToEndStats;
+        }
+
+        public List<Announcement> getAnnouncements()
+        {
+            return announcements;
+        }
+
+        @Override
+        public String toString()
+        {
+            final StringBuilder builder = new StringBuilder();
+            builder.append(String.format("frames=%d skipped=%d dropped=%d processed=%d\n",
+                    numFrames, numSkipped, getNumDropped(), getNumProcessed()));
+            builder.append(preprocessStats).append('\n');
+            builder.append(inferenceStats).append('\n');
+            builder.append(trackStats).append('\n');
+            builder.append(endToEndStats).append('\n');
+            for (Announcement announcement : announcements)
+                builder.append(announcement).append('\n');
+            return builder.toString();
+        }
+    }
+
+    private final FrameProcessor.Detector detector;
+    private final FrameProcessor processor;
+
+    //If true the frames are given at the rate at which they have been recorded
+    private boolean realTime = false;
+
+    private int pipelineFrames = DEFAULT_PIPELINE_FRAMES;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    //Camera frames that wrap the images of the recording, created with the first image
+    private CameraFrame.Pool framePool = null;
+
+    private static final AutoCloseable NO_IMAGE = new AutoCloseable()
+    {
+        @Override
+        public void close()
+        {
+        }
+    };
+
+    /**
+     * @param cropToFrame       Values of the matrix that maps the model input in the frame
+     * @param sensorOrientation Rotation applied to the frame to obtain the model input
+     */
+    public FrameReplay(FrameProcessor.Detector detector, FrameProcessor.Tracker tracker,
+                       float[] cropToFrame, int sensorOrientation)
+    {
+        this.detector = detector;
+        processor = new FrameProcessor(detector, tracker, cropToFrame, sensorOrientation);
+    }
+
+    /**
+     * @param scheduler Decides which frames are given to the network, null to give all of them
+     */
+    public void setScheduler(InferenceScheduler scheduler)
+    {
+        processor.setScheduler(scheduler);
+    }
+
+    /**
+     * If true, the frames are read at the rate given by their timestamps, as the camera would
+     * deliver them, so that the frames dropped by a slow stage are the same as on the device.
+     * Otherwise each frame enters the pipeline when the previous one has been completely
+     * processed: nothing is dropped and the announcements are deterministic, so this mode is the
+     * one to compare in a regression test.
+     */
+    public void setRealTime(boolean realTime)
+    {
+        this.realTime = realTime;
+    }
+
+    public void setPipelineSize(int pipelineFrames, int queueCapacity)
+    {
+        this.pipelineFrames = pipelineFrames;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Replays all the frames of the recording and waits for the end of their processing.
+     */
+    public Report run(YuvRecording.Reader reader) throws IOException, InterruptedException
+    {
+        final List<Announcement> announcements =
+                Collections.synchronizedList(new ArrayList<Announcement>());
+
+        final DetectionPipeline pipeline = new DetectionPipeline(pipelineFrames, queueCapacity,
+                detector, detector.getMaxDetections(), detector,
+                new DetectionPipeline.Consumer()
+                {
+                    @Override
+                    public void onDetections(DetectionPipeline.Frame frame)
+                    {
+                        announce(announcements, frame.timestamp,
+                                processor.onDetections(frame));
+                    }
+                });
+
+        final YuvRecording.Image image = new YuvRecording.Image();
+        final int skippedBefore = processor.getNumSkipped();
+        int numFrames = 0;
+        long firstTimestamp = 0;
+        final long startNs = System.nanoTime();
+        try
+        {
+            while (reader.next(image))
+            {
+                if (numFrames == 0)
+                    firstTimestamp = image.timestamp;
+                numFrames++;
+
+                if (realTime)
+                    waitUntil(startNs + image.timestamp - firstTimestamp);
+                else
+                    pipeline.awaitIdle();
+
+                processFrame(pipeline, image, announcements);
+            }
+
+            //Wait for the frames still in flight
+            pipeline.awaitIdle();
+        }
+        finally
+        {
+            pipeline.close();
+        }
+
+        return new Report(numFrames, processor.getNumSkipped() - skippedBefore, pipeline,
+                announcements);
+    }
+
+    private static void announce(List<Announcement> announcements, long timestamp,
+                                 List<InfoSpeech> messages)
+    {
+        if (messages == null)
+            return;
+        for (int i = 0; i < messages.size(); i++)
+            announcements.add(new Announcement(timestamp, messages.get(i).getmMessToSpeech()));
+    }
+
+    /**
+     * Same steps of DetectorActivity.processImage in object detection mode. The camera frame is
+     * released as soon as the frame of the pipeline has been submitted, as on the device.
+     */
+    private void processFrame(DetectionPipeline pipeline, YuvRecording.Image image,
+                              List<Announcement> announcements)
+    {
+        if (framePool == null)
+            framePool = new CameraFrame.Pool(1, image.width, image.height);
+        final CameraFrame cameraFrame = framePool.acquire(NO_IMAGE, ByteBuffer.wrap(image.y),
+                ByteBuffer.wrap(image.u), ByteBuffer.wrap(image.v), image.yRowStride,
+                image.uvRowStride, image.uvPixelStride, image.timestamp, 0);
+        try
+        {
+            announce(announcements, image.timestamp,
+                    processor.onFrame(cameraFrame, image.timestamp));
+
+            final DetectionPipeline.Frame frame = processor.acquireFrame(pipeline, cameraFrame,
+                    image.timestamp, true);
+            if (frame == null)
+                return;
+
+            try
+            {
+                processor.preprocess(cameraFrame, frame);
+            }
+            catch (RuntimeException e)
+            {
+                pipeline.releaseFrame(frame);
+                throw e;
+            }
+            pipeline.submit(frame);
+        }
+        finally
+        {
+            cameraFrame.release();
+        }
+    }
+
+    /**
+     * Parks the thread until the instant at which the camera would deliver the frame. The park
+     * can end early (spurious wake-up), in that case it is repeated for the remaining time.
+     */
+    private static void waitUntil(long deadlineNs) throws InterruptedException
+    {
+        long remaining;
+        while ((remaining = deadlineNs - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+/**
+ * Bounded queue, based on a circular array, used between two stages of the detection pipeline.
+ * <p>
+ * When the queue is full the producer is never blocked: the oldest element is removed and
+ * returned to the caller, so that the consumer always works on the most recent frames.
+ *
+ * @param <T> Type of the elements
+ */
+public class FrameRingBuffer<T>
+{
+    private final Object[] elements;
+
+    //Index of the oldest element
+    private int head = 0;
+
+    //Number of elements currently stored
+    private int size = 0;
+
+    //Set to true when the consumer must stop waiting
+    private boolean closed = false;
+
+    public FrameRingBuffer(int capacity)
+    {
+        elements = new Object[capacity];
+    }
+
+    /**
+     * Inserts an element. If the queue is full the oldest element is dropped.
+     *
+     * @param element Element to insert
+     * @return the element dropped to make room, or null if nothing was dropped
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T offer(T element)
+    {
+        T dropped = null;
+        if (size == elements.length)
+        {
+            dropped = (T) elements[head];
+            elements[head] = null;
+            head = (head + 1) % elements.length;
+            size--;
+        }
+        elements[(head + size) % elements.length] = element;
+        size++;
+        notifyAll();
+        return dropped;
+    }
+
+    /**
+     * Removes the oldest element, waiting until one is available.
+     *
+     * @return the oldest element, or null if the queue has been closed
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T take() throws InterruptedException
+    {
+        while (size == 0 && !closed)
+            wait();
+
+        if (size == 0)
+            return null;
+
+        final T element = (T) elements[head];
+        elements[head] = null;
+        head = (head + 1) % elements.length;
+        size--;
+        return element;
+    }
+
+    /**
+     * Removes the oldest element without waiting.
+     *
+     * @return the oldest element, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T poll()
+    {
+        if (size == 0)
+            return null;
+
+        final T element = (T) elements[head];
+        elements[head] = null;
+        head = (head + 1) % elements.length;
+        size--;
+        return element;
+    }
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    public int capacity()
+    {
+        return elements.length;
+    }
+
+    //Wakes up the consumer, that from now on receives null when the queue is empty
+    public synchronized void close()
+    {
+        closed = true;
+        notifyAll();
+    }
+}
@@ -1,174 +1,251 @@
 package it.unipd.dei.sproject1819.myeyse;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
-
+/**
+ * Recognizes when the user is back at the start of the tour (loop closure).
+ * <p>
+ * At the beginning of the tour the descriptors of a few keyframes are stored, spaced along the
+ * positions around the start, so that the frame at the end of the tour has to resemble one of
+ * them and not exactly the first frame. Each descriptor contains:
+ * <ul>
+ * <li>the thumbnail of the luminance (CameraFrame.getLumaThumbnail), normalized to zero mean and
+ * unit norm, so that the correlation doesn't depend on the exposure</li>
+ * <li>the color histograms (CameraFrame.getColorHistograms)</li>
+ * </ul>
+ * A frame can be compared with a cascade, from the cheapest test to the most expensive one: the
+ * thumbnail of the luminance selects the keyframes with the same structure and only for them the
+ * histograms are computed and compared, so that a frame is similar only if both agree. The first
+ * test is enabled by giving its minimum correlation to the constructor. PanoramicMode doesn't
+ * enable it: until the threshold is tuned on recorded tours the frames are compared only by their
+ * histograms, as before the cascade, and the thumbnails of the luminance are never computed.
+ */
 public class ImageSimilarity
 {
     //Calculated empirical value: below this threshold two frames can be considered similar
     private static final int SIMILARITY_THRESHOLD = 95000;
 
-    //In according to https://pdfs.semanticscholar.org/b539/791e55d550b493701c82f76c4867b3b88a3a.pdf
-    private static final int WRESOLUTION = 256;
-    private static final int HRESOLUTION = 256;
+    //Minimum correlation that disables the test of the luminance, as it can't reject any frame
+    public static final float NO_LUMA_TEST = -1;
+
+    //Maximum number of keyframes stored at the beginning of the tour
+    private static final int MAX_KEYFRAMES = 5;
+
+    //Keyframes are taken while the position is within this distance of the start
+    private static final float KEYFRAME_RANGE = 0.2f;
+
+    //Minimum distance between the positions of two keyframes
+    private static final float KEYFRAME_SPACING = 0.04f;
+
+    //Below this variance of the thumbnail of the luminance, the frame is considered uniform
+    private static final float MIN_LUMA_VARIANCE = 4;
 
-    //Input resolution frame
-    private int resolutionFrameW;
-    private int resolutionFrameH;
+    private static final int LUMA_PIXELS =
+            CameraFrame.LUMA_THUMBNAIL_SIZE * CameraFrame.LUMA_THUMBNAIL_SIZE;
 
-    //Matrix needed to cropped the frame
-    private Matrix frameToCropTransform;
+    private final Keyframe[] keyframes = new Keyframe[MAX_KEYFRAMES];
+    private int numKeyframes;
 
-    //Bitmap where we store
-    private Bitmap frameBitmap;
+    //False once the user has left the positions around the start
+    private boolean collectingKeyframes = true;
 
-    //Bitmap where we stored cropped image
-    private Bitmap croppedBitmap;
+    //Normalized thumbnail of the luminance of the frame compared
+    private final float[] currentLuma = new float[LUMA_PIXELS];
 
-    //Histograms for the primary colors of the first frame
-    private HistogramsImage firstFrameHist = null;
+    //Minimum correlation of the thumbnails of the luminance of two similar frames
+    private final float minCorrelation;
+
+    //Keyframes whose luminance is correlated with the one of the frame compared
+    private final boolean[] candidates = new boolean[MAX_KEYFRAMES];
+
+    //Number of frames rejected by each test of the cascade
+    private int rejectedByLuma;
+    private int rejectedByHistograms;
+
+    public ImageSimilarity()
+    {
+        this(NO_LUMA_TEST);
+    }
 
     /**
-     * Constructor
-     *
-     * @param h frame height
-     * @param w width frame
-     * @param sensorOrientation properly of smartphone
+     * @param minCorrelation minimum correlation, in [-1, 1], of the thumbnails of the luminance of
+     *                       two similar frames; NO_LUMA_TEST compares the frames only by their
+     *                       histograms
      */
-    public ImageSimilarity(int w, int h, int sensorOrientation)
+    public ImageSimilarity(float minCorrelation)
     {
-        //Memorize the resolution of the frames captured by the camera
-        resolutionFrameW = w;
-        resolutionFrameH = h;
+        if (!(minCorrelation >= -1 && minCorrelation <= 1))
+            throw new IllegalArgumentException("Correlation out of [-1, 1]: " + minCorrelation);
+        this.minCorrelation = minCorrelation;
+        for (int i = 0; i < MAX_KEYFRAMES; i++)
+            keyframes[i] = new Keyframe();
+    }
 
-        /**
-         * We get the matrix needed to do the scaling from the frame to a WRESOLUTION x HRESOLUTION
-         * resolution.
-         *
-         * Obviously this is calculated a single time when calculating the histogram of the first
-         * frame, then it is reused
-         */
-        frameToCropTransform = ImageUtils.getTransformationMatrix(resolutionFrameW, resolutionFrameH,
-                WRESOLUTION, HRESOLUTION, sensorOrientation, false);
+    /**
+     * Stores the frame as a keyframe if it is near the start of the tour and far enough from the
+     * previous keyframes. The first frame is always stored.
+     *
+     * @return true if the frame has been stored
+     */
+    public boolean addReferenceFrame(CameraFrame frame)
+    {
+        if (!collectingKeyframes || numKeyframes == MAX_KEYFRAMES)
+            return false;
 
-        frameBitmap = Bitmap.createBitmap(resolutionFrameW, resolutionFrameH,
-                Bitmap.Config.ARGB_8888);
+        final float offset = offsetFromStart(frame.sensorPosition);
+        if (numKeyframes > 0)
+        {
+            if (Math.abs(offset) > KEYFRAME_RANGE)
+            {
+                collectingKeyframes = false;
+                return false;
+            }
+            for (int i = 0; i < numKeyframes; i++)
+            {
+                if (Math.abs(offset - keyframes[i].offset) < KEYFRAME_SPACING)
+                    return false;
+            }
+        }
 
-        //Empty bitmap where we store frame
-        croppedBitmap = Bitmap.createBitmap(WRESOLUTION, HRESOLUTION,
-                Bitmap.Config.ARGB_8888);
+        final Keyframe keyframe = keyframes[numKeyframes];
+        keyframe.offset = offset;
+        keyframe.hasLuma = hasLumaTest() && normalize(frame.getLumaThumbnail(), keyframe.luma);
+        keyframe.histograms.set(frame.getColorHistograms());
+        numKeyframes++;
+        return true;
     }
 
-    public void setFrameReference(int[]rgb)
+    /**
+     * Determines whether the current frame can be considered similar to one of the keyframes
+     *
+     * @param frame current frame analyzed.
+     * @return true if these frames can be considered similar, false otherwise
+     */
+    public boolean IsSimilarWhitReferenceFrame(CameraFrame frame)
     {
-        //Cropping the input frame to WRESOLUTION x HRESOLUTION resolution
-        Bitmap firs = cropFrame(rgb);
+        if (numKeyframes == 0)
+            return false;
 
         /**
-         * Calculate and store the histogram and then compare it with the frames next to the
-         * initial position
+         * Cascade, first test: correlation of the thumbnails of the luminance. Two uniform
+         * thumbnails can't be told apart by their structure, so they pass to the next test.
          */
-        firstFrameHist = new HistogramsImage(firs);
+        final boolean lumaTest = hasLumaTest();
+        final boolean hasLuma = lumaTest && normalize(frame.getLumaThumbnail(), currentLuma);
+        boolean anyCandidate = false;
+        for (int i = 0; i < numKeyframes; i++)
+        {
+            candidates[i] = !lumaTest || (hasLuma == keyframes[i].hasLuma) && (!hasLuma ||
+                    correlation(currentLuma, keyframes[i].luma) >= minCorrelation);
+            anyCandidate |= candidates[i];
+        }
+        if (!anyCandidate)
+        {
+            rejectedByLuma++;
+            return false;
+        }
+
+        //Second test, only for the keyframes with the same structure: color histograms
+        final ColorHistograms histograms = frame.getColorHistograms();
+        for (int i = 0; i < numKeyframes; i++)
+        {
+            if (candidates[i] &&
+                    histograms.distance(keyframes[i].histograms) < SIMILARITY_THRESHOLD)
+                return true;
+        }
+        rejectedByHistograms++;
+        return false;
     }
+
+    public int getNumKeyframes()
+    {
+        return numKeyframes;
+    }
+
     /**
-     * Determines whether the starting frame and the current frame can be considered similar
-     *
-     * @param rgb_frame of current frame analyzed.
-     * @return true if these frames can be considered similar, false otherwise
+     * @return number of frames rejected by the thumbnails of the luminance, without computing
+     * their histograms
      */
-    public boolean IsSimilarWhitReferenceFrame(int[] rgb_frame)
+    public int getRejectedByLuma()
     {
-        if (compareHistogramImages(createHistogram(rgb_frame)) < SIMILARITY_THRESHOLD)
-            return true;
-        else
-            return false;
+        return rejectedByLuma;
+    }
+
+    /**
+     * @return number of frames rejected by the color histograms
+     */
+    public int getRejectedByHistograms()
+    {
+        return rejectedByHistograms;
     }
 
     public void close()
     {
-        firstFrameHist = null;
+        numKeyframes = 0;
+        collectingKeyframes = true;
+        rejectedByLuma = 0;
+        rejectedByHistograms = 0;
+    }
+
+    private boolean hasLumaTest()
+    {
+        return minCorrelation > NO_LUMA_TEST;
     }
 
     /**
-     * Method used to calculate a measure of similarity between current and starting frames based on
-     * the analysis of their histograms
-     *
-     * @param histogramsImage Histograms related to a frame that you want to compare with the
-     *                        histograms of the starting frame
-     * @return Similarity measure
+     * @param position in [0, 6[, relative to the start of the tour
+     * @return offset of the position from the start, negative before it
      */
-    private int compareHistogramImages(HistogramsImage histogramsImage)
+    private static float offsetFromStart(float position)
     {
-        int sum = 0;
-
-        //We remember that WRESOLUTION = HRESOLUTION = 256
-        for (int i = 0; i < WRESOLUTION; i++)
-        {
-            sum += Math.abs(histogramsImage.mHistGreen[i] - firstFrameHist.mHistGreen[i]) +
-                    Math.abs(histogramsImage.mHistBlu[i] - firstFrameHist.mHistBlu[i]) +
-                    Math.abs(histogramsImage.mHistRed[i] - firstFrameHist.mHistRed[i]);
-        }
-        return sum;
+        return position > ManageRotation.MAX_POSITION / 2 ?
+                position - ManageRotation.MAX_POSITION : position;
     }
 
     /**
-     * @param rgb that you want to cut out
-     * @return Bitmap relative to the crop frame
+     * Subtracts the mean from the thumbnail and scales it to unit norm.
+     *
+     * @return false if the thumbnail is uniform, in which case it has no structure to correlate
      */
-    private Bitmap cropFrame(int[] rgb)
+    private static boolean normalize(int[] thumbnail, float[] normalized)
     {
-        //Give for each pixel a color to the empty bitmap previously create
-        frameBitmap.setPixels(rgb, 0, resolutionFrameW, 0, 0,
-                resolutionFrameW, resolutionFrameH);
-
-        //Crop and return frame
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(frameBitmap, frameToCropTransform, null);
-        return croppedBitmap;
+        float mean = 0;
+        for (int i = 0; i < LUMA_PIXELS; i++)
+            mean += thumbnail[i];
+        mean /= LUMA_PIXELS;
+
+        float norm = 0;
+        for (int i = 0; i < LUMA_PIXELS; i++)
+        {
+            normalized[i] = thumbnail[i] - mean;
+            norm += normalized[i] * normalized[i];
+        }
+        if (norm < MIN_LUMA_VARIANCE * LUMA_PIXELS)
+            return false;
+
+        final float scale = 1 / (float) Math.sqrt(norm);
+        for (int i = 0; i < LUMA_PIXELS; i++)
+            normalized[i] *= scale;
+        return true;
     }
 
-    private HistogramsImage createHistogram(int[] rgb_frame)
+    private static float correlation(float[] a, float[] b)
     {
-        Bitmap cur_frame_bitmap = cropFrame(rgb_frame);
-        return new HistogramsImage(cur_frame_bitmap);
+        float sum = 0;
+        for (int i = 0; i < LUMA_PIXELS; i++)
+            sum += a[i] * b[i];
+        return sum;
     }
 
     /**
-     * Inner class which contains the red, blue and green histograms if a image provided in the
-     * constructor
+     * Descriptor of a keyframe. The arrays are allocated once and reused by the next tours.
      */
-    private class HistogramsImage
+    private static class Keyframe
     {
-        private final int NUM_BUCKETS = 256;
-
-        //At the i-th position, it contains the number of green pixels having value i
-        private int[] mHistGreen = new int[NUM_BUCKETS];
-
-        //At the i-th position, it contains the number of blu pixels having value i
-        private int[] mHistBlu = new int[NUM_BUCKETS];
+        //Offset of the position of the keyframe from the start of the tour
+        private float offset;
 
-        //At the i-th position, it contains the number of red pixels having value i
-        private int[] mHistRed = new int[NUM_BUCKETS];
+        private final float[] luma = new float[LUMA_PIXELS];
+        private boolean hasLuma;
 
-        /**
-         * Constructor
-         *
-         * @param frame on which to calculate the red, blue and green histograms
-         */
-        private HistogramsImage(Bitmap frame)
-        {
-            for (int i = 0; i < frame.getWidth(); i++)
-            {
-                for (int j = 0; j < frame.getHeight(); j++)
-                {
-                    int pixel = frame.getPixel(i, j);
-                    mHistRed[Color.red(pixel)]++;
-                    mHistGreen[Color.green(pixel)]++;
-                    mHistBlu[Color.blue(pixel)]++;
-                }
-            }
-        }
+        private final ColorHistograms histograms = new ColorHistograms(1);
     }
 }
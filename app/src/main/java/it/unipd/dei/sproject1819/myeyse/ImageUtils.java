@@ -6,6 +6,9 @@ import android.os.Environment;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Logger;
 
 /**
@@ -18,6 +21,7 @@ public class ImageUtils
         try
         {
             System.loadLibrary("tensorflow_demo");
+            nativeLibraryLoaded = true;
         }
         catch (UnsatisfiedLinkError e)
         {
@@ -95,6 +99,65 @@ public class ImageUtils
     // Always prefer the native implementation if available.
     private static boolean useNativeConversion = true;
 
+    //True if the native library has been loaded
+    private static boolean nativeLibraryLoaded;
+
+    //If true the Java conversion of large frames is split among the threads of a fork-join pool
+    private static volatile boolean parallelJavaConversion = true;
+
+    //Minimum number of rows converted by a task of the fork-join pool
+    private static final int PARALLEL_MIN_ROWS = 64;
+
+    /**
+     * Lookup tables of the YUV -> RGB coefficients, in the same fixed point of YUV2RGB:
+     * 1192 * (y - 16) clamped at 0, 1634 * (v - 128), 833 * (v - 128), 400 * (u - 128) and
+     * 2066 * (u - 128).
+     */
+    private static final int[] Y_TO_RGB = new int[256];
+    private static final int[] V_TO_R = new int[256];
+    private static final int[] V_TO_G = new int[256];
+    private static final int[] U_TO_G = new int[256];
+    private static final int[] U_TO_B = new int[256];
+
+    static
+    {
+        for (int i = 0; i < 256; i++)
+        {
+            Y_TO_RGB[i] = 1192 * Math.max(i - 16, 0);
+            V_TO_R[i] = 1634 * (i - 128);
+            V_TO_G[i] = 833 * (i - 128);
+            U_TO_G[i] = 400 * (i - 128);
+            U_TO_B[i] = 2066 * (i - 128);
+        }
+    }
+
+    public static boolean isNativeLibraryLoaded()
+    {
+        return nativeLibraryLoaded;
+    }
+
+    /**
+     * Chooses between the native and the Java implementation of the conversions. The native one
+     * is used only if the library is loaded.
+     */
+    public static void setNativeConversion(boolean enabled)
+    {
+        useNativeConversion = enabled && nativeLibraryLoaded;
+    }
+
+    public static boolean isNativeConversion()
+    {
+        return useNativeConversion;
+    }
+
+    /**
+     * Enables or disables the split of the Java conversion of a frame among multiple threads.
+     */
+    public static void setParallelJavaConversion(boolean enabled)
+    {
+        parallelJavaConversion = enabled;
+    }
+
     public static void convertYUV420SPToARGB8888(
             byte[] input,
             int width,
@@ -115,29 +178,14 @@ public class ImageUtils
             }
         }
 
-        // Java implementation of YUV420SP to ARGB8888 converting
+        // Java implementation of YUV420SP to ARGB8888 converting: in NV21 the chroma plane
+        // follows the luminance and contains V and U interleaved
         final int frameSize = width * height;
-        for (int j = 0, yp = 0; j < height; j++)
-        {
-            int uvp = frameSize + (j >> 1) * width;
-            int u = 0;
-            int v = 0;
-
-            for (int i = 0; i < width; i++, yp++)
-            {
-                int y = 0xff & input[yp];
-                if ((i & 1) == 0)
-                {
-                    v = 0xff & input[uvp++];
-                    u = 0xff & input[uvp++];
-                }
-
-                output[yp] = YUV2RGB(y, u, v);
-            }
-        }
+        convertYUV420ToARGB8888Java(input, 0, input, frameSize + 1, input, frameSize, width,
+                height, width, width, 2, output);
     }
 
-    private static int YUV2RGB(int y, int u, int v)
+    static int YUV2RGB(int y, int u, int v)
     {
         // Adjust and check YUV values
         y = (y - 16) < 0 ? 0 : (y - 16);
@@ -189,24 +237,799 @@ public class ImageUtils
             }
         }
 
-        int yp = 0;
-        for (int j = 0; j < height; j++)
+        convertYUV420ToARGB8888Java(yData, 0, uData, 0, vData, 0, width, height, yRowStride,
+                uvRowStride, uvPixelStride, out);
+    }
+
+    /**
+     * Same as above, but the planes are read from buffers. If they are direct, as the planes of
+     * a camera Image, the native implementation reads them in place, without copying them in
+     * Java arrays; otherwise the Java implementation reads them in place.
+     */
+    public static void convertYUV420ToARGB8888(
+            ByteBuffer yData,
+            ByteBuffer uData,
+            ByteBuffer vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            int[] out)
+    {
+        if (useNativeConversion && yData.isDirect() && uData.isDirect() && vData.isDirect())
         {
-            int pY = yRowStride * j;
-            int pUV = uvRowStride * (j >> 1);
+            try
+            {
+                convertYUV420ToARGB8888Direct(
+                        yData, uData, vData, out, width, height, yRowStride, uvRowStride, uvPixelStride);
+                return;
+            }
+            catch (UnsatisfiedLinkError e)
+            {
+                useNativeConversion = false;
+            }
+        }
+
+        if (isWholeArray(yData) && isWholeArray(uData) && isWholeArray(vData))
+        {
+            convertYUV420ToARGB8888(yData.array(), uData.array(), vData.array(), width, height,
+                    yRowStride, uvRowStride, uvPixelStride, out);
+            return;
+        }
 
+        for (int j = 0; j < height; j++)
+        {
+            final int pY = yRowStride * j;
+            final int pUV = uvRowStride * (j >> 1);
+            final int pOut = width * j;
             for (int i = 0; i < width; i++)
             {
-                int uv_offset = pUV + (i >> 1) * uvPixelStride;
+                final int uvOffset = pUV + (i >> 1) * uvPixelStride;
+                out[pOut + i] = yuvToArgb(yData.get(pY + i) & 0xff, uData.get(uvOffset) & 0xff,
+                        vData.get(uvOffset) & 0xff);
+            }
+        }
+    }
+
+    /**
+     * @return true if the plane is a heap buffer that starts at the first element of its array,
+     * so that the array can be given to the implementations that read the planes from index 0
+     */
+    private static boolean isWholeArray(ByteBuffer plane)
+    {
+        return plane.hasArray() && plane.arrayOffset() == 0;
+    }
+
+    /**
+     * Java implementation of the conversion of YUV 4:2:0 to ARGB. The four pixels of each 2x2
+     * block share the same chroma sample, so its contribution is read from the lookup tables
+     * once per block. Large frames are split by rows among the threads of the common fork-join
+     * pool. The result is the same of YUV2RGB applied to every pixel, and of the native
+     * implementation.
+     *
+     * @param yOffset Index of the first luminance sample in yData
+     * @param uOffset Index of the first U sample in uData
+     * @param vOffset Index of the first V sample in vData
+     */
+    static void convertYUV420ToARGB8888Java(
+            final byte[] yData,
+            final int yOffset,
+            final byte[] uData,
+            final int uOffset,
+            final byte[] vData,
+            final int vOffset,
+            final int width,
+            final int height,
+            final int yRowStride,
+            final int uvRowStride,
+            final int uvPixelStride,
+            final int[] out)
+    {
+        if (!parallelJavaConversion || height < 2 * PARALLEL_MIN_ROWS)
+        {
+            convertRows(yData, yOffset, uData, uOffset, vData, vOffset, width, 0, height,
+                    yRowStride, uvRowStride, uvPixelStride, out);
+            return;
+        }
+
+        ForkJoinPool.commonPool().invoke(new YuvToArgbTask(yData, yOffset, uData, uOffset, vData,
+                vOffset, width, 0, height, yRowStride, uvRowStride, uvPixelStride, out));
+    }
+
+    /**
+     * Converts a range of rows, split in halves (aligned to the 2x2 blocks) until they are less
+     * than 2 * PARALLEL_MIN_ROWS.
+     */
+    private static class YuvToArgbTask extends RecursiveAction
+    {
+        private final byte[] yData;
+        private final int yOffset;
+        private final byte[] uData;
+        private final int uOffset;
+        private final byte[] vData;
+        private final int vOffset;
+        private final int width;
+        private final int rowStart;
+        private final int rowEnd;
+        private final int yRowStride;
+        private final int uvRowStride;
+        private final int uvPixelStride;
+        private final int[] out;
+
+        YuvToArgbTask(byte[] yData, int yOffset, byte[] uData, int uOffset, byte[] vData,
+                      int vOffset, int width, int rowStart, int rowEnd, int yRowStride,
+                      int uvRowStride, int uvPixelStride, int[] out)
+        {
+            this.yData = yData;
+            this.yOffset = yOffset;
+            this.uData = uData;
+            this.uOffset = uOffset;
+            this.vData = vData;
+            this.vOffset = vOffset;
+            this.width = width;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.yRowStride = yRowStride;
+            this.uvRowStride = uvRowStride;
+            this.uvPixelStride = uvPixelStride;
+            this.out = out;
+        }
 
-                out[yp++] = YUV2RGB(
-                        0xff & yData[pY + i],
-                        0xff & uData[uv_offset],
-                        0xff & vData[uv_offset]);
+        @Override
+        protected void compute()
+        {
+            if (rowEnd - rowStart < 2 * PARALLEL_MIN_ROWS)
+            {
+                convertRows(yData, yOffset, uData, uOffset, vData, vOffset, width, rowStart,
+                        rowEnd, yRowStride, uvRowStride, uvPixelStride, out);
+                return;
             }
+            final int middle = ((rowStart + rowEnd) / 2) & ~1;
+            invokeAll(split(rowStart, middle), split(middle, rowEnd));
+        }
+
+        private YuvToArgbTask split(int start, int end)
+        {
+            return new YuvToArgbTask(yData, yOffset, uData, uOffset, vData, vOffset, width,
+                    start, end, yRowStride, uvRowStride, uvPixelStride, out);
         }
     }
 
+    /**
+     * Converts the rows from rowStart (even) to rowEnd excluded. The inner loop handles whole
+     * 2x2 blocks without branches; the last column and the last row of a frame of odd size are
+     * converted apart.
+     */
+    private static void convertRows(
+            final byte[] yData,
+            final int yOffset,
+            final byte[] uData,
+            final int uOffset,
+            final byte[] vData,
+            final int vOffset,
+            final int width,
+            final int rowStart,
+            final int rowEnd,
+            final int yRowStride,
+            final int uvRowStride,
+            final int uvPixelStride,
+            final int[] out)
+    {
+        final int evenWidth = width & ~1;
+        for (int j = rowStart; j < rowEnd; j += 2)
+        {
+            final boolean twoRows = j + 1 < rowEnd;
+            final int pY0 = yOffset + yRowStride * j;
+            final int pY1 = twoRows ? pY0 + yRowStride : pY0;
+            final int out0 = width * j;
+            final int out1 = twoRows ? out0 + width : out0;
+            int pU = uOffset + uvRowStride * (j >> 1);
+            int pV = vOffset + uvRowStride * (j >> 1);
+
+            int i = 0;
+            for (; i < evenWidth; i += 2, pU += uvPixelStride, pV += uvPixelStride)
+            {
+                final int v = vData[pV] & 0xff;
+                final int u = uData[pU] & 0xff;
+                final int r = V_TO_R[v];
+                final int g = -V_TO_G[v] - U_TO_G[u];
+                final int b = U_TO_B[u];
+
+                out[out0 + i] = toArgb(Y_TO_RGB[yData[pY0 + i] & 0xff], r, g, b);
+                out[out0 + i + 1] = toArgb(Y_TO_RGB[yData[pY0 + i + 1] & 0xff], r, g, b);
+                out[out1 + i] = toArgb(Y_TO_RGB[yData[pY1 + i] & 0xff], r, g, b);
+                out[out1 + i + 1] = toArgb(Y_TO_RGB[yData[pY1 + i + 1] & 0xff], r, g, b);
+            }
+
+            if (i < width)
+            {
+                final int v = vData[pV] & 0xff;
+                final int u = uData[pU] & 0xff;
+                final int r = V_TO_R[v];
+                final int g = -V_TO_G[v] - U_TO_G[u];
+                final int b = U_TO_B[u];
+
+                out[out0 + i] = toArgb(Y_TO_RGB[yData[pY0 + i] & 0xff], r, g, b);
+                out[out1 + i] = toArgb(Y_TO_RGB[yData[pY1 + i] & 0xff], r, g, b);
+            }
+        }
+    }
+
+    /**
+     * Adds the contribution of the luminance to the one of the chroma, clamps and packs the
+     * channels. Shifting before clamping to [0, 255] gives the same result of YUV2RGB, which
+     * clamps to [0, kMaxChannelValue] and then shifts, but the clamp is compiled without
+     * branches, which are mispredicted on camera noise.
+     */
+    private static int toArgb(int y1192, int rChroma, int gChroma, int bChroma)
+    {
+        final int r = Math.min(255, Math.max(0, (y1192 + rChroma) >> 10));
+        final int g = Math.min(255, Math.max(0, (y1192 + gChroma) >> 10));
+        final int b = Math.min(255, Math.max(0, (y1192 + bChroma) >> 10));
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Same result of YUV2RGB for a single pixel, computed with the lookup tables and without
+     * branches.
+     */
+    static int yuvToArgb(int y, int u, int v)
+    {
+        return toArgb(Y_TO_RGB[y], V_TO_R[v], -V_TO_G[v] - U_TO_G[u], U_TO_B[u]);
+    }
+
+    /**
+     * Packs ARGB pixels in the input buffer of a model, from its current position.
+     *
+     * @param pixels    ARGB pixels, in row order
+     * @param count     Number of pixels to pack
+     * @param output    Buffer of count * 3 bytes if quantized, otherwise of count * 3 floats
+     * @param quantized If true one byte per channel is written, otherwise a normalized float
+     * @param mean      Mean subtracted from each channel of a float model
+     * @param std       Standard deviation used to normalize each channel of a float model
+     */
+    public static void packModelInput(int[] pixels, int count, ByteBuffer output,
+                                      boolean quantized, float mean, float std)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            final int pixelValue = pixels[i];
+            if (quantized)
+            {
+                output.put((byte) ((pixelValue >> 16) & 0xFF));
+                output.put((byte) ((pixelValue >> 8) & 0xFF));
+                output.put((byte) (pixelValue & 0xFF));
+            }
+            else
+            {
+                output.putFloat((((pixelValue >> 16) & 0xFF) - mean) / std);
+                output.putFloat((((pixelValue >> 8) & 0xFF) - mean) / std);
+                output.putFloat(((pixelValue & 0xFF) - mean) / std);
+            }
+        }
+    }
+
+    /**
+     * Crops, rotates and scales a YUV_420_888 frame directly into the input buffer of a model,
+     * without converting the whole frame to RGB and without intermediate bitmaps.
+     * <p>
+     * Each pixel of the output is mapped back in the frame with dstToSrc and sampled with the
+     * nearest neighbour at its center, like Canvas.drawBitmap does without a Paint. The result is
+     * therefore the same of convertYUV420ToARGB8888, setPixels, drawBitmap and getPixels. The
+     * overload with the bilinear flag can interpolate the samples instead.
+     *
+     * @param dstToSrc   Values of the matrix that maps the model input in the frame, as returned by
+     *                   Matrix.getValues (only the first 6 are used)
+     * @param output     Direct buffer, in native order, of outSize * outSize * 3 bytes if quantized,
+     *                   otherwise of outSize * outSize * 3 floats
+     * @param quantized  If true one byte per channel is written, otherwise a normalized float
+     * @param mean       Mean subtracted from each channel of a float model
+     * @param std        Standard deviation used to normalize each channel of a float model
+     */
+    public static void convertYUV420ToModelInput(
+            byte[] yData,
+            byte[] uData,
+            byte[] vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outSize,
+            boolean quantized,
+            float mean,
+            float std)
+    {
+        convertYUV420ToModelInput(yData, uData, vData, width, height, yRowStride, uvRowStride,
+                uvPixelStride, dstToSrc, output, outSize, quantized, mean, std, false);
+    }
+
+    /**
+     * Same as above, with the choice of the sampling.
+     *
+     * @param bilinear If true each pixel of the output interpolates the four samples of the
+     *                 frame nearest to its center, like Canvas.drawBitmap with
+     *                 Paint.FILTER_BITMAP_FLAG: the luminance is interpolated between the centers
+     *                 of the pixels, the chroma between the centers of the 2x2 blocks, and then
+     *                 converted. Otherwise the nearest sample is taken
+     */
+    public static void convertYUV420ToModelInput(
+            byte[] yData,
+            byte[] uData,
+            byte[] vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outSize,
+            boolean quantized,
+            float mean,
+            float std,
+            boolean bilinear)
+    {
+        convertYUV420ToModelInputRegion(yData, uData, vData, width, height, yRowStride,
+                uvRowStride, uvPixelStride, dstToSrc, output, outSize, 0, 0, outSize, quantized,
+                mean, std, bilinear);
+    }
+
+    /**
+     * Same as convertYUV420ToModelInput, but only a square region of the model input is written,
+     * so that different parts of the frame can be placed side by side in the same input.
+     *
+     * @param dstToSrc   Values of the matrix that maps the region (with origin in its top left
+     *                   corner) in the frame
+     * @param outSize    Side of the whole model input
+     * @param regionX    Column of the model input where the region starts
+     * @param regionY    Row of the model input where the region starts
+     * @param regionSize Side of the region
+     */
+    public static void convertYUV420ToModelInputRegion(
+            byte[] yData,
+            byte[] uData,
+            byte[] vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outSize,
+            int regionX,
+            int regionY,
+            int regionSize,
+            boolean quantized,
+            float mean,
+            float std)
+    {
+        convertYUV420ToModelInputRegion(yData, uData, vData, width, height, yRowStride,
+                uvRowStride, uvPixelStride, dstToSrc, output, outSize, regionX, regionY,
+                regionSize, quantized, mean, std, false);
+    }
+
+    /**
+     * Same as above, with the choice of the sampling (see convertYUV420ToModelInput).
+     */
+    public static void convertYUV420ToModelInputRegion(
+            byte[] yData,
+            byte[] uData,
+            byte[] vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outSize,
+            int regionX,
+            int regionY,
+            int regionSize,
+            boolean quantized,
+            float mean,
+            float std,
+            boolean bilinear)
+    {
+        output.rewind();
+        if (useNativeConversion)
+        {
+            try
+            {
+                convertYUV420ToModelInput(yData, uData, vData, width, height, yRowStride,
+                        uvRowStride, uvPixelStride, dstToSrc, output, regionX, regionY,
+                        regionSize, regionSize, outSize, quantized, mean, std, bilinear);
+                return;
+            }
+            catch (UnsatisfiedLinkError e)
+            {
+                //LOGGER.w("Native YUV420 -> model input implementation not found, falling back to Java implementation");
+                useNativeConversion = false;
+            }
+        }
+
+        sampleModelInputRegion(ByteBuffer.wrap(yData), ByteBuffer.wrap(uData),
+                ByteBuffer.wrap(vData), width, height, yRowStride, uvRowStride, uvPixelStride,
+                dstToSrc, output, outSize, regionX, regionY, regionSize, quantized, mean, std,
+                bilinear);
+    }
+
+    /**
+     * Java implementation of convertYUV420ToModelInputRegion, that reads the planes in place from
+     * their first element.
+     */
+    private static void sampleModelInputRegion(
+            ByteBuffer yData,
+            ByteBuffer uData,
+            ByteBuffer vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outSize,
+            int regionX,
+            int regionY,
+            int regionSize,
+            boolean quantized,
+            float mean,
+            float std,
+            boolean bilinear)
+    {
+        output.rewind();
+        final int bytesPerChannel = quantized ? 1 : 4;
+        for (int y = 0; y < regionSize; y++)
+        {
+            final float dy = y + 0.5f;
+            final float rowX = dstToSrc[1] * dy + dstToSrc[2];
+            final float rowY = dstToSrc[4] * dy + dstToSrc[5];
+            output.position(((regionY + y) * outSize + regionX) * 3 * bytesPerChannel);
+
+            for (int x = 0; x < regionSize; x++)
+            {
+                final float dx = x + 0.5f;
+                final float sx = dstToSrc[0] * dx + rowX;
+                final float sy = dstToSrc[3] * dx + rowY;
+                final int pixelValue;
+                if (bilinear)
+                {
+                    pixelValue = sampleBilinear(yData, uData, vData, width, height, yRowStride,
+                            uvRowStride, uvPixelStride, sx, sy);
+                }
+                else
+                {
+                    final int ix = clamp((int) Math.floor(sx), width);
+                    final int iy = clamp((int) Math.floor(sy), height);
+                    final int uvOffset = uvRowStride * (iy >> 1) + (ix >> 1) * uvPixelStride;
+                    pixelValue = YUV2RGB(
+                            0xff & yData.get(yRowStride * iy + ix),
+                            0xff & uData.get(uvOffset),
+                            0xff & vData.get(uvOffset));
+                }
+
+                if (quantized)
+                {
+                    output.put((byte) ((pixelValue >> 16) & 0xFF));
+                    output.put((byte) ((pixelValue >> 8) & 0xFF));
+                    output.put((byte) (pixelValue & 0xFF));
+                }
+                else
+                {
+                    output.putFloat((((pixelValue >> 16) & 0xFF) - mean) / std);
+                    output.putFloat((((pixelValue >> 8) & 0xFF) - mean) / std);
+                    output.putFloat(((pixelValue & 0xFF) - mean) / std);
+                }
+            }
+        }
+        output.rewind();
+    }
+
+    private static int clamp(int index, int size)
+    {
+        return index < 0 ? 0 : (index >= size ? size - 1 : index);
+    }
+
+    /**
+     * Bilinear interpolation of four samples with weights in 1/256.
+     */
+    private static int interpolate(int p00, int p10, int p01, int p11, int fx, int fy)
+    {
+        final int w11 = fx * fy;
+        final int w10 = (fx << 8) - w11;
+        final int w01 = (fy << 8) - w11;
+        final int w00 = 65536 - w10 - w01 - w11;
+        return (p00 * w00 + p10 * w10 + p01 * w01 + p11 * w11 + 32768) >> 16;
+    }
+
+    /**
+     * Samples the frame at (sx, sy) interpolating between the centers of the pixels, the
+     * luminance on its grid and the chroma on the grid of the 2x2 blocks, and converts the result
+     * as YUV2RGB. Same arithmetic of SampleBilinear of jni/yuv2rgb.cc.
+     */
+    private static int sampleBilinear(
+            ByteBuffer yData,
+            ByteBuffer uData,
+            ByteBuffer vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float sx,
+            float sy)
+    {
+        final float px = sx - 0.5f;
+        final float py = sy - 0.5f;
+        final int x0 = (int) Math.floor(px);
+        final int y0 = (int) Math.floor(py);
+        final int fx = (int) ((px - x0) * 256);
+        final int fy = (int) ((py - y0) * 256);
+        final int row0 = clamp(y0, height) * yRowStride;
+        final int row1 = clamp(y0 + 1, height) * yRowStride;
+        final int col0 = clamp(x0, width);
+        final int col1 = clamp(x0 + 1, width);
+        final int luma = interpolate(
+                0xff & yData.get(row0 + col0), 0xff & yData.get(row0 + col1),
+                0xff & yData.get(row1 + col0), 0xff & yData.get(row1 + col1), fx, fy);
+
+        final int uvWidth = (width + 1) / 2;
+        final int uvHeight = (height + 1) / 2;
+        final float cx = sx * 0.5f - 0.5f;
+        final float cy = sy * 0.5f - 0.5f;
+        final int cx0 = (int) Math.floor(cx);
+        final int cy0 = (int) Math.floor(cy);
+        final int cfx = (int) ((cx - cx0) * 256);
+        final int cfy = (int) ((cy - cy0) * 256);
+        final int uvRow0 = clamp(cy0, uvHeight) * uvRowStride;
+        final int uvRow1 = clamp(cy0 + 1, uvHeight) * uvRowStride;
+        final int uvCol0 = clamp(cx0, uvWidth) * uvPixelStride;
+        final int uvCol1 = clamp(cx0 + 1, uvWidth) * uvPixelStride;
+        final int u = interpolate(
+                0xff & uData.get(uvRow0 + uvCol0), 0xff & uData.get(uvRow0 + uvCol1),
+                0xff & uData.get(uvRow1 + uvCol0), 0xff & uData.get(uvRow1 + uvCol1), cfx, cfy);
+        final int v = interpolate(
+                0xff & vData.get(uvRow0 + uvCol0), 0xff & vData.get(uvRow0 + uvCol1),
+                0xff & vData.get(uvRow1 + uvCol0), 0xff & vData.get(uvRow1 + uvCol1), cfx, cfy);
+
+        return YUV2RGB(luma, u, v);
+    }
+
+    /**
+     * Same as convertYUV420ToModelInputRegion, but the planes are read from buffers. Direct
+     * buffers are read in place by the native implementation, or by the Java one if the native
+     * library is not available.
+     */
+    public static void convertYUV420ToModelInputRegion(
+            ByteBuffer yData,
+            ByteBuffer uData,
+            ByteBuffer vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outSize,
+            int regionX,
+            int regionY,
+            int regionSize,
+            boolean quantized,
+            float mean,
+            float std)
+    {
+        convertYUV420ToModelInputRegion(yData, uData, vData, width, height, yRowStride,
+                uvRowStride, uvPixelStride, dstToSrc, output, outSize, regionX, regionY,
+                regionSize, quantized, mean, std, false);
+    }
+
+    /**
+     * Same as above, with the choice of the sampling (see convertYUV420ToModelInput).
+     */
+    public static void convertYUV420ToModelInputRegion(
+            ByteBuffer yData,
+            ByteBuffer uData,
+            ByteBuffer vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outSize,
+            int regionX,
+            int regionY,
+            int regionSize,
+            boolean quantized,
+            float mean,
+            float std,
+            boolean bilinear)
+    {
+        if (useNativeConversion && yData.isDirect() && uData.isDirect() && vData.isDirect())
+        {
+            try
+            {
+                output.rewind();
+                convertYUV420ToModelInputDirect(yData, uData, vData, width, height, yRowStride,
+                        uvRowStride, uvPixelStride, dstToSrc, output, regionX, regionY,
+                        regionSize, regionSize, outSize, quantized, mean, std, bilinear);
+                return;
+            }
+            catch (UnsatisfiedLinkError e)
+            {
+                useNativeConversion = false;
+            }
+        }
+
+        if (isWholeArray(yData) && isWholeArray(uData) && isWholeArray(vData))
+        {
+            convertYUV420ToModelInputRegion(yData.array(), uData.array(), vData.array(), width,
+                    height, yRowStride, uvRowStride, uvPixelStride, dstToSrc, output, outSize,
+                    regionX, regionY, regionSize, quantized, mean, std, bilinear);
+            return;
+        }
+
+        sampleModelInputRegion(yData, uData, vData, width, height, yRowStride, uvRowStride,
+                uvPixelStride, dstToSrc, output, outSize, regionX, regionY, regionSize, quantized,
+                mean, std, bilinear);
+    }
+
+    public static void convertYUV420ToModelInput(
+            ByteBuffer yData,
+            ByteBuffer uData,
+            ByteBuffer vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outSize,
+            boolean quantized,
+            float mean,
+            float std)
+    {
+        convertYUV420ToModelInput(yData, uData, vData, width, height, yRowStride, uvRowStride,
+                uvPixelStride, dstToSrc, output, outSize, quantized, mean, std, false);
+    }
+
+    public static void convertYUV420ToModelInput(
+            ByteBuffer yData,
+            ByteBuffer uData,
+            ByteBuffer vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outSize,
+            boolean quantized,
+            float mean,
+            float std,
+            boolean bilinear)
+    {
+        convertYUV420ToModelInputRegion(yData, uData, vData, width, height, yRowStride,
+                uvRowStride, uvPixelStride, dstToSrc, output, outSize, 0, 0, outSize, quantized,
+                mean, std, bilinear);
+    }
+
+    /**
+     * Scales a YUV_420_888 frame down to outWidth x outHeight ARGB pixels. Each output pixel is
+     * sampled with the nearest neighbour at its center, like convertYUV420ToModelInput, so only
+     * the sampled pixels are converted: the cost depends on the size of the output and not on the
+     * one of the frame. The planes are read in place, also when they are direct buffers.
+     */
+    public static void convertYUV420ToARGB8888Scaled(
+            ByteBuffer yData,
+            ByteBuffer uData,
+            ByteBuffer vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            int[] output,
+            int outWidth,
+            int outHeight)
+    {
+        final float scaleX = width / (float) outWidth;
+        final float scaleY = height / (float) outHeight;
+        for (int y = 0; y < outHeight; y++)
+        {
+            final int iy = sampleIndex(y, scaleY, height);
+            final int yRow = yRowStride * iy;
+            final int uvRow = uvRowStride * (iy >> 1);
+            final int out = y * outWidth;
+
+            for (int x = 0; x < outWidth; x++)
+            {
+                final int ix = sampleIndex(x, scaleX, width);
+                final int uvOffset = uvRow + (ix >> 1) * uvPixelStride;
+                output[out + x] = yuvToArgb(
+                        0xff & yData.get(yRow + ix),
+                        0xff & uData.get(uvOffset),
+                        0xff & vData.get(uvOffset));
+            }
+        }
+    }
+
+    /**
+     * Scales the Y plane down to outSize x outSize cells. Each cell is the mean of
+     * samplesPerCell x samplesPerCell samples, taken on the grid of convertYUV420ToARGB8888Scaled,
+     * so that the result doesn't depend on single noisy pixels.
+     */
+    public static void downsampleLuma(
+            ByteBuffer yData,
+            int width,
+            int height,
+            int yRowStride,
+            int[] output,
+            int outSize,
+            int samplesPerCell)
+    {
+        final int samples = outSize * samplesPerCell;
+        final float scaleX = width / (float) samples;
+        final float scaleY = height / (float) samples;
+        final int cellArea = samplesPerCell * samplesPerCell;
+
+        for (int cy = 0; cy < outSize; cy++)
+        {
+            for (int cx = 0; cx < outSize; cx++)
+            {
+                int sum = 0;
+                for (int sy = cy * samplesPerCell; sy < (cy + 1) * samplesPerCell; sy++)
+                {
+                    final int yRow = yRowStride * sampleIndex(sy, scaleY, height);
+                    for (int sx = cx * samplesPerCell; sx < (cx + 1) * samplesPerCell; sx++)
+                        sum += 0xff & yData.get(yRow + sampleIndex(sx, scaleX, width));
+                }
+                output[cy * outSize + cx] = sum / cellArea;
+            }
+        }
+    }
+
+    /**
+     * @return index of the source pixel that contains the center of the i-th scaled pixel
+     */
+    static int sampleIndex(int i, float scale, int size)
+    {
+        final int index = (int) ((i + 0.5f) * scale);
+        return index >= size ? size - 1 : index;
+    }
+
+    /**
+     * Fills a square region of the model input with a uniform gray, that the detector doesn't
+     * recognize as an object.
+     */
+    public static void fillModelInputRegion(ByteBuffer output, int outSize, int regionX,
+                                            int regionY, int regionSize, boolean quantized,
+                                            float mean, float std)
+    {
+        final int bytesPerChannel = quantized ? 1 : 4;
+        for (int y = 0; y < regionSize; y++)
+        {
+            output.position(((regionY + y) * outSize + regionX) * 3 * bytesPerChannel);
+            for (int x = 0; x < regionSize * 3; x++)
+            {
+                if (quantized)
+                    output.put((byte) 128);
+                else
+                    output.putFloat((128 - mean) / std);
+            }
+        }
+        output.rewind();
+    }
 
     /**
      * Converts YUV420 semi-planar data to ARGB 8888 data using the supplied width and height. The
@@ -248,6 +1071,69 @@ public class ImageUtils
             int uvPixelStride,
             boolean halfSize);
 
+    /**
+     * Same as convertYUV420ToARGB8888, but the planes are direct buffers read in place.
+     */
+    private static native void convertYUV420ToARGB8888Direct(
+            ByteBuffer y,
+            ByteBuffer u,
+            ByteBuffer v,
+            int[] output,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride);
+
+    /**
+     * Native version of convertYUV420ToModelInputRegion. The output buffer must be direct; the
+     * region starts at (outX, outY) and its rows are outRowStride pixels apart.
+     */
+    private static native void convertYUV420ToModelInput(
+            byte[] y,
+            byte[] u,
+            byte[] v,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outX,
+            int outY,
+            int outWidth,
+            int outHeight,
+            int outRowStride,
+            boolean quantized,
+            float mean,
+            float std,
+            boolean bilinear);
+
+    /**
+     * Same as convertYUV420ToModelInput, but the planes are direct buffers read in place.
+     */
+    private static native void convertYUV420ToModelInputDirect(
+            ByteBuffer y,
+            ByteBuffer u,
+            ByteBuffer v,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            float[] dstToSrc,
+            ByteBuffer output,
+            int outX,
+            int outY,
+            int outWidth,
+            int outHeight,
+            int outRowStride,
+            boolean quantized,
+            float mean,
+            float std,
+            boolean bilinear);
+
     /**
      * Converts YUV420 semi-planar data to RGB 565 data using the supplied width
      * and height. The input and output must already be allocated and non-null.
@@ -309,20 +1195,52 @@ public class ImageUtils
             final int applyRotation,
             final boolean maintainAspectRatio)
     {
+        final float[] values = new float[9];
+        getTransformationValues(srcWidth, srcHeight, dstWidth, dstHeight, applyRotation,
+                maintainAspectRatio, values);
         final Matrix matrix = new Matrix();
+        matrix.setValues(values);
+        return matrix;
+    }
 
-        if (applyRotation != 0)
+    /**
+     * Same as getTransformationMatrix, but the values of the matrix (see Matrix.getValues) are
+     * written in an array supplied by the caller. The transformation is, in order: a translation
+     * of the center of the source in the origin and a rotation around it (only if applyRotation
+     * isn't 0), a scaling and a translation of the origin in the center of the destination (only
+     * if applyRotation isn't 0). The multiples of 90 degrees are exact.
+     *
+     * @param values Array of at least 9 values
+     */
+    public static void getTransformationValues(
+            final int srcWidth,
+            final int srcHeight,
+            final int dstWidth,
+            final int dstHeight,
+            final int applyRotation,
+            final boolean maintainAspectRatio,
+            final float[] values)
+    {
+        float cos = 1;
+        float sin = 0;
+        switch (((applyRotation % 360) + 360) % 360)
         {
-            if (applyRotation % 90 != 0)
-            {
-                //LOGGER.w("Rotation of %d % 90 != 0", applyRotation);
-            }
-
-            // Translate so center of image is at origin.
-            matrix.postTranslate(-srcWidth / 2.0f, -srcHeight / 2.0f);
-
-            // Rotate around origin.
-            matrix.postRotate(applyRotation);
+            case 0:
+                break;
+            case 90:
+                cos = 0;
+                sin = 1;
+                break;
+            case 180:
+                cos = -1;
+                break;
+            case 270:
+                cos = 0;
+                sin = -1;
+                break;
+            default:
+                cos = (float) Math.cos(Math.toRadians(applyRotation));
+                sin = (float) Math.sin(Math.toRadians(applyRotation));
         }
 
         // Account for the already applied rotation, if any, and then determine how
@@ -332,32 +1250,38 @@ public class ImageUtils
         final int inWidth = transpose ? srcHeight : srcWidth;
         final int inHeight = transpose ? srcWidth : srcHeight;
 
-        // Apply scaling if necessary.
+        float scaleFactorX = 1;
+        float scaleFactorY = 1;
         if (inWidth != dstWidth || inHeight != dstHeight)
         {
-            final float scaleFactorX = dstWidth / (float) inWidth;
-            final float scaleFactorY = dstHeight / (float) inHeight;
+            scaleFactorX = dstWidth / (float) inWidth;
+            scaleFactorY = dstHeight / (float) inHeight;
 
             if (maintainAspectRatio)
             {
                 // Scale by minimum factor so that dst is filled completely while
                 // maintaining the aspect ratio. Some image may fall off the edge.
-                final float scaleFactor = Math.max(scaleFactorX, scaleFactorY);
-                matrix.postScale(scaleFactor, scaleFactor);
-            }
-            else
-            {
-                // Scale exactly to fill dst from src.
-                matrix.postScale(scaleFactorX, scaleFactorY);
+                scaleFactorX = scaleFactorY = Math.max(scaleFactorX, scaleFactorY);
             }
         }
 
+        // Scale * Rotate, the rotation is clockwise as the one of Matrix.postRotate
+        values[0] = scaleFactorX * cos;
+        values[1] = -scaleFactorX * sin;
+        values[3] = scaleFactorY * sin;
+        values[4] = scaleFactorY * cos;
+        values[2] = 0;
+        values[5] = 0;
         if (applyRotation != 0)
         {
-            // Translate back from origin centered reference to destination frame.
-            matrix.postTranslate(dstWidth / 2.0f, dstHeight / 2.0f);
+            // From the center of the source to the center of the destination
+            final float centerX = srcWidth / 2.0f;
+            final float centerY = srcHeight / 2.0f;
+            values[2] = dstWidth / 2.0f - values[0] * centerX - values[1] * centerY;
+            values[5] = dstHeight / 2.0f - values[3] * centerX - values[4] * centerY;
         }
-
-        return matrix;
+        values[6] = 0;
+        values[7] = 0;
+        values[8] = 1;
     }
 }
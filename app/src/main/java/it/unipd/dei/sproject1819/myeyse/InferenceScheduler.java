@@ -0,0 +1,253 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides, for each frame, if the network must be run or if the tracker is enough.
+ * <p>
+ * The decision is based on three cheap measures:
+ * <ul>
+ * <li>the motion of the whole scene estimated by the optical flow of the tracker;</li>
+ * <li>the lowest correlation among the objects currently tracked;</li>
+ * <li>the mean difference between the luminance of the current frame and the one of the last
+ * frame given to the network, computed on a sparse grid of pixels.</li>
+ * </ul>
+ * If the scene is steady and every object is tracked well, the inference is skipped; if some
+ * object is tracked badly, only the regions around the tracked objects are analyzed again. If the
+ * camera moves fast or the scene changes completely, the inference is always run. In any case
+ * the network is run at least once every maxSkippedFrames frames, so an object that enters the
+ * scene without changing the luminance much is found with a bounded delay.
+ */
+public class InferenceScheduler
+{
+    public enum Decision
+    {
+        //The tracker is enough
+        SKIP,
+        //The scene is steady but some object is tracked badly: it is enough to analyze the
+        //regions around the tracked objects
+        REDETECT,
+        //The scene is not steady, or too many frames have been skipped
+        RUN,
+        //Fast motion or scene change
+        FORCE
+    }
+
+    //Distance, in pixels, between the luminance samples
+    private static final int SAMPLE_STEP = 16;
+
+    //Global motion, in pixels per frame, below which the camera is considered still
+    public static final float DEFAULT_STEADY_MOTION = 2.0f;
+
+    //Global motion above which the inference is always run
+    public static final float DEFAULT_FAST_MOTION = 20.0f;
+
+    //Mean luminance difference (0-255) below which the scene is considered unchanged
+    public static final float DEFAULT_STEADY_LUMA = 4.0f;
+
+    //Mean luminance difference above which the scene is considered new
+    public static final float DEFAULT_SCENE_CHANGE_LUMA = 25.0f;
+
+    //All the tracked objects must have at least this correlation to skip the inference
+    public static final float DEFAULT_MIN_CORRELATION = 0.85f;
+
+    //Maximum number of consecutive frames without inference
+    public static final int DEFAULT_MAX_SKIPPED_FRAMES = 10;
+
+    private final float steadyMotion;
+    private final float fastMotion;
+    private final float steadyLuma;
+    private final float sceneChangeLuma;
+    private final float minCorrelation;
+    private final int maxSkippedFrames;
+
+    //Luminance samples of the last frame given to the network and of the current one
+    private byte[] reference = new byte[0];
+    private byte[] current = new byte[0];
+    private boolean hasReference = false;
+
+    //Size of the frames from which the samples are taken
+    private int sampledWidth = 0;
+    private int sampledHeight = 0;
+
+    private int framesSinceInference = 0;
+    private float lastLumaDifference = 0;
+
+    //Statistics
+    private long numFrames = 0;
+    private long numInferences = 0;
+    private long numForced = 0;
+    private long numRedetections = 0;
+
+    public InferenceScheduler()
+    {
+        this(DEFAULT_STEADY_MOTION, DEFAULT_FAST_MOTION, DEFAULT_STEADY_LUMA,
+                DEFAULT_SCENE_CHANGE_LUMA, DEFAULT_MIN_CORRELATION, DEFAULT_MAX_SKIPPED_FRAMES);
+    }
+
+    public InferenceScheduler(float steadyMotion, float fastMotion, float steadyLuma,
+                              float sceneChangeLuma, float minCorrelation, int maxSkippedFrames)
+    {
+        this.steadyMotion = steadyMotion;
+        this.fastMotion = fastMotion;
+        this.steadyLuma = steadyLuma;
+        this.sceneChangeLuma = sceneChangeLuma;
+        this.minCorrelation = minCorrelation;
+        this.maxSkippedFrames = maxSkippedFrames;
+    }
+
+    /**
+     * Decides if the network must analyze the current frame. If the whole frame is really given
+     * to the network (RUN or FORCE), onInferenceStarted must be called; if only the regions
+     * around the tracked objects are analyzed (REDETECT), onRedetectStarted.
+     *
+     * @param luminance      Y plane of the frame
+     * @param rowStride      Row stride of the Y plane
+     * @param globalMotion   Motion of the scene since the previous frame, in pixels
+     * @param minCorrelation Lowest correlation among the tracked objects, 1 if there are none
+     */
+    public Decision decide(final byte[] luminance, final int width, final int height,
+                           final int rowStride, final float globalMotion,
+                           final float minCorrelation)
+    {
+        return decide(ByteBuffer.wrap(luminance), width, height, rowStride, globalMotion,
+                minCorrelation);
+    }
+
+    /**
+     * Same as above, but the Y plane is read from a buffer, for example the direct buffer of a
+     * camera Image. Only the samples are read, the plane is never copied.
+     */
+    public Decision decide(final ByteBuffer luminance, final int width, final int height,
+                           final int rowStride, final float globalMotion,
+                           final float minCorrelation)
+    {
+        numFrames++;
+        lastLumaDifference = sampleLuminance(luminance, width, height, rowStride);
+
+        final Decision decision;
+        if (!hasReference || globalMotion >= fastMotion || lastLumaDifference >= sceneChangeLuma)
+        {
+            decision = Decision.FORCE;
+            numForced++;
+        }
+        else if (framesSinceInference < maxSkippedFrames && globalMotion <= steadyMotion &&
+                lastLumaDifference <= steadyLuma)
+        {
+            if (minCorrelation >= this.minCorrelation)
+            {
+                decision = Decision.SKIP;
+                framesSinceInference++;
+            }
+            else
+            {
+                //The whole frame is still analyzed at least once every maxSkippedFrames
+                decision = Decision.REDETECT;
+                framesSinceInference++;
+            }
+        }
+        else
+            decision = Decision.RUN;
+
+        return decision;
+    }
+
+    /**
+     * Called when the last frame passed to decide is given to the network: it becomes the
+     * reference for the luminance difference.
+     */
+    public void onInferenceStarted()
+    {
+        final byte[] tmp = reference;
+        reference = current;
+        current = tmp;
+        hasReference = true;
+        framesSinceInference = 0;
+        numInferences++;
+    }
+
+    /**
+     * Called when the regions around the tracked objects of the last frame passed to decide are
+     * given to the network. The reference frame doesn't change.
+     */
+    public void onRedetectStarted()
+    {
+        numRedetections++;
+    }
+
+    /**
+     * Forgets the reference frame, so that the next frame is always analyzed. To be called when
+     * the tracker is reset.
+     */
+    public void reset()
+    {
+        hasReference = false;
+        framesSinceInference = 0;
+    }
+
+    /**
+     * Copies the luminance samples of the frame in current and compares them with the reference.
+     *
+     * @return mean absolute difference from the reference, 0 if there is no reference
+     */
+    private float sampleLuminance(final ByteBuffer luminance, final int width, final int height,
+                                  final int rowStride)
+    {
+        if (width != sampledWidth || height != sampledHeight)
+        {
+            final int samples = ((width + SAMPLE_STEP - 1) / SAMPLE_STEP) *
+                    ((height + SAMPLE_STEP - 1) / SAMPLE_STEP);
+            reference = new byte[samples];
+            current = new byte[samples];
+            sampledWidth = width;
+            sampledHeight = height;
+            hasReference = false;
+        }
+
+        long sum = 0;
+        int k = 0;
+        for (int y = SAMPLE_STEP / 2; y < height + SAMPLE_STEP / 2; y += SAMPLE_STEP)
+        {
+            final int row = Math.min(y, height - 1) * rowStride;
+            for (int x = SAMPLE_STEP / 2; x < width + SAMPLE_STEP / 2; x += SAMPLE_STEP)
+            {
+                final byte value = luminance.get(row + Math.min(x, width - 1));
+                current[k] = value;
+                sum += Math.abs((value & 0xFF) - (reference[k] & 0xFF));
+                k++;
+            }
+        }
+        return hasReference ? sum / (float) k : 0;
+    }
+
+    public float getLastLumaDifference()
+    {
+        return lastLumaDifference;
+    }
+
+    public long getNumFrames()
+    {
+        return numFrames;
+    }
+
+    public long getNumInferences()
+    {
+        return numInferences;
+    }
+
+    public long getNumForced()
+    {
+        return numForced;
+    }
+
+    public long getNumRedetections()
+    {
+        return numRedetections;
+    }
+
+    public String getStatString()
+    {
+        return String.format("scheduler: frames=%d inferences=%d forced=%d redetections=%d",
+                numFrames, numInferences, numForced, numRedetections);
+    }
+}
@@ -0,0 +1,118 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Input of the model for several frames, stored one after the other in a single direct buffer
+ * with the layout of a tensor of shape [count, inputSize, inputSize, 3].
+ * <p>
+ * Each frame is written in its slot, a view of the buffer that has the size and the order of the
+ * input of a single frame, so the methods that prepare a single input (preprocessYUV420,
+ * preprocessRoisYUV420, ImageUtils.packModelInput) fill a slot without changes. The buffer and
+ * the slots are allocated once and reused for every batch.
+ */
+public class InputBatch
+{
+    private final ByteBuffer[] slots;
+
+    /**
+     * At the i-th position, a view of the first i + 1 frames: the interpreter requires a buffer
+     * whose capacity is exactly the size of the input tensor
+     */
+    private final ByteBuffer[] batches;
+    private final int frameBytes;
+
+    //Number of slots already given to the caller
+    private int count;
+
+    /**
+     * @param capacity   Maximum number of frames of the batch
+     * @param frameBytes Size in bytes of the input of a single frame
+     */
+    public InputBatch(int capacity, int frameBytes)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("A batch contains at least one frame");
+
+        this.frameBytes = frameBytes;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(capacity * frameBytes);
+        buffer.order(ByteOrder.nativeOrder());
+
+        slots = new ByteBuffer[capacity];
+        batches = new ByteBuffer[capacity];
+        for (int i = 0; i < capacity; i++)
+        {
+            buffer.limit((i + 1) * frameBytes);
+            buffer.position(i * frameBytes);
+            slots[i] = buffer.slice().order(ByteOrder.nativeOrder());
+            buffer.position(0);
+            batches[i] = buffer.slice().order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * @return the slot of the next frame, rewound. The frame is part of the batch from now on.
+     * @throws IllegalStateException if the batch is full
+     */
+    public ByteBuffer nextSlot()
+    {
+        if (count == slots.length)
+            throw new IllegalStateException("The batch is full");
+        final ByteBuffer slot = slots[count++];
+        slot.rewind();
+        return slot;
+    }
+
+    /**
+     * @return the input of the i-th frame of the batch
+     */
+    public ByteBuffer getSlot(int i)
+    {
+        if (i >= count)
+            throw new IndexOutOfBoundsException("Frame " + i + " of a batch of " + count);
+        return slots[i];
+    }
+
+    /**
+     * @return the inputs of the frames of the batch, one after the other, rewound and ready to be
+     * passed to the interpreter
+     * @throws IllegalStateException if the batch is empty
+     */
+    public ByteBuffer getBuffer()
+    {
+        if (count == 0)
+            throw new IllegalStateException("The batch is empty");
+        final ByteBuffer batch = batches[count - 1];
+        batch.rewind();
+        return batch;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public int getCapacity()
+    {
+        return slots.length;
+    }
+
+    public boolean isFull()
+    {
+        return count == slots.length;
+    }
+
+    public int getFrameBytes()
+    {
+        return frameBytes;
+    }
+
+    /**
+     * Empties the batch, the slots will be overwritten by the next frames.
+     */
+    public void clear()
+    {
+        count = 0;
+    }
+}
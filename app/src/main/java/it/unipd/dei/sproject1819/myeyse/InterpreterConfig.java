@@ -0,0 +1,108 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * Describes how the TensorFlow Lite interpreter executes the model: which delegate is used and
+ * with how many threads.
+ */
+public class InterpreterConfig
+{
+    //Backends that can execute the model
+    public enum Backend
+    {
+        //Default CPU kernels of TensorFlow Lite
+        CPU,
+
+        //Optimized CPU kernels of the XNNPACK delegate
+        XNNPACK,
+
+        //Android Neural Networks API (GPU, DSP or NPU, depending on the device)
+        NNAPI
+    }
+
+    //Configuration used before the calibration, equal to the one historically used by the app
+    public static final InterpreterConfig DEFAULT = new InterpreterConfig(Backend.CPU, 4);
+
+    private final Backend backend;
+    private final int numThreads;
+
+    public InterpreterConfig(Backend backend, int numThreads)
+    {
+        this.backend = backend;
+        this.numThreads = numThreads;
+    }
+
+    public Backend getBackend()
+    {
+        return backend;
+    }
+
+    public int getNumThreads()
+    {
+        return numThreads;
+    }
+
+    /**
+     * Sets the options of the interpreter according to this configuration
+     *
+     * @param options Options that will be passed to the constructor of the interpreter
+     */
+    public void applyTo(Interpreter.Options options)
+    {
+        options.setNumThreads(numThreads);
+        options.setUseNNAPI(backend == Backend.NNAPI);
+        options.setUseXNNPACK(backend == Backend.XNNPACK);
+    }
+
+    /**
+     * @return representation of this configuration that can be stored in the preferences
+     */
+    public String encode()
+    {
+        return backend.name() + ":" + numThreads;
+    }
+
+    /**
+     * @param value String produced by encode()
+     * @return the configuration, or null if value is not valid
+     */
+    public static InterpreterConfig decode(String value)
+    {
+        if (value == null)
+            return null;
+
+        final String[] parts = value.split(":");
+        if (parts.length != 2)
+            return null;
+        try
+        {
+            return new InterpreterConfig(Backend.valueOf(parts[0]), Integer.parseInt(parts[1]));
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof InterpreterConfig))
+            return false;
+        final InterpreterConfig other = (InterpreterConfig) o;
+        return backend == other.backend && numThreads == other.numThreads;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return backend.hashCode() * 31 + numThreads;
+    }
+
+    @Override
+    public String toString()
+    {
+        return encode();
+    }
+}
@@ -0,0 +1,252 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetManager;
+import android.os.Build;
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses the fastest interpreter configuration for the current device.
+ * <p>
+ * On devices with big.LITTLE cores using more threads is not always faster, and the delegates
+ * aren't available or convenient everywhere. For this reason, the first time the app is
+ * launched, the model is executed a few times with each candidate configuration and the fastest
+ * one is stored in the preferences, so that the calibration isn't repeated.
+ */
+public class InterpreterTuner
+{
+    private static final String TAG = "InterpreterTuner";
+
+    private static final String PREFERENCES_NAME = "interpreter_tuner";
+
+    //Inferences executed, and not measured, before the measure of each configuration
+    private static final int WARMUP_RUNS = 2;
+
+    //Inferences measured for each configuration
+    private static final int MEASURED_RUNS = 5;
+
+    //Maximum number of threads evaluated
+    private static final int MAX_THREADS = 8;
+
+    /**
+     * Executes the model with a given configuration. Separating it from the calibration allows to
+     * run the sweep on a host JVM with the desktop runtime or with a fake model.
+     */
+    public interface Runner
+    {
+        /**
+         * Prepares the model with the configuration
+         *
+         * @throws Exception if the configuration isn't supported on this device
+         */
+        void prepare(InterpreterConfig config) throws Exception;
+
+        //Executes a single inference
+        void runOnce();
+
+        //Releases the resources allocated in prepare
+        void release();
+    }
+
+    /**
+     * @param availableProcessors Number of cores of the device
+     * @param nnapiAvailable      True if NNAPI can be used
+     * @return configurations to evaluate
+     */
+    public static List<InterpreterConfig> candidates(int availableProcessors,
+                                                     boolean nnapiAvailable)
+    {
+        final List<InterpreterConfig> candidates = new ArrayList<>();
+        final int maxThreads = Math.min(availableProcessors, MAX_THREADS);
+        for (int threads = 1; threads <= maxThreads; threads *= 2)
+        {
+            candidates.add(new InterpreterConfig(InterpreterConfig.Backend.CPU, threads));
+            candidates.add(new InterpreterConfig(InterpreterConfig.Backend.XNNPACK, threads));
+        }
+        if (nnapiAvailable)
+            candidates.add(new InterpreterConfig(InterpreterConfig.Backend.NNAPI, 1));
+        return candidates;
+    }
+
+    /**
+     * Measures every candidate and returns the one with the lowest median latency.
+     * Configurations that can't be prepared are skipped.
+     *
+     * @param candidates Configurations to evaluate
+     * @param runner     Object that executes the model
+     * @param timings    If not null, filled with the median latency, in nanoseconds, of each
+     *                   configuration measured
+     * @return the fastest configuration, or DEFAULT if none could be measured
+     */
+    public static InterpreterConfig calibrate(List<InterpreterConfig> candidates, Runner runner,
+                                              Map<InterpreterConfig, Long> timings)
+    {
+        InterpreterConfig best = null;
+        long bestTime = Long.MAX_VALUE;
+        final long[] samples = new long[MEASURED_RUNS];
+
+        for (final InterpreterConfig config : candidates)
+        {
+            try
+            {
+                runner.prepare(config);
+            }
+            catch (Exception e)
+            {
+                Log.w(TAG, "Configuration " + config + " not supported");
+                runner.release();
+                continue;
+            }
+
+            try
+            {
+                for (int i = 0; i < WARMUP_RUNS; i++)
+                    runner.runOnce();
+
+                for (int i = 0; i < MEASURED_RUNS; i++)
+                {
+                    final long start = System.nanoTime();
+                    runner.runOnce();
+                    samples[i] = System.nanoTime() - start;
+                }
+            }
+            catch (RuntimeException e)
+            {
+                Log.w(TAG, "Configuration " + config + " failed");
+                continue;
+            }
+            finally
+            {
+                runner.release();
+            }
+
+            Arrays.sort(samples);
+            final long median = samples[MEASURED_RUNS / 2];
+            if (timings != null)
+                timings.put(config, median);
+
+            if (median < bestTime)
+            {
+                bestTime = median;
+                best = config;
+            }
+        }
+        return best == null ? InterpreterConfig.DEFAULT : best;
+    }
+
+    /**
+     * Returns the configuration stored for this device and model or, the first time, calibrates
+     * it and stores it.
+     *
+     * @param context       Context used to access the preferences
+     * @param assets        Asset manager from which the model is loaded
+     * @param modelFilename Name of the model in the assets
+     * @param inputSize     Size of the input of the model
+     * @param isQuantized   True if the model is quantized
+     * @return the configuration to use
+     */
+    public static InterpreterConfig getOrCalibrate(Context context, AssetManager assets,
+                                                   String modelFilename, int inputSize,
+                                                   boolean isQuantized)
+    {
+        final SharedPreferences preferences =
+                context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+
+        //The fingerprint changes if the system is updated, in which case the drivers may change
+        final String key = modelFilename + "@" + Build.FINGERPRINT;
+
+        final InterpreterConfig stored =
+                InterpreterConfig.decode(preferences.getString(key, null));
+        if (stored != null)
+            return stored;
+
+        final List<InterpreterConfig> candidates = candidates(
+                Runtime.getRuntime().availableProcessors(),
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1);
+
+        final Map<InterpreterConfig, Long> timings = new HashMap<>();
+        final InterpreterConfig best;
+        try
+        {
+            best = calibrate(candidates,
+                    new InterpreterRunner(
+                            TensorFlowObjectDetectionAPIModel.loadModelFile(assets, modelFilename),
+                            inputSize, isQuantized),
+                    timings);
+        }
+        catch (Exception e)
+        {
+            Log.e(TAG, "Calibration failed");
+            return InterpreterConfig.DEFAULT;
+        }
+
+        Log.d(TAG, "Calibration results " + timings + ", chosen " + best);
+        preferences.edit().putString(key, best.encode()).apply();
+        return best;
+    }
+
+    /**
+     * Runner that executes a SSD detection model on an empty image.
+     */
+    public static class InterpreterRunner implements Runner
+    {
+        //Maximum number of detections returned by the model
+        private static final int NUM_DETECTIONS = 10;
+
+        private final ByteBuffer model;
+        private final Object[] inputArray;
+        private final Map<Integer, Object> outputMap = new HashMap<>();
+        private Interpreter interpreter;
+
+        public InterpreterRunner(ByteBuffer model, int inputSize, boolean isQuantized)
+        {
+            this.model = model;
+
+            final ByteBuffer imgData = ByteBuffer.allocateDirect(
+                    inputSize * inputSize * 3 * (isQuantized ? 1 : 4));
+            imgData.order(ByteOrder.nativeOrder());
+            inputArray = new Object[]{imgData};
+
+            outputMap.put(0, new float[1][NUM_DETECTIONS][4]);
+            outputMap.put(1, new float[1][NUM_DETECTIONS]);
+            outputMap.put(2, new float[1][NUM_DETECTIONS]);
+            outputMap.put(3, new float[1]);
+        }
+
+        @Override
+        public void prepare(InterpreterConfig config)
+        {
+            final Interpreter.Options options = new Interpreter.Options();
+            config.applyTo(options);
+            interpreter = new Interpreter(model, options);
+        }
+
+        @Override
+        public void runOnce()
+        {
+            ((ByteBuffer) inputArray[0]).rewind();
+            interpreter.runForMultipleInputsOutputs(inputArray, outputMap);
+        }
+
+        @Override
+        public void release()
+        {
+            if (interpreter != null)
+            {
+                interpreter.close();
+                interpreter = null;
+            }
+        }
+    }
+}
@@ -157,7 +157,7 @@ public class ManageRotation
     private static float POS_NOT_AVAILABLE = -10;
 
     //As we shall see, the position value can take values between [0, 6 [
-    private static float MAX_POSITION = 6;
+    static final float MAX_POSITION = 6;
 
     //Constructor
     public ManageRotation(Context context, float focalLenth)
@@ -0,0 +1,109 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+/**
+ * Immutable description of a detection model shipped in the assets: the files to load and the
+ * format of its input and output tensors.
+ */
+public class ModelDescriptor
+{
+    /**
+     * Layout of the output tensors of the model.
+     */
+    public enum OutputLayout
+    {
+        /**
+         * Output of the TFLite_Detection_PostProcess operator of the SSD models: locations,
+         * classes, scores and number of detections. Class 0 is the background class of the label
+         * file, so the classes returned by the model start from label 1.
+         */
+        SSD_POSTPROCESS(1);
+
+        //Offset to add to the classes returned by the model to obtain the index in the label file
+        private final int labelOffset;
+
+        OutputLayout(int labelOffset)
+        {
+            this.labelOffset = labelOffset;
+        }
+
+        public int getLabelOffset()
+        {
+            return labelOffset;
+        }
+    }
+
+    //Unique name used by the registry
+    private final String name;
+
+    //Path of the model in the assets
+    private final String modelFile;
+
+    //Path of the label file, in the form file:///android_asset/...
+    private final String labelFile;
+
+    //Side of the square input image
+    private final int inputSize;
+
+    private final boolean quantized;
+
+    private final OutputLayout outputLayout;
+
+    public ModelDescriptor(String name, String modelFile, String labelFile, int inputSize,
+                           boolean quantized, OutputLayout outputLayout)
+    {
+        this.name = name;
+        this.modelFile = modelFile;
+        this.labelFile = labelFile;
+        this.inputSize = inputSize;
+        this.quantized = quantized;
+        this.outputLayout = outputLayout;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getModelFile()
+    {
+        return modelFile;
+    }
+
+    public String getLabelFile()
+    {
+        return labelFile;
+    }
+
+    public int getInputSize()
+    {
+        return inputSize;
+    }
+
+    public boolean isQuantized()
+    {
+        return quantized;
+    }
+
+    public OutputLayout getOutputLayout()
+    {
+        return outputLayout;
+    }
+
+    /**
+     * Rough estimate of the cost of an inference, used to choose the cheaper model when the
+     * device is saving battery. The work of the network grows with the number of input pixels,
+     * and a float model is slower than a quantized one.
+     */
+    public long getRelativeCost()
+    {
+        final long pixels = (long) inputSize * inputSize;
+        return quantized ? pixels : pixels * 4;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " (" + modelFile + ", " + inputSize + "px" +
+                (quantized ? ", quantized" : "") + ")";
+    }
+}
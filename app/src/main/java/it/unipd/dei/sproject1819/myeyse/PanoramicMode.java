@@ -79,11 +79,14 @@ public class PanoramicMode
     private float mCurrentPosition;
 
     /**
-     * This object allows the comparison between frames: in particular it allows to establish
-     * whether two frames can be considered similar or not
+     * This object allows the comparison between frames: in particular it stores the keyframes of
+     * the start of the tour and establishes whether a frame can be considered similar to them
      */
     private ImageSimilarity imageSimilarity;
 
+    //Time spent comparing the frames with the keyframes of the start of the tour
+    private static final StageStats SIMILARITY_STATS = Telemetry.stage("similarity");
+
     /**
      * When the user approaches the initial position, I start comparing the histogram of the
      * initially stored frame with the histogram of the current frames
@@ -97,14 +100,18 @@ public class PanoramicMode
     ManageRotation.DirectOrientation newOrientation;
 
     //Constructor
-    public PanoramicMode(final Context context, final int realFrameWidth, final int realFrameHeight,
-                         final int orientation, final float focalLength)
+    public PanoramicMode(final Context context, final float focalLength)
     {
         mContext = context;
         mFocalLength = focalLength;
         mMotionVector = new HashMap<>();
         mManageRotation = new ManageRotation(context, focalLength);
-        imageSimilarity = new ImageSimilarity(realFrameWidth, realFrameHeight, orientation);
+        /**
+         * The frames are compared only by their color histograms: the gate on the luminance is
+         * off until its minimum correlation has been measured on recorded tours, as a wrong
+         * threshold would reject the frames of the start and the tour would never end
+         */
+        imageSimilarity = new ImageSimilarity(ImageSimilarity.NO_LUMA_TEST);
         mode = DefineState.MODE_NO_ACTIVE;
     }
 
@@ -194,23 +201,25 @@ public class PanoramicMode
     }
 
     /**
-     * @param rgbBytes
+     * @param frame current frame: its descriptors are computed only if it has to be compared
      * @return
      */
-    public boolean stopUser(int[] rgbBytes)
+    public boolean stopUser(CameraFrame frame)
     {
         if (mode == DefineState.MODE_NORMAL)
             ++mNumberAnalyzedFrames;
 
         /**
-         * In this case I have to create and memorize the histogram of
-         * the current frame to then quantify the similarity with the
-         * frames coming at the end of the round
+         * At the start of the round I have to memorize the descriptors of a few keyframes, to then
+         * quantify the similarity with the frames coming at the end of the round
          */
-        if ((mNumberAnalyzedFrames == 1) && (mode == DefineState.MODE_NORMAL))
+        if ((mode == DefineState.MODE_NORMAL) && (mIsUserNearStartPosition == false))
         {
-            imageSimilarity.setFrameReference(rgbBytes);
-            return false;
+            final long start = Telemetry.begin(SIMILARITY_STATS);
+            final boolean added = imageSimilarity.addReferenceFrame(frame);
+            Telemetry.end(SIMILARITY_STATS, start);
+            if (added)
+                return false;
         }
 
         /**
@@ -221,8 +230,12 @@ public class PanoramicMode
             return false;
         else
         {
+            final long start = Telemetry.begin(SIMILARITY_STATS);
+            final boolean similar = imageSimilarity.IsSimilarWhitReferenceFrame(frame);
+            Telemetry.end(SIMILARITY_STATS, start);
+
             //We store why we stopped the user.
-            if (imageSimilarity.IsSimilarWhitReferenceFrame(rgbBytes))
+            if (similar)
             {
                 reasonStopForSuccess = StateStop.STOP_FOR_SIMILARITY_IMAGE;
                 return true;
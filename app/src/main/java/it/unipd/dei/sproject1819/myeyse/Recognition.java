@@ -5,14 +5,15 @@ import android.graphics.RectF;
 public class Recognition
 {
     /**
-     * Display name for the recognition.
+     * Index of the class in the label file. The display name is obtained from the label array
+     * of the detector, so no String is created for each recognition.
      */
-    private final String title;
+    private final int classId;
 
     /**
      * A sortable score for how good the recognition is relative to others. Higher should be better.
      */
-    private final Float confidence;
+    private final float confidence;
 
     /**
      * Optional location within the source image for the location of the recognized object.
@@ -20,19 +21,19 @@ public class Recognition
     private RectF location;
 
 
-    public Recognition(final String title, final Float confidence, final RectF location)
+    public Recognition(final int classId, final float confidence, final RectF location)
     {
-        this.title = title;
+        this.classId = classId;
         this.confidence = confidence;
         this.location = location;
     }
 
-    public String getTitle()
+    public int getClassId()
     {
-        return title;
+        return classId;
     }
 
-    public Float getConfidence()
+    public float getConfidence()
     {
         return confidence;
     }
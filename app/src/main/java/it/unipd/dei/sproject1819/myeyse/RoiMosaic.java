@@ -0,0 +1,245 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+/**
+ * Layout of the regions of interest that are analyzed together in a single inference.
+ * <p>
+ * The input of the SSD model has batch size 1, so instead of running the network once for each
+ * tracked object, the regions around the objects are placed side by side in the same input: a
+ * single region uses the whole input, up to four regions are placed in a grid of 2x2 tiles.
+ * Each region is sampled from the full resolution frame, so a small object is seen by the network
+ * with more pixels than in the whole frame resized to the input size.
+ * <p>
+ * All the coordinates are stored in float arrays, and the object is reused for every frame.
+ */
+public class RoiMosaic
+{
+    //Maximum number of regions in a single input
+    public static final int MAX_ROIS = 4;
+
+    //Margin added on each side of a tracked box, as a fraction of its larger side
+    public static final float DEFAULT_MARGIN = 0.3f;
+
+    //A region is never enlarged more than this factor in its tile
+    private static final float MAX_ZOOM = 2.0f;
+
+    //Number of values of a matrix, as returned by Matrix.getValues
+    private static final int MATRIX_SIZE = 9;
+
+    //Number of regions currently placed, 0 if the input contains the whole frame
+    private int count = 0;
+
+    //Number of tiles on each side of the input
+    private int grid = 1;
+
+    //Side of a tile in pixels of the input
+    private int tileSize = 0;
+
+    //Square regions in frame coordinates
+    private final float[] roiLeft = new float[MAX_ROIS];
+    private final float[] roiTop = new float[MAX_ROIS];
+    private final float[] roiSide = new float[MAX_ROIS];
+
+    //For each tile, matrix that maps the tile (with origin in its top left corner) in the frame
+    private final float[][] tileToFrame = new float[MAX_ROIS][MATRIX_SIZE];
+
+    //Corners of a box, used while mapping the detections
+    private final float[] corners = new float[8];
+
+    /**
+     * Places the regions around the tracked boxes. Each box is enlarged by the margin, made
+     * square and moved inside the frame. If there are more than MAX_ROIS boxes, only the first
+     * ones are used.
+     *
+     * @param boxes             Tracked boxes in frame coordinates, in the form
+     *                          [left, top, right, bottom] for each box
+     * @param numBoxes          Number of boxes
+     * @param margin            Margin added on each side, as a fraction of the larger side
+     * @param frameWidth        Width of the frame
+     * @param frameHeight       Height of the frame
+     * @param inputSize         Side of the input of the model
+     * @param sensorOrientation Rotation applied to the frame to obtain the input of the model
+     * @return number of regions placed
+     */
+    public int layout(final float[] boxes, final int numBoxes, final float margin,
+                      final int frameWidth, final int frameHeight, final int inputSize,
+                      final int sensorOrientation)
+    {
+        count = Math.min(numBoxes, MAX_ROIS);
+        grid = count <= 1 ? 1 : 2;
+        tileSize = inputSize / grid;
+
+        final float maxSide = Math.min(frameWidth, frameHeight);
+        for (int i = 0; i < count; i++)
+        {
+            final int base = i * DetectionBuffer.BOX_STEP;
+            final float left = boxes[base];
+            final float top = boxes[base + 1];
+            final float right = boxes[base + 2];
+            final float bottom = boxes[base + 3];
+
+            float side = Math.max(right - left, bottom - top) * (1 + 2 * margin);
+            side = Math.max(side, tileSize / MAX_ZOOM);
+            side = Math.min(side, maxSide);
+
+            roiLeft[i] = clamp((left + right - side) / 2, 0, frameWidth - side);
+            roiTop[i] = clamp((top + bottom - side) / 2, 0, frameHeight - side);
+            roiSide[i] = side;
+
+            computeTileToFrame(i, sensorOrientation);
+        }
+        return count;
+    }
+
+    /**
+     * Computes the inverse of the transformation applied by ImageUtils.getTransformationMatrix
+     * from the region to its tile: the tile is rotated back by sensorOrientation around its
+     * center and scaled to the side of the region.
+     */
+    private void computeTileToFrame(final int i, final int sensorOrientation)
+    {
+        final double angle = Math.toRadians(sensorOrientation);
+        final float scale = roiSide[i] / tileSize;
+        final float cos = (float) Math.cos(angle) * scale;
+        final float sin = (float) Math.sin(angle) * scale;
+        final float center = tileSize / 2.0f;
+        final float centerX = roiLeft[i] + roiSide[i] / 2;
+        final float centerY = roiTop[i] + roiSide[i] / 2;
+
+        final float[] m = tileToFrame[i];
+        m[0] = cos;
+        m[1] = sin;
+        m[2] = centerX - (cos + sin) * center;
+        m[3] = -sin;
+        m[4] = cos;
+        m[5] = centerY - (cos - sin) * center;
+        m[6] = 0;
+        m[7] = 0;
+        m[8] = 1;
+    }
+
+    /**
+     * Maps the detections of the network, in coordinates of the input, in the frame. Each
+     * detection belongs to the tile that contains its center and is clipped to it; the
+     * detections in empty tiles are removed.
+     */
+    public void mapToFrame(final DetectionBuffer detections)
+    {
+        final float[] boxes = detections.getBoxes();
+        final float[] scores = detections.getScores();
+        final int[] classIds = detections.getClassIds();
+
+        int kept = 0;
+        for (int i = 0; i < detections.getCount(); i++)
+        {
+            final int base = i * DetectionBuffer.BOX_STEP;
+            final float centerX = (boxes[base] + boxes[base + 2]) / 2;
+            final float centerY = (boxes[base + 1] + boxes[base + 3]) / 2;
+            final int column = (int) (centerX / tileSize);
+            final int row = (int) (centerY / tileSize);
+            final int tile = row * grid + column;
+            if (centerX < 0 || centerY < 0 || column >= grid || row >= grid || tile >= count)
+                continue;
+
+            //Box in the coordinates of the tile
+            final float tileX = column * tileSize;
+            final float tileY = row * tileSize;
+            final float left = clamp(boxes[base] - tileX, 0, tileSize);
+            final float top = clamp(boxes[base + 1] - tileY, 0, tileSize);
+            final float right = clamp(boxes[base + 2] - tileX, 0, tileSize);
+            final float bottom = clamp(boxes[base + 3] - tileY, 0, tileSize);
+
+            corners[0] = left;
+            corners[1] = top;
+            corners[2] = right;
+            corners[3] = top;
+            corners[4] = right;
+            corners[5] = bottom;
+            corners[6] = left;
+            corners[7] = bottom;
+            mapPoints(tileToFrame[tile], corners);
+
+            final int out = kept * DetectionBuffer.BOX_STEP;
+            boxes[out] = min4(corners[0], corners[2], corners[4], corners[6]);
+            boxes[out + 1] = min4(corners[1], corners[3], corners[5], corners[7]);
+            boxes[out + 2] = max4(corners[0], corners[2], corners[4], corners[6]);
+            boxes[out + 3] = max4(corners[1], corners[3], corners[5], corners[7]);
+            scores[kept] = scores[i];
+            classIds[kept] = classIds[i];
+            kept++;
+        }
+        detections.setCount(kept);
+    }
+
+    private static void mapPoints(final float[] m, final float[] points)
+    {
+        for (int i = 0; i < points.length; i += 2)
+        {
+            final float x = points[i];
+            final float y = points[i + 1];
+            points[i] = m[0] * x + m[1] * y + m[2];
+            points[i + 1] = m[3] * x + m[4] * y + m[5];
+        }
+    }
+
+    private static float min4(final float a, final float b, final float c, final float d)
+    {
+        return Math.min(Math.min(a, b), Math.min(c, d));
+    }
+
+    private static float max4(final float a, final float b, final float c, final float d)
+    {
+        return Math.max(Math.max(a, b), Math.max(c, d));
+    }
+
+    private static float clamp(final float value, final float min, final float max)
+    {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    /**
+     * Removes all the regions: the input contains the whole frame.
+     */
+    public void clear()
+    {
+        count = 0;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public int getGrid()
+    {
+        return grid;
+    }
+
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    public float getRoiLeft(final int i)
+    {
+        return roiLeft[i];
+    }
+
+    public float getRoiTop(final int i)
+    {
+        return roiTop[i];
+    }
+
+    public float getRoiSide(final int i)
+    {
+        return roiSide[i];
+    }
+
+    /**
+     * @return values of the matrix that maps the i-th tile in the frame, in the form of
+     * Matrix.getValues
+     */
+    public float[] getTileToFrame(final int i)
+    {
+        return tileToFrame[i];
+    }
+}
@@ -0,0 +1,208 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency statistics of a stage of the detection pipeline.
+ * <p>
+ * The last SAMPLES latencies are kept in a circular array, so that percentiles of the recent
+ * frames can be computed without allocating memory in record. All the latencies are also counted
+ * in a log-linear histogram (as in HdrHistogram): values below SUB_BUCKETS are exact, the larger
+ * ones are grouped in buckets whose width is 1/64 of their lower bound, so the percentiles of the
+ * whole session have a relative error below 1.6% with a fixed amount of memory.
+ * <p>
+ * record and recordDrop don't take locks, so the stage can be timed from any thread without
+ * waiting for the readers. A reader may see a latency recorded in the count but not yet in the
+ * samples, which is irrelevant for statistics.
+ */
+public class StageStats
+{
+    //Number of latencies kept for the percentiles
+    public static final int SAMPLES = 1024;
+
+    //Values represented exactly by the histogram, the larger ones have 7 significant bits
+    static final int SUB_BUCKETS = 128;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    //Latencies above this value (about 68 seconds) are counted in the last bucket
+    static final long MAX_TRACKABLE_NS = (1L << 36) - 1;
+    private static final int BUCKETS = getBucket(MAX_TRACKABLE_NS) + 1;
+
+    private final String name;
+
+    //Most recent latencies, in nanoseconds
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+
+    //Number of latencies recorded in each bucket of the histogram
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    //Number of frames processed by the stage, also the next position in samples
+    private final AtomicLong count = new AtomicLong();
+
+    //Sum, maximum and last value of the latencies in nanoseconds
+    private final AtomicLong totalNs = new AtomicLong();
+    private final AtomicLong maxNs = new AtomicLong();
+    private volatile long lastNs = 0;
+
+    //Frames dropped before or by this stage
+    private final AtomicLong dropped = new AtomicLong();
+
+    public StageStats(String name)
+    {
+        this.name = name;
+    }
+
+    public void record(long latencyNs)
+    {
+        final long i = count.getAndIncrement();
+        samples.set((int) (i % SAMPLES), latencyNs);
+        histogram.incrementAndGet(getBucket(latencyNs));
+        totalNs.addAndGet(latencyNs);
+        lastNs = latencyNs;
+
+        long max = maxNs.get();
+        while (latencyNs > max && !maxNs.compareAndSet(max, latencyNs))
+            max = maxNs.get();
+    }
+
+    public void recordDrop()
+    {
+        dropped.incrementAndGet();
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    public long getLastNs()
+    {
+        return lastNs;
+    }
+
+    public long getMaxNs()
+    {
+        return maxNs.get();
+    }
+
+    public long getAverageNs()
+    {
+        final long n = count.get();
+        return n == 0 ? 0 : totalNs.get() / n;
+    }
+
+    /**
+     * @param percentile Value in [0, 100]
+     * @return latency below which the given percentage of the most recent SAMPLES latencies
+     * falls (nearest rank), 0 if nothing has been recorded
+     */
+    public long getPercentileNs(double percentile)
+    {
+        final int n = (int) Math.min(count.get(), SAMPLES);
+        if (n == 0)
+            return 0;
+        final long[] sorted = new long[n];
+        for (int i = 0; i < n; i++)
+            sorted[i] = samples.get(i);
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(percentile / 100 * n);
+        return sorted[Math.max(0, Math.min(n - 1, rank - 1))];
+    }
+
+    /**
+     * @param percentile Value in [0, 100]
+     * @return latency below which the given percentage of all the latencies recorded falls
+     * (nearest rank), rounded down to the lower bound of its bucket. 0 if nothing has been
+     * recorded
+     */
+    public long getHistogramPercentileNs(double percentile)
+    {
+        final long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = histogram.get(i);
+            n += counts[i];
+        }
+        if (n == 0)
+            return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+                return getBucketLowerBound(i);
+        }
+        return getBucketLowerBound(BUCKETS - 1);
+    }
+
+    /**
+     * Appends the statistics to a JSON document, as an object with the name of the stage as key.
+     */
+    public void appendJson(StringBuilder json)
+    {
+        json.append('"').append(name).append("\":{")
+                .append("\"count\":").append(getCount())
+                .append(",\"dropped\":").append(getDropped())
+                .append(",\"avgNs\":").append(getAverageNs())
+                .append(",\"lastNs\":").append(getLastNs())
+                .append(",\"maxNs\":").append(getMaxNs())
+                .append(",\"recentP50Ns\":").append(getPercentileNs(50))
+                .append(",\"recentP99Ns\":").append(getPercentileNs(99))
+                .append(",\"p50Ns\":").append(getHistogramPercentileNs(50))
+                .append(",\"p90Ns\":").append(getHistogramPercentileNs(90))
+                .append(",\"p99Ns\":").append(getHistogramPercentileNs(99))
+                .append(",\"p999Ns\":").append(getHistogramPercentileNs(99.9))
+                .append('}');
+    }
+
+    /**
+     * @return index of the bucket of the histogram that counts the given latency
+     */
+    static int getBucket(long latencyNs)
+    {
+        if (latencyNs < SUB_BUCKETS)
+            return (int) Math.max(0, latencyNs);
+        final long value = Math.min(latencyNs, MAX_TRACKABLE_NS);
+
+        //The value shifted right by shift is in [HALF_SUB_BUCKETS, SUB_BUCKETS[
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS +
+                (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    /**
+     * @return smallest latency counted by the given bucket
+     */
+    static long getBucketLowerBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        final int shift = (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        final long subBucket = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return subBucket << shift;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s: n=%d avg=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms " +
+                        "last=%.1fms dropped=%d", name, getCount(), getAverageNs() / 1e6,
+                getPercentileNs(50) / 1e6, getPercentileNs(90) / 1e6, getPercentileNs(99) / 1e6,
+                getMaxNs() / 1e6, getLastNs() / 1e6, getDropped());
+    }
+}
@@ -0,0 +1,146 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame-level telemetry of the whole app: the latencies of the stages and the counters of the
+ * frames discarded, so that it is possible to find where the frames are lost in the field.
+ * <p>
+ * The stages and the counters are created once, usually in static fields of the classes that use
+ * them, and updated without locks. Each timed stage is also a systrace section with the same
+ * name, and every increment of a counter is marked by an empty section, so the same events can be
+ * seen in a trace of the device. toJson returns everything in a single JSON document.
+ */
+public final class Telemetry
+{
+    /**
+     * Number of events of some kind, for example the camera frames discarded for a reason.
+     */
+    public static final class Counter
+    {
+        private final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter(String name)
+        {
+            this.name = name;
+        }
+
+        public void increment()
+        {
+            value.incrementAndGet();
+            Trace.beginSection(name);
+            Trace.endSection();
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long get()
+        {
+            return value.get();
+        }
+    }
+
+    //Stages and counters in order of registration, only accessed with the lock of Telemetry
+    private static final Map<String, StageStats> stages = new LinkedHashMap<>();
+    private static final Map<String, Counter> counters = new LinkedHashMap<>();
+
+    private Telemetry()
+    {
+    }
+
+    /**
+     * @return the statistics of the stage with the given name, created the first time
+     */
+    public static synchronized StageStats stage(String name)
+    {
+        StageStats stats = stages.get(name);
+        if (stats == null)
+        {
+            stats = new StageStats(name);
+            stages.put(name, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Adds statistics created elsewhere (for example by a DetectionPipeline) to the telemetry.
+     * They replace the ones with the same name.
+     */
+    public static synchronized void register(StageStats stats)
+    {
+        stages.put(stats.getName(), stats);
+    }
+
+    /**
+     * @return the counter with the given name, created the first time
+     */
+    public static synchronized Counter counter(String name)
+    {
+        Counter counter = counters.get(name);
+        if (counter == null)
+        {
+            counter = new Counter(name);
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Starts timing a stage: opens the systrace section with the name of the stage.
+     *
+     * @return the start instant, to be passed to end
+     */
+    public static long begin(StageStats stats)
+    {
+        Trace.beginSection(stats.getName());
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the latency of a stage started by begin and closes its systrace section. It must be
+     * called by the same thread of begin.
+     */
+    public static void end(StageStats stats, long startNs)
+    {
+        stats.record(System.nanoTime() - startNs);
+        Trace.endSection();
+    }
+
+    /**
+     * @return the statistics of all the stages and the value of all the counters, as a JSON
+     * object
+     */
+    public static synchronized String toJson()
+    {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\"uptimeMs\":").append(SystemClock.uptimeMillis()).append(",\"stages\":{");
+        boolean first = true;
+        for (StageStats stats : stages.values())
+        {
+            if (!first)
+                json.append(',');
+            stats.appendJson(json);
+            first = false;
+        }
+
+        json.append("},\"counters\":{");
+        first = true;
+        for (Counter counter : counters.values())
+        {
+            if (!first)
+                json.append(',');
+            json.append('"').append(counter.getName()).append("\":").append(counter.get());
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+}
@@ -5,6 +5,7 @@ import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.os.Trace;
+import android.util.Log;
 
 import org.tensorflow.Graph;
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
@@ -25,10 +26,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.Vector;
 
-public class TensorFlowObjectDetectionAPIModel
+public class TensorFlowObjectDetectionAPIModel implements Classifier
 {
+    private static final String TAG = "TFObjectDetectionModel";
 
     //private static final Logger LOGGER = new Logger();
 
@@ -39,15 +40,27 @@ public class TensorFlowObjectDetectionAPIModel
     private static final float IMAGE_MEAN = 128.0f;
     private static final float IMAGE_STD = 128.0f;
 
-    // Number of threads in the java app
-    private static final int NUM_THREADS = 4;
     private boolean isModelQuantized;
 
     // Config values.
     private int inputSize;
 
+    // SSD Mobilenet V1 Model assumes class 0 is background class
+    // in label file and class labels start from 1 to number_of_classes+1,
+    // while outputClasses correspond to class index from 0 to number_of_classes
+    private int labelOffset = ModelDescriptor.OutputLayout.SSD_POSTPROCESS.getLabelOffset();
+
+    // Labels indexed by class id, read once from the label file. Each label is interned, so
+    // the same String instance is returned for every detection of the same class.
+    private String[] labels;
+
+    // Detections below this confidence are never copied out of the output tensors.
+    private float minConfidence = Float.NEGATIVE_INFINITY;
+
+    // Maximum number of detections returned for each frame (top-K).
+    private int maxResults = NUM_DETECTIONS;
+
     // Pre-allocated buffers.
-    private Vector<String> labels = new Vector<String>();
     private int[] intValues;
     // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
     // contains the location of detected boxes
@@ -64,15 +77,34 @@ public class TensorFlowObjectDetectionAPIModel
 
     private ByteBuffer imgData;
 
+    // Input and output containers handed to the interpreter, created once and reused every frame.
+    private Object[] inputArray;
+    private Map<Integer, Object> outputMap;
+
     private Interpreter tfLite;
 
     /** Options for configuring the Interpreter. */
     private final Interpreter.Options tfLiteOptions = new Interpreter.Options();
 
+    // Number of frames of the current input tensor of the interpreter
+    private int batchSize;
+
+    // False once the interpreter has refused an input with more than one frame
+    private boolean batchSupported = true;
+
+    // Output of a single frame, for the runs of one frame
+    private final DetectionBuffer[] singleOutput = new DetectionBuffer[1];
+
+    // Batches and outputs reused by recognizeImages and by the batches of the pipeline, grown
+    // when more frames are requested
+    private InputBatch imageBatch;
+    private DetectionBuffer[] imageDetections = new DetectionBuffer[0];
+    private InputBatch frameBatch;
+
     private TensorFlowObjectDetectionAPIModel() {}
 
     /** Memory-map the model file in Assets. */
-    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+    static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
             throws IOException
     {
         AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
@@ -99,6 +131,28 @@ public class TensorFlowObjectDetectionAPIModel
             final int inputSize,
             final boolean isQuantized)
             throws IOException {
+        return create(assetManager, modelFilename, labelFilename, inputSize, isQuantized,
+                InterpreterConfig.DEFAULT);
+    }
+
+    /**
+     * Initializes a native TensorFlow session for classifying images.
+     *
+     * @param assetManager The asset manager to be used to load assets.
+     * @param modelFilename The filepath of the model GraphDef protocol buffer.
+     * @param labelFilename The filepath of label file for classes.
+     * @param inputSize The size of image input
+     * @param isQuantized Boolean representing model is quantized or not
+     * @param config Delegate and number of threads used by the interpreter
+     */
+    public static TensorFlowObjectDetectionAPIModel create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final int inputSize,
+            final boolean isQuantized,
+            final InterpreterConfig config)
+            throws IOException {
         final TensorFlowObjectDetectionAPIModel d = new TensorFlowObjectDetectionAPIModel();
 
         InputStream labelsInput = null;
@@ -106,17 +160,19 @@ public class TensorFlowObjectDetectionAPIModel
         labelsInput = assetManager.open(actualFilename);
         BufferedReader br = null;
         br = new BufferedReader(new InputStreamReader(labelsInput));
+        final List<String> labelList = new ArrayList<>();
         String line;
         while ((line = br.readLine()) != null) {
             //LOGGER.w(line);
-            d.labels.add(line);
+            labelList.add(line.intern());
         }
         br.close();
+        d.labels = labelList.toArray(new String[labelList.size()]);
 
         d.inputSize = inputSize;
 
         try {
-            d.tfLiteOptions.setNumThreads(NUM_THREADS);
+            config.applyTo(d.tfLiteOptions);
             d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename), d.tfLiteOptions);
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -124,24 +180,181 @@ public class TensorFlowObjectDetectionAPIModel
 
         d.isModelQuantized = isQuantized;
         // Pre-allocate buffers.
+        d.imgData = d.createInputBuffer();
+        d.intValues = new int[d.inputSize * d.inputSize];
+
+        d.inputArray = new Object[]{d.imgData};
+        d.outputMap = new HashMap<>();
+        d.allocateOutputs(1);
+        return d;
+    }
+
+    /**
+     * Initializes a native TensorFlow session for the model described by a descriptor.
+     *
+     * @param assetManager The asset manager to be used to load assets.
+     * @param descriptor Files and tensor format of the model
+     * @param config Delegate and number of threads used by the interpreter
+     */
+    public static TensorFlowObjectDetectionAPIModel create(
+            final AssetManager assetManager,
+            final ModelDescriptor descriptor,
+            final InterpreterConfig config)
+            throws IOException {
+        final TensorFlowObjectDetectionAPIModel d = create(assetManager,
+                descriptor.getModelFile(), descriptor.getLabelFile(), descriptor.getInputSize(),
+                descriptor.isQuantized(), config);
+        d.labelOffset = descriptor.getOutputLayout().getLabelOffset();
+        return d;
+    }
+
+    /**
+     * Allocates a buffer with the size and the order of the input of the model. More buffers
+     * allow to prepare the next frame while the model is processing the current one.
+     */
+    public ByteBuffer createInputBuffer()
+    {
         int numBytesPerChannel;
-        if (isQuantized) {
+        if (isModelQuantized) {
             numBytesPerChannel = 1; // Quantized
         } else {
             numBytesPerChannel = 4; // Floating point
         }
-        d.imgData = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-        d.imgData.order(ByteOrder.nativeOrder());
-        d.intValues = new int[d.inputSize * d.inputSize];
+        final ByteBuffer buffer =
+                ByteBuffer.allocateDirect(1 * inputSize * inputSize * 3 * numBytesPerChannel);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
 
-        d.outputLocations = new float[1][NUM_DETECTIONS][4];
-        d.outputClasses = new float[1][NUM_DETECTIONS];
-        d.outputScores = new float[1][NUM_DETECTIONS];
-        d.numDetections = new float[1];
-        return d;
+    /**
+     * Allocates an input for up to capacity frames, each one filled as the input of a single
+     * frame and then passed at once to runInference(InputBatch, DetectionBuffer[]).
+     */
+    public InputBatch createInputBatch(final int capacity)
+    {
+        return new InputBatch(capacity, createInputBuffer().capacity());
     }
 
+    /**
+     * @return the side of the square input image of the model
+     */
+    public int getInputSize()
+    {
+        return inputSize;
+    }
+
+    /**
+     * @return the maximum number of detections returned by the model for each frame
+     */
+    public int getMaxDetections()
+    {
+        return NUM_DETECTIONS;
+    }
+
+    /**
+     * @param classId index in the label file, as stored in a DetectionBuffer
+     * @return display name of the class
+     */
+    public String getLabel(final int classId)
+    {
+        return labels[classId];
+    }
+
+    /**
+     * @return all the labels, indexed by class id. The array must not be modified.
+     */
+    public String[] getLabels()
+    {
+        return labels;
+    }
+
+    /**
+     * Sets the filter applied to the output of the model, so that the detections that would be
+     * discarded by the caller are never copied.
+     *
+     * @param minConfidence Minimum confidence of a returned detection
+     * @param maxResults    Maximum number of detections returned for each frame, at most
+     *                      getMaxDetections()
+     */
+    public void setResultFilter(final float minConfidence, final int maxResults)
+    {
+        this.minConfidence = minConfidence;
+        this.maxResults = Math.min(maxResults, NUM_DETECTIONS);
+    }
+
+    @Override
     public List<Recognition> recognizeImage(final Bitmap bitmap) {
+        final DetectionBuffer detections = new DetectionBuffer(NUM_DETECTIONS);
+        recognizeImage(bitmap, detections);
+        return toRecognitions(detections);
+    }
+
+    /**
+     * Runs the inference on several bitmaps at once.
+     *
+     * @param bitmaps Images of inputSize x inputSize pixels
+     * @return the detections of each bitmap, in the same order
+     */
+    @Override
+    public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+        final int count = bitmaps.size();
+        if (imageBatch == null || imageBatch.getCapacity() < count) {
+            imageBatch = createInputBatch(Math.max(1, count));
+        }
+        if (imageDetections.length < count) {
+            final DetectionBuffer[] detections = new DetectionBuffer[count];
+            System.arraycopy(imageDetections, 0, detections, 0, imageDetections.length);
+            for (int i = imageDetections.length; i < count; ++i) {
+                detections[i] = new DetectionBuffer(NUM_DETECTIONS);
+            }
+            imageDetections = detections;
+        }
+
+        imageBatch.clear();
+        for (int i = 0; i < count; ++i) {
+            final Bitmap bitmap = bitmaps.get(i);
+            bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(),
+                    bitmap.getHeight());
+            ImageUtils.packModelInput(intValues, inputSize * inputSize, imageBatch.nextSlot(),
+                    isModelQuantized, IMAGE_MEAN, IMAGE_STD);
+        }
+        runInference(imageBatch, imageDetections);
+
+        final List<List<Recognition>> results = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            results.add(toRecognitions(imageDetections[i]));
+        }
+        return results;
+    }
+
+    private List<Recognition> toRecognitions(final DetectionBuffer detections) {
+        final ArrayList<Recognition> recognitions = new ArrayList<>(detections.getCount());
+        for (int i = 0; i < detections.getCount(); ++i) {
+            final int classId = detections.getClassId(i);
+            recognitions.add(
+                    new Recognition(
+                            Integer.toString(classId),
+                            labels[classId],
+                            detections.getScore(i),
+                            new RectF(
+                                    detections.getLeft(i),
+                                    detections.getTop(i),
+                                    detections.getRight(i),
+                                    detections.getBottom(i))));
+        }
+        return recognitions;
+    }
+
+    /**
+     * Runs the inference on the bitmap and stores the results in a buffer supplied by the caller.
+     * The output tensors, the input array and the output map are allocated once in create(),
+     * so this method doesn't allocate memory.
+     *
+     * @param bitmap Image of inputSize x inputSize pixels
+     * @param out    Buffer where the detections are stored, with capacity of at least
+     *               getMaxDetections()
+     */
+    public void recognizeImage(final Bitmap bitmap, final DetectionBuffer out) {
         // Log this method so that it can be analyzed with systrace.
         Trace.beginSection("recognizeImage");
 
@@ -152,65 +365,321 @@ public class TensorFlowObjectDetectionAPIModel
                 bitmap.getHeight());
 
         imgData.rewind();
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                int pixelValue = intValues[i * inputSize + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-                    imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-                    imgData.put((byte) (pixelValue & 0xFF));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+        ImageUtils.packModelInput(intValues, inputSize * inputSize, imgData, isModelQuantized,
+                IMAGE_MEAN, IMAGE_STD);
+        Trace.endSection(); // preprocessBitmap
+
+        runInference(out);
+        Trace.endSection(); // "recognizeImage"
+    }
+
+    /**
+     * Fills the input of the model directly from the planes of a YUV_420_888 frame, skipping the
+     * conversion of the whole frame to RGB and the intermediate bitmaps.
+     * <p>
+     * After this call the planes can be reused by the camera, the inference is started with
+     * runInference.
+     *
+     * @param cropToFrame Values (see Matrix.getValues) of the matrix that maps the model input in
+     *                    the frame
+     */
+    public void preprocessYUV420(final byte[] yData,
+                                 final byte[] uData,
+                                 final byte[] vData,
+                                 final int width,
+                                 final int height,
+                                 final int yRowStride,
+                                 final int uvRowStride,
+                                 final int uvPixelStride,
+                                 final float[] cropToFrame) {
+        preprocessYUV420(yData, uData, vData, width, height, yRowStride, uvRowStride,
+                uvPixelStride, cropToFrame, imgData);
+    }
+
+    /**
+     * Same as above, but the input is written in a buffer created with createInputBuffer, that
+     * can be later passed to runInference(ByteBuffer, DetectionBuffer). This method doesn't use
+     * the interpreter, so it can be called from a thread different from the inference one.
+     */
+    public void preprocessYUV420(final byte[] yData,
+                                 final byte[] uData,
+                                 final byte[] vData,
+                                 final int width,
+                                 final int height,
+                                 final int yRowStride,
+                                 final int uvRowStride,
+                                 final int uvPixelStride,
+                                 final float[] cropToFrame,
+                                 final ByteBuffer target) {
+        preprocessYUV420(ByteBuffer.wrap(yData), ByteBuffer.wrap(uData), ByteBuffer.wrap(vData),
+                width, height, yRowStride, uvRowStride, uvPixelStride, cropToFrame, target);
+    }
+
+    /**
+     * Same as above, but the planes are buffers. The direct buffers of a camera Image are read
+     * in place, so the frame is never copied in Java arrays.
+     */
+    public void preprocessYUV420(final ByteBuffer yData,
+                                 final ByteBuffer uData,
+                                 final ByteBuffer vData,
+                                 final int width,
+                                 final int height,
+                                 final int yRowStride,
+                                 final int uvRowStride,
+                                 final int uvPixelStride,
+                                 final float[] cropToFrame,
+                                 final ByteBuffer target) {
+        Trace.beginSection("preprocessYUV420");
+        ImageUtils.convertYUV420ToModelInput(yData, uData, vData, width, height, yRowStride,
+                uvRowStride, uvPixelStride, cropToFrame, target, inputSize, isModelQuantized,
+                IMAGE_MEAN, IMAGE_STD);
+        Trace.endSection();
+    }
+
+    /**
+     * ROI detection mode: fills the input with the regions of the frame placed by
+     * RoiMosaic.layout, each one sampled at full resolution in its tile. The empty tiles are
+     * filled with gray. After runInference the detections, in input coordinates, are brought back
+     * in the frame with RoiMosaic.mapToFrame.
+     *
+     * @param rois   Regions to analyze, placed for the input size of this model
+     * @param target Buffer created with createInputBuffer
+     */
+    public void preprocessRoisYUV420(final byte[] yData,
+                                     final byte[] uData,
+                                     final byte[] vData,
+                                     final int width,
+                                     final int height,
+                                     final int yRowStride,
+                                     final int uvRowStride,
+                                     final int uvPixelStride,
+                                     final RoiMosaic rois,
+                                     final ByteBuffer target) {
+        preprocessRoisYUV420(ByteBuffer.wrap(yData), ByteBuffer.wrap(uData),
+                ByteBuffer.wrap(vData), width, height, yRowStride, uvRowStride, uvPixelStride,
+                rois, target);
+    }
+
+    /**
+     * Same as above, but the planes are buffers, read in place if they are direct.
+     */
+    public void preprocessRoisYUV420(final ByteBuffer yData,
+                                     final ByteBuffer uData,
+                                     final ByteBuffer vData,
+                                     final int width,
+                                     final int height,
+                                     final int yRowStride,
+                                     final int uvRowStride,
+                                     final int uvPixelStride,
+                                     final RoiMosaic rois,
+                                     final ByteBuffer target) {
+        Trace.beginSection("preprocessRoisYUV420");
+        final int grid = rois.getGrid();
+        final int tileSize = rois.getTileSize();
+        for (int i = 0; i < grid * grid; ++i) {
+            final int tileX = (i % grid) * tileSize;
+            final int tileY = (i / grid) * tileSize;
+            if (i < rois.getCount()) {
+                ImageUtils.convertYUV420ToModelInputRegion(yData, uData, vData, width, height,
+                        yRowStride, uvRowStride, uvPixelStride, rois.getTileToFrame(i), target,
+                        inputSize, tileX, tileY, tileSize, isModelQuantized, IMAGE_MEAN,
+                        IMAGE_STD);
+            } else {
+                ImageUtils.fillModelInputRegion(target, inputSize, tileX, tileY, tileSize,
+                        isModelQuantized, IMAGE_MEAN, IMAGE_STD);
+            }
+        }
+        Trace.endSection();
+    }
+
+    /**
+     * Equivalent to preprocessYUV420 followed by runInference.
+     */
+    public void recognizeYUV420(final byte[] yData,
+                                final byte[] uData,
+                                final byte[] vData,
+                                final int width,
+                                final int height,
+                                final int yRowStride,
+                                final int uvRowStride,
+                                final int uvPixelStride,
+                                final float[] cropToFrame,
+                                final DetectionBuffer out) {
+        preprocessYUV420(yData, uData, vData, width, height, yRowStride, uvRowStride,
+                uvPixelStride, cropToFrame);
+        runInference(out);
+    }
+
+    /**
+     * Runs the model on the input previously prepared by recognizeImage or preprocessYUV420.
+     *
+     * @param out Buffer where the detections are stored
+     */
+    public void runInference(final DetectionBuffer out) {
+        runInference(imgData, out);
+    }
+
+    /**
+     * Runs the model on an input buffer created with createInputBuffer.
+     *
+     * @param input Input of the model, already filled
+     * @param out   Buffer where the detections are stored
+     */
+    public void runInference(final ByteBuffer input, final DetectionBuffer out) {
+        singleOutput[0] = out;
+        run(input, 1, singleOutput);
+        singleOutput[0] = null;
+    }
+
+    /**
+     * Runs the model on all the frames of a batch with a single call of the interpreter, whose
+     * input is resized to the number of frames. A batch of one frame is the same as
+     * runInference(ByteBuffer, DetectionBuffer).
+     * <p>
+     * Models whose operations don't accept more than one frame, like the post-processing of
+     * SSD in some versions of the runtime, are detected at the first batch: from then on the
+     * frames of a batch are run one by one, with the same results.
+     *
+     * @param batch Frames already filled
+     * @param out   Buffers where the detections of each frame are stored, at least
+     *              batch.getCount()
+     */
+    public void runInference(final InputBatch batch, final DetectionBuffer[] out) {
+        final int count = batch.getCount();
+        if (count == 0) {
+            return;
+        }
+
+        Trace.beginSection("runBatch");
+        try {
+            if (count > 1 && batchSupported) {
+                try {
+                    run(batch.getBuffer(), count, out);
+                    return;
+                } catch (final IllegalArgumentException | IllegalStateException e) {
+                    Log.w(TAG, "Batches not supported by the model, frames run one at a time", e);
+                    batchSupported = false;
                 }
             }
+
+            for (int i = 0; i < count; ++i) {
+                singleOutput[0] = out[i];
+                run(batch.getSlot(i), 1, singleOutput);
+            }
+        } finally {
+            singleOutput[0] = null;
+            Trace.endSection(); // "runBatch"
         }
-        Trace.endSection(); // preprocessBitmap
+    }
+
+    /**
+     * Runs the model on inputs created with createInputBuffer, with a single call of the
+     * interpreter when the model accepts batches: the inputs are copied one after the other in
+     * a batch kept by the detector. Otherwise they are run one by one, without copies.
+     *
+     * @param inputs Inputs of the model, already filled
+     * @param out    Buffers where the detections of each input are stored
+     * @param count  Number of inputs
+     */
+    public void runInference(final ByteBuffer[] inputs, final DetectionBuffer[] out,
+                             final int count) {
+        if (count == 1 || !batchSupported) {
+            for (int i = 0; i < count; ++i) {
+                runInference(inputs[i], out[i]);
+            }
+            return;
+        }
+
+        if (frameBatch == null || frameBatch.getCapacity() < count) {
+            frameBatch = createInputBatch(count);
+        }
+        frameBatch.clear();
+        for (int i = 0; i < count; ++i) {
+            final ByteBuffer input = inputs[i].duplicate();
+            input.rewind();
+            frameBatch.nextSlot().put(input);
+        }
+        runInference(frameBatch, out);
+    }
+
+    /**
+     * @return false if the model has refused an input with more than one frame
+     */
+    public boolean isBatchSupported() {
+        return batchSupported;
+    }
+
+    /**
+     * Runs the interpreter on count frames, resizing its input and outputs if the previous run
+     * had a different number of frames.
+     */
+    private void run(final ByteBuffer input, final int count, final DetectionBuffer[] out) {
+        if (count != batchSize) {
+            Trace.beginSection("resizeInput");
+            tfLite.resizeInput(0, new int[]{count, inputSize, inputSize, 3});
+            allocateOutputs(count);
+            Trace.endSection();
+        }
+
+        input.rewind();
+        inputArray[0] = input;
+
+        // Run the inference call. The interpreter writes directly in the pre-allocated outputs.
+        Trace.beginSection("run");
+        try {
+            tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+        } catch (final RuntimeException e) {
+            // Back to a single frame, so that the next runs aren't affected
+            if (count != 1) {
+                tfLite.resizeInput(0, new int[]{1, inputSize, inputSize, 3});
+                allocateOutputs(1);
+            }
+            throw e;
+        } finally {
+            Trace.endSection();
+        }
+
+        // Only the first numDetections outputs of each frame are valid
+        for (int i = 0; i < count; ++i) {
+            final int valid = Math.min((int) numDetections[i], NUM_DETECTIONS);
+            out[i].setFromOutputs(outputLocations[i], outputClasses[i], outputScores[i],
+                    valid, inputSize, labelOffset, minConfidence, maxResults);
+        }
+    }
 
-        // Copy the input data into TensorFlow.
-        Trace.beginSection("feed");
-        outputLocations = new float[1][NUM_DETECTIONS][4];
-        outputClasses = new float[1][NUM_DETECTIONS];
-        outputScores = new float[1][NUM_DETECTIONS];
-        numDetections = new float[1];
+    /**
+     * Allocates the outputs of the interpreter for batchSize frames and puts them in the output
+     * map. They are reused until the number of frames changes.
+     */
+    private void allocateOutputs(final int batchSize) {
+        this.batchSize = batchSize;
+        outputLocations = new float[batchSize][NUM_DETECTIONS][4];
+        outputClasses = new float[batchSize][NUM_DETECTIONS];
+        outputScores = new float[batchSize][NUM_DETECTIONS];
+        numDetections = new float[batchSize];
 
-        Object[] inputArray = {imgData};
-        Map<Integer, Object> outputMap = new HashMap<>();
         outputMap.put(0, outputLocations);
         outputMap.put(1, outputClasses);
         outputMap.put(2, outputScores);
         outputMap.put(3, numDetections);
-        Trace.endSection();
+    }
 
-        // Run the inference call.
-        Trace.beginSection("run");
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
-        Trace.endSection();
+    @Override
+    public void enableStatLogging(final boolean logStats) {}
 
-        // Show the best detections.
-        // after scaling them back to the input size.
-        final ArrayList<Recognition> recognitions = new ArrayList<>(NUM_DETECTIONS);
-        for (int i = 0; i < NUM_DETECTIONS; ++i) {
-            final RectF detection =
-                    new RectF(
-                            outputLocations[0][i][1] * inputSize,
-                            outputLocations[0][i][0] * inputSize,
-                            outputLocations[0][i][3] * inputSize,
-                            outputLocations[0][i][2] * inputSize);
-
-            // SSD Mobilenet V1 Model assumes class 0 is background class
-            // in label file and class labels start from 1 to number_of_classes+1,
-            // while outputClasses correspond to class index from 0 to number_of_classes
-            int labelOffset = 1;
-            recognitions.add(
-                    new Recognition(
-                            labels.get((int) outputClasses[0][i] + labelOffset),
-                            outputScores[0][i],
-                            detection));
+    @Override
+    public String getStatString() {
+        return "";
+    }
+
+    /**
+     * Releases the interpreter. The detector can't be used anymore.
+     */
+    @Override
+    public void close() {
+        if (tfLite != null) {
+            tfLite.close();
+            tfLite = null;
         }
-        Trace.endSection(); // "recognizeImage"
-        return recognitions;
     }
 }
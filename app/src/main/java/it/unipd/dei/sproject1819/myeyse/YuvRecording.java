@@ -0,0 +1,239 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Simple container of recorded YUV_420_888 camera frames, used to replay a session outside the
+ * device (see FrameReplay).
+ * <p>
+ * The file starts with a header (magic number and version), followed by the frames. Each frame
+ * is stored as:
+ * <pre>
+ * long timestamp (ns)
+ * int  width, height
+ * int  yRowStride, uvRowStride, uvPixelStride
+ * int  length of the Y, U and V planes
+ * byte Y plane, U plane, V plane
+ * </pre>
+ * The planes are stored as returned by the camera, with their strides, so the replay goes
+ * through the same conversion code used on the device. All the values are big endian.
+ */
+public class YuvRecording
+{
+    //"MYEF"
+    public static final int MAGIC = 0x4D594546;
+    public static final int VERSION = 1;
+
+    //Upper bound of the size of a plane, to detect corrupted files before allocating
+    private static final int MAX_PLANE_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * A recorded frame. The arrays of the planes are reused by Reader.next when the size doesn't
+     * change.
+     */
+    public static class Image
+    {
+        public long timestamp;
+        public int width;
+        public int height;
+        public int yRowStride;
+        public int uvRowStride;
+        public int uvPixelStride;
+        public byte[] y = new byte[0];
+        public byte[] u = new byte[0];
+        public byte[] v = new byte[0];
+
+        public Image()
+        {
+        }
+
+        public Image(long timestamp, int width, int height, int yRowStride, int uvRowStride,
+                     int uvPixelStride, byte[] y, byte[] u, byte[] v)
+        {
+            this.timestamp = timestamp;
+            this.width = width;
+            this.height = height;
+            this.yRowStride = yRowStride;
+            this.uvRowStride = uvRowStride;
+            this.uvPixelStride = uvPixelStride;
+            this.y = y;
+            this.u = u;
+            this.v = v;
+        }
+    }
+
+    /**
+     * Appends frames to a recording.
+     */
+    public static class Writer implements Closeable
+    {
+        private final DataOutputStream out;
+        private int numFrames = 0;
+
+        //Used to copy the planes of direct buffers in the stream
+        private final byte[] chunk = new byte[1 << 16];
+
+        public Writer(File file) throws IOException
+        {
+            this(new FileOutputStream(file));
+        }
+
+        public Writer(OutputStream stream) throws IOException
+        {
+            out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        public void write(long timestamp, int width, int height, int yRowStride,
+                          int uvRowStride, int uvPixelStride, byte[] y, byte[] u, byte[] v)
+                throws IOException
+        {
+            out.writeLong(timestamp);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(yRowStride);
+            out.writeInt(uvRowStride);
+            out.writeInt(uvPixelStride);
+            out.writeInt(y.length);
+            out.writeInt(u.length);
+            out.writeInt(v.length);
+            out.write(y);
+            out.write(u);
+            out.write(v);
+            numFrames++;
+        }
+
+        /**
+         * Same as above, but the planes are read from buffers, as the ones of a camera Image.
+         */
+        public void write(long timestamp, int width, int height, int yRowStride,
+                          int uvRowStride, int uvPixelStride, ByteBuffer y, ByteBuffer u,
+                          ByteBuffer v) throws IOException
+        {
+            out.writeLong(timestamp);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(yRowStride);
+            out.writeInt(uvRowStride);
+            out.writeInt(uvPixelStride);
+            out.writeInt(y.limit());
+            out.writeInt(u.limit());
+            out.writeInt(v.limit());
+            writePlane(y);
+            writePlane(u);
+            writePlane(v);
+            numFrames++;
+        }
+
+        private void writePlane(ByteBuffer plane) throws IOException
+        {
+            final ByteBuffer source = plane.duplicate();
+            source.position(0);
+            while (source.hasRemaining())
+            {
+                final int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+
+        public void write(Image image) throws IOException
+        {
+            write(image.timestamp, image.width, image.height, image.yRowStride,
+                    image.uvRowStride, image.uvPixelStride, image.y, image.u, image.v);
+        }
+
+        public int getNumFrames()
+        {
+            return numFrames;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the frames of a recording in order.
+     */
+    public static class Reader implements Closeable
+    {
+        private final DataInputStream in;
+
+        public Reader(File file) throws IOException
+        {
+            this(new FileInputStream(file));
+        }
+
+        public Reader(InputStream stream) throws IOException
+        {
+            in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a YUV recording");
+            final int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported recording version " + version);
+        }
+
+        /**
+         * Reads the next frame in image, reusing its arrays if possible.
+         *
+         * @return false at the end of the recording
+         */
+        public boolean next(Image image) throws IOException
+        {
+            try
+            {
+                image.timestamp = in.readLong();
+            }
+            catch (EOFException e)
+            {
+                return false;
+            }
+            image.width = in.readInt();
+            image.height = in.readInt();
+            image.yRowStride = in.readInt();
+            image.uvRowStride = in.readInt();
+            image.uvPixelStride = in.readInt();
+            final int yLength = in.readInt();
+            final int uLength = in.readInt();
+            final int vLength = in.readInt();
+
+            image.y = readPlane(image.y, yLength);
+            image.u = readPlane(image.u, uLength);
+            image.v = readPlane(image.v, vLength);
+            return true;
+        }
+
+        private byte[] readPlane(byte[] plane, int length) throws IOException
+        {
+            if (length < 0 || length > MAX_PLANE_LENGTH)
+                throw new IOException("Invalid plane length " + length);
+            if (plane.length != length)
+                plane = new byte[length];
+            in.readFully(plane);
+            return plane;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package it.unipd.dei.sproject1819.myeyse.tracking;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * History of the keypoint deltas of the last frames, as packed by the native tracker.
+ * <p>
+ * All the frames share a single direct buffer, allocated once, in which each frame has a fixed
+ * slot of MAX_KEYPOINTS keypoints: the native code writes the keypoints of a new frame directly
+ * in the oldest slot, so recording a frame doesn't allocate anything. The frames are found by
+ * timestamp, which grows from a frame to the next.
+ */
+class KeypointHistory
+{
+    //Maximum number of keypoints of a frame (kMaxKeypoints of the native tracker)
+    static final int MAX_KEYPOINTS = 76;
+
+    //Each keypoint is packed as two points of two uint16 coordinates: x1, y1, x2, y2
+    static final int BYTES_PER_KEYPOINT = 2 * 2 * 2;
+
+    static final int BYTES_PER_FRAME = MAX_KEYPOINTS * BYTES_PER_KEYPOINT;
+
+    private final int capacity;
+
+    //Packed keypoints of each slot, in the native byte order
+    private final ByteBuffer deltas;
+
+    //Timestamp and number of keypoints of the frame in each slot
+    private final long[] timestamps;
+    private final int[] counts;
+
+    //Slot of the oldest frame and number of frames stored
+    private int first;
+    private int size;
+
+    KeypointHistory(final int capacity)
+    {
+        this.capacity = capacity;
+        deltas = ByteBuffer.allocateDirect(capacity * BYTES_PER_FRAME)
+                .order(ByteOrder.nativeOrder());
+        timestamps = new long[capacity];
+        counts = new int[capacity];
+    }
+
+    ByteBuffer getBuffer()
+    {
+        return deltas;
+    }
+
+    /**
+     * @return offset in the buffer of the slot in which the next frame must be written: the one
+     * after the newest frame, that is the oldest one when the history is full
+     */
+    int getNextOffset()
+    {
+        return ((first + size) % capacity) * BYTES_PER_FRAME;
+    }
+
+    /**
+     * Records the frame just written at getNextOffset()
+     *
+     * @param count number of keypoints written
+     */
+    void add(final long timestamp, final int count)
+    {
+        final int slot = (first + size) % capacity;
+        timestamps[slot] = timestamp;
+        counts[slot] = count;
+        if (size < capacity)
+            size++;
+        else
+            first = (first + 1) % capacity;
+    }
+
+    void clear()
+    {
+        first = 0;
+        size = 0;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return slot of the frame with the given timestamp, -1 if it's not (or no more) stored
+     */
+    private int findSlot(final long timestamp)
+    {
+        //Binary search on the frames from the oldest to the newest
+        int low = 0;
+        int high = size - 1;
+        while (low <= high)
+        {
+            final int middle = (low + high) >>> 1;
+            final int slot = (first + middle) % capacity;
+            if (timestamps[slot] < timestamp)
+                low = middle + 1;
+            else if (timestamps[slot] > timestamp)
+                high = middle - 1;
+            else
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of keypoints of the frame with the given timestamp, -1 if it's not stored
+     */
+    int getKeypointCount(final long timestamp)
+    {
+        final int slot = findSlot(timestamp);
+        return slot < 0 ? -1 : counts[slot];
+    }
+
+    /**
+     * Copies the keypoints of the frame with the given timestamp, 4 coordinates for each one
+     *
+     * @param out array of at least 4 * MAX_KEYPOINTS values
+     * @return number of keypoints copied, -1 if the frame is not stored
+     */
+    int copyKeypoints(final long timestamp, final short[] out)
+    {
+        final int slot = findSlot(timestamp);
+        if (slot < 0)
+            return -1;
+
+        final int offset = slot * BYTES_PER_FRAME;
+        final int values = counts[slot] * BYTES_PER_KEYPOINT / 2;
+        for (int i = 0; i < values; i++)
+            out[i] = deltas.getShort(offset + 2 * i);
+        return counts[slot];
+    }
+}
@@ -6,6 +6,7 @@ import android.graphics.RectF;
 import android.util.Log;
 import android.util.Pair;
 
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -14,6 +15,8 @@ import it.unipd.dei.sproject1819.myeyse.ImageUtils;
 import it.unipd.dei.sproject1819.myeyse.InfoSpeech;
 import it.unipd.dei.sproject1819.myeyse.PanoramicMode;
 import it.unipd.dei.sproject1819.myeyse.Recognition;
+import it.unipd.dei.sproject1819.myeyse.StageStats;
+import it.unipd.dei.sproject1819.myeyse.Telemetry;
 
 public class MultiBoxTracker
 {
@@ -26,6 +29,22 @@ public class MultiBoxTracker
      */
     private static final float MIN_CORRELATION = 0.3f;
 
+    /**
+     * Consecutive frames in which the tracker must place an object in a new sector before the
+     * change is announced, so that an object on the border of two sectors is not announced at
+     * every frame
+     */
+    private static final int SECTOR_CHANGE_FRAMES = 2;
+
+    //Whether the tracker records the keypoints and the motion history drawn for debugging
+    private static final boolean DEBUG_TRACKING = false;
+
+    //Update of the tracked objects with a new frame and association of a single detection
+    private static final StageStats TRACK_FRAME_STATS = Telemetry.stage("tracker.onFrame");
+    private static final StageStats HANDLE_DETECTION_STATS =
+            Telemetry.stage("tracker.handleDetection");
+    private static final StageStats UPDATE_SECTORS_STATS = Telemetry.stage("tracker.updateSectors");
+
     //Useful enumeration for the areas in which an object can be found on the screen
     public enum Direction
     {
@@ -50,12 +69,18 @@ public class MultiBoxTracker
     //Contains information regard object currently traced
     private List<TrackedRecognition> trackedObjects;
 
+    //Labels of the detector, indexed by the class id of the recognitions
+    private String[] labels;
+
     //Current operative mode
     CameraActivity.Mode mMode;
 
     //Panoramic mode object
     PanoramicMode pm;
 
+    //Position of the smartphone when the frame passed to trackResults was captured
+    private float frameSensorPosition;
+
     //Information regard frame
     private int frameWidth;
     private int frameHeight;
@@ -77,17 +102,109 @@ public class MultiBoxTracker
         this.pm = pm;
     }
 
+    /**
+     * @return the motion of the scene between the last two frames, in pixels of the frame, or 0
+     * if the tracker is not initialized
+     */
+    public synchronized float getGlobalMotion()
+    {
+        return objectTracker == null ? 0 : objectTracker.getGlobalMotion();
+    }
+
+    /**
+     * Downsamples the luminance of a frame as the tracker does, so that trackResults can register
+     * the objects found in it when the frame itself has already been released.
+     *
+     * @param frame luminance of the frame, read in place if it is a direct buffer
+     * @param out   array returned by a previous call, reused if it has the right size
+     * @return the downsampled luminance, null if the tracker is not initialized
+     */
+    public synchronized byte[] downsampleFrame(final ByteBuffer frame, final byte[] out)
+    {
+        if (objectTracker == null)
+            return null;
+
+        final byte[] downsampled = out != null &&
+                out.length == objectTracker.getDownsampledLength() ?
+                out : new byte[objectTracker.getDownsampledLength()];
+        objectTracker.downsampleFrame(frame, downsampled);
+        return downsampled;
+    }
+
+    /**
+     * @return the lowest correlation among the objects currently tracked, 1 if no object is
+     * tracked
+     */
+    public synchronized float getMinCorrelation()
+    {
+        float min = 1.0f;
+        for (final TrackedRecognition recognition : trackedObjects)
+        {
+            if (recognition.trackedObject != null)
+                min = Math.min(min, recognition.trackedObject.getCorrelationInLastFrame());
+        }
+        return min;
+    }
+
+    /**
+     * Copies the positions of the tracked objects, in frame coordinates, in the form
+     * [left, top, right, bottom] for each object. The objects with correlation lower than
+     * priorityCorrelation come first, so they are kept if there are more objects than maxBoxes.
+     *
+     * @return number of boxes copied
+     */
+    public synchronized int getTrackedBoxes(final float[] boxes, final int maxBoxes,
+                                            final float priorityCorrelation)
+    {
+        int count = 0;
+        for (int pass = 0; pass < 2; pass++)
+        {
+            for (final TrackedRecognition recognition : trackedObjects)
+            {
+                if (count == maxBoxes)
+                    return count;
+                if (recognition.trackedObject == null)
+                    continue;
+
+                final boolean lowCorrelation =
+                        recognition.trackedObject.getCorrelationInLastFrame() < priorityCorrelation;
+                if (lowCorrelation != (pass == 0))
+                    continue;
+
+                final RectF position =
+                        recognition.trackedObject.getTrackedPositionInPreviewFrame();
+                if (position == null)
+                    continue;
+
+                final int base = count * 4;
+                boxes[base] = position.left;
+                boxes[base + 1] = position.top;
+                boxes[base + 2] = position.right;
+                boxes[base + 3] = position.bottom;
+                count++;
+            }
+        }
+        return count;
+    }
+
     /**
      *
      * @param results List of all objects recognized in the current frame by the network
-     * @param frame current frame
+     * @param labels Labels of the network, indexed by class id
+     * @param frame current frame, as returned by downsampleFrame
      * @param timestamp current timestamp
+     * @param sensorPosition position of the smartphone when the frame was captured, used in
+     *                       panoramic mode
      * @return Possible list containing all the audio messages to be sent to the user, if
      *          object detection mode
      */
     public synchronized List<InfoSpeech> trackResults(final List<Recognition> results,
-                                                      final byte[] frame, final long timestamp)
+                                                      final String[] labels,
+                                                      final byte[] frame, final long timestamp,
+                                                      final float sensorPosition)
     {
+        this.labels = labels;
+        frameSensorPosition = sensorPosition;
         return processResults(timestamp, results, frame);
     }
 
@@ -99,16 +216,19 @@ public class MultiBoxTracker
      * @param w frame width
      * @param h frame height
      * @param rowStride
+     * @param downsampleFactor factor by which the tracker downsamples the frames, the one for which
+     *                         the capture stream has been chosen
      * @param sensorOrientation
-     * @param frame
+     * @param frame Y plane of the frame, read in place if it is a direct buffer
      * @param timestamp
      */
     public synchronized void onFrame(
             final int w,
             final int h,
             final int rowStride,
+            final int downsampleFactor,
             final int sensorOrientation,
-            final byte[] frame,
+            final ByteBuffer frame,
             final long timestamp)
     {
         if (objectTracker == null && !initialized)
@@ -117,7 +237,7 @@ public class MultiBoxTracker
             initialized = true;
 
             Log.d(TAG, "Initializing ObjectTracker");
-            objectTracker = ObjectTracker.getInstance(w, h, rowStride, true);
+            objectTracker = ObjectTracker.getInstance(w, h, rowStride, true, downsampleFactor);
 
             frameWidth = w;
             frameHeight = h;
@@ -141,8 +261,8 @@ public class MultiBoxTracker
          * inference of a previous frame, this frame is discarded(but but at least the information
          * regarding the tracking has been updated)
          */
-        objectTracker.nextFrame(frame, null, timestamp, null,
-                true);
+        final long start = Telemetry.begin(TRACK_FRAME_STATS);
+        objectTracker.nextFrame(frame, timestamp, null, DEBUG_TRACKING);
 
 
         /**
@@ -154,13 +274,64 @@ public class MultiBoxTracker
         for (final TrackedRecognition recognition : copyList)
         {
             final ObjectTracker.TrackedObject trackedObject = recognition.trackedObject;
-            final float correlation = trackedObject.getCurrentCorrelation();
+            final float correlation = trackedObject.getCorrelationInLastFrame();
             if (correlation < MIN_CORRELATION)
             {
                 trackedObject.stopTracking();
                 trackedObjects.remove(recognition);
             }
         }
+        Telemetry.end(TRACK_FRAME_STATS, start);
+    }
+
+    /**
+     * Per-frame stage between two detections, in object detection mode. It must be called after
+     * onFrame: the positions of the tracked objects have just been updated by the tracker (with a
+     * single native call for all of them), so the sector of each object on the screen is known at
+     * every frame and not only when the network finishes.
+     *
+     * @return the audio messages of the objects that have moved to another sector, null if there
+     * are none
+     */
+    public synchronized List<InfoSpeech> updateSectors()
+    {
+        if (objectTracker == null || mMode != CameraActivity.Mode.MODE_OBJECT_DETECTION ||
+                trackedObjects.isEmpty())
+            return null;
+
+        final long start = Telemetry.begin(UPDATE_SECTORS_STATS);
+        final Matrix frameToScreen = adjustRectangle();
+        List<InfoSpeech> infoSpeeches = null;
+        for (final TrackedRecognition recognition : trackedObjects)
+        {
+            final ObjectTracker.TrackedObject trackedObject = recognition.trackedObject;
+            //The objects just registered haven't been confirmed by the tracker yet
+            if (trackedObject == null || !trackedObject.hasCorrelationInLastFrame() ||
+                    !trackedObject.isVisibleInLastFrame())
+                continue;
+
+            final RectF trackedPos = trackedObject.getTrackedPositionInPreviewFrame();
+            if (trackedPos == null)
+                continue;
+            frameToScreen.mapRect(trackedPos);
+            final Direction sector = checkPosition(trackedPos.centerX());
+
+            /**
+             * The change is announced once the tracker has confirmed it for some frames. The sector
+             * announced is then the reference for the next detection of the object, that doesn't
+             * repeat it
+             */
+            if (recognition.observeSector(sector) >= SECTOR_CHANGE_FRAMES &&
+                    sector != recognition.getLastPosSpeech())
+            {
+                recognition.setLastPosSpeech(sector);
+                if (infoSpeeches == null)
+                    infoSpeeches = new LinkedList<>();
+                infoSpeeches.add(new InfoSpeech(recognition.getTitle(), sector));
+            }
+        }
+        Telemetry.end(UPDATE_SECTORS_STATS, start);
+        return infoSpeeches;
     }
 
     /**
@@ -192,7 +363,7 @@ public class MultiBoxTracker
             {
                 final TrackedRecognition trackedRecognition =
                         new TrackedRecognition(null, potential.first,
-                                potential.second.getTitle(),
+                                labels[potential.second.getClassId()],
                                 new RectF(potential.second.getLocation()));
 
                 trackedObjects.add(trackedRecognition);
@@ -200,9 +371,15 @@ public class MultiBoxTracker
             return null;
         }
 
+        //The frame was downsampled before the tracker was initialized: it can't be registered
+        if (originalFrame == null)
+            return null;
+
         for (final Pair<Float, Recognition> potential : rectsToTrack)
         {
+            final long start = Telemetry.begin(HANDLE_DETECTION_STATS);
             InfoSpeech infoSpeech = handleDetection(originalFrame, timestamp, potential);
+            Telemetry.end(HANDLE_DETECTION_STATS, start);
             if (infoSpeech != null)
                 infoSpeeches.add(infoSpeech);
         }
@@ -218,7 +395,7 @@ public class MultiBoxTracker
      * high with one of them, example obj2, this means that obj isn't a new object but is obj2 that
      * moved inside the screen.
      *
-     * @param frameCopy current frame
+     * @param frameCopy current frame, downsampled by the tracker
      * @param timestamp timestamp
      * @param potential contains all the information of an object recognized by the network in the
      *                  current frame
@@ -380,11 +557,11 @@ public class MultiBoxTracker
         {
             //The object is new and has never been traced before
             trackedRecognition = new TrackedRecognition(potentialObject, potential.first,
-                    potential.second.getTitle(), null);
+                    labels[potential.second.getClassId()], null);
         }
         else
             trackedRecognition = new TrackedRecognition(recogToReplace.getId(), potentialObject,
-                    potential.first, potential.second.getTitle(), null);
+                    potential.first, labels[potential.second.getClassId()], null);
 
 
         if (mMode == CameraActivity.Mode.MODE_OBJECT_DETECTION)
@@ -439,7 +616,7 @@ public class MultiBoxTracker
                 /**
                  * For the first object identified, we memorize the first position
                  */
-                trackedRecognition.setFirstPosition(pm.getCurrentPositionFrame());
+                trackedRecognition.setFirstPosition(frameSensorPosition);
                 pm.getMotionVector().put(trackedRecognition.getId(), trackedRecognition);
             }
             else
@@ -449,7 +626,7 @@ public class MultiBoxTracker
                  * the last
                  */
                 pm.getMotionVector().get(trackedRecognition.getId()).
-                        setLastPosition(pm.getCurrentPositionFrame());
+                        setLastPosition(frameSensorPosition);
             }
             trackedObjects.add(trackedRecognition);
         }
@@ -2,8 +2,10 @@ package it.unipd.dei.sproject1819.myeyse.tracking;
 import android.graphics.PointF;
 import android.graphics.RectF;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Vector;
 
@@ -11,19 +13,27 @@ public class ObjectTracker
 {
     //private static final Logger LOGGER = new Logger();
 
+    //False if the native library is not available (on the host it is built by the benchmark module)
+    private static boolean libraryFound = false;
+
     static
     {
         try
         {
             System.loadLibrary("tensorflow_demo");
+            libraryFound = true;
         }
         catch (UnsatisfiedLinkError e)
         {
-            int x = 0;
             //LOGGER.e("libtensorflow_demo.so not found, tracking unavailable");
         }
     }
 
+    public static boolean isLibraryFound()
+    {
+        return libraryFound;
+    }
+
     private static final boolean DRAW_TEXT = false;
 
     /**
@@ -32,28 +42,54 @@ public class ObjectTracker
     private static final int MAX_DEBUG_HISTORY_SIZE = 30;
 
     /**
-     * How many frames of optical flow deltas to record.
-     * TODO(andrewharp): Push this down to the native level so it can be polled
-     * efficiently into a an array for upload, instead of keeping a duplicate
-     * copy in Java.
+     * How many frames of optical flow deltas to record. They are kept in a single direct buffer
+     * written by the native code, see KeypointHistory.
      */
     private static final int MAX_FRAME_HISTORY_SIZE = 200;
 
-    private static final int DOWNSAMPLE_FACTOR = 2;
+    //Default factor by which the frames are downsampled before tracking
+    public static final int DOWNSAMPLE_FACTOR = 2;
+
+    //Largest factor, the native kernels average blocks of 2x2 and 4x4 pixels
+    public static final int MAX_DOWNSAMPLE_FACTOR = 4;
 
+    private final int downsampleFactor;
+
+    //Frame at the size of the tracker, used to register the appearance of new objects
     private final byte[] downsampledFrame;
 
     protected static ObjectTracker instance;
 
     private final Map<String, TrackedObject> trackedObjects;
 
+    /**
+     * Values copied by the native code for each object: left, top, right, bottom (in the
+     * downsampled frame), correlation and 1 if the object is visible, 0 otherwise
+     */
+    static final int TRACKED_OBJECT_STEP = 6;
+
+    /**
+     * State of all the tracked objects, indexed by the native handle of the object, filled at
+     * every frame by getTrackedObjectsNative. It is direct so that the native code writes in it
+     * without copies; it grows with the number of handles.
+     */
+    private FloatBuffer trackedValues = allocateTrackedValues(16);
+
     private long lastTimestamp;
 
+    //Motion of the whole scene between the last two frames, in pixels of the frame
+    private float globalMotionX;
+    private float globalMotionY;
+
+    //Box moved by the optical flow to estimate the global motion, reused at every frame
+    private final float[] motionBox = new float[4];
+
+    //Debug information, only allocated when nextFrame is asked to update it
     private FrameChange lastKeypoints;
 
-    private final Vector<PointF> debugHistory;
+    private Vector<PointF> debugHistory;
 
-    private final LinkedList<TimestampedDeltas> timestampedDeltas;
+    private final KeypointHistory keypointHistory;
 
     protected final int frameWidth;
     protected final int frameHeight;
@@ -61,18 +97,6 @@ public class ObjectTracker
 
     protected final boolean alwaysTrack;
 
-    private static class TimestampedDeltas
-    {
-        final long timestamp;
-        final byte[] deltas;
-
-        public TimestampedDeltas(final long timestamp, final byte[] deltas)
-        {
-            this.timestamp = timestamp;
-            this.deltas = deltas;
-        }
-    }
-
     /**
      * A simple class that records keypoint information, which includes
      * local location, score and type. This will be used in calculating
@@ -143,7 +167,7 @@ public class ObjectTracker
         private final float minScore;
         private final float maxScore;
 
-        public FrameChange(final float[] framePoints)
+        public FrameChange(final float[] framePoints, final int downsampleFactor)
         {
             float minScore = 100.0f;
             float maxScore = -100.0f;
@@ -152,13 +176,13 @@ public class ObjectTracker
 
             for (int i = 0; i < framePoints.length; i += KEYPOINT_STEP)
             {
-                final float x1 = framePoints[i + 0] * DOWNSAMPLE_FACTOR;
-                final float y1 = framePoints[i + 1] * DOWNSAMPLE_FACTOR;
+                final float x1 = framePoints[i + 0] * downsampleFactor;
+                final float y1 = framePoints[i + 1] * downsampleFactor;
 
                 final boolean wasFound = framePoints[i + 2] > 0.0f;
 
-                final float x2 = framePoints[i + 3] * DOWNSAMPLE_FACTOR;
-                final float y2 = framePoints[i + 4] * DOWNSAMPLE_FACTOR;
+                final float x2 = framePoints[i + 3] * downsampleFactor;
+                final float y2 = framePoints[i + 4] * downsampleFactor;
                 final float score = framePoints[i + 5];
                 final int type = (int) framePoints[i + 6];
 
@@ -176,10 +200,22 @@ public class ObjectTracker
     public static synchronized ObjectTracker getInstance(
             final int frameWidth, final int frameHeight, final int rowStride, final boolean alwaysTrack)
     {
+        return getInstance(frameWidth, frameHeight, rowStride, alwaysTrack, DOWNSAMPLE_FACTOR);
+    }
+
+    /**
+     * Same as above, with the factor by which the frames are downsampled before tracking
+     * (see chooseDownsampleFactor)
+     */
+    public static synchronized ObjectTracker getInstance(
+            final int frameWidth, final int frameHeight, final int rowStride,
+            final boolean alwaysTrack, final int downsampleFactor)
+    {
 
         if (instance == null)
         {
-            instance = new ObjectTracker(frameWidth, frameHeight, rowStride, alwaysTrack);
+            instance = new ObjectTracker(frameWidth, frameHeight, rowStride, alwaysTrack,
+                    downsampleFactor);
             instance.init();
         }
         else
@@ -198,31 +234,57 @@ public class ObjectTracker
         }
     }
 
+    /**
+     * Chooses the factor by which the frames are downsampled on this device: the largest one that
+     * keeps at least minSide pixels on the shorter side of the frames given to the tracker, so that
+     * the devices with a big camera stream don't track on more pixels than needed.
+     *
+     * @param shorterSide shorter side that the frames have at least
+     * @param minSide     minimum shorter side of the downsampled frame
+     */
+    public static int chooseDownsampleFactor(final int shorterSide, final int minSide)
+    {
+        int factor = DOWNSAMPLE_FACTOR;
+        while (factor * 2 <= MAX_DOWNSAMPLE_FACTOR && shorterSide / (factor * 2) >= minSide)
+            factor *= 2;
+        return factor;
+    }
+
     protected ObjectTracker(final int frameWidth, final int frameHeight, final int rowStride, final boolean alwaysTrack)
     {
+        this(frameWidth, frameHeight, rowStride, alwaysTrack, DOWNSAMPLE_FACTOR);
+    }
+
+    protected ObjectTracker(final int frameWidth, final int frameHeight, final int rowStride,
+                            final boolean alwaysTrack, final int downsampleFactor)
+    {
+        if (downsampleFactor != 2 && downsampleFactor != MAX_DOWNSAMPLE_FACTOR)
+            throw new IllegalArgumentException("Unsupported downsample factor " + downsampleFactor);
+
         this.frameWidth = frameWidth;
         this.frameHeight = frameHeight;
         this.rowStride = rowStride;
         this.alwaysTrack = alwaysTrack;
-        this.timestampedDeltas = new LinkedList<TimestampedDeltas>();
+        this.downsampleFactor = downsampleFactor;
+        this.keypointHistory = new KeypointHistory(MAX_FRAME_HISTORY_SIZE);
 
         trackedObjects = new HashMap<String, TrackedObject>();
 
-        debugHistory = new Vector<PointF>(MAX_DEBUG_HISTORY_SIZE);
-
+        //Same size of the frames of the native tracker
         downsampledFrame =
-                new byte
-                        [(frameWidth + DOWNSAMPLE_FACTOR - 1)
-                        / DOWNSAMPLE_FACTOR
-                        * (frameWidth + DOWNSAMPLE_FACTOR - 1)
-                        / DOWNSAMPLE_FACTOR];
+                new byte[(frameWidth / downsampleFactor) * (frameHeight / downsampleFactor)];
+    }
+
+    public int getDownsampleFactor()
+    {
+        return downsampleFactor;
     }
 
     protected void init()
     {
         // The native tracker never sees the full frame, so pre-scale dimensions
         // by the downsample factor.
-        initNative(frameWidth / DOWNSAMPLE_FACTOR, frameHeight / DOWNSAMPLE_FACTOR, alwaysTrack);
+        initNative(frameWidth / downsampleFactor, frameHeight / downsampleFactor, alwaysTrack);
     }
 
 
@@ -231,28 +293,102 @@ public class ObjectTracker
 
     public synchronized void nextFrame(final byte[] frameData, final byte[] uvData, final long timestamp, final float[] transformationMatrix, final boolean updateDebugInfo)
     {
-        if (downsampledTimestamp != timestamp)
+        if (uvData == null)
         {
-            ObjectTracker.downsampleImageNative(frameWidth, frameHeight, rowStride, frameData, DOWNSAMPLE_FACTOR, downsampledFrame);//downsampledFrame
-            downsampledTimestamp = timestamp;
+            /**
+             * The native tracker downsamples the full frame together with its pyramid, in a single
+             * pass and without copying the downsampled frame in Java
+             */
+            nextFullFrameNative(frameData, rowStride, downsampleFactor, timestamp,
+                    transformationMatrix);
         }
-
-        // Do Lucas Kanade using the fullframe initializer.
-        nextFrameNative(downsampledFrame, uvData, timestamp, transformationMatrix);//downsampledFrame
-
-        timestampedDeltas.add(new TimestampedDeltas(timestamp, getKeypointsPacked(DOWNSAMPLE_FACTOR)));
-
-        while (timestampedDeltas.size() > MAX_FRAME_HISTORY_SIZE)
+        else
         {
-            timestampedDeltas.removeFirst();
+            if (downsampledTimestamp != timestamp)
+            {
+                ObjectTracker.downsampleImageNative(frameWidth, frameHeight, rowStride, frameData,
+                        downsampleFactor, downsampledFrame);
+                downsampledTimestamp = timestamp;
+            }
+            // Do Lucas Kanade using the fullframe initializer.
+            nextFrameNative(downsampledFrame, uvData, timestamp, transformationMatrix);
         }
+        onFrameTracked(timestamp, updateDebugInfo);
+    }
 
-        //Map<String, TrackedObject> trackedObjects;
-        for (final TrackedObject trackedObject : trackedObjects.values())
+    /**
+     * Same as above, but the luminance is read from a buffer. A direct buffer, as the Y plane of
+     * a camera Image, is read in place, without copying the frame in a Java array. A heap buffer
+     * must wrap a whole array (see wholeArray).
+     */
+    public synchronized void nextFrame(final ByteBuffer frameData, final long timestamp, final float[] transformationMatrix, final boolean updateDebugInfo)
+    {
+        if (!frameData.isDirect())
         {
-            trackedObject.updateTrackedPosition();
+            nextFrame(wholeArray(frameData), null, timestamp, transformationMatrix,
+                    updateDebugInfo);
+            return;
         }
 
+        nextFullFrameDirectNative(frameData, rowStride, downsampleFactor, timestamp,
+                transformationMatrix);
+        onFrameTracked(timestamp, updateDebugInfo);
+    }
+
+    /**
+     * Downsamples a frame as the tracker does, so that trackObject can register the objects found
+     * in it after the frame itself has been released: only the pixels seen by the tracker are kept.
+     *
+     * @param frameData luminance of the frame, read in place if it is a direct buffer
+     * @param out       array of getDownsampledLength() values
+     */
+    public void downsampleFrame(final ByteBuffer frameData, final byte[] out)
+    {
+        if (out.length != downsampledFrame.length)
+            throw new IllegalArgumentException("Wrong size of the downsampled frame " + out.length);
+
+        if (frameData.isDirect())
+            downsampleImageDirectNative(frameWidth, frameHeight, rowStride, frameData,
+                    downsampleFactor, out);
+        else
+            downsampleImageNative(frameWidth, frameHeight, rowStride, wholeArray(frameData),
+                    downsampleFactor, out);
+    }
+
+    /**
+     * @return number of pixels of the frames downsampled by downsampleFrame
+     */
+    public int getDownsampledLength()
+    {
+        return downsampledFrame.length;
+    }
+
+    /**
+     * The native code reads the frame from the first element of the array: a heap buffer is
+     * accepted only if it starts there.
+     */
+    private static byte[] wholeArray(final ByteBuffer frameData)
+    {
+        if (!frameData.hasArray() || frameData.arrayOffset() != 0 || frameData.position() != 0)
+            throw new IllegalArgumentException(
+                    "The frame must be a direct buffer or wrap a whole array");
+        return frameData.array();
+    }
+
+    /**
+     * Updates the information read from the native tracker after a new frame
+     */
+    private void onFrameTracked(final long timestamp, final boolean updateDebugInfo)
+    {
+        updateGlobalMotion();
+
+        //The keypoints are written directly in the slot of the oldest frame of the history
+        final int keypoints = getKeypointsPackedDirectNative(keypointHistory.getBuffer(),
+                keypointHistory.getNextOffset(), downsampleFactor);
+        keypointHistory.add(timestamp, keypoints);
+
+        updateTrackedPositions();
+
         if (updateDebugInfo)
         {
             updateDebugHistory();
@@ -261,6 +397,46 @@ public class ObjectTracker
         lastTimestamp = timestamp;
     }
 
+    static FloatBuffer allocateTrackedValues(final int handles)
+    {
+        return ByteBuffer.allocateDirect(handles * TRACKED_OBJECT_STEP * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Reads the position, the correlation and the visibility of all the tracked objects with a
+     * single native call, instead of three calls keyed by the id of each object.
+     */
+    private void updateTrackedPositions()
+    {
+        if (trackedObjects.isEmpty())
+            return;
+
+        final int handles = getTrackedObjectsNative(trackedValues,
+                trackedValues.capacity() / TRACKED_OBJECT_STEP);
+        if (handles * TRACKED_OBJECT_STEP > trackedValues.capacity())
+        {
+            trackedValues = allocateTrackedValues(2 * handles);
+            getTrackedObjectsNative(trackedValues, trackedValues.capacity() / TRACKED_OBJECT_STEP);
+        }
+
+        for (final TrackedObject trackedObject : trackedObjects.values())
+            trackedObject.setTrackedPosition(trackedValues,
+                    trackedObject.handle * TRACKED_OBJECT_STEP, true);
+    }
+
+    /**
+     * Copies the keypoint deltas found by the optical flow in a recent frame, each one as the
+     * coordinates x1, y1 (previous frame) and x2, y2 (frame given), in pixels of the frame.
+     *
+     * @param out array of at least 4 * 76 values
+     * @return number of keypoints copied, -1 if the frame is too old or unknown
+     */
+    public synchronized int getKeypointDeltas(final long timestamp, final short[] out)
+    {
+        return keypointHistory.copyKeypoints(timestamp, out);
+    }
+
     public synchronized void release()
     {
         releaseMemoryNative();
@@ -293,9 +469,44 @@ public class ObjectTracker
         return upscaleRect(newPosition);
     }
 
+    /**
+     * Estimates the motion of the scene between the previous frame and the current one, moving
+     * with the optical flow a big box placed in the center of the frame.
+     */
+    private void updateGlobalMotion()
+    {
+        if (lastTimestamp == 0)
+        {
+            globalMotionX = 0;
+            globalMotionY = 0;
+            return;
+        }
+
+        //Same as getAccumulatedDelta, in the downsampled frame and without allocations
+        final float centerX = frameWidth / 2.0f / downsampleFactor;
+        final float centerY = frameHeight / 2.0f / downsampleFactor;
+        final float radius = Math.min(frameWidth, frameHeight) / 4.0f / downsampleFactor;
+        getCurrentPositionNative(lastTimestamp, centerX - radius, centerY - radius,
+                centerX + radius, centerY + radius, motionBox);
+        globalMotionX = ((motionBox[0] + motionBox[2]) / 2 - centerX) * downsampleFactor;
+        globalMotionY = ((motionBox[1] + motionBox[3]) / 2 - centerY) * downsampleFactor;
+    }
+
+    /**
+     * @return the length, in pixels of the frame, of the motion of the scene between the last
+     * two frames
+     */
+    public synchronized float getGlobalMotion()
+    {
+        return (float) Math.hypot(globalMotionX, globalMotionY);
+    }
+
     private void updateDebugHistory()
     {
-        lastKeypoints = new FrameChange(getKeypointsNative(false));
+        if (debugHistory == null)
+            debugHistory = new Vector<PointF>(MAX_DEBUG_HISTORY_SIZE);
+
+        lastKeypoints = new FrameChange(getKeypointsNative(false), downsampleFactor);
 
         if (lastTimestamp == 0)
         {
@@ -304,7 +515,8 @@ public class ObjectTracker
 
         final PointF delta =
                 getAccumulatedDelta(
-                        lastTimestamp, frameWidth / DOWNSAMPLE_FACTOR, frameHeight / DOWNSAMPLE_FACTOR, 100);
+                        lastTimestamp, frameWidth / downsampleFactor,
+                        frameHeight / downsampleFactor, 100);
 
         synchronized (debugHistory)
         {
@@ -320,19 +532,19 @@ public class ObjectTracker
     private RectF downscaleRect(final RectF fullFrameRect)
     {
         return new RectF(
-                fullFrameRect.left / DOWNSAMPLE_FACTOR,
-                fullFrameRect.top / DOWNSAMPLE_FACTOR,
-                fullFrameRect.right / DOWNSAMPLE_FACTOR,
-                fullFrameRect.bottom / DOWNSAMPLE_FACTOR);
+                fullFrameRect.left / downsampleFactor,
+                fullFrameRect.top / downsampleFactor,
+                fullFrameRect.right / downsampleFactor,
+                fullFrameRect.bottom / downsampleFactor);
     }
 
     private RectF upscaleRect(final RectF downsampledFrameRect)
     {
         return new RectF(
-                downsampledFrameRect.left * DOWNSAMPLE_FACTOR,
-                downsampledFrameRect.top * DOWNSAMPLE_FACTOR,
-                downsampledFrameRect.right * DOWNSAMPLE_FACTOR,
-                downsampledFrameRect.bottom * DOWNSAMPLE_FACTOR);
+                downsampledFrameRect.left * downsampleFactor,
+                downsampledFrameRect.top * downsampleFactor,
+                downsampledFrameRect.right * downsampleFactor,
+                downsampledFrameRect.bottom * downsampleFactor);
     }
     static int cnt = 1;
     /**
@@ -348,12 +560,20 @@ public class ObjectTracker
         //Non è final in quanto l'id viene ceduto quando si cambia colore
         final private String id;
 
+        //Handle of the native object, used by the calls made at every frame instead of the id
+        private int handle;
+
         private long lastExternalPositionTime;
 
         private RectF lastTrackedPosition;
 
         private boolean visibleInLastFrame;
 
+        private float correlationInLastFrame;
+
+        //False until the object has been tracked in a frame: the native correlation is 0 before
+        private boolean correlationComputed;
+
         private boolean isDead;
 
         //Costruttore
@@ -382,7 +602,7 @@ public class ObjectTracker
             synchronized (ObjectTracker.this)
             {
                 isDead = true;
-                forgetNative(id);
+                forgetByHandleNative(handle);
                 trackedObjects.remove(id);
             }
         }
@@ -390,13 +610,13 @@ public class ObjectTracker
         public float getCurrentCorrelation()
         {
             checkValidObject();
-            return ObjectTracker.this.getCurrentCorrelation(id);
+            return getCorrelationByHandleNative(handle);
         }
 
         void registerInitialAppearance(final RectF position, final byte[] data)
         {
             final RectF externalPosition = downscaleRect(position);
-            registerNewObjectWithAppearanceNative(id, externalPosition.left, externalPosition.top, externalPosition.right, externalPosition.bottom, data);
+            handle = registerNewObjectWithAppearanceNative(id, externalPosition.left, externalPosition.top, externalPosition.right, externalPosition.bottom, data);
         }
 
         synchronized void setPreviousPosition(final RectF position, final long timestamp)
@@ -425,10 +645,49 @@ public class ObjectTracker
         {
             checkValidObject();
 
-            final float[] delta = new float[4];
-            getTrackedPositionNative(id, delta);
-            lastTrackedPosition = new RectF(delta[0], delta[1], delta[2], delta[3]);
-            visibleInLastFrame = isObjectVisible(id);
+            final float[] values = new float[TRACKED_OBJECT_STEP];
+            getTrackedObjectNative(handle, values);
+            setTrackedPosition(FloatBuffer.wrap(values), 0, false);
+        }
+
+        /**
+         * Same as above, with the values read by updateTrackedPositions for all the objects
+         *
+         * @param tracked true if the values have been computed by the tracker on a frame
+         */
+        private synchronized void setTrackedPosition(final FloatBuffer values, final int offset,
+                                                     final boolean tracked)
+        {
+            //The rectangle never leaves the object, so it is reused
+            if (lastTrackedPosition == null)
+                lastTrackedPosition = new RectF();
+            lastTrackedPosition.set(values.get(offset), values.get(offset + 1),
+                    values.get(offset + 2), values.get(offset + 3));
+            correlationInLastFrame = values.get(offset + 4);
+            visibleInLastFrame = values.get(offset + 5) > 0;
+            correlationComputed |= tracked;
+        }
+
+        /**
+         * @return the correlation of the object after the last frame, without a native call
+         */
+        public synchronized float getCorrelationInLastFrame()
+        {
+            return correlationInLastFrame;
+        }
+
+        /**
+         * @return true if the object has been tracked in at least a frame since it was registered,
+         * so that getCorrelationInLastFrame is the one computed by the tracker
+         */
+        public synchronized boolean hasCorrelationInLastFrame()
+        {
+            return correlationComputed;
+        }
+
+        public synchronized boolean isVisibleInLastFrame()
+        {
+            return visibleInLastFrame;
         }
 
         public synchronized RectF getTrackedPositionInPreviewFrame()
@@ -455,14 +714,16 @@ public class ObjectTracker
         }
     }
 
-    public synchronized TrackedObject trackObject(final RectF position, final long timestamp, final byte[] frameData)
+    /**
+     * @param downsampledData frame in which the object has been found, as returned by
+     *                        downsampleFrame
+     */
+    public synchronized TrackedObject trackObject(final RectF position, final long timestamp, final byte[] downsampledData)
     {
-        if (downsampledTimestamp != timestamp)
-        {
-            ObjectTracker.downsampleImageNative(frameWidth, frameHeight, rowStride, frameData, DOWNSAMPLE_FACTOR, downsampledFrame);
-            downsampledTimestamp = timestamp;
-        }
-        return new TrackedObject(position, timestamp, downsampledFrame);
+        if (downsampledData.length != downsampledFrame.length)
+            throw new IllegalArgumentException(
+                    "Wrong size of the downsampled frame " + downsampledData.length);
+        return new TrackedObject(position, timestamp, downsampledData);
     }
 
     /** ********************* NATIVE CODE ************************************ */
@@ -474,7 +735,10 @@ public class ObjectTracker
 
     private native void initNative(int imageWidth, int imageHeight, boolean alwaysTrack);
 
-    protected native void registerNewObjectWithAppearanceNative(
+    /**
+     * @return the handle of the new object, valid until the object is forgotten
+     */
+    protected native int registerNewObjectWithAppearanceNative(
             String objectId, float x1, float y1, float x2, float y2, byte[] data);
 
     protected native void setPreviousPositionNative(
@@ -485,6 +749,8 @@ public class ObjectTracker
 
     protected native void forgetNative(String key);
 
+    protected native void forgetByHandleNative(int handle);
+
     protected native String getModelIdNative(String key);
 
     protected native boolean haveObject(String key);
@@ -497,9 +763,38 @@ public class ObjectTracker
 
     protected native void getTrackedPositionNative(String key, float[] points);
 
+    protected native void getTrackedObjectNative(int handle, float[] values);
+
+    /**
+     * Copies the state of the objects in values, TRACKED_OBJECT_STEP floats for each handle.
+     *
+     * @param values direct buffer in native order
+     * @param maxHandles number of handles that fit in values
+     * @return number of handles in use; if more than maxHandles, not all of them are copied
+     */
+    protected native int getTrackedObjectsNative(FloatBuffer values, int maxHandles);
+
+    protected native float getCorrelationByHandleNative(int handle);
+
     protected native void nextFrameNative(
             byte[] frameData, byte[] uvData, long timestamp, float[] frameAlignMatrix);
 
+    /**
+     * Same as nextFrameNative, with the luminance of the frame at full size: it is downsampled
+     * by factor in the same pass that builds the pyramid of the tracker
+     */
+    protected native void nextFullFrameNative(
+            byte[] frameData, int rowStride, int factor, long timestamp, float[] frameAlignMatrix);
+
+    protected native void nextFullFrameDirectNative(
+            ByteBuffer frameData, int rowStride, int factor, long timestamp,
+            float[] frameAlignMatrix);
+
+    /**
+     * Copies the last frame given to the tracker, at the size of the tracker
+     */
+    protected native void getCurrentFrameNative(byte[] output);
+
     protected native void releaseMemoryNative();
 
     protected native void getCurrentPositionNative(long timestamp,
@@ -509,10 +804,21 @@ public class ObjectTracker
 
     protected native byte[] getKeypointsPacked(float scaleFactor);
 
+    /**
+     * Same as getKeypointsPacked, written at the given offset of a direct buffer in native order
+     *
+     * @return number of keypoints written
+     */
+    protected native int getKeypointsPackedDirectNative(
+            ByteBuffer out, int offset, float scaleFactor);
+
     protected native float[] getKeypointsNative(boolean onlyReturnCorrespondingKeypoints);
 
     protected native void drawNative(int viewWidth, int viewHeight, float[] frameToCanvas);
 
     protected static native void downsampleImageNative(
             int width, int height, int rowStride, byte[] input, int factor, byte[] output);
+
+    protected static native void downsampleImageDirectNative(
+            int width, int height, int rowStride, ByteBuffer input, int factor, byte[] output);
 }
@@ -20,6 +20,10 @@ public class TrackedRecognition
     //Di default non ho posizione
     private MultiBoxTracker.Direction mLastPosSpeech = MultiBoxTracker.Direction.UNDEFINED;
 
+    //Sector in which the tracker has placed the object in the last frames, and for how many frames
+    private MultiBoxTracker.Direction mObservedSector = MultiBoxTracker.Direction.UNDEFINED;
+    private int mObservedFrames = 0;
+
     //First position in which it was recognized
     private float mFirstPosition;
 
@@ -103,6 +107,22 @@ public class TrackedRecognition
         mLastPosSpeech = direction;
     }
 
+    /**
+     * Records the sector in which the tracker places the object in the current frame.
+     *
+     * @return number of consecutive frames, this one included, in which the object has been in
+     * this sector
+     */
+    public int observeSector(MultiBoxTracker.Direction sector)
+    {
+        if (sector != mObservedSector)
+        {
+            mObservedSector = sector;
+            mObservedFrames = 0;
+        }
+        return ++mObservedFrames;
+    }
+
     public float getFirstPosition()
     {
         return mFirstPosition;
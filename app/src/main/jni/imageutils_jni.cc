@@ -40,6 +40,27 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
     jintArray output, jint width, jint height, jint y_row_stride,
     jint uv_row_stride, jint uv_pixel_stride, jboolean halfSize);
 
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToModelInput)(
+    JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
+    jint width, jint height, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jfloatArray dst_to_src, jobject output,
+    jint out_x, jint out_y, jint out_width, jint out_height,
+    jint out_row_stride, jboolean quantized, jfloat mean, jfloat std,
+    jboolean bilinear);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jintArray output, jint width, jint height, jint y_row_stride,
+    jint uv_row_stride, jint uv_pixel_stride);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToModelInputDirect)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jint width, jint height, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jfloatArray dst_to_src, jobject output,
+    jint out_x, jint out_y, jint out_width, jint out_height,
+    jint out_row_stride, jboolean quantized, jfloat mean, jfloat std,
+    jboolean bilinear);
+
 JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height);
@@ -112,6 +133,106 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
   env->ReleaseIntArrayElements(output, o, 0);
 }
 
+// Converts the planes in the region of the direct buffer output that starts at
+// (out_x, out_y).
+static void ConvertToModelInput(
+    JNIEnv* env, const uint8_t* y, const uint8_t* u, const uint8_t* v,
+    jint width, jint height, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jfloatArray dst_to_src, jobject output,
+    jint out_x, jint out_y, jint out_width, jint out_height,
+    jint out_row_stride, jboolean quantized, jfloat mean, jfloat std,
+    jboolean bilinear) {
+  uint8_t* const base =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(output));
+  if (base == NULL) {
+    return;
+  }
+  const int bytes_per_channel = quantized ? 1 : sizeof(float);
+  void* const o =
+      base + (out_y * out_row_stride + out_x) * 3 * bytes_per_channel;
+
+  jfloat matrix[6];
+  env->GetFloatArrayRegion(dst_to_src, 0, 6, matrix);
+
+  ConvertYUV420ToModelInput(y, u, v, width, height, y_row_stride,
+                            uv_row_stride, uv_pixel_stride, matrix, o,
+                            out_width, out_height, out_row_stride, quantized,
+                            mean, std, bilinear);
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToModelInput)(
+    JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
+    jint width, jint height, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jfloatArray dst_to_src, jobject output,
+    jint out_x, jint out_y, jint out_width, jint out_height,
+    jint out_row_stride, jboolean quantized, jfloat mean, jfloat std,
+    jboolean bilinear) {
+  jboolean inputCopy = JNI_FALSE;
+  jbyte* const y_buff = env->GetByteArrayElements(y, &inputCopy);
+  jbyte* const u_buff = env->GetByteArrayElements(u, &inputCopy);
+  jbyte* const v_buff = env->GetByteArrayElements(v, &inputCopy);
+
+  ConvertToModelInput(
+      env, reinterpret_cast<uint8_t*>(y_buff),
+      reinterpret_cast<uint8_t*>(u_buff), reinterpret_cast<uint8_t*>(v_buff),
+      width, height, y_row_stride, uv_row_stride, uv_pixel_stride, dst_to_src,
+      output, out_x, out_y, out_width, out_height, out_row_stride, quantized,
+      mean, std, bilinear);
+
+  env->ReleaseByteArrayElements(y, y_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(u, u_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(v, v_buff, JNI_ABORT);
+}
+
+// The planes of a camera Image are direct buffers: they are read in place,
+// without copying them in Java arrays.
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jintArray output, jint width, jint height, jint y_row_stride,
+    jint uv_row_stride, jint uv_pixel_stride) {
+  const uint8_t* const y_buff =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(y));
+  const uint8_t* const u_buff =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(u));
+  const uint8_t* const v_buff =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(v));
+  if (y_buff == NULL || u_buff == NULL || v_buff == NULL) {
+    return;
+  }
+
+  jboolean outputCopy = JNI_FALSE;
+  jint* const o = env->GetIntArrayElements(output, &outputCopy);
+
+  ConvertYUV420ToARGB8888(y_buff, u_buff, v_buff,
+                          reinterpret_cast<uint32_t*>(o), width, height,
+                          y_row_stride, uv_row_stride, uv_pixel_stride);
+
+  env->ReleaseIntArrayElements(output, o, 0);
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToModelInputDirect)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jint width, jint height, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jfloatArray dst_to_src, jobject output,
+    jint out_x, jint out_y, jint out_width, jint out_height,
+    jint out_row_stride, jboolean quantized, jfloat mean, jfloat std,
+    jboolean bilinear) {
+  const uint8_t* const y_buff =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(y));
+  const uint8_t* const u_buff =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(u));
+  const uint8_t* const v_buff =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(v));
+  if (y_buff == NULL || u_buff == NULL || v_buff == NULL) {
+    return;
+  }
+
+  ConvertToModelInput(env, y_buff, u_buff, v_buff, width, height,
+                      y_row_stride, uv_row_stride, uv_pixel_stride,
+                      dst_to_src, output, out_x, out_y, out_width, out_height,
+                      out_row_stride, quantized, mean, std, bilinear);
+}
+
 JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height) {
@@ -96,6 +96,10 @@ static const int kMaxTempKeypoints = 1024;
 // Number of floats each keypoint takes up when exporting to an array.
 static const int kKeypointStep = 7;
 
+// Number of floats each tracked object takes up when exporting to an array:
+// the position (left, top, right, bottom), the correlation and the visibility.
+static const int kTrackedObjectStep = 6;
+
 // Number of frame deltas to keep around in the circular queue.
 static const int kNumFrames = 512;
 
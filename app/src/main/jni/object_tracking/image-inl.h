@@ -234,6 +234,11 @@ void Image<T>::DownsampleAveraged(const T* const original, const int stride,
     DownsampleAveragedNeon(original, stride, factor);
     return;
   }
+#elif defined(__SSE2__)
+  if ((factor == 4 || factor == 2) && width_ * factor >= 32) {
+    DownsampleAveragedSse(original, stride, factor);
+    return;
+  }
 #endif
 
   // TODO(andrewharp): delete or enable this for non-uint8_t downsamples.
@@ -205,6 +205,15 @@ class Image {
 
   void DownsampleAveragedNeon(const uint8_t* const original, const int stride,
                               const int factor);
+#elif defined(__SSE2__)
+  void Downsample2x32ColumnsSse(const uint8_t* const original,
+                                const int stride, const int orig_x);
+
+  void Downsample4x32ColumnsSse(const uint8_t* const original,
+                                const int stride, const int orig_x);
+
+  void DownsampleAveragedSse(const uint8_t* const original, const int stride,
+                             const int factor);
 #endif
 
   // Naive downsampler that reduces image size by factor by averaging pixels in
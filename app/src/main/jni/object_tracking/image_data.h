@@ -21,6 +21,7 @@ limitations under the License.
 
 #include "image-inl.h"
 #include "image.h"
+#include "image_pyramid.h"
 #include "image_utils.h"
 #include "integral_image.h"
 #include "time_log.h"
@@ -124,6 +125,39 @@ class ImageData {
 #endif
   }
 
+  // Same as SetData without uv data, but the image is averaged from the full
+  // frame (read row_stride bytes per row) by downsample_factor. The levels of
+  // the pyramid that are averages of the previous ones are built in the same
+  // pass, instead of reading the image again when they are requested.
+  void SetDataFromFrame(const uint8_t* const frame, const int row_stride,
+                        const int64_t timestamp, const int downsample_factor) {
+    ResetComputationCache();
+
+    timestamp_ = timestamp;
+
+    Image<uint8_t>* levels[kNumPyramidLevels];
+    for (int i = 0; i < kNumPyramidLevels; ++i) {
+      const int level = i * 2;
+      if (pyramid_sqrt2_[level] == NULL) {
+        const Image<uint8_t>& upper_level = *pyramid_sqrt2_[level - 2];
+        pyramid_sqrt2_[level] = new Image<uint8_t>(
+            upper_level.GetWidth() / 2, upper_level.GetHeight() / 2);
+      }
+      levels[i] = pyramid_sqrt2_[level];
+    }
+
+    BuildPyramid(frame, row_stride, downsample_factor, levels,
+                 kNumPyramidLevels);
+    for (int i = 0; i < kNumPyramidLevels; ++i) {
+      pyramid_sqrt2_computed_[i * 2] = true;
+    }
+    TimeLog("Built pyramid from frame");
+
+#ifdef LOG_TIME
+    Precompute();
+#endif
+  }
+
   inline const uint64_t GetTimestamp() const { return timestamp_; }
 
   inline const Image<uint8_t>* GetImage() const {
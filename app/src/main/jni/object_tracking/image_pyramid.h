@@ -0,0 +1,85 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+#ifndef TENSORFLOW_EXAMPLES_ANDROID_JNI_OBJECT_TRACKING_IMAGE_PYRAMID_H_
+#define TENSORFLOW_EXAMPLES_ANDROID_JNI_OBJECT_TRACKING_IMAGE_PYRAMID_H_
+
+#include <stdint.h>
+
+#include "image-inl.h"
+#include "image.h"
+#include "utils.h"
+
+namespace tf_tracking {
+
+// Averages the rows [start_row, end_row) of the given image from the rows of
+// source, that start at source_rows and are row_stride bytes apart.
+inline void DownsampleRows(const uint8_t* const source_rows,
+                           const int row_stride, const int factor,
+                           const int start_row, const int end_row,
+                           Image<uint8_t>* const image) {
+  if (end_row <= start_row) {
+    return;
+  }
+  // View of the rows, on the memory of the image.
+  Image<uint8_t> rows(image->GetWidth(), end_row - start_row,
+                      const_cast<uint8_t*>(image->data()) +
+                      start_row * image->stride(), false);
+  rows.DownsampleAveraged(source_rows, row_stride, factor);
+}
+
+// Builds the levels of a pyramid from the luminance of a frame, in a single
+// pass over the frame: levels[0] is the frame averaged on factor x factor
+// blocks, and each following level is the previous one averaged on 2x2 blocks.
+// The sizes of the levels must already be set: each one is at most the
+// previous one divided by the factor (by 2 after the first level), and the
+// frame is read row_stride bytes per row.
+//
+// The frame is processed in horizontal bands, as tall as a row of the last
+// level: all the levels of a band are computed while its rows are still in
+// the cache, instead of reading each level again from memory after the
+// previous one is complete. The pixels are the same of DownsampleAveraged.
+inline void BuildPyramid(const uint8_t* const frame, const int row_stride,
+                         const int factor, Image<uint8_t>* const* const levels,
+                         const int num_levels) {
+  SCHECK(num_levels >= 1, "No levels to build!");
+  SCHECK(levels[0]->GetWidth() * factor <= row_stride,
+         "Frame too small for the first level! %d * %d > %d",
+         levels[0]->GetWidth(), factor, row_stride);
+
+  const int band_rows = 1 << (num_levels - 1);
+  const int height = levels[0]->GetHeight();
+
+  for (int band_start = 0; band_start < height; band_start += band_rows) {
+    const int band_end = MIN(height, band_start + band_rows);
+    DownsampleRows(frame + band_start * factor * row_stride, row_stride,
+                   factor, band_start, band_end, levels[0]);
+
+    // The band of each level needs only rows of the previous level that have
+    // already been computed, as band_rows is a multiple of 2^level.
+    for (int level = 1; level < num_levels; ++level) {
+      const Image<uint8_t>& upper = *levels[level - 1];
+      const int start = band_start >> level;
+      const int end = MIN(levels[level]->GetHeight(),
+                          (band_start + band_rows) >> level);
+      DownsampleRows(upper.data() + start * 2 * upper.stride(),
+                     upper.stride(), 2, start, end, levels[level]);
+    }
+  }
+}
+
+}  // namespace tf_tracking
+
+#endif  // TENSORFLOW_EXAMPLES_ANDROID_JNI_OBJECT_TRACKING_IMAGE_PYRAMID_H_
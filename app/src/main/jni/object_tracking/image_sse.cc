@@ -0,0 +1,176 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+// SSE2 implementations of the NEON Image methods of image_neon.cc, for x86
+// devices and for the host build of the library. They produce exactly the
+// same pixels as the NEON and the CPU versions.
+
+#if defined(__SSE2__) && !defined(__ARM_NEON)
+
+#include <emmintrin.h>
+
+#include <stdint.h>
+
+#include "image-inl.h"
+#include "image.h"
+#include "image_utils.h"
+#include "utils.h"
+
+namespace tf_tracking {
+
+// Sums the pairs of horizontally adjacent pixels of 16 bytes, giving 8 sums of
+// 16 bits (the equivalent of the pairwise add of NEON).
+inline static __m128i PairwiseAdd(const __m128i pixels) {
+  const __m128i low_bytes = _mm_set1_epi16(0x00FF);
+  return _mm_add_epi16(_mm_and_si128(pixels, low_bytes),
+                       _mm_srli_epi16(pixels, 8));
+}
+
+// Process 32x2 input pixels and 16x1 output pixels per row of output.
+template <>
+void Image<uint8_t>::Downsample2x32ColumnsSse(const uint8_t* const original,
+                                              const int stride,
+                                              const int orig_x) {
+  const int new_x = orig_x >> 1;
+  const uint8_t* offset = original + orig_x;
+  uint8_t* ptr_dst = (*this)[0] + new_x;
+
+  for (int new_y = 0; new_y < height_; ++new_y) {
+    __m128i accum1 = _mm_setzero_si128();
+    __m128i accum2 = _mm_setzero_si128();
+
+    for (int row_num = 0; row_num < 2; ++row_num) {
+      accum1 = _mm_add_epi16(accum1, PairwiseAdd(_mm_loadu_si128(
+          reinterpret_cast<const __m128i*>(offset))));
+      accum2 = _mm_add_epi16(accum2, PairwiseAdd(_mm_loadu_si128(
+          reinterpret_cast<const __m128i*>(offset + 16))));
+      offset += stride;
+    }
+
+    // Divide by 4 and narrow to 8 bits per pixel.
+    const __m128i allpixels = _mm_packus_epi16(_mm_srli_epi16(accum1, 2),
+                                               _mm_srli_epi16(accum2, 2));
+    _mm_storeu_si128(reinterpret_cast<__m128i*>(ptr_dst), allpixels);
+
+    ptr_dst += stride_;
+  }
+}
+
+// Process 32x4 input pixels and 8x1 output pixels per row of output.
+template <>
+void Image<uint8_t>::Downsample4x32ColumnsSse(const uint8_t* const original,
+                                              const int stride,
+                                              const int orig_x) {
+  const int new_x = orig_x >> 2;
+  const uint8_t* offset = original + orig_x;
+  uint8_t* ptr_dst = (*this)[0] + new_x;
+  const __m128i ones = _mm_set1_epi16(1);
+
+  for (int new_y = 0; new_y < height_; ++new_y) {
+    __m128i accum1 = _mm_setzero_si128();
+    __m128i accum2 = _mm_setzero_si128();
+
+    for (int row_num = 0; row_num < 4; ++row_num) {
+      accum1 = _mm_add_epi16(accum1, PairwiseAdd(_mm_loadu_si128(
+          reinterpret_cast<const __m128i*>(offset))));
+      accum2 = _mm_add_epi16(accum2, PairwiseAdd(_mm_loadu_si128(
+          reinterpret_cast<const __m128i*>(offset + 16))));
+      offset += stride;
+    }
+
+    // Add the pairs of sums widening to 32 bits, divide by 16 and narrow to 8
+    // bits per pixel. The sums are at most 16 * 255, so the signed operations
+    // are exact.
+    const __m128i sums1 = _mm_srli_epi32(_mm_madd_epi16(accum1, ones), 4);
+    const __m128i sums2 = _mm_srli_epi32(_mm_madd_epi16(accum2, ones), 4);
+    const __m128i pixels16 = _mm_packs_epi32(sums1, sums2);
+    _mm_storel_epi64(reinterpret_cast<__m128i*>(ptr_dst),
+                     _mm_packus_epi16(pixels16, pixels16));
+
+    ptr_dst += stride_;
+  }
+}
+
+// Same requirements of DownsampleAveragedNeon: the downsampled width times the
+// factor must be at least 32 and no more than the stride.
+template <>
+void Image<uint8_t>::DownsampleAveragedSse(const uint8_t* const original,
+                                           const int stride,
+                                           const int factor) {
+  SCHECK(width_ * factor <= stride, "Uh oh!");
+  const int last_starting_index = width_ * factor - 32;
+
+  int orig_x = 0;
+  for (; orig_x <= last_starting_index; orig_x += 32) {
+    if (factor == 2) {
+      Downsample2x32ColumnsSse(original, stride, orig_x);
+    } else {
+      Downsample4x32ColumnsSse(original, stride, orig_x);
+    }
+  }
+
+  // The last pass is pushed to the left so that it never goes out of bounds.
+  if (orig_x < last_starting_index + 32) {
+    if (factor == 2) {
+      Downsample2x32ColumnsSse(original, stride, last_starting_index);
+    } else {
+      Downsample4x32ColumnsSse(original, stride, last_starting_index);
+    }
+  }
+}
+
+void CalculateGSse(const float* const vals_x, const float* const vals_y,
+                   const int num_vals, float* const G) {
+  __m128 xx = _mm_setzero_ps();
+  __m128 xy = _mm_setzero_ps();
+  __m128 yy = _mm_setzero_ps();
+
+  const int max_i = num_vals - 4;
+  int i = 0;
+  for (; i <= max_i; i += 4) {
+    const __m128 x = _mm_loadu_ps(vals_x + i);
+    const __m128 y = _mm_loadu_ps(vals_y + i);
+    xx = _mm_add_ps(xx, _mm_mul_ps(x, x));
+    xy = _mm_add_ps(xy, _mm_mul_ps(x, y));
+    yy = _mm_add_ps(yy, _mm_mul_ps(y, y));
+  }
+
+  float xx_vals[4];
+  float xy_vals[4];
+  float yy_vals[4];
+  _mm_storeu_ps(xx_vals, xx);
+  _mm_storeu_ps(xy_vals, xy);
+  _mm_storeu_ps(yy_vals, yy);
+
+  for (int j = 0; j < 4; ++j) {
+    G[0] += xx_vals[j];
+    G[1] += xy_vals[j];
+    G[3] += yy_vals[j];
+  }
+
+  // Finishes off last few values (< 4) from above.
+  for (; i < num_vals; ++i) {
+    G[0] += Square(vals_x[i]);
+    G[1] += vals_x[i] * vals_y[i];
+    G[3] += Square(vals_y[i]);
+  }
+
+  // The matrix is symmetric, so this is a given.
+  G[2] = G[1];
+}
+
+}  // namespace tf_tracking
+
+#endif  // __SSE2__
@@ -92,6 +92,10 @@ inline static void MarkImage(const int x, const int y, const int radius,
 void CalculateGNeon(
     const float* const vals_x, const float* const vals_y,
     const int num_vals, float* const G);
+#elif defined(__SSE2__)
+void CalculateGSse(
+    const float* const vals_x, const float* const vals_y,
+    const int num_vals, float* const G);
 #endif
 
 // Puts the image gradient matrix about a pixel into the 2x2 float array G.
@@ -103,6 +107,9 @@ inline void CalculateG(const float* const vals_x, const float* const vals_y,
 #ifdef __ARM_NEON
   CalculateGNeon(vals_x, vals_y, num_vals, G);
   return;
+#elif defined(__SSE2__)
+  CalculateGSse(vals_x, vals_y, num_vals, G);
+  return;
 #endif
 
   // Non-accelerated version.
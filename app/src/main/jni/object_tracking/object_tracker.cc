@@ -101,6 +101,23 @@ void ObjectTracker::NextFrame(const uint8_t* const new_frame,
                               const uint8_t* const uv_frame,
                               const int64_t timestamp,
                               const float* const alignment_matrix_2x3) {
+  BeginFrame(timestamp);
+  frame2_->SetData(new_frame, uv_frame, frame_width_, timestamp, 1);
+  ProcessFrame(alignment_matrix_2x3);
+}
+
+void ObjectTracker::NextFullFrame(const uint8_t* const full_frame,
+                                  const int row_stride,
+                                  const int downsample_factor,
+                                  const int64_t timestamp,
+                                  const float* const alignment_matrix_2x3) {
+  BeginFrame(timestamp);
+  frame2_->SetDataFromFrame(full_frame, row_stride, timestamp,
+                            downsample_factor);
+  ProcessFrame(alignment_matrix_2x3);
+}
+
+void ObjectTracker::BeginFrame(const int64_t timestamp) {
   IncrementFrameIndex();
   LOGV("Received frame %d", num_frames_);
 
@@ -115,9 +132,9 @@ void ObjectTracker::NextFrame(const uint8_t* const new_frame,
 
   // Swap the frames.
   frame1_.swap(frame2_);
+}
 
-  frame2_->SetData(new_frame, uv_frame, frame_width_, timestamp, 1);
-
+void ObjectTracker::ProcessFrame(const float* const alignment_matrix_2x3) {
   if (detector_.get() != NULL) {
     detector_->SetImageData(frame2_.get());
   }
@@ -134,7 +151,7 @@ void ObjectTracker::NextFrame(const uint8_t* const new_frame,
     ComputeKeypoints(true);
     TimeLog("Keypoints computed!");
 
-    FindCorrespondences(curr_change);
+    FindCorrespondences(frame_pairs_ + GetNthIndexFromEnd(0));
     TimeLog("Flow computed!");
 
     TrackObjects();
@@ -167,6 +184,19 @@ TrackedObject* ObjectTracker::MaybeAddObject(
       new TrackedObject(id, source_image, bounding_box, model);
 
   objects_[id] = object;
+
+  // The object takes the first free handle.
+  int handle = 0;
+  while (handle < static_cast<int>(handles_.size()) &&
+         handles_[handle] != NULL) {
+    ++handle;
+  }
+  if (handle == static_cast<int>(handles_.size())) {
+    handles_.push_back(object);
+  } else {
+    handles_[handle] = object;
+  }
+  handles_by_id_[id] = handle;
   return object;
 }
 
@@ -214,6 +244,26 @@ void ObjectTracker::SetPreviousPositionOfObject(const std::string& id,
 }
 
 
+int ObjectTracker::GetTrackedObjects(float* const out_data,
+                                     const int max_handles) const {
+  const int num_handles = static_cast<int>(handles_.size());
+  const int num_copied = MIN(num_handles, max_handles);
+
+  for (int handle = 0; handle < num_copied; ++handle) {
+    float* const values = out_data + handle * kTrackedObjectStep;
+    TrackedObject* const object = handles_[handle];
+    if (object == NULL) {
+      memset(values, 0, kTrackedObjectStep * sizeof(*values));
+      continue;
+    }
+    object->GetPosition().CopyToArray(values);
+    values[4] = object->GetCorrelation();
+    values[5] = object->IsVisible() ? 1.0f : 0.0f;
+  }
+  return num_handles;
+}
+
+
 void ObjectTracker::SetCurrentPositionOfObject(
     const std::string& id, const BoundingBox& bounding_box) {
   SetPreviousPositionOfObject(id, bounding_box, curr_time_);
@@ -226,6 +276,10 @@ void ObjectTracker::ForgetTarget(const std::string& id) {
   delete object;
   objects_.erase(id);
 
+  const int handle = GetHandle(id);
+  handles_[handle] = NULL;
+  handles_by_id_.erase(id);
+
   if (detector_ != NULL) {
     detector_->DeleteObjectModel(id);
   }
@@ -18,6 +18,7 @@ limitations under the License.
 
 #include <map>
 #include <string>
+#include <vector>
 
 #include "geom.h"
 #include "integral_image.h"
@@ -75,6 +76,29 @@ class ObjectTracker {
                          const uint8_t* const uv_frame, const int64_t timestamp,
                          const float* const alignment_matrix_2x3);
 
+  // Same as NextFrame without uv data, but the frame is given at full size:
+  // it is averaged by downsample_factor to the size of the tracker together
+  // with the levels of the pyramid, reading it row_stride bytes per row.
+  void NextFullFrame(const uint8_t* const full_frame, const int row_stride,
+                     const int downsample_factor, const int64_t timestamp,
+                     const float* const alignment_matrix_2x3);
+
+  // Size of the frames of the tracker, that is of the full frames divided by
+  // the downsample factor.
+  inline int GetFrameWidth() const {
+    return frame_width_;
+  }
+
+  inline int GetFrameHeight() const {
+    return frame_height_;
+  }
+
+  // Returns the current frame, at the size of the tracker.
+  inline const Image<uint8_t>* GetCurrentImage() const {
+    SCHECK(num_frames_ > 0, "No frame yet!");
+    return frame2_->GetImage();
+  }
+
   virtual void RegisterNewObjectWithAppearance(const std::string& id,
                                                const uint8_t* const new_frame,
                                                const BoundingBox& bounding_box);
@@ -143,6 +167,31 @@ class ObjectTracker {
     return object->IsVisible();
   }
 
+  // Returns the handle of the object with the given id: a small integer that
+  // identifies the object until it is forgotten, after which it may be given
+  // to a new object.
+  inline int GetHandle(const std::string& id) const {
+    std::map<const std::string, int>::const_iterator iter =
+        handles_by_id_.find(id);
+    CHECK_ALWAYS(iter != handles_by_id_.end(),
+                 "Unknown object key! \"%s\"", id.c_str());
+    return iter->second;
+  }
+
+  // Returns the TrackedObject associated with the given handle.
+  inline TrackedObject* GetObject(const int handle) const {
+    CHECK_ALWAYS(handle >= 0 && handle < static_cast<int>(handles_.size()) &&
+                 handles_[handle] != NULL, "Unknown object handle! %d", handle);
+    return handles_[handle];
+  }
+
+  // Copies the state of the tracked objects in out_data, kTrackedObjectStep
+  // floats for each handle: [x1 y1 x2 y2 correlation visible], where visible
+  // is 1 or 0. The handles not in use are filled with zeros. At most
+  // max_handles handles are copied; the number of handles in use (the highest
+  // one plus 1) is returned, so that a bigger buffer can be given if needed.
+  int GetTrackedObjects(float* const out_data, const int max_handles) const;
+
   virtual void Draw(const int canvas_width, const int canvas_height,
                     const float* const frame_to_canvas) const;
 
@@ -191,6 +240,11 @@ class ObjectTracker {
 
   void TrackObjects();
 
+  // The parts of NextFrame before and after the data of the new frame is set
+  // in frame2_.
+  void BeginFrame(const int64_t timestamp);
+  void ProcessFrame(const float* const alignment_matrix_2x3);
+
   const std::unique_ptr<const TrackerConfig> config_;
 
   const int frame_width_;
@@ -202,6 +256,12 @@ class ObjectTracker {
 
   TrackedObjectMap objects_;
 
+  // Objects by handle, with NULL in the handles not in use, and the inverse
+  // map. The free handles are reused, so handles_ stays as long as the
+  // maximum number of objects tracked at the same time.
+  std::vector<TrackedObject*> handles_;
+  std::map<const std::string, int> handles_by_id_;
+
   FlowCache flow_cache_;
 
   KeypointDetector keypoint_detector_;
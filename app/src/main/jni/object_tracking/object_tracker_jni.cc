@@ -13,7 +13,9 @@ See the License for the specific language governing permissions and
 limitations under the License.
 ==============================================================================*/
 
+#ifdef __ANDROID__
 #include <android/log.h>
+#endif
 #include <jni.h>
 #include <stdint.h>
 #include <stdlib.h>
@@ -22,6 +24,7 @@ limitations under the License.
 
 #include "image-inl.h"
 #include "image.h"
+#include "image_pyramid.h"
 #include "jni_utils.h"
 #include "time_log.h"
 
@@ -61,7 +64,7 @@ void JNICALL OBJECT_TRACKER_METHOD(releaseMemoryNative)(JNIEnv* env,
                                                         jobject thiz);
 
 JNIEXPORT
-void JNICALL OBJECT_TRACKER_METHOD(registerNewObjectWithAppearanceNative)(
+jint JNICALL OBJECT_TRACKER_METHOD(registerNewObjectWithAppearanceNative)(
     JNIEnv* env, jobject thiz, jstring object_id, jfloat x1, jfloat y1,
     jfloat x2, jfloat y2, jbyteArray frame_data);
 
@@ -102,6 +105,18 @@ JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(getTrackedPositionNative)(
     JNIEnv* env, jobject thiz, jstring object_id, jfloatArray rect_array);
 
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(getTrackedObjectNative)(
+    JNIEnv* env, jobject thiz, jint handle, jfloatArray values);
+
+JNIEXPORT
+jint JNICALL OBJECT_TRACKER_METHOD(getTrackedObjectsNative)(
+    JNIEnv* env, jobject thiz, jobject values, jint max_handles);
+
+JNIEXPORT
+jfloat JNICALL OBJECT_TRACKER_METHOD(getCorrelationByHandleNative)(
+    JNIEnv* env, jobject thiz, jint handle);
+
 JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(nextFrameNative)(JNIEnv* env, jobject thiz,
                                                     jbyteArray y_data,
@@ -109,14 +124,39 @@ void JNICALL OBJECT_TRACKER_METHOD(nextFrameNative)(JNIEnv* env, jobject thiz,
                                                     jlong timestamp,
                                                     jfloatArray vg_matrix_2x3);
 
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(nextFullFrameNative)(
+    JNIEnv* env, jobject thiz, jbyteArray y_data, jint row_stride, jint factor,
+    jlong timestamp, jfloatArray vg_matrix_2x3);
+
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(nextFullFrameDirectNative)(
+    JNIEnv* env, jobject thiz, jobject y_data, jint row_stride, jint factor,
+    jlong timestamp, jfloatArray vg_matrix_2x3);
+
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(getCurrentFrameNative)(JNIEnv* env,
+                                                          jobject thiz,
+                                                          jbyteArray output);
+
 JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(forgetNative)(JNIEnv* env, jobject thiz,
                                                  jstring object_id);
 
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(forgetByHandleNative)(JNIEnv* env,
+                                                         jobject thiz,
+                                                         jint handle);
+
 JNIEXPORT
 jbyteArray JNICALL OBJECT_TRACKER_METHOD(getKeypointsPacked)(
     JNIEnv* env, jobject thiz, jfloat scale_factor);
 
+JNIEXPORT
+jint JNICALL OBJECT_TRACKER_METHOD(getKeypointsPackedDirectNative)(
+    JNIEnv* env, jobject thiz, jobject out_buffer, jint offset,
+    jfloat scale_factor);
+
 JNIEXPORT
 jfloatArray JNICALL OBJECT_TRACKER_METHOD(getKeypointsNative)(
     JNIEnv* env, jobject thiz, jboolean only_found_);
@@ -137,6 +177,10 @@ JNIEXPORT void JNICALL OBJECT_TRACKER_METHOD(downsampleImageNative)(
     JNIEnv* env, jobject thiz, jint width, jint height, jint row_stride,
     jbyteArray input, jint factor, jbyteArray output);
 
+JNIEXPORT void JNICALL OBJECT_TRACKER_METHOD(downsampleImageDirectNative)(
+    JNIEnv* env, jobject thiz, jint width, jint height, jint row_stride,
+    jobject input, jint factor, jbyteArray output);
+
 #ifdef __cplusplus
 }
 #endif
@@ -167,7 +211,7 @@ void JNICALL OBJECT_TRACKER_METHOD(releaseMemoryNative)(JNIEnv* env,
 }
 
 JNIEXPORT
-void JNICALL OBJECT_TRACKER_METHOD(registerNewObjectWithAppearanceNative)(
+jint JNICALL OBJECT_TRACKER_METHOD(registerNewObjectWithAppearanceNative)(
     JNIEnv* env, jobject thiz, jstring object_id, jfloat x1, jfloat y1,
     jfloat x2, jfloat y2, jbyteArray frame_data) {
   const char* const id_str = env->GetStringUTFChars(object_id, 0);
@@ -181,12 +225,15 @@ void JNICALL OBJECT_TRACKER_METHOD(registerNewObjectWithAppearanceNative)(
   jbyte* pixels = env->GetByteArrayElements(frame_data, &iCopied);
 
   BoundingBox bounding_box(x1, y1, x2, y2);
-  get_object_tracker(env, thiz)->RegisterNewObjectWithAppearance(
+  ObjectTracker* const object_tracker = get_object_tracker(env, thiz);
+  object_tracker->RegisterNewObjectWithAppearance(
       id_str, reinterpret_cast<const uint8_t*>(pixels), bounding_box);
+  const int handle = object_tracker->GetHandle(id_str);
 
   env->ReleaseByteArrayElements(frame_data, pixels, JNI_ABORT);
 
   env->ReleaseStringUTFChars(object_id, id_str);
+  return handle;
 }
 
 JNIEXPORT
@@ -292,6 +339,41 @@ void JNICALL OBJECT_TRACKER_METHOD(getTrackedPositionNative)(
   env->ReleaseFloatArrayElements(rect_array, rect, 0);
 }
 
+// Same as getTrackedPositionNative, getCurrentCorrelation and isObjectVisible
+// in a single call, for the object with the given handle.
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(getTrackedObjectNative)(
+    JNIEnv* env, jobject thiz, jint handle, jfloatArray values) {
+  TrackedObject* const object =
+      get_object_tracker(env, thiz)->GetObject(handle);
+
+  jfloat value_arr[kTrackedObjectStep];
+  object->GetPosition().CopyToArray(value_arr);
+  value_arr[4] = object->GetCorrelation();
+  value_arr[5] = object->IsVisible() ? 1.0f : 0.0f;
+  env->SetFloatArrayRegion(values, 0, kTrackedObjectStep, value_arr);
+}
+
+// Copies the state of all the tracked objects, indexed by handle, in a direct
+// FloatBuffer, without any copy or lookup by id. Returns the number of handles
+// in use: if it's more than max_handles, only the first ones are copied.
+JNIEXPORT
+jint JNICALL OBJECT_TRACKER_METHOD(getTrackedObjectsNative)(
+    JNIEnv* env, jobject thiz, jobject values, jint max_handles) {
+  float* const out_data =
+      reinterpret_cast<float*>(env->GetDirectBufferAddress(values));
+  CHECK_ALWAYS(out_data != NULL, "The buffer is not direct!");
+
+  return get_object_tracker(env, thiz)->GetTrackedObjects(out_data,
+                                                          max_handles);
+}
+
+JNIEXPORT
+jfloat JNICALL OBJECT_TRACKER_METHOD(getCorrelationByHandleNative)(
+    JNIEnv* env, jobject thiz, jint handle) {
+  return get_object_tracker(env, thiz)->GetObject(handle)->GetCorrelation();
+}
+
 JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(nextFrameNative)(JNIEnv* env, jobject thiz,
                                                     jbyteArray y_data,
@@ -340,6 +422,81 @@ void JNICALL OBJECT_TRACKER_METHOD(nextFrameNative)(JNIEnv* env, jobject thiz,
   ResetTimeLog();
 }
 
+// Passes a full size frame to the tracker, that downsamples it and builds the
+// pyramid in a single pass. The frame has size bytes: it must hold the
+// height * factor rows read by the tracker, row_stride bytes apart (the last
+// one can be without padding).
+static void NextFullFrame(JNIEnv* env, jobject thiz,
+                          const uint8_t* const pixels, const int64_t size,
+                          const int row_stride, const int factor,
+                          const int64_t timestamp,
+                          jfloatArray vg_matrix_2x3) {
+  TimeLog("Starting object tracker");
+
+  ObjectTracker* const object_tracker = get_object_tracker(env, thiz);
+  const int64_t row_bytes =
+      static_cast<int64_t>(object_tracker->GetFrameWidth()) * factor;
+  const int64_t rows =
+      static_cast<int64_t>(object_tracker->GetFrameHeight()) * factor;
+  CHECK_ALWAYS(factor > 0 && row_stride >= row_bytes,
+               "Rows of %d bytes, %lld needed with factor %d!", row_stride,
+               static_cast<long long>(row_bytes), factor);
+  CHECK_ALWAYS(size >= (rows - 1) * row_stride + row_bytes,
+               "Frame of %lld bytes, %lld rows of %d bytes needed!",
+               static_cast<long long>(size), static_cast<long long>(rows),
+               row_stride);
+
+  float vision_gyro_matrix_array[6];
+  if (vg_matrix_2x3 != NULL) {
+    env->GetFloatArrayRegion(vg_matrix_2x3, 0, 6, vision_gyro_matrix_array);
+  }
+
+  object_tracker->NextFullFrame(
+      pixels, row_stride, factor, timestamp,
+      vg_matrix_2x3 != NULL ? vision_gyro_matrix_array : NULL);
+
+  PrintTimeLog();
+  ResetTimeLog();
+}
+
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(nextFullFrameNative)(
+    JNIEnv* env, jobject thiz, jbyteArray y_data, jint row_stride, jint factor,
+    jlong timestamp, jfloatArray vg_matrix_2x3) {
+  jbyte* const pixels = env->GetByteArrayElements(y_data, NULL);
+
+  NextFullFrame(env, thiz, reinterpret_cast<uint8_t*>(pixels),
+                env->GetArrayLength(y_data), row_stride, factor, timestamp,
+                vg_matrix_2x3);
+
+  env->ReleaseByteArrayElements(y_data, pixels, JNI_ABORT);
+}
+
+// Same as nextFullFrameNative, but the luminance is a direct buffer (the Y
+// plane of a camera Image) that is read in place.
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(nextFullFrameDirectNative)(
+    JNIEnv* env, jobject thiz, jobject y_data, jint row_stride, jint factor,
+    jlong timestamp, jfloatArray vg_matrix_2x3) {
+  const uint8_t* const pixels =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(y_data));
+  CHECK_ALWAYS(pixels != NULL, "The frame is not a direct buffer!");
+
+  NextFullFrame(env, thiz, pixels, env->GetDirectBufferCapacity(y_data),
+                row_stride, factor, timestamp, vg_matrix_2x3);
+}
+
+// Copies the current frame, at the size of the tracker, in output.
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(getCurrentFrameNative)(JNIEnv* env,
+                                                          jobject thiz,
+                                                          jbyteArray output) {
+  const Image<uint8_t>* const image =
+      get_object_tracker(env, thiz)->GetCurrentImage();
+  env->SetByteArrayRegion(output, 0, image->GetWidth() * image->GetHeight(),
+                          reinterpret_cast<const jbyte*>(image->data()));
+}
+
 JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(forgetNative)(JNIEnv* env, jobject thiz,
                                                  jstring object_id) {
@@ -350,6 +507,16 @@ void JNICALL OBJECT_TRACKER_METHOD(forgetNative)(JNIEnv* env, jobject thiz,
   env->ReleaseStringUTFChars(object_id, id_str);
 }
 
+JNIEXPORT
+void JNICALL OBJECT_TRACKER_METHOD(forgetByHandleNative)(JNIEnv* env,
+                                                         jobject thiz,
+                                                         jint handle) {
+  ObjectTracker* const object_tracker = get_object_tracker(env, thiz);
+  // Copy of the id, as the object is deleted.
+  const std::string id = object_tracker->GetObject(handle)->GetName();
+  object_tracker->ForgetTarget(id);
+}
+
 JNIEXPORT
 jfloatArray JNICALL OBJECT_TRACKER_METHOD(getKeypointsNative)(
     JNIEnv* env, jobject thiz, jboolean only_found) {
@@ -397,6 +564,27 @@ jbyteArray JNICALL OBJECT_TRACKER_METHOD(getKeypointsPacked)(
   return keypoints;
 }
 
+// Same as getKeypointsPacked, but the keypoints are written at the given
+// offset of a direct buffer, with no array allocated. The buffer must have
+// room for kMaxKeypoints keypoints after the offset. Returns the number of
+// keypoints.
+JNIEXPORT
+jint JNICALL OBJECT_TRACKER_METHOD(getKeypointsPackedDirectNative)(
+    JNIEnv* env, jobject thiz, jobject out_buffer, jint offset,
+    jfloat scale_factor) {
+  const int bytes_per_keypoint = sizeof(uint16_t) * 2 * 2;
+  uint8_t* const out_data =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(out_buffer));
+  CHECK_ALWAYS(out_data != NULL, "The buffer is not direct!");
+  CHECK_ALWAYS(offset % sizeof(uint16_t) == 0 &&
+               offset + kMaxKeypoints * bytes_per_keypoint <=
+               env->GetDirectBufferCapacity(out_buffer),
+               "No room for the keypoints at offset %d!", offset);
+
+  return get_object_tracker(env, thiz)->GetKeypointsPacked(
+      reinterpret_cast<uint16_t*>(out_data + offset), scale_factor);
+}
+
 JNIEXPORT
 void JNICALL OBJECT_TRACKER_METHOD(getCurrentPositionNative)(
     JNIEnv* env, jobject thiz, jlong timestamp, jfloat position_x1,
@@ -427,6 +615,19 @@ void JNICALL OBJECT_TRACKER_METHOD(drawNative)(
   }
 }
 
+// Averages each factor x factor block of the frame in a pixel of output, that
+// is width / factor x height / factor as the frames of the tracker. It's the
+// first level of the pyramid built by NextFullFrame.
+static void DownsampleImage(const int width, const int height,
+                            const int row_stride, const uint8_t* const input,
+                            const int factor, uint8_t* const output) {
+  Image<uint8_t> downsampled_image(width / factor, height / factor, output,
+                                   false);
+  Image<uint8_t>* const levels[] = {&downsampled_image};
+
+  BuildPyramid(input, row_stride, factor, levels, 1);
+}
+
 JNIEXPORT void JNICALL OBJECT_TRACKER_METHOD(downsampleImageNative)(
     JNIEnv* env, jobject thiz, jint width, jint height, jint row_stride,
     jbyteArray input, jint factor, jbyteArray output) {
@@ -438,21 +639,36 @@ JNIEXPORT void JNICALL OBJECT_TRACKER_METHOD(downsampleImageNative)(
   jbyte* const input_array = env->GetByteArrayElements(input, 0);
   jbyte* const output_array = env->GetByteArrayElements(output, 0);
 
-  {
-    tf_tracking::Image<uint8_t> full_image(
-        width, height, reinterpret_cast<uint8_t*>(input_array), false);
+  DownsampleImage(width, height, row_stride,
+                  reinterpret_cast<uint8_t*>(input_array), factor,
+                  reinterpret_cast<uint8_t*>(output_array));
 
-    const int new_width = (width + factor - 1) / factor;
-    const int new_height = (height + factor - 1) / factor;
+  env->ReleaseByteArrayElements(input, input_array, JNI_ABORT);
+  env->ReleaseByteArrayElements(output, output_array, 0);
+}
 
-    tf_tracking::Image<uint8_t> downsampled_image(
-        new_width, new_height, reinterpret_cast<uint8_t*>(output_array), false);
+// Same as downsampleImageNative, but the input is a direct buffer (the Y plane
+// of a camera Image) that is read in place.
+JNIEXPORT void JNICALL OBJECT_TRACKER_METHOD(downsampleImageDirectNative)(
+    JNIEnv* env, jobject thiz, jint width, jint height, jint row_stride,
+    jobject input, jint factor, jbyteArray output) {
+  if (input == NULL || output == NULL) {
+    LOGW("Received null buffers, hopefully this is a test!");
+    return;
+  }
 
-    downsampled_image.DownsampleAveraged(
-        reinterpret_cast<uint8_t*>(input_array), row_stride, factor);
+  const uint8_t* const input_pixels =
+      reinterpret_cast<uint8_t*>(env->GetDirectBufferAddress(input));
+  if (input_pixels == NULL) {
+    LOGE("The input of downsampleImageDirectNative is not a direct buffer");
+    return;
   }
 
-  env->ReleaseByteArrayElements(input, input_array, JNI_ABORT);
+  jbyte* const output_array = env->GetByteArrayElements(output, 0);
+
+  DownsampleImage(width, height, row_stride, input_pixels, factor,
+                  reinterpret_cast<uint8_t*>(output_array));
+
   env->ReleaseByteArrayElements(output, output_array, 0);
 }
 
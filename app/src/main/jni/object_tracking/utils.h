@@ -241,6 +241,15 @@ float ComputeWeightedMeanNeon(const float* const values,
 float ComputeCrossCorrelationNeon(const float* const values1,
                                   const float* const values2,
                                   const int num_vals);
+#elif defined(__SSE2__)
+float ComputeMeanSse(const float* const values, const int num_vals);
+
+float ComputeStdDevSse(const float* const values, const int num_vals,
+                       const float mean);
+
+float ComputeCrossCorrelationSse(const float* const values1,
+                                 const float* const values2,
+                                 const int num_vals);
 #endif
 
 inline float ComputeMeanCpu(const float* const values, const int num_vals) {
@@ -257,6 +266,8 @@ inline float ComputeMean(const float* const values, const int num_vals) {
   return
 #ifdef __ARM_NEON
       (num_vals >= 8) ? ComputeMeanNeon(values, num_vals) :
+#elif defined(__SSE2__)
+      (num_vals >= 8) ? ComputeMeanSse(values, num_vals) :
 #endif
                       ComputeMeanCpu(values, num_vals);
 }
@@ -280,6 +291,8 @@ inline float ComputeStdDev(const float* const values,
   return
 #ifdef __ARM_NEON
       (num_vals >= 8) ? ComputeStdDevNeon(values, num_vals, mean) :
+#elif defined(__SSE2__)
+      (num_vals >= 8) ? ComputeStdDevSse(values, num_vals, mean) :
 #endif
                       ComputeStdDevCpu(values, num_vals, mean);
 }
@@ -320,6 +333,9 @@ inline float ComputeCrossCorrelation(const float* const values1,
 #ifdef __ARM_NEON
       (num_vals >= 8) ? ComputeCrossCorrelationNeon(values1, values2, num_vals)
                       :
+#elif defined(__SSE2__)
+      (num_vals >= 8) ? ComputeCrossCorrelationSse(values1, values2, num_vals)
+                      :
 #endif
                       ComputeCrossCorrelationCpu(values1, values2, num_vals);
 }
@@ -0,0 +1,111 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+// SSE2 implementations of the NEON methods of utils_neon.cc, for x86 devices
+// and for the host build of the library. As the NEON ones, they accumulate 4
+// partial sums, so they may differ from the CPU versions in the last bits.
+
+#if defined(__SSE2__) && !defined(__ARM_NEON)
+
+#include <emmintrin.h>
+
+#include "geom.h"
+#include "image-inl.h"
+#include "image.h"
+#include "utils.h"
+
+namespace tf_tracking {
+
+inline static float GetSum(const __m128 values) {
+  float summed_values[4];
+  _mm_storeu_ps(summed_values, values);
+  return summed_values[0]
+       + summed_values[1]
+       + summed_values[2]
+       + summed_values[3];
+}
+
+
+float ComputeMeanSse(const float* const values, const int num_vals) {
+  SCHECK(num_vals >= 8, "Not enough values to merit SSE: %d", num_vals);
+
+  __m128 accum = _mm_setzero_ps();
+
+  int offset = 0;
+  for (; offset <= num_vals - 4; offset += 4) {
+    accum = _mm_add_ps(accum, _mm_loadu_ps(&values[offset]));
+  }
+
+  float sum = GetSum(accum);
+
+  // Get the remaining 1 to 3 values.
+  for (; offset < num_vals; ++offset) {
+    sum += values[offset];
+  }
+
+  return sum / static_cast<float>(num_vals);
+}
+
+
+float ComputeStdDevSse(const float* const values,
+                       const int num_vals, const float mean) {
+  SCHECK(num_vals >= 8, "Not enough values to merit SSE: %d", num_vals);
+
+  const __m128 mean_vec = _mm_set1_ps(mean);
+  __m128 accum = _mm_setzero_ps();
+
+  int offset = 0;
+  for (; offset <= num_vals - 4; offset += 4) {
+    const __m128 deltas = _mm_sub_ps(_mm_loadu_ps(&values[offset]), mean_vec);
+    accum = _mm_add_ps(accum, _mm_mul_ps(deltas, deltas));
+  }
+
+  float squared_sum = GetSum(accum);
+
+  // Get the remaining 1 to 3 values.
+  for (; offset < num_vals; ++offset) {
+    squared_sum += Square(values[offset] - mean);
+  }
+
+  return sqrt(squared_sum / static_cast<float>(num_vals));
+}
+
+
+float ComputeCrossCorrelationSse(const float* const values1,
+                                 const float* const values2,
+                                 const int num_vals) {
+  SCHECK(num_vals >= 8, "Not enough values to merit SSE: %d", num_vals);
+
+  __m128 accum = _mm_setzero_ps();
+
+  int offset = 0;
+  for (; offset <= num_vals - 4; offset += 4) {
+    accum = _mm_add_ps(accum, _mm_mul_ps(_mm_loadu_ps(&values1[offset]),
+                                         _mm_loadu_ps(&values2[offset])));
+  }
+
+  float sxy = GetSum(accum);
+
+  // Get the remaining 1 to 3 values.
+  for (; offset < num_vals; ++offset) {
+    sxy += values1[offset] * values2[offset];
+  }
+
+  return sxy / num_vals;
+}
+
+}  // namespace tf_tracking
+
+#endif  // __SSE2__
@@ -18,6 +18,8 @@ limitations under the License.
 
 #include "yuv2rgb.h"
 
+#include <math.h>
+
 #ifndef MAX
 #define MAX(a, b) ({__typeof__(a) _a = (a); __typeof__(b) _b = (b); _a > _b ? _a : _b; })
 #define MIN(a, b) ({__typeof__(a) _a = (a); __typeof__(b) _b = (b); _a < _b ? _a : _b; })
@@ -80,6 +82,128 @@ void ConvertYUV420ToARGB8888(const uint8_t* const yData,
   }
 }
 
+//  Accepts a YUV 4:2:0 image with the same layout as ConvertYUV420ToARGB8888
+//  and, in a single pass, crops, rotates and scales it to the input of a
+//  detection model. Each output pixel is mapped back to the source through
+//  dst_to_src and converted only once, so no full resolution RGB frame and
+//  no intermediate bitmap are needed.
+static inline int Clamp(const int index, const int size) {
+  return index < 0 ? 0 : (index >= size ? size - 1 : index);
+}
+
+// Bilinear interpolation of four samples with weights in 1/256.
+static inline int Interpolate(const int p00, const int p10, const int p01,
+                              const int p11, const int fx, const int fy) {
+  const int w11 = fx * fy;
+  const int w10 = (fx << 8) - w11;
+  const int w01 = (fy << 8) - w11;
+  const int w00 = 65536 - w10 - w01 - w11;
+  return (p00 * w00 + p10 * w10 + p01 * w01 + p11 * w11 + 32768) >> 16;
+}
+
+// Samples the image at (sx, sy) interpolating between the centers of the
+// pixels: the luminance on its grid and the chroma on the grid of the 2x2
+// blocks, then converts the result.
+static inline uint32_t SampleBilinear(const uint8_t* const yData,
+                                      const uint8_t* const uData,
+                                      const uint8_t* const vData,
+                                      const int width, const int height,
+                                      const int y_row_stride,
+                                      const int uv_row_stride,
+                                      const int uv_pixel_stride,
+                                      const float sx, const float sy) {
+  const float px = sx - 0.5f;
+  const float py = sy - 0.5f;
+  const int x0 = static_cast<int>(floorf(px));
+  const int y0 = static_cast<int>(floorf(py));
+  const int fx = static_cast<int>((px - x0) * 256);
+  const int fy = static_cast<int>((py - y0) * 256);
+  const uint8_t* const row0 = yData + Clamp(y0, height) * y_row_stride;
+  const uint8_t* const row1 = yData + Clamp(y0 + 1, height) * y_row_stride;
+  const int col0 = Clamp(x0, width);
+  const int col1 = Clamp(x0 + 1, width);
+  const int luma = Interpolate(row0[col0], row0[col1], row1[col0], row1[col1],
+                               fx, fy);
+
+  const int uv_width = (width + 1) / 2;
+  const int uv_height = (height + 1) / 2;
+  const float cx = sx * 0.5f - 0.5f;
+  const float cy = sy * 0.5f - 0.5f;
+  const int cx0 = static_cast<int>(floorf(cx));
+  const int cy0 = static_cast<int>(floorf(cy));
+  const int cfx = static_cast<int>((cx - cx0) * 256);
+  const int cfy = static_cast<int>((cy - cy0) * 256);
+  const int uv_row0 = Clamp(cy0, uv_height) * uv_row_stride;
+  const int uv_row1 = Clamp(cy0 + 1, uv_height) * uv_row_stride;
+  const int uv_col0 = Clamp(cx0, uv_width) * uv_pixel_stride;
+  const int uv_col1 = Clamp(cx0 + 1, uv_width) * uv_pixel_stride;
+  const int u = Interpolate(uData[uv_row0 + uv_col0], uData[uv_row0 + uv_col1],
+                            uData[uv_row1 + uv_col0], uData[uv_row1 + uv_col1],
+                            cfx, cfy);
+  const int v = Interpolate(vData[uv_row0 + uv_col0], vData[uv_row0 + uv_col1],
+                            vData[uv_row1 + uv_col0], vData[uv_row1 + uv_col1],
+                            cfx, cfy);
+  return YUV2RGB(luma, u, v);
+}
+
+void ConvertYUV420ToModelInput(const uint8_t* const yData,
+                               const uint8_t* const uData,
+                               const uint8_t* const vData, const int width,
+                               const int height, const int y_row_stride,
+                               const int uv_row_stride,
+                               const int uv_pixel_stride,
+                               const float* const dst_to_src,
+                               void* const output, const int out_width,
+                               const int out_height, const int out_row_stride,
+                               const int quantized, const float mean,
+                               const float std, const int bilinear) {
+  for (int y = 0; y < out_height; y++) {
+    uint8_t* out_bytes =
+        reinterpret_cast<uint8_t*>(output) + y * out_row_stride * 3;
+    float* out_floats =
+        reinterpret_cast<float*>(output) + y * out_row_stride * 3;
+
+    const float dy = y + 0.5f;
+    const float row_x = dst_to_src[1] * dy + dst_to_src[2];
+    const float row_y = dst_to_src[4] * dy + dst_to_src[5];
+
+    for (int x = 0; x < out_width; x++) {
+      const float dx = x + 0.5f;
+      const float sx = dst_to_src[0] * dx + row_x;
+      const float sy = dst_to_src[3] * dx + row_y;
+      uint32_t argb;
+      if (bilinear) {
+        argb = SampleBilinear(yData, uData, vData, width, height, y_row_stride,
+                              uv_row_stride, uv_pixel_stride, sx, sy);
+      } else {
+        int ix = static_cast<int>(floorf(sx));
+        int iy = static_cast<int>(floorf(sy));
+        ix = MIN(width - 1, MAX(0, ix));
+        iy = MIN(height - 1, MAX(0, iy));
+
+        const int uv_offset =
+            uv_row_stride * (iy >> 1) + (ix >> 1) * uv_pixel_stride;
+        argb = YUV2RGB(yData[y_row_stride * iy + ix], uData[uv_offset],
+                       vData[uv_offset]);
+      }
+
+      const int r = (argb >> 16) & 0xff;
+      const int g = (argb >> 8) & 0xff;
+      const int b = argb & 0xff;
+
+      if (quantized) {
+        *out_bytes++ = static_cast<uint8_t>(r);
+        *out_bytes++ = static_cast<uint8_t>(g);
+        *out_bytes++ = static_cast<uint8_t>(b);
+      } else {
+        *out_floats++ = (r - mean) / std;
+        *out_floats++ = (g - mean) / std;
+        *out_floats++ = (b - mean) / std;
+      }
+    }
+  }
+}
+
 //  Accepts a YUV 4:2:0 image with a plane of 8 bit Y samples followed by an
 //  interleaved U/V plane containing 8 bit 2x2 subsampled chroma samples,
 //  except the interleave order of U and V is reversed. Converts to a packed
@@ -32,6 +32,27 @@ void ConvertYUV420ToARGB8888(const uint8_t* const yData,
                              const int y_row_stride, const int uv_row_stride,
                              const int uv_pixel_stride);
 
+// Samples a YUV 4:2:0 image with arbitrary strides through the affine
+// transform dst_to_src (the first two rows of a 3x3 matrix, row major) and
+// writes an out_width x out_height RGB image ready to be fed to a model.
+// Consecutive output rows are out_row_stride pixels apart, so the image can
+// be written in a region of a bigger input. Sampling is at pixel centers: the
+// nearest neighbour, as Canvas.drawBitmap without a Paint, or if bilinear is
+// non-zero the interpolation of the four nearest samples, as drawBitmap with
+// FILTER_BITMAP_FLAG. If quantized is non-zero the output holds one uint8_t per
+// channel, otherwise one float per channel normalized as (value - mean) / std.
+void ConvertYUV420ToModelInput(const uint8_t* const yData,
+                               const uint8_t* const uData,
+                               const uint8_t* const vData, const int width,
+                               const int height, const int y_row_stride,
+                               const int uv_row_stride,
+                               const int uv_pixel_stride,
+                               const float* const dst_to_src,
+                               void* const output, const int out_width,
+                               const int out_height, const int out_row_stride,
+                               const int quantized, const float mean,
+                               const float std, const int bilinear);
+
 // Converts YUV420 semi-planar data to ARGB 8888 data using the supplied width
 // and height. The input and output must already be allocated and non-null.
 // For efficiency, no error checking is performed.
@@ -0,0 +1,139 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the reference counting and the pool of the camera frames.
+ */
+public class CameraFrameTest
+{
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 4;
+
+    private static class FakeImage implements AutoCloseable
+    {
+        int closed = 0;
+
+        @Override
+        public void close()
+        {
+            closed++;
+        }
+    }
+
+    private static CameraFrame acquire(CameraFrame.Pool pool, FakeImage image, byte luma)
+    {
+        final ByteBuffer y = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int i = 0; i < WIDTH * HEIGHT; i++)
+            y.put(i, luma);
+        final ByteBuffer uv = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+        for (int i = 0; i < uv.capacity(); i++)
+            uv.put(i, (byte) 128);
+        return pool.acquire(image, y, uv, uv, WIDTH, WIDTH / 2, 1, 0, 0);
+    }
+
+    @Test
+    public void imageIsClosedByTheLastReference()
+    {
+        final CameraFrame.Pool pool = new CameraFrame.Pool(1, WIDTH, HEIGHT);
+        final FakeImage image = new FakeImage();
+        final CameraFrame frame = acquire(pool, image, (byte) 100);
+
+        frame.retain();
+        frame.release();
+        assertEquals(0, image.closed);
+        assertFalse(frame.isReleased());
+        assertNotNull(frame.getY());
+
+        frame.release();
+        assertEquals(1, image.closed);
+        assertTrue(frame.isReleased());
+        assertEquals(0, pool.getNumInFlight());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasedFrameCannotBeRetained()
+    {
+        final CameraFrame frame = acquire(new CameraFrame.Pool(1, WIDTH, HEIGHT),
+                new FakeImage(), (byte) 100);
+        frame.release();
+        frame.retain();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void planesOfReleasedFrameCannotBeRead()
+    {
+        final CameraFrame frame = acquire(new CameraFrame.Pool(1, WIDTH, HEIGHT),
+                new FakeImage(), (byte) 100);
+        frame.release();
+        frame.getY();
+    }
+
+    @Test
+    public void doubleReleaseIsAnError()
+    {
+        final CameraFrame.Pool pool = new CameraFrame.Pool(1, WIDTH, HEIGHT);
+        final FakeImage image = new FakeImage();
+        final CameraFrame frame = acquire(pool, image, (byte) 100);
+        frame.release();
+        try
+        {
+            frame.release();
+            fail("The second release must fail");
+        }
+        catch (IllegalStateException e)
+        {
+            //The image is not closed twice and the frame is in the pool only once
+            assertEquals(1, image.closed);
+            assertEquals(0, pool.getNumInFlight());
+        }
+    }
+
+    @Test
+    public void poolLimitsTheFramesInFlight()
+    {
+        final CameraFrame.Pool pool = new CameraFrame.Pool(2, WIDTH, HEIGHT);
+        final CameraFrame first = acquire(pool, new FakeImage(), (byte) 100);
+        final CameraFrame second = acquire(pool, new FakeImage(), (byte) 100);
+        assertNotSame(first, second);
+        assertEquals(2, pool.getNumInFlight());
+        assertNull(acquire(pool, new FakeImage(), (byte) 100));
+
+        //A released frame is reused
+        first.release();
+        assertSame(first, acquire(pool, new FakeImage(), (byte) 100));
+    }
+
+    @Test
+    public void derivedProductsAreComputedOncePerAcquisition()
+    {
+        final CameraFrame.Pool pool = new CameraFrame.Pool(1, WIDTH, HEIGHT);
+        CameraFrame frame = acquire(pool, new FakeImage(), (byte) 16);
+        final int[] lumaThumbnail = frame.getLumaThumbnail();
+        assertEquals(16, lumaThumbnail[0]);
+
+        //Every pixel of the thumbnail is black
+        final ColorHistograms histograms = frame.getColorHistograms();
+        final int samples = CameraFrame.THUMBNAIL_SIZE * CameraFrame.THUMBNAIL_SIZE;
+        assertEquals(samples, histograms.red[0]);
+
+        //Until the frame is released the same products are returned
+        frame.getY().put(0, (byte) 235);
+        assertSame(lumaThumbnail, frame.getLumaThumbnail());
+        assertEquals(16, frame.getLumaThumbnail()[0]);
+        assertSame(histograms, frame.getColorHistograms());
+        assertEquals(samples, histograms.red[0]);
+        frame.release();
+
+        //The next acquisition reuses the arrays but computes them on the new image
+        frame = acquire(pool, new FakeImage(), (byte) 235);
+        assertSame(lumaThumbnail, frame.getLumaThumbnail());
+        assertEquals(235, lumaThumbnail[0]);
+        assertSame(histograms, frame.getColorHistograms());
+        assertEquals(0, histograms.red[0]);
+    }
+}
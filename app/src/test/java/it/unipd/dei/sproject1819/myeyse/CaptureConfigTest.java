@@ -0,0 +1,97 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import it.unipd.dei.sproject1819.myeyse.tracking.ObjectTracker;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the choice of the capture stream.
+ */
+public class CaptureConfigTest
+{
+    //YUV_420_888 sizes of a typical back camera
+    private static final int[] SIZES = {
+            1920, 1080, 1440, 1080, 1280, 720, 1024, 768, 800, 600, 720, 480, 640, 480,
+            352, 288, 320, 240, 4032, 3024};
+
+    private static final int[] FPS_RANGES = {15, 15, 7, 30, 15, 30, 30, 30, 24, 24};
+
+    private static final float SENSOR_ASPECT = 4 / 3f;
+
+    @Test
+    public void defaultDetectorAndTrackerKeepVga()
+    {
+        final CaptureConfig config = CaptureConfig.choose(SIZES, FPS_RANGES, SENSOR_ASPECT, 300,
+                2, 2, CaptureConfig.DEFAULT_FPS);
+        assertEquals(640, config.getWidth());
+        assertEquals(480, config.getHeight());
+        assertEquals(3, config.getMaxImages());
+        assertEquals(15, config.getMinFps());
+        assertEquals(30, config.getMaxFps());
+    }
+
+    @Test
+    public void largerDetectorGetsLargerFrames()
+    {
+        //A 640 input needs a shorter side of 800
+        assertEquals(800, CaptureConfig.getMinDetectorSide(640));
+        final CaptureConfig config = CaptureConfig.choose(SIZES, FPS_RANGES, SENSOR_ASPECT, 640,
+                2, 2, CaptureConfig.DEFAULT_FPS);
+        assertEquals(1440, config.getWidth());
+        assertEquals(1080, config.getHeight());
+
+        //Nothing large enough within the maximum side: the largest one is used
+        final CaptureConfig huge = CaptureConfig.choose(SIZES, FPS_RANGES, SENSOR_ASPECT, 2000,
+                2, 2, CaptureConfig.DEFAULT_FPS);
+        assertEquals(1920 * 1080, huge.getWidth() * huge.getHeight());
+    }
+
+    @Test
+    public void trackerDownsampleFollowsTheDetector()
+    {
+        //Frames sized for a 300 input are tracked at half their side
+        final int small = ObjectTracker.chooseDownsampleFactor(
+                CaptureConfig.getMinDetectorSide(300), CaptureConfig.TRACKER_MIN_SIDE);
+        assertEquals(2, small);
+        assertEquals(small, CaptureConfig.choose(SIZES, FPS_RANGES, SENSOR_ASPECT, 300, small, 2,
+                CaptureConfig.DEFAULT_FPS).getTrackerDownsample());
+
+        //A 768 input needs a shorter side of 960, that the tracker can divide by 4
+        final int large = ObjectTracker.chooseDownsampleFactor(
+                CaptureConfig.getMinDetectorSide(768), CaptureConfig.TRACKER_MIN_SIDE);
+        assertEquals(4, large);
+        final CaptureConfig config = CaptureConfig.choose(SIZES, FPS_RANGES, SENSOR_ASPECT, 768,
+                large, 2, CaptureConfig.DEFAULT_FPS);
+        assertEquals(large, config.getTrackerDownsample());
+        assertTrue(config.getHeight() / large >= CaptureConfig.TRACKER_MIN_SIDE);
+    }
+
+    @Test
+    public void aspectOfTheSensorIsPreferred()
+    {
+        //With a 16:9 sensor, 1280x720 is preferred to the smaller 720x480 and 640x480
+        final CaptureConfig wide = CaptureConfig.choose(SIZES, FPS_RANGES, 16 / 9f, 300, 2, 2,
+                CaptureConfig.DEFAULT_FPS);
+        assertEquals(1280, wide.getWidth());
+        assertEquals(720, wide.getHeight());
+
+        //Without the aspect, the smallest large enough
+        final CaptureConfig any = CaptureConfig.choose(SIZES, FPS_RANGES, 0, 300, 2, 2,
+                CaptureConfig.DEFAULT_FPS);
+        assertEquals(640, any.getWidth());
+    }
+
+    @Test
+    public void fpsRangeIsOptional()
+    {
+        final CaptureConfig config = CaptureConfig.choose(SIZES, new int[0], SENSOR_ASPECT, 300,
+                2, 1, CaptureConfig.DEFAULT_FPS);
+        assertFalse(config.hasFpsRange());
+        assertEquals(2, config.getMaxImages());
+
+        //Without ranges reaching the target, the one nearest to it
+        assertEquals(4, CaptureConfig.chooseFpsRange(new int[]{15, 15, 10, 20, 20, 24}, 30));
+    }
+}
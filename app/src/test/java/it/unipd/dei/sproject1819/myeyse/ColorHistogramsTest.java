@@ -0,0 +1,81 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the color histograms computed from YUV and from ARGB pixels.
+ */
+public class ColorHistogramsTest
+{
+    private final Random random = new Random(11);
+
+    private ByteBuffer randomPlane(int length)
+    {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(bytes);
+        buffer.rewind();
+        return buffer;
+    }
+
+    @Test
+    public void yuvHistogramsAreTheOnesOfTheThumbnail()
+    {
+        final int width = 641;
+        final int height = 481;
+        final int rowStride = 648;
+        final ByteBuffer y = randomPlane(rowStride * height);
+        final ByteBuffer u = randomPlane(rowStride * (height + 1) / 2);
+        final ByteBuffer v = randomPlane(rowStride * (height + 1) / 2);
+        final int samples = CameraFrame.THUMBNAIL_SIZE;
+
+        final int[] thumbnail = new int[samples * samples];
+        ImageUtils.convertYUV420ToARGB8888Scaled(y, u, v, width, height, rowStride, rowStride, 2,
+                thumbnail, samples, samples);
+        final ColorHistograms expected = new ColorHistograms();
+        expected.setParallel(false);
+        expected.compute(thumbnail, samples, samples, 1);
+
+        //The split in bands doesn't change the result
+        final ColorHistograms serial = new ColorHistograms();
+        serial.setParallel(false);
+        serial.computeFromYUV(y, u, v, width, height, rowStride, rowStride, 2, samples, samples);
+        final ColorHistograms parallel = new ColorHistograms(4);
+        parallel.computeFromYUV(y, u, v, width, height, rowStride, rowStride, 2, samples, samples);
+
+        assertEquals(0, serial.distance(expected));
+        assertEquals(0, parallel.distance(expected));
+        assertArrayEquals(expected.red, parallel.red);
+        assertArrayEquals(expected.blue, parallel.blue);
+
+        //The histograms are reset for every frame
+        parallel.computeFromYUV(y, u, v, width, height, rowStride, rowStride, 2, samples, samples);
+        assertEquals(0, parallel.distance(expected));
+    }
+
+    @Test
+    public void pixelsAreSampledWithStep()
+    {
+        final int width = 5;
+        final int height = 3;
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = 0xff000000 | i;
+
+        final ColorHistograms histograms = new ColorHistograms();
+        histograms.compute(pixels, width, height, 2);
+
+        //Columns 0, 2, 4 of rows 0 and 2
+        assertEquals(6, histograms.red[0]);
+        for (int i : new int[]{0, 2, 4, 10, 12, 14})
+            assertEquals("Pixel " + i, 1, histograms.blue[i]);
+        assertEquals(0, histograms.blue[1]);
+        assertEquals(0, histograms.blue[5]);
+    }
+}
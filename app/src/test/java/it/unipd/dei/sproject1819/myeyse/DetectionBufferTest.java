@@ -0,0 +1,122 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the reusable buffer filled by the detector at each frame.
+ */
+public class DetectionBufferTest
+{
+    private static final int NUM_DETECTIONS = 10;
+    private static final int INPUT_SIZE = 300;
+
+    private final float[][] outputLocations = new float[NUM_DETECTIONS][4];
+    private final float[] outputClasses = new float[NUM_DETECTIONS];
+    private final float[] outputScores = new float[NUM_DETECTIONS];
+
+    public DetectionBufferTest()
+    {
+        for (int i = 0; i < NUM_DETECTIONS; i++)
+        {
+            outputLocations[i][0] = 0.1f;
+            outputLocations[i][1] = 0.2f;
+            outputLocations[i][2] = 0.3f;
+            outputLocations[i][3] = 0.4f;
+            outputClasses[i] = i;
+            outputScores[i] = i / (float) NUM_DETECTIONS;
+        }
+    }
+
+    @Test
+    public void outputsAreReorderedAndScaled()
+    {
+        DetectionBuffer buffer = new DetectionBuffer(NUM_DETECTIONS);
+        buffer.setFromOutputs(outputLocations, outputClasses, outputScores, NUM_DETECTIONS,
+                INPUT_SIZE, 1);
+
+        assertEquals(NUM_DETECTIONS, buffer.getCount());
+        assertEquals(0.2f * INPUT_SIZE, buffer.getLeft(3), 1e-4f);
+        assertEquals(0.1f * INPUT_SIZE, buffer.getTop(3), 1e-4f);
+        assertEquals(0.4f * INPUT_SIZE, buffer.getRight(3), 1e-4f);
+        assertEquals(0.3f * INPUT_SIZE, buffer.getBottom(3), 1e-4f);
+        assertEquals(4, buffer.getClassId(3));
+        assertEquals(0.3f, buffer.getScore(3), 1e-6f);
+    }
+
+    @Test
+    public void detectionsBelowThresholdAreSkipped()
+    {
+        //Scores sorted by decreasing confidence, like the output of the SSD post-processing
+        final float[] sortedScores = new float[NUM_DETECTIONS];
+        for (int i = 0; i < NUM_DETECTIONS; i++)
+            sortedScores[i] = 1f - i / (float) NUM_DETECTIONS;
+
+        DetectionBuffer buffer = new DetectionBuffer(NUM_DETECTIONS);
+        buffer.setFromOutputs(outputLocations, outputClasses, sortedScores, NUM_DETECTIONS,
+                INPUT_SIZE, 1, 0.65f, NUM_DETECTIONS);
+        assertEquals(4, buffer.getCount());
+        assertEquals(0.7f, buffer.getScore(3), 1e-6f);
+
+        //Top-K limits the result even if more detections are above the threshold
+        buffer.setFromOutputs(outputLocations, outputClasses, sortedScores, NUM_DETECTIONS,
+                INPUT_SIZE, 1, 0.65f, 2);
+        assertEquals(2, buffer.getCount());
+        assertEquals(2, buffer.getClassId(1));
+
+        //Only the valid outputs are read
+        buffer.setFromOutputs(outputLocations, outputClasses, sortedScores, 1,
+                INPUT_SIZE, 1, 0f, NUM_DETECTIONS);
+        assertEquals(1, buffer.getCount());
+    }
+
+    @Test
+    public void poolReusesBuffers()
+    {
+        DetectionBuffer.Pool pool = new DetectionBuffer.Pool(2, NUM_DETECTIONS);
+        DetectionBuffer a = pool.acquire();
+        DetectionBuffer b = pool.acquire();
+
+        assertNotNull(a);
+        assertNotNull(b);
+        assertNull(pool.acquire());
+
+        pool.release(a);
+        assertSame(a, pool.acquire());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate()
+    {
+        final com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        DetectionBuffer.Pool pool = new DetectionBuffer.Pool(2, NUM_DETECTIONS);
+
+        //Warm up, so that the code is compiled and every lazy initialization is done
+        for (int i = 0; i < 20000; i++)
+            runFrame(pool);
+
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++)
+            runFrame(pool);
+        final long after = threadBean.getThreadAllocatedBytes(threadId);
+
+        /**
+         * getThreadAllocatedBytes itself may allocate its result, so a tiny constant is tolerated;
+         * a single allocation per frame would already be several hundreds of kilobytes.
+         */
+        assertTrue("Allocated " + (after - before) + " bytes", after - before < 1024);
+    }
+
+    private void runFrame(DetectionBuffer.Pool pool)
+    {
+        DetectionBuffer buffer = pool.acquire();
+        buffer.setFromOutputs(outputLocations, outputClasses, outputScores, NUM_DETECTIONS,
+                INPUT_SIZE, 1);
+        pool.release(buffer);
+    }
+}
@@ -0,0 +1,264 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the staged detection pipeline and its ring buffers.
+ */
+public class DetectionPipelineTest
+{
+    private static final DetectionPipeline.InputFactory INPUT_FACTORY =
+            new DetectionPipeline.InputFactory()
+            {
+                @Override
+                public ByteBuffer createInputBuffer()
+                {
+                    return ByteBuffer.allocateDirect(16);
+                }
+            };
+
+    @Test
+    public void ringBufferDropsOldest()
+    {
+        FrameRingBuffer<Integer> queue = new FrameRingBuffer<>(2);
+        assertNull(queue.offer(1));
+        assertNull(queue.offer(2));
+        assertEquals(Integer.valueOf(1), queue.offer(3));
+        assertEquals(2, queue.size());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void framesFlowThroughAllStages() throws Exception
+    {
+        final CountDownLatch done = new CountDownLatch(5);
+        DetectionPipeline pipeline = new DetectionPipeline(3, 1, INPUT_FACTORY, 10,
+                new DetectionPipeline.Inference()
+                {
+                    @Override
+                    public void runInference(ByteBuffer input, DetectionBuffer out)
+                    {
+                        out.setFromOutputs(new float[][]{{0, 0, 1, 1}}, new float[]{input.get(0)},
+                                new float[]{1}, 1, 300, 0);
+                    }
+                },
+                new DetectionPipeline.Consumer()
+                {
+                    @Override
+                    public void onDetections(DetectionPipeline.Frame frame)
+                    {
+                        assertEquals(frame.timestamp, frame.detections.getClassId(0));
+                        done.countDown();
+                    }
+                });
+
+        for (int i = 0; i < 5; i++)
+        {
+            DetectionPipeline.Frame frame;
+            //Backpressure: wait for a free frame
+            while ((frame = pipeline.acquireFrame()) == null)
+                Thread.sleep(1);
+            frame.timestamp = i;
+            frame.input.put(0, (byte) i);
+            pipeline.submit(frame);
+            //Leave time to the stages, so that no frame is dropped
+            while (!pipeline.isIdle())
+                Thread.sleep(1);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.isIdle());
+        assertEquals(5, pipeline.getEndToEndStats().getCount());
+        pipeline.close();
+    }
+
+    @Test
+    public void slowInferenceDropsOldFramesAndAppliesBackpressure() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        DetectionPipeline pipeline = new DetectionPipeline(3, 1, INPUT_FACTORY, 10,
+                new DetectionPipeline.Inference()
+                {
+                    @Override
+                    public void runInference(ByteBuffer input, DetectionBuffer out)
+                    {
+                        try
+                        {
+                            release.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                },
+                new DetectionPipeline.Consumer()
+                {
+                    @Override
+                    public void onDetections(DetectionPipeline.Frame frame)
+                    {
+                    }
+                });
+
+        //The first frame blocks the inference stage
+        pipeline.submit(pipeline.acquireFrame());
+        while (pipeline.getInferenceQueueDepth() != 0)
+            Thread.sleep(1);
+
+        //The second waits in the queue and is replaced by the third
+        pipeline.submit(pipeline.acquireFrame());
+        pipeline.submit(pipeline.acquireFrame());
+        assertEquals(1, pipeline.getInferenceStats().getDropped());
+        assertEquals(1, pipeline.getInferenceQueueDepth());
+
+        //Two frames are in flight, one is free
+        assertNotNull(pipeline.acquireFrame());
+        assertNull(pipeline.acquireFrame());
+        assertEquals(1, pipeline.getPreprocessStats().getDropped());
+
+        release.countDown();
+        pipeline.close();
+    }
+
+    @Test
+    public void waitingFramesAreAnalyzedInOneBatch() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch firstTracked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final int[] batchCount = new int[1];
+        DetectionPipeline pipeline = new DetectionPipeline(3, 1, 2, INPUT_FACTORY, 10,
+                new DetectionPipeline.BatchInference()
+                {
+                    @Override
+                    public void runInference(ByteBuffer input, DetectionBuffer out)
+                    {
+                        try
+                        {
+                            release.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            throw new RuntimeException(e);
+                        }
+                        out.setFromOutputs(new float[][]{{0, 0, 1, 1}}, new float[]{input.get(0)},
+                                new float[]{1}, 1, 300, 0);
+                    }
+
+                    @Override
+                    public void runInference(ByteBuffer[] inputs, DetectionBuffer[] outs,
+                                             int count)
+                    {
+                        //The track queue holds a batch, the first frame must leave it first
+                        try
+                        {
+                            firstTracked.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            throw new RuntimeException(e);
+                        }
+                        batchCount[0] = count;
+                        for (int i = 0; i < count; i++)
+                            outs[i].setFromOutputs(new float[][]{{0, 0, 1, 1}},
+                                    new float[]{inputs[i].get(0)}, new float[]{1}, 1, 300, 0);
+                    }
+                },
+                new DetectionPipeline.Consumer()
+                {
+                    @Override
+                    public void onDetections(DetectionPipeline.Frame frame)
+                    {
+                        assertEquals(frame.timestamp, frame.detections.getClassId(0));
+                        firstTracked.countDown();
+                        done.countDown();
+                    }
+                });
+
+        //The first frame blocks the inference stage, the other two wait and aren't dropped
+        for (int i = 0; i < 3; i++)
+        {
+            final DetectionPipeline.Frame frame = pipeline.acquireFrame();
+            frame.timestamp = i;
+            frame.input.put(0, (byte) i);
+            pipeline.submit(frame);
+            while (i == 0 && pipeline.getInferenceQueueDepth() != 0)
+                Thread.sleep(1);
+        }
+        assertEquals(0, pipeline.getInferenceStats().getDropped());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, batchCount[0]);
+        assertEquals(0, pipeline.getTrackStats().getDropped());
+        pipeline.close();
+    }
+
+    @Test
+    public void failedInferenceReturnsTheFramesToThePool() throws Exception
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        DetectionPipeline pipeline = new DetectionPipeline(2, 1, INPUT_FACTORY, 10,
+                new DetectionPipeline.Inference()
+                {
+                    @Override
+                    public void runInference(ByteBuffer input, DetectionBuffer out)
+                    {
+                        if (input.get(0) == 0)
+                            throw new IllegalStateException("Interpreter failure");
+                        out.setFromOutputs(new float[][]{{0, 0, 1, 1}}, new float[]{input.get(0)},
+                                new float[]{1}, 1, 300, 0);
+                    }
+                },
+                new DetectionPipeline.Consumer()
+                {
+                    @Override
+                    public void onDetections(DetectionPipeline.Frame frame)
+                    {
+                        done.countDown();
+                    }
+                });
+
+        //The failed frame is dropped, but the stage goes on with the next one
+        DetectionPipeline.Frame frame = pipeline.acquireFrame();
+        frame.input.put(0, (byte) 0);
+        pipeline.submit(frame);
+        pipeline.awaitIdle();
+        assertEquals(1, pipeline.getInferenceStats().getDropped());
+
+        frame = pipeline.acquireFrame();
+        frame.input.put(0, (byte) 1);
+        pipeline.submit(frame);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        pipeline.awaitIdle();
+        assertNotNull(pipeline.acquireFrame());
+        assertNotNull(pipeline.acquireFrame());
+        pipeline.close();
+    }
+
+    @Test
+    public void percentilesUseTheMostRecentLatencies()
+    {
+        StageStats stats = new StageStats("test");
+        assertEquals(0, stats.getPercentileNs(50));
+
+        //The first latencies are overwritten by the following SAMPLES ones, from 1 to SAMPLES
+        for (int i = 0; i < 10; i++)
+            stats.record(1000000);
+        for (int i = 1; i <= StageStats.SAMPLES; i++)
+            stats.record(i);
+
+        assertEquals(StageStats.SAMPLES / 2, stats.getPercentileNs(50));
+        assertEquals(StageStats.SAMPLES, stats.getPercentileNs(100));
+        assertEquals(1, stats.getPercentileNs(0));
+        assertEquals(1000000, stats.getMaxNs());
+    }
+}
@@ -0,0 +1,134 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the registry of the detection models.
+ */
+public class DetectorRegistryTest
+{
+    private static final ModelDescriptor ACCURATE = new ModelDescriptor("accurate",
+            "accurate.tflite", "file:///android_asset/labelmap.txt", 640, false,
+            ModelDescriptor.OutputLayout.SSD_POSTPROCESS);
+
+    private static final ModelDescriptor FAST = new ModelDescriptor("fast",
+            "fast.tflite", "file:///android_asset/labelmap.txt", 300, true,
+            ModelDescriptor.OutputLayout.SSD_POSTPROCESS);
+
+    private static class CountingLoader implements DetectorRegistry.Loader
+    {
+        private int calls = 0;
+
+        @Override
+        public TensorFlowObjectDetectionAPIModel load(ModelDescriptor descriptor)
+                throws IOException
+        {
+            calls++;
+            throw new IOException("Missing asset " + descriptor.getModelFile());
+        }
+    }
+
+    @Test
+    public void cheapestModelIsChosenInLowPower()
+    {
+        List<ModelDescriptor> models = Arrays.asList(ACCURATE, FAST);
+        assertEquals("accurate", DetectorRegistry.choose(models, "accurate", false));
+        assertEquals("fast", DetectorRegistry.choose(models, "accurate", true));
+        assertTrue(FAST.getRelativeCost() < ACCURATE.getRelativeCost());
+    }
+
+    @Test
+    public void modelsAreLoadedOnlyWhenRequested()
+    {
+        CountingLoader loader = new CountingLoader();
+        DetectorRegistry registry = new DetectorRegistry(loader);
+        registry.register(ACCURATE);
+        registry.register(FAST);
+
+        assertEquals(0, loader.calls);
+        assertNull(registry.getActiveName());
+
+        try
+        {
+            registry.select("fast");
+            fail();
+        }
+        catch (IOException e)
+        {
+            //The failed model doesn't become the active one
+            assertEquals(1, loader.calls);
+            assertFalse(registry.isLoaded("fast"));
+            assertNull(registry.getActiveDescriptor());
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void queriesDontWaitForTheLoading() throws Exception
+    {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final DetectorRegistry registry = new DetectorRegistry(new DetectorRegistry.Loader()
+        {
+            @Override
+            public TensorFlowObjectDetectionAPIModel load(ModelDescriptor descriptor)
+                    throws IOException
+            {
+                loading.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new RuntimeException(e);
+                }
+                throw new IOException("Missing asset " + descriptor.getModelFile());
+            }
+        });
+        registry.register(ACCURATE);
+        registry.register(FAST);
+
+        final Thread loader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    registry.get("accurate");
+                }
+                catch (IOException e)
+                {
+                    //Expected, the loader has no model
+                }
+            }
+        });
+        loader.start();
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        //The model is being loaded: the queries of the UI thread return immediately
+        assertEquals("fast", registry.choose("accurate", true));
+        assertNull(registry.getActiveName());
+        assertFalse(registry.isLoaded("accurate"));
+
+        release.countDown();
+        loader.join();
+        assertFalse(registry.isLoaded("accurate"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateNamesAreRejected()
+    {
+        DetectorRegistry registry = new DetectorRegistry(new CountingLoader());
+        registry.register(FAST);
+        registry.register(FAST);
+    }
+}
@@ -0,0 +1,400 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import it.unipd.dei.sproject1819.myeyse.tracking.MultiBoxTracker;
+import it.unipd.dei.sproject1819.myeyse.tracking.ObjectTracker;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit test for the recording container and the offline replay of the detection pipeline.
+ * A synthetic recording is replayed with a detector that finds an object when the center of the
+ * input is bright, and a tracker that announces each class once. The replay on the real model and
+ * tracker, through FrameProcessorAdapters, is FrameReplayInstrumentedTest.
+ * <p>
+ * The last test replays, at the recorded rate, a pan over a textured scene through the native
+ * tracker and the scheduler. It needs the host build of libtensorflow_demo, as ObjectTrackerTest.
+ */
+public class FrameReplayTest
+{
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    //Rows of the Y plane are padded, the chroma is interleaved as in NV21
+    private static final int Y_ROW_STRIDE = WIDTH + 16;
+    private static final int UV_PIXEL_STRIDE = 2;
+    private static final int UV_ROW_STRIDE = WIDTH;
+
+    private static final int INPUT_SIZE = 16;
+    private static final int NUM_FRAMES = 40;
+
+    //The object appears in this frame
+    private static final int APPEARANCE = 20;
+
+    private static final String[] LABELS = {"???", "person"};
+
+    private static YuvRecording.Image frame(int index)
+    {
+        final byte[] y = new byte[Y_ROW_STRIDE * HEIGHT];
+        final byte[] uv = new byte[UV_ROW_STRIDE * HEIGHT / 2];
+        for (int row = 0; row < HEIGHT; row++)
+        {
+            for (int column = 0; column < WIDTH; column++)
+            {
+                final boolean object = index >= APPEARANCE && column >= WIDTH / 4 &&
+                        column < 3 * WIDTH / 4 && row >= HEIGHT / 4 && row < 3 * HEIGHT / 4;
+                y[row * Y_ROW_STRIDE + column] = (byte) (object ? 220 : 30);
+            }
+        }
+        for (int i = 0; i < uv.length; i++)
+            uv[i] = (byte) 128;
+        //33 ms between the frames
+        return new YuvRecording.Image(index * 33000000L, WIDTH, HEIGHT, Y_ROW_STRIDE,
+                UV_ROW_STRIDE, UV_PIXEL_STRIDE, y, uv, uv);
+    }
+
+    private static byte[] record() throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final YuvRecording.Writer writer = new YuvRecording.Writer(bytes);
+        for (int i = 0; i < NUM_FRAMES; i++)
+            writer.write(frame(i));
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private static class BrightCenterDetector implements FrameProcessor.Detector
+    {
+        @Override
+        public ByteBuffer createInputBuffer()
+        {
+            return ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3)
+                    .order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public void runInference(ByteBuffer input, DetectionBuffer out)
+        {
+            final int center = ((INPUT_SIZE / 2) * INPUT_SIZE + INPUT_SIZE / 2) * 3;
+            if ((input.get(center) & 0xFF) > 128)
+                out.setFromOutputs(new float[][]{{0.25f, 0.25f, 0.75f, 0.75f}}, new float[]{0},
+                        new float[]{0.9f}, 1, INPUT_SIZE, 1);
+        }
+
+        @Override
+        public int getInputSize()
+        {
+            return INPUT_SIZE;
+        }
+
+        @Override
+        public int getMaxDetections()
+        {
+            return 10;
+        }
+
+        @Override
+        public void preprocess(CameraFrame frame, float[] cropToFrame, ByteBuffer target)
+        {
+            ImageUtils.convertYUV420ToModelInput(frame.getY(), frame.getU(), frame.getV(),
+                    frame.width, frame.height, frame.yRowStride, frame.uvRowStride,
+                    frame.uvPixelStride, cropToFrame, target, INPUT_SIZE, true, 128, 128);
+        }
+
+        @Override
+        public void preprocessRois(CameraFrame frame, RoiMosaic rois, ByteBuffer target)
+        {
+            fail("No object is tracked badly");
+        }
+    }
+
+    private static class AnnounceOnceTracker implements FrameProcessor.Tracker
+    {
+        private final Set<Integer> announced = new HashSet<>();
+        private int numFrames = 0;
+
+        @Override
+        public void onFrame(CameraFrame frame, long timestamp, int sensorOrientation)
+        {
+            numFrames++;
+        }
+
+        @Override
+        public List<InfoSpeech> updateSectors()
+        {
+            return null;
+        }
+
+        @Override
+        public float getGlobalMotion()
+        {
+            return 0;
+        }
+
+        @Override
+        public float getMinCorrelation()
+        {
+            return 1;
+        }
+
+        @Override
+        public int getTrackedBoxes(float[] boxes, int maxBoxes, float priorityCorrelation)
+        {
+            return 0;
+        }
+
+        @Override
+        public void keepFrame(CameraFrame cameraFrame, DetectionPipeline.Frame frame)
+        {
+        }
+
+        @Override
+        public List<InfoSpeech> onDetections(DetectionPipeline.Frame frame)
+        {
+            final List<InfoSpeech> messages = new ArrayList<>();
+            for (int i = 0; i < frame.detections.getCount(); i++)
+            {
+                if (announced.add(frame.detections.getClassId(i)))
+                    messages.add(new InfoSpeech(LABELS[frame.detections.getClassId(i)],
+                            MultiBoxTracker.Direction.CENTER));
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * Tracker of the replay on the native optical flow, that records the motion measured in each
+     * frame
+     */
+    private static class NativeTracker implements FrameProcessor.Tracker
+    {
+        private final ObjectTracker objectTracker;
+        private final List<Float> motions = new ArrayList<>();
+
+        NativeTracker(ObjectTracker objectTracker)
+        {
+            this.objectTracker = objectTracker;
+        }
+
+        @Override
+        public void onFrame(CameraFrame frame, long timestamp, int sensorOrientation)
+        {
+            //The timestamps of the tracker start from 1, as the ones of the activity
+            objectTracker.nextFrame(frame.getY(), motions.size() + 1, null, false);
+            motions.add(objectTracker.getGlobalMotion());
+        }
+
+        @Override
+        public List<InfoSpeech> updateSectors()
+        {
+            return null;
+        }
+
+        @Override
+        public float getGlobalMotion()
+        {
+            return objectTracker.getGlobalMotion();
+        }
+
+        @Override
+        public float getMinCorrelation()
+        {
+            return 1;
+        }
+
+        @Override
+        public int getTrackedBoxes(float[] boxes, int maxBoxes, float priorityCorrelation)
+        {
+            return 0;
+        }
+
+        @Override
+        public void keepFrame(CameraFrame cameraFrame, DetectionPipeline.Frame frame)
+        {
+        }
+
+        @Override
+        public List<InfoSpeech> onDetections(DetectionPipeline.Frame frame)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Random values on a grid of cells, interpolated bilinearly: the scene has corners at all the
+     * scales, so the optical flow finds keypoints everywhere
+     */
+    private static byte[] texture(int size, int cell)
+    {
+        final Random random = new Random(7);
+        final int cells = size / cell + 1;
+        final int[] grid = new int[cells * cells];
+        for (int i = 0; i < grid.length; i++)
+            grid[i] = random.nextInt(256);
+
+        final byte[] texture = new byte[size * size];
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                final int cx = x / cell;
+                final int cy = y / cell;
+                final int fx = x % cell;
+                final int fy = y % cell;
+                final int top = grid[cy * cells + cx] * (cell - fx) +
+                        grid[cy * cells + cx + 1] * fx;
+                final int bottom = grid[(cy + 1) * cells + cx] * (cell - fx) +
+                        grid[(cy + 1) * cells + cx + 1] * fx;
+                texture[y * size + x] = (byte) ((top * (cell - fy) + bottom * fy) / (cell * cell));
+            }
+        }
+        return texture;
+    }
+
+    @Test
+    public void recordingKeepsStridesAndPlanes() throws Exception
+    {
+        final YuvRecording.Reader reader =
+                new YuvRecording.Reader(new ByteArrayInputStream(record()));
+        final YuvRecording.Image expected = frame(APPEARANCE);
+        final YuvRecording.Image image = new YuvRecording.Image();
+
+        int count = 0;
+        while (reader.next(image))
+        {
+            if (count == APPEARANCE)
+            {
+                assertEquals(expected.timestamp, image.timestamp);
+                assertEquals(Y_ROW_STRIDE, image.yRowStride);
+                assertEquals(UV_ROW_STRIDE, image.uvRowStride);
+                assertEquals(UV_PIXEL_STRIDE, image.uvPixelStride);
+                assertArrayEquals(expected.y, image.y);
+                assertArrayEquals(expected.u, image.u);
+            }
+            count++;
+        }
+        reader.close();
+        assertEquals(NUM_FRAMES, count);
+    }
+
+    @Test
+    public void replayReportsAnnouncementsAndLatencies() throws Exception
+    {
+        final AnnounceOnceTracker tracker = new AnnounceOnceTracker();
+        //Scale from the 16x16 input to the 64x48 frame
+        final float[] cropToFrame = {WIDTH / (float) INPUT_SIZE, 0, 0,
+                0, HEIGHT / (float) INPUT_SIZE, 0, 0, 0, 1};
+        final FrameReplay replay = new FrameReplay(new BrightCenterDetector(), tracker,
+                cropToFrame, 0);
+        replay.setScheduler(new InferenceScheduler());
+
+        final FrameReplay.Report report = replay.run(
+                new YuvRecording.Reader(new ByteArrayInputStream(record())));
+
+        assertEquals(NUM_FRAMES, report.getNumFrames());
+        assertEquals(NUM_FRAMES, tracker.numFrames);
+
+        //Without real time pacing the frames are processed one at a time and none is dropped
+        assertEquals(0, report.getNumDropped());
+        assertEquals(NUM_FRAMES, report.getNumProcessed() + report.getNumSkipped());
+        assertTrue(report.getNumSkipped() > NUM_FRAMES / 2);
+
+        //The object is announced once, as soon as it appears
+        assertEquals(1, report.getAnnouncements().size());
+        final FrameReplay.Announcement announcement = report.getAnnouncements().get(0);
+        assertEquals(frame(APPEARANCE).timestamp, announcement.timestamp);
+        assertEquals("person at twelve o'clock", announcement.message);
+
+        final StageStats endToEnd = report.getEndToEndStats();
+        assertTrue(endToEnd.getPercentileNs(50) > 0);
+        assertTrue(endToEnd.getPercentileNs(50) <= endToEnd.getPercentileNs(99));
+        assertTrue(endToEnd.getPercentileNs(99) <= endToEnd.getMaxNs());
+    }
+
+    @Test
+    public void realTimeReplayFollowsAPan() throws Exception
+    {
+        assumeTrue(ObjectTracker.isLibraryFound());
+
+        final int width = 320;
+        final int height = 240;
+        final int textureSize = 512;
+        final long frameNs = 33000000L;
+
+        //Still scene, then a pan of panStep pixels per frame, then still again
+        final int still = 10;
+        final int pan = 10;
+        final int panStep = 6;
+        final byte[] texture = texture(textureSize, 8);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final YuvRecording.Writer writer = new YuvRecording.Writer(bytes);
+        final byte[] uv = new byte[width * height / 2];
+        for (int i = 0; i < uv.length; i++)
+            uv[i] = (byte) 128;
+        for (int t = 0; t < 2 * still + pan; t++)
+        {
+            final int shift = Math.min(Math.max(t - still, 0), pan) * panStep;
+            final byte[] y = new byte[width * height];
+            for (int row = 0; row < height; row++)
+                System.arraycopy(texture, (textureSize - height) / 2 * textureSize +
+                        row * textureSize + shift, y, row * width, width);
+            writer.write(new YuvRecording.Image(t * frameNs, width, height, width, width, 2, y,
+                    uv, uv));
+        }
+        writer.close();
+
+        ObjectTracker.clearInstance();
+        final NativeTracker tracker =
+                new NativeTracker(ObjectTracker.getInstance(width, height, width, true));
+        final InferenceScheduler scheduler = new InferenceScheduler();
+        final float[] cropToFrame = {width / (float) INPUT_SIZE, 0, 0,
+                0, height / (float) INPUT_SIZE, 0, 0, 0, 1};
+        final FrameReplay replay = new FrameReplay(new BrightCenterDetector(), tracker,
+                cropToFrame, 0);
+        replay.setScheduler(scheduler);
+        replay.setRealTime(true);
+
+        final FrameReplay.Report report;
+        final long startNs = System.nanoTime();
+        try
+        {
+            report = replay.run(new YuvRecording.Reader(new ByteArrayInputStream(
+                    bytes.toByteArray())));
+        }
+        finally
+        {
+            ObjectTracker.clearInstance();
+        }
+        final long elapsedNs = System.nanoTime() - startNs;
+
+        //The frames are given at the recorded rate
+        final int numFrames = 2 * still + pan;
+        assertEquals(numFrames, report.getNumFrames());
+        assertTrue(elapsedNs >= (numFrames - 1) * frameNs);
+        assertEquals(numFrames, report.getNumProcessed() + report.getNumSkipped() +
+                report.getNumDropped());
+
+        //The tracker measures the pan, and nothing when the scene is still
+        for (int t = still + 2; t < still + pan; t++)
+            assertEquals(panStep, tracker.motions.get(t), 1.0f);
+        for (int t = still + pan + 2; t < numFrames; t++)
+            assertEquals(0, tracker.motions.get(t), 1.0f);
+
+        //The still frames are skipped, the ones of the pan are analyzed
+        assertTrue(report.getNumSkipped() > 0);
+        assertTrue(report.getNumSkipped() <= 2 * still);
+        assertTrue(scheduler.getNumInferences() >= pan - 2);
+    }
+}
@@ -0,0 +1,182 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the keyframes and the cascade of ImageSimilarity.
+ */
+public class ImageSimilarityTest
+{
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private final CameraFrame.Pool pool = new CameraFrame.Pool(1, WIDTH, HEIGHT);
+
+    //Minimum correlation that enables the first test of the cascade
+    private static final float MIN_CORRELATION = 0.6f;
+
+    private static final AutoCloseable NO_IMAGE = new AutoCloseable()
+    {
+        @Override
+        public void close()
+        {
+        }
+    };
+
+    private CameraFrame frame(Boolean vertical, int u, int v, float position)
+    {
+        return frame(vertical, false, u, v, position);
+    }
+
+    /**
+     * @param vertical if true the luminance grows from top to bottom, otherwise from left to
+     *                 right; if null the frame is uniform
+     * @param reversed if true the frame is rotated by 180 degrees
+     */
+    private CameraFrame frame(Boolean vertical, boolean reversed, int u, int v, float position)
+    {
+        final ByteBuffer y = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int j = 0; j < HEIGHT; j++)
+        {
+            for (int i = 0; i < WIDTH; i++)
+            {
+                final int row = reversed ? HEIGHT - 1 - j : j;
+                final int column = reversed ? WIDTH - 1 - i : i;
+                final int luma = vertical == null ? 120 :
+                        (vertical ? 30 + row * 180 / HEIGHT : 30 + column * 180 / WIDTH);
+                y.put(j * WIDTH + i, (byte) luma);
+            }
+        }
+        final ByteBuffer uPlane = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+        final ByteBuffer vPlane = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+        for (int i = 0; i < WIDTH * HEIGHT / 4; i++)
+        {
+            uPlane.put(i, (byte) u);
+            vPlane.put(i, (byte) v);
+        }
+        return pool.acquire(NO_IMAGE, y, uPlane, vPlane, WIDTH, WIDTH / 2, 1, 0, position);
+    }
+
+    private boolean add(ImageSimilarity similarity, CameraFrame frame)
+    {
+        try
+        {
+            return similarity.addReferenceFrame(frame);
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    private boolean isSimilar(ImageSimilarity similarity, CameraFrame frame)
+    {
+        try
+        {
+            return similarity.IsSimilarWhitReferenceFrame(frame);
+        }
+        finally
+        {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void keyframesAreSpacedAroundTheStart()
+    {
+        final ImageSimilarity similarity = new ImageSimilarity();
+        assertTrue(add(similarity, frame(true, 128, 128, 0)));
+        assertFalse(add(similarity, frame(true, 128, 128, 0.01f)));
+        assertTrue(add(similarity, frame(true, 128, 128, 0.05f)));
+
+        //Before the start, on the other side of 0
+        assertTrue(add(similarity, frame(true, 128, 128, 5.95f)));
+
+        //Once the user has left the start, no more keyframes are taken
+        assertFalse(add(similarity, frame(true, 128, 128, 0.5f)));
+        assertFalse(add(similarity, frame(true, 128, 128, 0.1f)));
+        assertEquals(3, similarity.getNumKeyframes());
+
+        similarity.close();
+        assertEquals(0, similarity.getNumKeyframes());
+        assertTrue(add(similarity, frame(true, 128, 128, 3)));
+    }
+
+    @Test
+    public void sameSceneIsSimilar()
+    {
+        final ImageSimilarity similarity = new ImageSimilarity(MIN_CORRELATION);
+        add(similarity, frame(true, 128, 128, 0));
+        add(similarity, frame(false, 128, 128, 0.1f));
+        assertTrue(isSimilar(similarity, frame(false, 128, 128, 5.9f)));
+        assertEquals(0, similarity.getRejectedByLuma());
+        assertEquals(0, similarity.getRejectedByHistograms());
+    }
+
+    @Test
+    public void differentStructureIsRejectedByTheLuminance()
+    {
+        final ImageSimilarity similarity = new ImageSimilarity(MIN_CORRELATION);
+        add(similarity, frame(true, 128, 128, 0));
+
+        //Same histograms, but the gradient is rotated
+        assertFalse(isSimilar(similarity, frame(false, 128, 128, 5.9f)));
+        assertEquals(1, similarity.getRejectedByLuma());
+        assertEquals(0, similarity.getRejectedByHistograms());
+    }
+
+    @Test
+    public void differentColorsAreRejectedByTheHistograms()
+    {
+        final ImageSimilarity similarity = new ImageSimilarity(MIN_CORRELATION);
+        add(similarity, frame(true, 128, 128, 0));
+
+        assertFalse(isSimilar(similarity, frame(true, 60, 200, 5.9f)));
+        assertEquals(0, similarity.getRejectedByLuma());
+        assertEquals(1, similarity.getRejectedByHistograms());
+    }
+
+    @Test
+    public void uniformFramesAreComparedByTheHistograms()
+    {
+        final ImageSimilarity similarity = new ImageSimilarity(MIN_CORRELATION);
+        add(similarity, frame(null, 128, 128, 0));
+
+        assertTrue(isSimilar(similarity, frame(null, 128, 128, 5.9f)));
+        assertFalse(isSimilar(similarity, frame(true, 128, 128, 5.9f)));
+        assertEquals(1, similarity.getRejectedByLuma());
+    }
+
+    @Test
+    public void byDefaultOnlyTheHistogramsAreCompared()
+    {
+        final ImageSimilarity similarity = new ImageSimilarity();
+        add(similarity, frame(true, 128, 128, 0));
+
+        //Same histograms: the reversed gradient is similar without the test of the luminance
+        assertTrue(isSimilar(similarity, frame(true, true, 128, 128, 5.9f)));
+        assertFalse(isSimilar(similarity, frame(true, 60, 200, 5.9f)));
+        assertEquals(0, similarity.getRejectedByLuma());
+        assertEquals(1, similarity.getRejectedByHistograms());
+    }
+
+    @Test
+    public void reversedStructureIsRejectedByTheLuminance()
+    {
+        final ImageSimilarity similarity = new ImageSimilarity(MIN_CORRELATION);
+        add(similarity, frame(true, 128, 128, 0));
+
+        assertFalse(isSimilar(similarity, frame(true, true, 128, 128, 5.9f)));
+        assertEquals(1, similarity.getRejectedByLuma());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void correlationOutOfRangeIsRejected()
+    {
+        new ImageSimilarity(1.5f);
+    }
+}
@@ -0,0 +1,358 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the Java conversion of YUV 4:2:0 to ARGB. The result is compared pixel by
+ * pixel with a direct port of YUV2RGB of jni/yuv2rgb.cc.
+ */
+public class ImageUtilsTest
+{
+    private final Random random = new Random(7);
+
+    @After
+    public void restoreDefaults()
+    {
+        ImageUtils.setParallelJavaConversion(true);
+        ImageUtils.setNativeConversion(true);
+    }
+
+    /**
+     * Port of YUV2RGB of the native library.
+     */
+    private static int reference(int y, int u, int v)
+    {
+        y = Math.max(y - 16, 0);
+        u -= 128;
+        v -= 128;
+        final int r = Math.min(262143, Math.max(0, 1192 * y + 1634 * v));
+        final int g = Math.min(262143, Math.max(0, 1192 * y - 833 * v - 400 * u));
+        final int b = Math.min(262143, Math.max(0, 1192 * y + 2066 * u));
+        return 0xff000000 | ((r >> 10) << 16) | ((g >> 10) << 8) | (b >> 10);
+    }
+
+    private byte[] randomBytes(int length)
+    {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private void checkPlanar(int width, int height, int yRowStride, int uvRowStride,
+                             int uvPixelStride)
+    {
+        final int uvHeight = (height + 1) / 2;
+        final byte[] y = randomBytes(yRowStride * height);
+        final byte[] u = randomBytes(uvRowStride * uvHeight);
+        final byte[] v = randomBytes(uvRowStride * uvHeight);
+        final int[] out = new int[width * height];
+
+        ImageUtils.setNativeConversion(false);
+        ImageUtils.convertYUV420ToARGB8888(y, u, v, width, height, yRowStride, uvRowStride,
+                uvPixelStride, out);
+
+        for (int j = 0; j < height; j++)
+        {
+            for (int i = 0; i < width; i++)
+            {
+                final int uv = uvRowStride * (j >> 1) + (i >> 1) * uvPixelStride;
+                assertEquals("Pixel " + i + "," + j,
+                        reference(y[yRowStride * j + i] & 0xff, u[uv] & 0xff, v[uv] & 0xff),
+                        out[width * j + i]);
+            }
+        }
+    }
+
+    @Test
+    public void oddSizeWithPaddedStrides()
+    {
+        ImageUtils.setParallelJavaConversion(false);
+        checkPlanar(33, 17, 40, 36, 2);
+    }
+
+    @Test
+    public void parallelConversionOfLargeFrame()
+    {
+        ImageUtils.setParallelJavaConversion(true);
+        checkPlanar(640, 481, 640, 320, 1);
+    }
+
+    @Test
+    public void semiPlanarMatchesPlanar()
+    {
+        final int width = 64;
+        final int height = 48;
+        final byte[] nv21 = randomBytes(width * height * 3 / 2);
+        final int[] semiPlanar = new int[width * height];
+        final int[] planar = new int[width * height];
+
+        ImageUtils.setNativeConversion(false);
+        ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, semiPlanar);
+
+        //The same data seen as YUV_420_888 planes: V first, U one byte later
+        final byte[] y = new byte[width * height];
+        final byte[] u = new byte[width * height / 2];
+        final byte[] v = new byte[width * height / 2];
+        System.arraycopy(nv21, 0, y, 0, y.length);
+        System.arraycopy(nv21, y.length, v, 0, v.length);
+        System.arraycopy(nv21, y.length + 1, u, 0, u.length - 1);
+        ImageUtils.convertYUV420ToARGB8888(y, u, v, width, height, width, width, 2, planar);
+
+        assertArrayEquals(planar, semiPlanar);
+    }
+
+    private static ByteBuffer direct(byte[] bytes)
+    {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.rewind();
+        return buffer;
+    }
+
+    @Test
+    public void directPlanesMatchArrays()
+    {
+        final int width = 40;
+        final int height = 30;
+        final byte[] y = randomBytes(48 * height);
+        final byte[] u = randomBytes(24 * height / 2);
+        final byte[] v = randomBytes(24 * height / 2);
+        final int[] fromArrays = new int[width * height];
+        final int[] fromBuffers = new int[width * height];
+
+        ImageUtils.convertYUV420ToARGB8888(y, u, v, width, height, 48, 24, 1, fromArrays);
+        ImageUtils.convertYUV420ToARGB8888(direct(y), direct(u), direct(v), width, height, 48,
+                24, 1, fromBuffers);
+        assertArrayEquals(fromArrays, fromBuffers);
+
+        //Input of a quantized model, scaled down from the frame
+        final int outSize = 16;
+        final float[] dstToSrc = {width / (float) outSize, 0, 0, 0, height / (float) outSize, 0};
+        final ByteBuffer inputFromArrays = ByteBuffer.allocateDirect(outSize * outSize * 3);
+        final ByteBuffer inputFromBuffers = ByteBuffer.allocateDirect(outSize * outSize * 3);
+        ImageUtils.convertYUV420ToModelInput(y, u, v, width, height, 48, 24, 1, dstToSrc,
+                inputFromArrays, outSize, true, 128, 128);
+        ImageUtils.convertYUV420ToModelInput(direct(y), direct(u), direct(v), width, height, 48,
+                24, 1, dstToSrc, inputFromBuffers, outSize, true, 128, 128);
+        assertEquals(inputFromArrays, inputFromBuffers);
+
+        //Without the native library the buffers are read in place by the Java implementation
+        ImageUtils.setNativeConversion(false);
+        ImageUtils.convertYUV420ToARGB8888(direct(y), direct(u), direct(v), width, height, 48,
+                24, 1, fromBuffers);
+        assertArrayEquals(fromArrays, fromBuffers);
+        ImageUtils.convertYUV420ToModelInput(direct(y), direct(u), direct(v), width, height, 48,
+                24, 1, dstToSrc, inputFromBuffers, outSize, true, 128, 128);
+        assertEquals(inputFromArrays, inputFromBuffers);
+    }
+
+    @Test
+    public void scaledConversionMatchesModelInput()
+    {
+        final int width = 101;
+        final int height = 75;
+        final byte[] y = randomBytes(104 * height);
+        final byte[] u = randomBytes(104 * (height + 1) / 2);
+        final byte[] v = randomBytes(104 * (height + 1) / 2);
+
+        //The same pixels are sampled in the same way
+        final int outSize = 32;
+        final int[] scaled = new int[outSize * outSize];
+        ImageUtils.convertYUV420ToARGB8888Scaled(direct(y), direct(u), direct(v), width,
+                height, 104, 104, 2, scaled, outSize, outSize);
+        final float[] dstToSrc = {width / (float) outSize, 0, 0, 0, height / (float) outSize, 0};
+        final ByteBuffer input = ByteBuffer.allocateDirect(outSize * outSize * 3);
+        ImageUtils.setNativeConversion(false);
+        ImageUtils.convertYUV420ToModelInput(y, u, v, width, height, 104, 104, 2, dstToSrc,
+                input, outSize, true, 128, 128);
+        for (int i = 0; i < scaled.length; i++)
+        {
+            final int pixel = 0xff000000 | (input.get() & 0xff) << 16 |
+                    (input.get() & 0xff) << 8 | (input.get() & 0xff);
+            assertEquals("Pixel " + i, pixel, scaled[i]);
+        }
+    }
+
+    /**
+     * Values of a matrix built with the post operations of android.graphics.Matrix, which is not
+     * available in the local tests.
+     */
+    private static class PostMatrix
+    {
+        private final double[] m = {1, 0, 0, 0, 1, 0};
+
+        private void post(double a, double b, double c, double d, double tx, double ty)
+        {
+            final double[] r = {
+                    a * m[0] + b * m[3], a * m[1] + b * m[4], a * m[2] + b * m[5] + tx,
+                    c * m[0] + d * m[3], c * m[1] + d * m[4], c * m[2] + d * m[5] + ty};
+            System.arraycopy(r, 0, m, 0, 6);
+        }
+
+        void postTranslate(double dx, double dy)
+        {
+            post(1, 0, 0, 1, dx, dy);
+        }
+
+        void postRotate(double degrees)
+        {
+            final double cos = Math.cos(Math.toRadians(degrees));
+            final double sin = Math.sin(Math.toRadians(degrees));
+            post(cos, -sin, sin, cos, 0, 0);
+        }
+
+        void postScale(double sx, double sy)
+        {
+            post(sx, 0, 0, sy, 0, 0);
+        }
+    }
+
+    /**
+     * The steps of the original getTransformationMatrix.
+     */
+    private static PostMatrix referenceTransformation(int srcWidth, int srcHeight, int dstWidth,
+                                                      int dstHeight, int rotation,
+                                                      boolean maintainAspectRatio)
+    {
+        final PostMatrix matrix = new PostMatrix();
+        if (rotation != 0)
+        {
+            matrix.postTranslate(-srcWidth / 2.0, -srcHeight / 2.0);
+            matrix.postRotate(rotation);
+        }
+        final boolean transpose = (Math.abs(rotation) + 90) % 180 == 0;
+        final int inWidth = transpose ? srcHeight : srcWidth;
+        final int inHeight = transpose ? srcWidth : srcHeight;
+        if (inWidth != dstWidth || inHeight != dstHeight)
+        {
+            final double scaleX = dstWidth / (double) inWidth;
+            final double scaleY = dstHeight / (double) inHeight;
+            if (maintainAspectRatio)
+                matrix.postScale(Math.max(scaleX, scaleY), Math.max(scaleX, scaleY));
+            else
+                matrix.postScale(scaleX, scaleY);
+        }
+        if (rotation != 0)
+            matrix.postTranslate(dstWidth / 2.0, dstHeight / 2.0);
+        return matrix;
+    }
+
+    @Test
+    public void transformationValuesFollowMatrixSemantics()
+    {
+        final float[] values = new float[9];
+        for (int rotation : new int[]{0, 90, 180, 270, -90})
+        {
+            for (boolean aspect : new boolean[]{true, false})
+            {
+                ImageUtils.getTransformationValues(640, 480, 300, 300, rotation, aspect, values);
+                final PostMatrix expected =
+                        referenceTransformation(640, 480, 300, 300, rotation, aspect);
+                for (int i = 0; i < 6; i++)
+                    assertEquals("Rotation " + rotation + ", value " + i, expected.m[i],
+                            values[i], 1e-4);
+            }
+        }
+
+        //Rotated by 90 degrees, the top left corner of the frame goes at the top right, 50
+        //pixels above the output because of the crop
+        ImageUtils.getTransformationValues(640, 480, 300, 300, 90, true, values);
+        assertEquals(300, values[2], 1e-4);
+        assertEquals(-50, values[5], 1e-4);
+    }
+
+    /**
+     * Inverse of the values of an affine PostMatrix, as Matrix.invert.
+     */
+    private static float[] invert(double[] m)
+    {
+        final double det = m[0] * m[4] - m[1] * m[3];
+        return new float[]{
+                (float) (m[4] / det), (float) (-m[1] / det),
+                (float) ((m[1] * m[5] - m[4] * m[2]) / det),
+                (float) (-m[3] / det), (float) (m[0] / det),
+                (float) ((m[3] * m[2] - m[0] * m[5]) / det)};
+    }
+
+    /**
+     * Model input of a frame whose luminance grows linearly with the column and the row, with
+     * gray chroma, sampled through dstToSrc
+     */
+    private static ByteBuffer linearFrameInput(int width, int height, float[] dstToSrc,
+                                               int outSize, boolean bilinear)
+    {
+        final int stride = width + 8;
+        final byte[] y = new byte[stride * height];
+        for (int row = 0; row < height; row++)
+            for (int column = 0; column < width; column++)
+                y[row * stride + column] = (byte) (40 + 2 * column + row);
+        final byte[] uv = new byte[stride * (height + 1) / 2];
+        Arrays.fill(uv, (byte) 128);
+
+        final ByteBuffer input = ByteBuffer.allocateDirect(outSize * outSize * 3);
+        ImageUtils.convertYUV420ToModelInput(y, uv, uv, width, height, stride, stride, 2,
+                dstToSrc, input, outSize, true, 128, 128, bilinear);
+        return input;
+    }
+
+    @Test
+    public void bilinearModelInputFollowsMatrixSemantics()
+    {
+        final int width = 64;
+        final int height = 48;
+        final int outSize = 16;
+
+        //Model input rotated by 90 degrees and cropped, as in DetectorActivity
+        final float[] dstToSrc =
+                invert(referenceTransformation(width, height, outSize, outSize, 90, true).m);
+
+        ImageUtils.setNativeConversion(false);
+        final ByteBuffer java = linearFrameInput(width, height, dstToSrc, outSize, true);
+        for (int j = 0; j < outSize; j++)
+        {
+            for (int i = 0; i < outSize; i++)
+            {
+                /**
+                 * The center of the output pixel is mapped in the frame, where the samples are
+                 * at the centers of the pixels: on a linear frame the interpolation gives the
+                 * value of the plane in that point, clamped at the border
+                 */
+                final float sx = dstToSrc[0] * (i + 0.5f) + dstToSrc[1] * (j + 0.5f) +
+                        dstToSrc[2] - 0.5f;
+                final float sy = dstToSrc[3] * (i + 0.5f) + dstToSrc[4] * (j + 0.5f) +
+                        dstToSrc[5] - 0.5f;
+                final float luma = 40 + 2 * Math.min(Math.max(sx, 0), width - 1) +
+                        Math.min(Math.max(sy, 0), height - 1);
+                final int expected = (reference(Math.round(luma), 128, 128) >> 16) & 0xff;
+                assertEquals("Pixel " + i + ", " + j, expected,
+                        java.get((j * outSize + i) * 3) & 0xff, 2);
+            }
+        }
+
+        //The native implementation has the same arithmetic
+        ImageUtils.setNativeConversion(true);
+        if (ImageUtils.isNativeLibraryLoaded())
+            assertEquals(java, linearFrameInput(width, height, dstToSrc, outSize, true));
+    }
+
+    @Test
+    public void bilinearAtPixelCentersIsNearest()
+    {
+        //Without scaling the centers of the output pixels fall on the samples of the frame
+        final int size = 32;
+        final float[] identity = {1, 0, 0, 0, 1, 0};
+        for (boolean useNative : new boolean[]{false, true})
+        {
+            ImageUtils.setNativeConversion(useNative);
+            assertEquals(linearFrameInput(size, size, identity, size, false),
+                    linearFrameInput(size, size, identity, size, true));
+        }
+    }
+}
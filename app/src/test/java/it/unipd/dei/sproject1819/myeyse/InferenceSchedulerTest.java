@@ -0,0 +1,144 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the inference scheduler. A synthetic sequence of frames is replayed: a
+ * steady scene where objects appear, a fast pan of the camera and a badly tracked object. The
+ * test measures how many inferences are saved and how many frames the appearance of an object
+ * waits before being analyzed by the network (the recall cost of the scheduler).
+ */
+public class InferenceSchedulerTest
+{
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int NUM_FRAMES = 300;
+
+    //Frames in which a new object appears, and its size in pixels
+    private static final int[] APPEARANCES = {40, 190, 260};
+    private static final int[] OBJECT_SIZES = {96, 96, 24};
+
+    //The camera pans quickly in these frames
+    private static final int PAN_START = 100;
+    private static final int PAN_END = 150;
+
+    //An object is tracked with low correlation in these frames
+    private static final int LOW_CORRELATION_START = 210;
+    private static final int LOW_CORRELATION_END = 230;
+
+    private final Random random = new Random(42);
+
+    /**
+     * Generates the luminance of a frame: a gradient background, shifted during the pan, noise
+     * of the sensor and the objects already appeared.
+     */
+    private byte[] frame(int index)
+    {
+        final byte[] luminance = new byte[WIDTH * HEIGHT];
+        final int shift = index < PAN_START ? 0 : 12 * (Math.min(index, PAN_END) - PAN_START);
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            for (int x = 0; x < WIDTH; x++)
+            {
+                int value = ((x + shift) * 7 + y * 3) % 200 + random.nextInt(5);
+                for (int i = 0; i < APPEARANCES.length; i++)
+                {
+                    final int size = OBJECT_SIZES[i];
+                    if (index >= APPEARANCES[i] && x >= 40 + 80 * i && x < 40 + 80 * i + size &&
+                            y >= 60 && y < 60 + size)
+                        value = 250;
+                }
+                luminance[y * WIDTH + x] = (byte) value;
+            }
+        }
+        return luminance;
+    }
+
+    private static float motion(int index)
+    {
+        return index >= PAN_START && index < PAN_END ? 12.0f : 0.5f;
+    }
+
+    private static float correlation(int index)
+    {
+        return index >= LOW_CORRELATION_START && index < LOW_CORRELATION_END ? 0.6f : 0.95f;
+    }
+
+    @Test
+    public void replayedSequenceSkipsSteadyFrames()
+    {
+        InferenceScheduler scheduler = new InferenceScheduler();
+        final boolean[] inference = new boolean[NUM_FRAMES];
+        final boolean[] redetection = new boolean[NUM_FRAMES];
+
+        for (int i = 0; i < NUM_FRAMES; i++)
+        {
+            InferenceScheduler.Decision decision = scheduler.decide(frame(i), WIDTH, HEIGHT,
+                    WIDTH, motion(i), correlation(i));
+            if (decision == InferenceScheduler.Decision.REDETECT)
+            {
+                scheduler.onRedetectStarted();
+                redetection[i] = true;
+            }
+            else if (decision != InferenceScheduler.Decision.SKIP)
+            {
+                scheduler.onInferenceStarted();
+                inference[i] = true;
+            }
+        }
+
+        //During the pan every frame is analyzed
+        for (int i = PAN_START; i < PAN_END; i++)
+            assertTrue("Frame " + i, inference[i]);
+
+        //While the correlation is low the tracked objects are analyzed again at each frame, and
+        //the whole frame at least every DEFAULT_MAX_SKIPPED_FRAMES
+        for (int i = LOW_CORRELATION_START; i < LOW_CORRELATION_END; i++)
+            assertTrue("Frame " + i, inference[i] || redetection[i]);
+        assertTrue(scheduler.getNumRedetections() > 0);
+
+        //Big objects are analyzed as soon as they appear, small ones within the maximum delay
+        assertEquals(0, delay(inference, APPEARANCES[0]));
+        assertEquals(0, delay(inference, APPEARANCES[1]));
+        final int smallObjectDelay = delay(inference, APPEARANCES[2]);
+        assertTrue("Delay " + smallObjectDelay,
+                smallObjectDelay <= InferenceScheduler.DEFAULT_MAX_SKIPPED_FRAMES);
+
+        //The steady parts are the majority of the sequence: less than half of the inferences
+        assertEquals(NUM_FRAMES, scheduler.getNumFrames());
+        assertTrue("Inferences " + scheduler.getNumInferences(),
+                scheduler.getNumInferences() < NUM_FRAMES / 2);
+    }
+
+    @Test
+    public void firstFrameAndResetForceInference()
+    {
+        InferenceScheduler scheduler = new InferenceScheduler();
+        final byte[] luminance = frame(0);
+
+        assertEquals(InferenceScheduler.Decision.FORCE,
+                scheduler.decide(luminance, WIDTH, HEIGHT, WIDTH, 0, 1));
+        scheduler.onInferenceStarted();
+        assertEquals(InferenceScheduler.Decision.SKIP,
+                scheduler.decide(luminance, WIDTH, HEIGHT, WIDTH, 0, 1));
+
+        scheduler.reset();
+        assertEquals(InferenceScheduler.Decision.FORCE,
+                scheduler.decide(luminance, WIDTH, HEIGHT, WIDTH, 0, 1));
+    }
+
+    /**
+     * @return number of frames between the appearance of an object and the first inference
+     */
+    private static int delay(boolean[] inference, int appearance)
+    {
+        int i = appearance;
+        while (i < inference.length && !inference[i])
+            i++;
+        return i - appearance;
+    }
+}
@@ -0,0 +1,71 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the input of the model shared by several frames.
+ */
+public class InputBatchTest
+{
+    private static final int FRAME_BYTES = 12;
+
+    @Test
+    public void slotsAreContiguousFramesOfTheBatch()
+    {
+        final InputBatch batch = new InputBatch(3, FRAME_BYTES);
+        for (int i = 0; i < 2; i++)
+        {
+            final ByteBuffer slot = batch.nextSlot();
+            assertEquals(FRAME_BYTES, slot.capacity());
+            assertEquals(ByteOrder.nativeOrder(), slot.order());
+            while (slot.hasRemaining())
+                slot.put((byte) (i + 1));
+        }
+
+        //The interpreter sees exactly the frames of the batch
+        final ByteBuffer input = batch.getBuffer();
+        assertEquals(2 * FRAME_BYTES, input.capacity());
+        assertEquals(0, input.position());
+        assertEquals(1, input.get(0));
+        assertEquals(1, input.get(FRAME_BYTES - 1));
+        assertEquals(2, input.get(FRAME_BYTES));
+        assertEquals(2, input.get(2 * FRAME_BYTES - 1));
+        assertEquals(2, batch.getSlot(1).get(0));
+        assertFalse(batch.isFull());
+    }
+
+    @Test
+    public void batchIsReused()
+    {
+        final InputBatch batch = new InputBatch(2, FRAME_BYTES);
+        batch.nextSlot().put((byte) 7);
+        batch.nextSlot();
+        assertTrue(batch.isFull());
+        try
+        {
+            batch.nextSlot();
+            fail("The batch is full");
+        }
+        catch (IllegalStateException expected)
+        {
+        }
+
+        batch.clear();
+        assertEquals(0, batch.getCount());
+        final ByteBuffer slot = batch.nextSlot();
+        assertEquals(0, slot.position());
+        assertEquals(7, slot.get(0));
+        assertEquals(FRAME_BYTES, batch.getBuffer().capacity());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyBatchHasNoInput()
+    {
+        new InputBatch(2, FRAME_BYTES).getBuffer();
+    }
+}
@@ -0,0 +1,94 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the calibration of the interpreter configuration. The model is replaced
+ * by a runner whose cost depends on the configuration, like on a big.LITTLE device where 4
+ * threads are slower than 2.
+ */
+public class InterpreterTunerTest
+{
+    private static class FakeRunner implements InterpreterTuner.Runner
+    {
+        private InterpreterConfig current;
+        private int released = 0;
+
+        @Override
+        public void prepare(InterpreterConfig config) throws Exception
+        {
+            if (config.getBackend() == InterpreterConfig.Backend.NNAPI)
+                throw new Exception("NNAPI not available");
+            current = config;
+        }
+
+        @Override
+        public void runOnce()
+        {
+            long cost;
+            if (current.getBackend() == InterpreterConfig.Backend.XNNPACK &&
+                    current.getNumThreads() == 2)
+                cost = 2;
+            else
+                cost = 6 + current.getNumThreads();
+            try
+            {
+                Thread.sleep(cost);
+            }
+            catch (InterruptedException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void release()
+        {
+            released++;
+        }
+    }
+
+    @Test
+    public void candidatesDependOnDevice()
+    {
+        List<InterpreterConfig> candidates = InterpreterTuner.candidates(4, false);
+        assertEquals(6, candidates.size());
+        assertFalse(candidates.contains(
+                new InterpreterConfig(InterpreterConfig.Backend.NNAPI, 1)));
+
+        candidates = InterpreterTuner.candidates(8, true);
+        assertEquals(9, candidates.size());
+        assertTrue(candidates.contains(
+                new InterpreterConfig(InterpreterConfig.Backend.NNAPI, 1)));
+    }
+
+    @Test
+    public void fastestConfigurationIsChosen()
+    {
+        FakeRunner runner = new FakeRunner();
+        Map<InterpreterConfig, Long> timings = new HashMap<>();
+        List<InterpreterConfig> candidates = InterpreterTuner.candidates(4, true);
+
+        InterpreterConfig best = InterpreterTuner.calibrate(candidates, runner, timings);
+
+        assertEquals(new InterpreterConfig(InterpreterConfig.Backend.XNNPACK, 2), best);
+        //NNAPI fails to prepare, so it is not measured
+        assertEquals(candidates.size() - 1, timings.size());
+        assertEquals(candidates.size(), runner.released);
+    }
+
+    @Test
+    public void configurationIsEncodedAndDecoded()
+    {
+        InterpreterConfig config = new InterpreterConfig(InterpreterConfig.Backend.XNNPACK, 2);
+        assertEquals(config, InterpreterConfig.decode(config.encode()));
+        assertNull(InterpreterConfig.decode("GPU:2"));
+        assertNull(InterpreterConfig.decode(null));
+    }
+}
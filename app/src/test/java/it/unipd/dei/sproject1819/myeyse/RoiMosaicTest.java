@@ -0,0 +1,124 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the layout of the regions of interest in the input of the model and for
+ * the mapping of the detections back in the frame.
+ */
+public class RoiMosaicTest
+{
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+    private static final int INPUT_SIZE = 300;
+
+    @Test
+    public void singleRegionUsesTheWholeInput()
+    {
+        RoiMosaic rois = new RoiMosaic();
+        float[] boxes = {100, 100, 200, 150};
+
+        assertEquals(1, rois.layout(boxes, 1, 0.5f, FRAME_WIDTH, FRAME_HEIGHT, INPUT_SIZE, 0));
+        assertEquals(1, rois.getGrid());
+        assertEquals(INPUT_SIZE, rois.getTileSize());
+
+        //Square of side 100 * (1 + 2 * 0.5), centered on the box
+        assertEquals(200, rois.getRoiSide(0), 1e-4f);
+        assertEquals(50, rois.getRoiLeft(0), 1e-4f);
+        assertEquals(25, rois.getRoiTop(0), 1e-4f);
+    }
+
+    @Test
+    public void regionsAreMovedInsideTheFrame()
+    {
+        RoiMosaic rois = new RoiMosaic();
+        float[] boxes = {600, 440, 640, 480, 0, 0, 10, 10};
+
+        assertEquals(2, rois.layout(boxes, 2, 0.3f, FRAME_WIDTH, FRAME_HEIGHT, INPUT_SIZE, 0));
+        assertEquals(2, rois.getGrid());
+        assertEquals(INPUT_SIZE / 2, rois.getTileSize());
+
+        //Small boxes are not enlarged more than 2x in their tile
+        assertEquals(75, rois.getRoiSide(0), 1e-4f);
+        assertEquals(FRAME_WIDTH - 75, rois.getRoiLeft(0), 1e-4f);
+        assertEquals(FRAME_HEIGHT - 75, rois.getRoiTop(0), 1e-4f);
+        assertEquals(0, rois.getRoiLeft(1), 1e-4f);
+        assertEquals(0, rois.getRoiTop(1), 1e-4f);
+    }
+
+    @Test
+    public void detectionsAreMappedBackWithRotation()
+    {
+        RoiMosaic rois = new RoiMosaic();
+        float[] boxes = {100, 100, 200, 200, 300, 200, 400, 300, 500, 300, 550, 350};
+        rois.layout(boxes, 3, 0, FRAME_WIDTH, FRAME_HEIGHT, INPUT_SIZE, 90);
+
+        DetectionBuffer detections = new DetectionBuffer(10);
+        float[] tile = new float[]{0, 0, 150, 150};
+        float[] left = new float[]{0, 0, 75, 150};
+        float[][] locations = {
+                //Whole tile 0 (top left), in the form [top, left, bottom, right] / INPUT_SIZE
+                {0, 0, 0.5f, 0.5f},
+                //Left half of tile 1 (top right)
+                {0, 0.5f, 0.5f, 0.75f},
+                //Tile 3 is empty
+                {0.6f, 0.6f, 0.9f, 0.9f}
+        };
+        detections.setFromOutputs(locations, new float[]{1, 2, 3}, new float[]{0.9f, 0.8f, 0.7f},
+                3, INPUT_SIZE, 0);
+
+        rois.mapToFrame(detections);
+
+        assertEquals(2, detections.getCount());
+        //The whole tile is the whole region
+        assertEquals(100, detections.getLeft(0), 1e-3f);
+        assertEquals(100, detections.getTop(0), 1e-3f);
+        assertEquals(200, detections.getRight(0), 1e-3f);
+        assertEquals(200, detections.getBottom(0), 1e-3f);
+        assertEquals(1, detections.getClassId(0));
+
+        //The frame is rotated by 90 degrees in the input: the left half of the tile is the
+        //bottom half of the region
+        assertEquals(300, detections.getLeft(1), 1e-3f);
+        assertEquals(250, detections.getTop(1), 1e-3f);
+        assertEquals(400, detections.getRight(1), 1e-3f);
+        assertEquals(300, detections.getBottom(1), 1e-3f);
+        assertEquals(0.8f, detections.getScore(1), 1e-6f);
+    }
+
+    @Test
+    public void regionIsWrittenOnlyInItsTile()
+    {
+        final int width = 8;
+        final int height = 8;
+        final int outSize = 4;
+        byte[] y = new byte[width * height];
+        byte[] uv = new byte[width * height / 4];
+        for (int i = 0; i < y.length; i++)
+            y[i] = (byte) 200;
+        for (int i = 0; i < uv.length; i++)
+            uv[i] = (byte) 128;
+
+        ByteBuffer output = ByteBuffer.allocateDirect(outSize * outSize * 3);
+        //Identity matrix: the tile samples the top left corner of the frame
+        float[] identity = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+        ImageUtils.convertYUV420ToModelInputRegion(y, uv, uv, width, height, width, width / 2, 1,
+                identity, output, outSize, 2, 2, 2, true, 128, 128);
+
+        for (int row = 0; row < outSize; row++)
+        {
+            for (int column = 0; column < outSize; column++)
+            {
+                final int value = output.get((row * outSize + column) * 3) & 0xFF;
+                if (row >= 2 && column >= 2)
+                    assertTrue("Pixel " + row + "," + column, value > 150);
+                else
+                    assertEquals(0, value);
+            }
+        }
+    }
+}
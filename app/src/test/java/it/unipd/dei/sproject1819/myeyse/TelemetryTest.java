@@ -0,0 +1,108 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the statistics of the stages and the telemetry.
+ */
+public class TelemetryTest
+{
+    @Test
+    public void histogramBucketsBoundTheRelativeError()
+    {
+        //Small latencies are exact
+        for (long value = 0; value < StageStats.SUB_BUCKETS; value++)
+            assertEquals(value, StageStats.getBucketLowerBound(StageStats.getBucket(value)));
+
+        long value = StageStats.SUB_BUCKETS;
+        int previous = StageStats.getBucket(value - 1);
+        while (value <= StageStats.MAX_TRACKABLE_NS)
+        {
+            final int bucket = StageStats.getBucket(value);
+            final long lower = StageStats.getBucketLowerBound(bucket);
+            assertTrue(bucket >= previous);
+            assertTrue(lower <= value);
+            assertTrue((value - lower) / (double) value < 1.0 / 64);
+            previous = bucket;
+            value += 1 + value / 37;
+        }
+    }
+
+    @Test
+    public void histogramPercentilesCoverAllTheLatencies()
+    {
+        final StageStats stats = new StageStats("test");
+        assertEquals(0, stats.getHistogramPercentileNs(50));
+
+        for (int i = 0; i < 10; i++)
+            stats.record(1000000);
+        for (int i = 1; i <= StageStats.SAMPLES; i++)
+            stats.record(i);
+
+        //Unlike getPercentileNs, the first latencies are still counted
+        assertEquals(StageStats.SAMPLES, stats.getPercentileNs(100));
+        assertEquals(StageStats.getBucketLowerBound(StageStats.getBucket(1000000)),
+                stats.getHistogramPercentileNs(100));
+        assertEquals(1, stats.getHistogramPercentileNs(0));
+        assertEquals(512, stats.getHistogramPercentileNs(50), 512 / 64);
+    }
+
+    @Test
+    public void recordFromSeveralThreads() throws InterruptedException
+    {
+        final StageStats stats = new StageStats("concurrent");
+        final int perThread = 10000;
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int latency = t + 1;
+            threads[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < perThread; i++)
+                    {
+                        stats.record(latency);
+                        stats.recordDrop();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(threads.length * perThread, stats.getCount());
+        assertEquals(threads.length * perThread, stats.getDropped());
+        assertEquals(threads.length, stats.getMaxNs());
+        assertEquals(threads.length, stats.getHistogramPercentileNs(100));
+    }
+
+    @Test
+    public void jsonContainsStagesAndCounters()
+    {
+        final StageStats stats = Telemetry.stage("json-stage");
+        assertSame(stats, Telemetry.stage("json-stage"));
+        final long start = Telemetry.begin(stats);
+        Telemetry.end(stats, start);
+
+        final Telemetry.Counter counter = Telemetry.counter("json-counter");
+        counter.increment();
+        counter.increment();
+        assertSame(counter, Telemetry.counter("json-counter"));
+
+        final String json = Telemetry.toJson();
+        assertTrue(json.startsWith("{\"uptimeMs\":"));
+        assertTrue(json.contains("\"json-stage\":{\"count\":1,\"dropped\":0,"));
+        assertTrue(json.contains("\"json-counter\":2"));
+        assertTrue(json.endsWith("}}"));
+
+        //A registered stage replaces the one with the same name
+        final StageStats replacement = new StageStats("json-stage");
+        Telemetry.register(replacement);
+        assertSame(replacement, Telemetry.stage("json-stage"));
+    }
+}
@@ -0,0 +1,68 @@
+package it.unipd.dei.sproject1819.myeyse.tracking;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the ring buffer of the keypoint deltas.
+ */
+public class KeypointHistoryTest
+{
+    /**
+     * Writes a frame as the native code would: count keypoints whose coordinates are all equal
+     * to the timestamp
+     */
+    private static void addFrame(KeypointHistory history, long timestamp, int count)
+    {
+        final ByteBuffer buffer = history.getBuffer();
+        final int offset = history.getNextOffset();
+        for (int i = 0; i < count * 4; i++)
+            buffer.putShort(offset + 2 * i, (short) timestamp);
+        history.add(timestamp, count);
+    }
+
+    @Test
+    public void framesAreFoundByTimestamp()
+    {
+        final KeypointHistory history = new KeypointHistory(4);
+        assertEquals(-1, history.getKeypointCount(1));
+
+        addFrame(history, 10, 3);
+        addFrame(history, 20, 0);
+        addFrame(history, 30, KeypointHistory.MAX_KEYPOINTS);
+
+        assertEquals(3, history.size());
+        assertEquals(3, history.getKeypointCount(10));
+        assertEquals(0, history.getKeypointCount(20));
+        assertEquals(KeypointHistory.MAX_KEYPOINTS, history.getKeypointCount(30));
+        assertEquals(-1, history.getKeypointCount(15));
+
+        final short[] out = new short[4 * KeypointHistory.MAX_KEYPOINTS];
+        assertEquals(KeypointHistory.MAX_KEYPOINTS, history.copyKeypoints(30, out));
+        for (short value : out)
+            assertEquals(30, value);
+    }
+
+    @Test
+    public void oldestFramesAreOverwritten()
+    {
+        final KeypointHistory history = new KeypointHistory(4);
+        for (int t = 1; t <= 10; t++)
+            addFrame(history, t, t);
+
+        assertEquals(4, history.size());
+        for (int t = 1; t <= 6; t++)
+            assertEquals(-1, history.getKeypointCount(t));
+
+        final short[] out = new short[4 * KeypointHistory.MAX_KEYPOINTS];
+        for (int t = 7; t <= 10; t++)
+        {
+            assertEquals(t, history.copyKeypoints(t, out));
+            for (int i = 0; i < 4 * t; i++)
+                assertEquals(t, out[i]);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package it.unipd.dei.sproject1819.myeyse.tracking;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit test of the native tracker, on a synthetic luminance sequence with a known motion.
+ * <p>
+ * It needs the host build of libtensorflow_demo (./gradlew :benchmark:hostNativeLibrary), found
+ * through java.library.path; without it the test is skipped.
+ */
+public class ObjectTrackerTest
+{
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    //Motion of the scene in each frame, in pixels of the full frame
+    private static final int DX = 4;
+    private static final int DY = 2;
+    private static final int FRAMES = 10;
+
+    //Texture larger than the frame, so that it can be moved without borders
+    private static final int TEXTURE_SIZE = 512;
+    private static final int CELL = 8;
+    private final byte[] texture = new byte[TEXTURE_SIZE * TEXTURE_SIZE];
+
+    private ObjectTracker tracker;
+
+    @Before
+    public void setUp()
+    {
+        assumeTrue(ObjectTracker.isLibraryFound());
+
+        /**
+         * Random values on a grid of cells, interpolated bilinearly: the frame has corners at all
+         * the scales, as a real scene
+         */
+        final Random random = new Random(7);
+        final int cells = TEXTURE_SIZE / CELL + 1;
+        final int[] grid = new int[cells * cells];
+        for (int i = 0; i < grid.length; i++)
+            grid[i] = random.nextInt(256);
+        for (int y = 0; y < TEXTURE_SIZE; y++)
+        {
+            for (int x = 0; x < TEXTURE_SIZE; x++)
+            {
+                final int cx = x / CELL;
+                final int cy = y / CELL;
+                final int fx = x % CELL;
+                final int fy = y % CELL;
+                final int top = grid[cy * cells + cx] * (CELL - fx) + grid[cy * cells + cx + 1] * fx;
+                final int bottom = grid[(cy + 1) * cells + cx] * (CELL - fx) +
+                        grid[(cy + 1) * cells + cx + 1] * fx;
+                texture[y * TEXTURE_SIZE + x] =
+                        (byte) ((top * (CELL - fy) + bottom * fy) / (CELL * CELL));
+            }
+        }
+
+        ObjectTracker.clearInstance();
+        tracker = ObjectTracker.getInstance(WIDTH, HEIGHT, WIDTH, true);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (tracker != null)
+            tracker.release();
+    }
+
+    /**
+     * @return the t-th frame of the sequence: the scene moves of (DX, DY) pixels in each frame
+     */
+    private byte[] frame(int t)
+    {
+        final byte[] frame = new byte[WIDTH * HEIGHT];
+        final int originX = TEXTURE_SIZE / 2 - WIDTH / 2 - t * DX;
+        final int originY = TEXTURE_SIZE / 2 - HEIGHT / 2 - t * DY;
+        for (int y = 0; y < HEIGHT; y++)
+            System.arraycopy(texture, (originY + y) * TEXTURE_SIZE + originX, frame, y * WIDTH,
+                    WIDTH);
+        return frame;
+    }
+
+    @Test
+    public void downsampleAveragesTheBlocks()
+    {
+        final int factor = ObjectTracker.DOWNSAMPLE_FACTOR;
+        final byte[] frame = frame(0);
+        final byte[] downsampled = new byte[(WIDTH / factor) * (HEIGHT / factor)];
+        ObjectTracker.downsampleImageNative(WIDTH, HEIGHT, WIDTH, frame, factor, downsampled);
+
+        for (int y = 0; y < HEIGHT / factor; y++)
+        {
+            for (int x = 0; x < WIDTH / factor; x++)
+            {
+                int sum = 0;
+                for (int j = 0; j < factor; j++)
+                    for (int i = 0; i < factor; i++)
+                        sum += frame[(y * factor + j) * WIDTH + x * factor + i] & 0xFF;
+                assertEquals(sum / (factor * factor),
+                        downsampled[y * (WIDTH / factor) + x] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void trackedObjectFollowsTheScene()
+    {
+        final int factor = ObjectTracker.DOWNSAMPLE_FACTOR;
+        final byte[] downsampled = new byte[(WIDTH / factor) * (HEIGHT / factor)];
+
+        //Box in the center of the frame, in the coordinates of the tracker
+        final float[] box = {50, 40, 110, 80};
+
+        byte[] frame = frame(0);
+        tracker.nextFrame(frame, null, 1, null, false);
+        ObjectTracker.downsampleImageNative(WIDTH, HEIGHT, WIDTH, frame, factor, downsampled);
+        tracker.registerNewObjectWithAppearanceNative("object", box[0], box[1], box[2], box[3],
+                downsampled);
+        tracker.setPreviousPositionNative("object", box[0], box[1], box[2], box[3], 1);
+
+        for (int t = 1; t <= FRAMES; t++)
+            tracker.nextFrame(frame(t), null, t + 1, null, false);
+
+        final float[] position = new float[4];
+        tracker.getTrackedPositionNative("object", position);
+
+        //The history has the same keypoints of the array returned for the last frame
+        final byte[] packed = tracker.getKeypointsPacked(factor);
+        final short[] keypoints = new short[4 * KeypointHistory.MAX_KEYPOINTS];
+        assertEquals(packed.length / KeypointHistory.BYTES_PER_KEYPOINT,
+                tracker.getKeypointDeltas(FRAMES + 1, keypoints));
+        final ByteBuffer expected = ByteBuffer.wrap(packed).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < packed.length / 2; i++)
+            assertEquals(expected.getShort(2 * i), keypoints[i]);
+        assertEquals(-1, tracker.getKeypointDeltas(FRAMES + 2, keypoints));
+
+        //The box has moved with the scene, within a pixel of the tracker
+        final float expectedX = FRAMES * DX / (float) factor;
+        final float expectedY = FRAMES * DY / (float) factor;
+        assertEquals(box[0] + expectedX, position[0], 1.0f);
+        assertEquals(box[1] + expectedY, position[1], 1.0f);
+        assertEquals(box[2] - box[0], position[2] - position[0], 1.0f);
+        assertEquals(box[3] - box[1], position[3] - position[1], 1.0f);
+        assertTrue(tracker.isObjectVisible("object"));
+    }
+
+    /**
+     * @return the t-th frame of the sequence, with rows of stride bytes
+     */
+    private byte[] paddedFrame(int t, int stride)
+    {
+        final byte[] frame = frame(t);
+        final byte[] padded = new byte[stride * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++)
+        {
+            System.arraycopy(frame, y * WIDTH, padded, y * stride, WIDTH);
+            //Values that would move the tracker if read
+            for (int x = WIDTH; x < stride; x++)
+                padded[y * stride + x] = (byte) (x * 37 + y);
+        }
+        return padded;
+    }
+
+    @Test
+    public void fullFramePyramidMatchesTheDownsampledFrame()
+    {
+        final int stride = WIDTH + 24;
+        for (int factor = 2; factor <= ObjectTracker.MAX_DOWNSAMPLE_FACTOR; factor *= 2)
+        {
+            final byte[] downsampled = new byte[(WIDTH / factor) * (HEIGHT / factor)];
+            final float[] box = {40 / factor, 30 / factor, 160 / factor, 110 / factor};
+
+            //The frames given downsampled, as before, and at full size with padded rows
+            final ObjectTracker reference = new ObjectTracker(WIDTH, HEIGHT, WIDTH, true, factor);
+            final ObjectTracker full = new ObjectTracker(WIDTH, HEIGHT, stride, true, factor);
+            reference.init();
+            full.init();
+            try
+            {
+                for (int t = 0; t <= FRAMES; t++)
+                {
+                    ObjectTracker.downsampleImageNative(WIDTH, HEIGHT, WIDTH, frame(t), factor,
+                            downsampled);
+                    reference.nextFrameNative(downsampled, null, t + 1, null);
+                    full.nextFullFrameNative(paddedFrame(t, stride), stride, factor, t + 1, null);
+
+                    final byte[] current = new byte[downsampled.length];
+                    full.getCurrentFrameNative(current);
+                    assertArrayEquals(downsampled, current);
+
+                    if (t == 0)
+                    {
+                        for (ObjectTracker tracker : new ObjectTracker[]{reference, full})
+                        {
+                            tracker.registerNewObjectWithAppearanceNative("object", box[0],
+                                    box[1], box[2], box[3], downsampled);
+                            tracker.setPreviousPositionNative("object", box[0], box[1], box[2],
+                                    box[3], 1);
+                        }
+                    }
+                }
+
+                //Same pyramid, so exactly the same flow
+                final float[] expected = new float[4];
+                final float[] position = new float[4];
+                reference.getTrackedPositionNative("object", expected);
+                full.getTrackedPositionNative("object", position);
+                assertArrayEquals(expected, position, 0.0f);
+                assertTrue(expected[0] > box[0]);
+            }
+            finally
+            {
+                reference.releaseMemoryNative();
+                full.releaseMemoryNative();
+            }
+        }
+    }
+
+    @Test
+    public void downsampleFactorKeepsTheMinimumSide()
+    {
+        assertEquals(2, ObjectTracker.chooseDownsampleFactor(480, 240));
+        assertEquals(2, ObjectTracker.chooseDownsampleFactor(720, 240));
+        assertEquals(4, ObjectTracker.chooseDownsampleFactor(1080, 240));
+        assertEquals(4, ObjectTracker.chooseDownsampleFactor(3000, 240));
+        assertEquals(2, ObjectTracker.chooseDownsampleFactor(240, 240));
+    }
+
+    @Test
+    public void bulkValuesMatchTheCallsById()
+    {
+        final int factor = ObjectTracker.DOWNSAMPLE_FACTOR;
+        final int step = ObjectTracker.TRACKED_OBJECT_STEP;
+        final byte[] downsampled = new byte[(WIDTH / factor) * (HEIGHT / factor)];
+        final String[] ids = {"first", "second"};
+        final float[][] boxes = {{20, 20, 70, 60}, {90, 50, 140, 90}};
+        final int[] handles = new int[ids.length];
+
+        byte[] frame = frame(0);
+        tracker.nextFrame(frame, null, 1, null, false);
+        ObjectTracker.downsampleImageNative(WIDTH, HEIGHT, WIDTH, frame, factor, downsampled);
+        for (int i = 0; i < ids.length; i++)
+        {
+            final float[] box = boxes[i];
+            handles[i] = tracker.registerNewObjectWithAppearanceNative(ids[i], box[0], box[1],
+                    box[2], box[3], downsampled);
+            tracker.setPreviousPositionNative(ids[i], box[0], box[1], box[2], box[3], 1);
+        }
+        assertEquals(0, handles[0]);
+        assertEquals(1, handles[1]);
+        for (int t = 1; t <= 3; t++)
+            tracker.nextFrame(frame(t), null, t + 1, null, false);
+
+        //A buffer too small reports how many handles are needed
+        assertEquals(ids.length,
+                tracker.getTrackedObjectsNative(ObjectTracker.allocateTrackedValues(1), 1));
+
+        final FloatBuffer values = ObjectTracker.allocateTrackedValues(ids.length);
+        assertEquals(ids.length, tracker.getTrackedObjectsNative(values, ids.length));
+
+        final float[] position = new float[4];
+        final float[] single = new float[step];
+        for (int i = 0; i < ids.length; i++)
+        {
+            final int offset = handles[i] * step;
+            tracker.getTrackedPositionNative(ids[i], position);
+            tracker.getTrackedObjectNative(handles[i], single);
+            for (int j = 0; j < 4; j++)
+            {
+                assertEquals(position[j], values.get(offset + j), 0.0f);
+                assertEquals(position[j], single[j], 0.0f);
+            }
+            assertEquals(tracker.getCurrentCorrelation(ids[i]), values.get(offset + 4), 0.0f);
+            assertEquals(tracker.getCurrentCorrelation(ids[i]),
+                    tracker.getCorrelationByHandleNative(handles[i]), 0.0f);
+            assertEquals(tracker.isObjectVisible(ids[i]) ? 1.0f : 0.0f, values.get(offset + 5),
+                    0.0f);
+        }
+
+        //The handle of a forgotten object goes to the next new object
+        tracker.forgetByHandleNative(handles[0]);
+        assertFalse(tracker.haveObject(ids[0]));
+        ObjectTracker.downsampleImageNative(WIDTH, HEIGHT, WIDTH, frame(3), factor, downsampled);
+        assertEquals(handles[0], tracker.registerNewObjectWithAppearanceNative("third", 10, 10,
+                50, 50, downsampled));
+    }
+
+    @Test
+    public void framesAreDownsampledInPlace()
+    {
+        final int factor = ObjectTracker.DOWNSAMPLE_FACTOR;
+        final byte[] frame = frame(0);
+        final byte[] expected = new byte[tracker.getDownsampledLength()];
+        ObjectTracker.downsampleImageNative(WIDTH, HEIGHT, WIDTH, frame, factor, expected);
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+        direct.put(frame);
+        direct.rewind();
+        final byte[] downsampled = new byte[tracker.getDownsampledLength()];
+        tracker.downsampleFrame(direct, downsampled);
+        assertArrayEquals(expected, downsampled);
+
+        tracker.downsampleFrame(ByteBuffer.wrap(frame), downsampled);
+        assertArrayEquals(expected, downsampled);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void heapBuffersMustStartTheArray()
+    {
+        //The frame starts one byte after the beginning of the array
+        final byte[] array = new byte[WIDTH * HEIGHT + 1];
+        final ByteBuffer frame = ByteBuffer.wrap(array, 1, WIDTH * HEIGHT).slice();
+        tracker.nextFrame(frame, 1, null, false);
+    }
+}
@@ -0,0 +1,125 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host side of a batch of inferences (TensorFlowObjectDetectionAPIModel.runInference(InputBatch,
+ * DetectionBuffer[])) without the interpreter: each frame is preprocessed in its slot of the
+ * batch and the outputs of the model are decoded for each frame. The "frames" counter gives the
+ * cost per frame of this work, which should not grow with the batch size, as the slots are views
+ * of a single buffer.
+ * <p>
+ * This is not the throughput of the network versus the batch size: the TensorFlow Lite runtime of
+ * the app is only built for Android, so the interpreter can't run here. Moreover the
+ * post-processing operation of the bundled SSD model rejects inputs of more than one frame, so
+ * on the device runInference falls back to one frame at a time and a batch costs as much as its
+ * frames run one by one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BatchInputBenchmark
+{
+    private static final int INPUT_SIZE = 300;
+    private static final int NUM_DETECTIONS = 10;
+    private static final float IMAGE_MEAN = 128.0f;
+    private static final float IMAGE_STD = 128.0f;
+
+    @Param({"1", "2", "4", "8"})
+    public int batchSize;
+
+    @Param({"true", "false"})
+    public boolean quantized;
+
+    /**
+     * Counts the frames processed, so that the throughput is in frames and not in batches.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Frames
+    {
+        public long frames;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            frames = 0;
+        }
+    }
+
+    private BenchmarkFrames frame;
+    private InputBatch batch;
+    private DetectionBuffer[] detections;
+
+    //Outputs of the model for each frame of the batch
+    private float[][][] outputLocations;
+    private float[][] outputClasses;
+    private float[][] outputScores;
+
+    //Maps the input in the largest centered square of the frame
+    private final float[] inputToFrame = new float[9];
+
+    @Setup
+    public void setUp()
+    {
+        frame = new BenchmarkFrames("640x480");
+        batch = new InputBatch(batchSize, INPUT_SIZE * INPUT_SIZE * 3 * (quantized ? 1 : 4));
+
+        detections = new DetectionBuffer[batchSize];
+        outputLocations = new float[batchSize][NUM_DETECTIONS][4];
+        outputClasses = new float[batchSize][NUM_DETECTIONS];
+        outputScores = new float[batchSize][NUM_DETECTIONS];
+        for (int i = 0; i < batchSize; i++)
+        {
+            detections[i] = new DetectionBuffer(NUM_DETECTIONS);
+            for (int j = 0; j < NUM_DETECTIONS; j++)
+            {
+                outputLocations[i][j] = new float[]{0.1f, 0.2f, 0.3f, 0.4f};
+                outputClasses[i][j] = j;
+                outputScores[i][j] = 1 - j / (float) NUM_DETECTIONS;
+            }
+        }
+
+        final int side = Math.min(frame.width, frame.height);
+        final float scale = side / (float) INPUT_SIZE;
+        inputToFrame[0] = scale;
+        inputToFrame[2] = (frame.width - side) / 2.0f;
+        inputToFrame[4] = scale;
+        inputToFrame[5] = (frame.height - side) / 2.0f;
+        inputToFrame[8] = 1;
+    }
+
+    @Benchmark
+    public ByteBuffer batchOfFrames(Frames counter)
+    {
+        batch.clear();
+        for (int i = 0; i < batchSize; i++)
+        {
+            ImageUtils.convertYUV420ToModelInput(frame.yPlane, frame.uPlane, frame.vPlane,
+                    frame.width, frame.height, frame.yRowStride, frame.uvRowStride,
+                    frame.uvPixelStride, inputToFrame, batch.nextSlot(), INPUT_SIZE, quantized,
+                    IMAGE_MEAN, IMAGE_STD);
+        }
+        final ByteBuffer input = batch.getBuffer();
+
+        for (int i = 0; i < batchSize; i++)
+        {
+            detections[i].setFromOutputs(outputLocations[i], outputClasses[i], outputScores[i],
+                    NUM_DETECTIONS, INPUT_SIZE, 1);
+        }
+        counter.frames += batchSize;
+        return input;
+    }
+}
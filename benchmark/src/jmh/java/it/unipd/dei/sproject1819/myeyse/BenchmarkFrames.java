@@ -0,0 +1,94 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic camera frames for the benchmarks. The content is random but fixed, so that every run
+ * converts the same data.
+ */
+final class BenchmarkFrames
+{
+    private static final long SEED = 42;
+
+    final int width;
+    final int height;
+
+    //YUV_420_888 as delivered by most devices: the U and V planes are interleaved
+    final byte[] y;
+    final byte[] u;
+    final byte[] v;
+    final int yRowStride;
+    final int uvRowStride;
+    final int uvPixelStride = 2;
+
+    //The same planes in direct buffers, as returned by Image.Plane.getBuffer
+    final ByteBuffer yPlane;
+    final ByteBuffer uPlane;
+    final ByteBuffer vPlane;
+
+    //The same frame in YUV420SP (NV21)
+    final byte[] nv21;
+
+    /**
+     * @param resolution Size in the form WIDTHxHEIGHT
+     */
+    BenchmarkFrames(String resolution)
+    {
+        final String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        yRowStride = width;
+        uvRowStride = width;
+
+        final Random random = new Random(SEED);
+        y = new byte[yRowStride * height];
+        random.nextBytes(y);
+        u = new byte[uvRowStride * height / 2];
+        random.nextBytes(u);
+        v = new byte[u.length];
+        random.nextBytes(v);
+
+        yPlane = direct(y);
+        uPlane = direct(u);
+        vPlane = direct(v);
+
+        nv21 = new byte[width * height * 3 / 2];
+        System.arraycopy(y, 0, nv21, 0, width * height);
+        System.arraycopy(v, 0, nv21, width * height, v.length);
+    }
+
+    private static ByteBuffer direct(byte[] bytes)
+    {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * @return ARGB pixels with random channels
+     */
+    static int[] randomPixels(int count)
+    {
+        final Random random = new Random(SEED);
+        final int[] pixels = new int[count];
+        for (int i = 0; i < count; i++)
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        return pixels;
+    }
+
+    /**
+     * Selects the implementation of the conversions in ImageUtils.
+     *
+     * @param implementation "java" (single thread), "java-parallel" or "native"
+     */
+    static void selectImplementation(String implementation)
+    {
+        final boolean useNative = "native".equals(implementation);
+        if (useNative && !ImageUtils.isNativeLibraryLoaded())
+            throw new IllegalStateException("libtensorflow_demo not found in java.library.path");
+        ImageUtils.setNativeConversion(useNative);
+        ImageUtils.setParallelJavaConversion("java-parallel".equals(implementation));
+    }
+}
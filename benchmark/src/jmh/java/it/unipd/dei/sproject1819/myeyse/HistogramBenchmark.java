@@ -0,0 +1,125 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Color histograms of ImageSimilarity, computed for each frame of the panoramic mode once the
+ * user is near the start position. The app counts 256x256 samples of the camera frame:
+ * <ul>
+ * <li>fullFrame: the path before ColorHistograms, the baseline. The whole frame is converted to
+ * ARGB and cropped to 256x256 pixels, then the old HistogramsImage counts them column by column,
+ * as with Bitmap.getPixel(x, y), in three histograms allocated for each frame. The crop with
+ * setPixels and drawBitmap is not available on the host, so it is replaced by nearest neighbour
+ * sampling of the ARGB frame</li>
+ * <li>thumbnail: the samples converted to ARGB and then counted</li>
+ * <li>yuv and yuvParallel: the samples counted directly from the YUV planes by ColorHistograms,
+ * on one thread and in bands on the fork-join pool</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HistogramBenchmark
+{
+    //Same as CameraFrame.THUMBNAIL_SIZE, CameraFrame needs android.media.Image
+    private static final int SAMPLES = 256;
+
+    @Param({"640x480", "1920x1080"})
+    public String resolution;
+
+    private BenchmarkFrames frame;
+    private int[] argb;
+    private final int[] thumbnail = new int[SAMPLES * SAMPLES];
+    private final int[] cropped = new int[SAMPLES * SAMPLES];
+    private final ColorHistograms serial = new ColorHistograms();
+    private final ColorHistograms parallel = new ColorHistograms();
+
+    @Setup
+    public void setUp()
+    {
+        frame = new BenchmarkFrames(resolution);
+        argb = new int[frame.width * frame.height];
+        serial.setParallel(false);
+        parallel.setParallel(true);
+    }
+
+    /**
+     * HistogramsImage of the app before ColorHistograms, on the pixels of a SAMPLES x SAMPLES
+     * bitmap stored by rows.
+     */
+    private static class HistogramsImage
+    {
+        private final int NUM_BUCKETS = 256;
+
+        private int[] mHistGreen = new int[NUM_BUCKETS];
+        private int[] mHistBlu = new int[NUM_BUCKETS];
+        private int[] mHistRed = new int[NUM_BUCKETS];
+
+        private HistogramsImage(int[] frame, int width, int height)
+        {
+            //Same order of the loop on Bitmap.getPixel(i, j): one column after the other
+            for (int i = 0; i < width; i++)
+            {
+                for (int j = 0; j < height; j++)
+                {
+                    int pixel = frame[j * width + i];
+                    mHistRed[(pixel >> 16) & 0xFF]++;
+                    mHistGreen[(pixel >> 8) & 0xFF]++;
+                    mHistBlu[pixel & 0xFF]++;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Object fullFrame()
+    {
+        ImageUtils.convertYUV420ToARGB8888(frame.yPlane, frame.uPlane, frame.vPlane,
+                frame.width, frame.height, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, argb);
+        for (int y = 0; y < SAMPLES; y++)
+        {
+            final int row = (y * frame.height / SAMPLES) * frame.width;
+            for (int x = 0; x < SAMPLES; x++)
+                cropped[y * SAMPLES + x] = argb[row + x * frame.width / SAMPLES];
+        }
+        return new HistogramsImage(cropped, SAMPLES, SAMPLES);
+    }
+
+    @Benchmark
+    public ColorHistograms thumbnail()
+    {
+        ImageUtils.convertYUV420ToARGB8888Scaled(frame.yPlane, frame.uPlane, frame.vPlane,
+                frame.width, frame.height, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, thumbnail, SAMPLES, SAMPLES);
+        serial.compute(thumbnail, SAMPLES, SAMPLES, 1);
+        return serial;
+    }
+
+    @Benchmark
+    public ColorHistograms yuv()
+    {
+        serial.computeFromYUV(frame.yPlane, frame.uPlane, frame.vPlane, frame.width,
+                frame.height, frame.yRowStride, frame.uvRowStride, frame.uvPixelStride,
+                SAMPLES, SAMPLES);
+        return serial;
+    }
+
+    @Benchmark
+    public ColorHistograms yuvParallel()
+    {
+        parallel.computeFromYUV(frame.yPlane, frame.uPlane, frame.vPlane, frame.width,
+                frame.height, frame.yRowStride, frame.uvRowStride, frame.uvPixelStride,
+                SAMPLES, SAMPLES);
+        return parallel;
+    }
+}
@@ -0,0 +1,51 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing of the ARGB pixels of a bitmap, already at the input size, in the input of the model
+ * (TensorFlowObjectDetectionAPIModel.recognizeImage). There is no native version.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InputPackingBenchmark
+{
+    private static final int INPUT_SIZE = 300;
+    private static final float IMAGE_MEAN = 128.0f;
+    private static final float IMAGE_STD = 128.0f;
+
+    @Param({"true", "false"})
+    public boolean quantized;
+
+    private ByteBuffer input;
+    private int[] pixels;
+
+    @Setup
+    public void setUp()
+    {
+        input = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3 * (quantized ? 1 : 4))
+                .order(ByteOrder.nativeOrder());
+        pixels = BenchmarkFrames.randomPixels(INPUT_SIZE * INPUT_SIZE);
+    }
+
+    @Benchmark
+    public ByteBuffer packArgbPixels()
+    {
+        input.rewind();
+        ImageUtils.packModelInput(pixels, pixels.length, input, quantized, IMAGE_MEAN,
+                IMAGE_STD);
+        return input;
+    }
+}
@@ -0,0 +1,69 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preprocessing of a camera frame for the SSD model, as done by DetectorActivity: crop, resize
+ * and packing of the input sampled directly from the YUV planes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ModelInputBenchmark
+{
+    private static final int INPUT_SIZE = 300;
+    private static final float IMAGE_MEAN = 128.0f;
+    private static final float IMAGE_STD = 128.0f;
+
+    @Param({"640x480", "1920x1080"})
+    public String resolution;
+
+    @Param({"java", "native"})
+    public String implementation;
+
+    @Param({"true", "false"})
+    public boolean quantized;
+
+    private BenchmarkFrames frame;
+    private ByteBuffer input;
+
+    //Maps the input in the largest centered square of the frame
+    private final float[] inputToFrame = new float[9];
+
+    @Setup
+    public void setUp()
+    {
+        BenchmarkFrames.selectImplementation(implementation);
+        frame = new BenchmarkFrames(resolution);
+        input = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3 * (quantized ? 1 : 4))
+                .order(ByteOrder.nativeOrder());
+
+        final int side = Math.min(frame.width, frame.height);
+        final float scale = side / (float) INPUT_SIZE;
+        inputToFrame[0] = scale;
+        inputToFrame[2] = (frame.width - side) / 2.0f;
+        inputToFrame[4] = scale;
+        inputToFrame[5] = (frame.height - side) / 2.0f;
+        inputToFrame[8] = 1;
+    }
+
+    @Benchmark
+    public ByteBuffer yuv420ToModelInput()
+    {
+        ImageUtils.convertYUV420ToModelInput(frame.y, frame.u, frame.v, frame.width,
+                frame.height, frame.yRowStride, frame.uvRowStride, frame.uvPixelStride,
+                inputToFrame, input, INPUT_SIZE, quantized, IMAGE_MEAN, IMAGE_STD);
+        return input;
+    }
+}
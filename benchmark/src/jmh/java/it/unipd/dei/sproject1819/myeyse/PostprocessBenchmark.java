@@ -0,0 +1,183 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Post-processing of the output tensors of SSD:
+ * <ul>
+ * <li>"legacy" is the path of the app before DetectionBuffer: the detector allocates a rectangle
+ * and a Recognition for each detection, with the label looked up in a Vector and the confidence
+ * boxed, and procImage copies the location of each one and filters them by confidence in a
+ * LinkedList. RectF can't be used on the host, so it is replaced by a class with the same four
+ * fields;</li>
+ * <li>"all" copies every detection in a DetectionBuffer and leaves the confidence threshold to
+ * the consumer;</li>
+ * <li>"filtered" stops at the first detection below the threshold and keeps at most MAX_RESULTS
+ * detections, as the detector does now.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PostprocessBenchmark
+{
+    private static final int INPUT_SIZE = 300;
+    private static final int LABEL_OFFSET = 1;
+    private static final float MIN_CONFIDENCE = 0.6f;
+    private static final int MAX_RESULTS = 10;
+
+    //Number of detections returned by the model (10 for the SSD of the app)
+    @Param({"10", "100"})
+    public int numDetections;
+
+    private float[][] locations;
+    private float[] classes;
+    private float[] scores;
+    private DetectionBuffer detections;
+
+    //Labels of the legacy path, one for each class of the COCO label map
+    private final Vector<String> labels = new Vector<>();
+
+    /**
+     * Same fields and copy of android.graphics.RectF.
+     */
+    private static class LegacyRect
+    {
+        final float left;
+        final float top;
+        final float right;
+        final float bottom;
+
+        LegacyRect(float left, float top, float right, float bottom)
+        {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        LegacyRect(LegacyRect rect)
+        {
+            this(rect.left, rect.top, rect.right, rect.bottom);
+        }
+    }
+
+    /**
+     * Recognition as it was before DetectionBuffer: title, boxed confidence, and a copy of the
+     * location for each getLocation.
+     */
+    private static class LegacyRecognition
+    {
+        private final String title;
+        private final Float confidence;
+        private LegacyRect location;
+
+        LegacyRecognition(String title, Float confidence, LegacyRect location)
+        {
+            this.title = title;
+            this.confidence = confidence;
+            this.location = location;
+        }
+
+        Float getConfidence()
+        {
+            return confidence;
+        }
+
+        LegacyRect getLocation()
+        {
+            return new LegacyRect(location);
+        }
+
+        void setLocation(LegacyRect location)
+        {
+            this.location = location;
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        locations = new float[numDetections][4];
+        classes = new float[numDetections];
+        scores = new float[numDetections];
+        for (int i = 0; i < numDetections; i++)
+        {
+            final float offset = (i % 10) / 20.0f;
+            locations[i] = new float[]{offset, offset, offset + 0.4f, offset + 0.3f};
+            classes[i] = i % 80;
+            //Sorted by decreasing score, as returned by the post-processing of SSD: only the
+            //first three are above the threshold
+            scores[i] = 0.9f - 0.1f * i;
+        }
+        detections = new DetectionBuffer(numDetections);
+
+        for (int i = 0; i <= 90; i++)
+            labels.add("label" + i);
+    }
+
+    @Benchmark
+    public int legacy()
+    {
+        //recognizeImage: a rectangle and a Recognition for every detection
+        final ArrayList<LegacyRecognition> recognitions = new ArrayList<>(numDetections);
+        for (int i = 0; i < numDetections; i++)
+        {
+            final LegacyRect detection = new LegacyRect(
+                    locations[i][1] * INPUT_SIZE,
+                    locations[i][0] * INPUT_SIZE,
+                    locations[i][3] * INPUT_SIZE,
+                    locations[i][2] * INPUT_SIZE);
+            recognitions.add(new LegacyRecognition(labels.get((int) classes[i] + LABEL_OFFSET),
+                    scores[i], detection));
+        }
+
+        //procImage: only the localized objects above the threshold are kept
+        final List<LegacyRecognition> mappedRecognitions = new LinkedList<>();
+        for (final LegacyRecognition result : recognitions)
+        {
+            final LegacyRect location = result.getLocation();
+            if (location != null && result.getConfidence() >= MIN_CONFIDENCE)
+            {
+                result.setLocation(location);
+                mappedRecognitions.add(result);
+            }
+        }
+        return mappedRecognitions.size();
+    }
+
+    @Benchmark
+    public int all()
+    {
+        detections.setFromOutputs(locations, classes, scores, numDetections, INPUT_SIZE,
+                LABEL_OFFSET);
+        int kept = 0;
+        for (int i = 0; i < detections.getCount() && kept < MAX_RESULTS; i++)
+        {
+            if (detections.getScore(i) >= MIN_CONFIDENCE)
+                kept++;
+        }
+        return kept;
+    }
+
+    @Benchmark
+    public int filtered()
+    {
+        detections.setFromOutputs(locations, classes, scores, numDetections, INPUT_SIZE,
+                LABEL_OFFSET, MIN_CONFIDENCE, MAX_RESULTS);
+        return detections.getCount();
+    }
+}
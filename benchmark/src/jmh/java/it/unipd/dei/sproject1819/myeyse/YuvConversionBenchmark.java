@@ -0,0 +1,107 @@
+package it.unipd.dei.sproject1819.myeyse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of a whole camera frame to ARGB, used by the panoramic mode. If the native library
+ * is available, the setup also checks that the Java and the native conversions give the same
+ * pixels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvConversionBenchmark
+{
+    @Param({"640x480", "1920x1080"})
+    public String resolution;
+
+    @Param({"java", "java-parallel", "native"})
+    public String implementation;
+
+    private BenchmarkFrames frame;
+    private int[] argb;
+
+    //Arrays where the planes were copied before the conversion, as CameraActivity.fillBytes did
+    private byte[][] planeCopies;
+
+    @Setup
+    public void setUp()
+    {
+        frame = new BenchmarkFrames(resolution);
+        argb = new int[frame.width * frame.height];
+        planeCopies = new byte[][]{new byte[frame.y.length], new byte[frame.u.length],
+                new byte[frame.v.length]};
+
+        if (ImageUtils.isNativeLibraryLoaded())
+        {
+            BenchmarkFrames.selectImplementation("native");
+            final int[] expected = yuv420ToArgb().clone();
+            final int[] expectedSp = yuv420SpToArgb().clone();
+            BenchmarkFrames.selectImplementation("java-parallel");
+            if (!Arrays.equals(expected, yuv420ToArgb()) ||
+                    !Arrays.equals(expectedSp, yuv420SpToArgb()))
+                throw new IllegalStateException("Java and native conversions differ");
+        }
+
+        BenchmarkFrames.selectImplementation(implementation);
+    }
+
+    @Benchmark
+    public int[] yuv420ToArgb()
+    {
+        ImageUtils.convertYUV420ToARGB8888(frame.y, frame.u, frame.v, frame.width, frame.height,
+                frame.yRowStride, frame.uvRowStride, frame.uvPixelStride, argb);
+        return argb;
+    }
+
+    /**
+     * Old camera path: the planes are copied in Java arrays, then converted.
+     */
+    @Benchmark
+    public int[] copiedPlanesToArgb()
+    {
+        copy(frame.yPlane, planeCopies[0]);
+        copy(frame.uPlane, planeCopies[1]);
+        copy(frame.vPlane, planeCopies[2]);
+        ImageUtils.convertYUV420ToARGB8888(planeCopies[0], planeCopies[1], planeCopies[2],
+                frame.width, frame.height, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, argb);
+        return argb;
+    }
+
+    /**
+     * Current camera path: the direct buffers of the planes are read in place.
+     */
+    @Benchmark
+    public int[] directPlanesToArgb()
+    {
+        ImageUtils.convertYUV420ToARGB8888(frame.yPlane, frame.uPlane, frame.vPlane,
+                frame.width, frame.height, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, argb);
+        return argb;
+    }
+
+    private static void copy(ByteBuffer plane, byte[] array)
+    {
+        plane.rewind();
+        plane.get(array);
+    }
+
+    @Benchmark
+    public int[] yuv420SpToArgb()
+    {
+        ImageUtils.convertYUV420SPToARGB8888(frame.nv21, frame.width, frame.height, argb);
+        return argb;
+    }
+}
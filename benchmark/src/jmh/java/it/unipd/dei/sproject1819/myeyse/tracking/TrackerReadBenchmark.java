@@ -0,0 +1,120 @@
+package it.unipd.dei.sproject1819.myeyse.tracking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JNI calls made at every frame to read the state of the tracked objects, on the tracker of the
+ * host library. The objects are registered on a grid that covers a textured frame:
+ * <ul>
+ * <li>byId: the path before the handles, the baseline. Three calls for each object, keyed by its
+ * id: getTrackedPositionNative, getCurrentCorrelation and isObjectVisible</li>
+ * <li>byHandle: a single getTrackedObjectsNative call, that fills a direct buffer with the
+ * position, the correlation and the visibility of all the objects</li>
+ * </ul>
+ * The time of the tracker for each frame depends on the NEON kernels, so it is still measured on
+ * the device by TrackerBenchmarkTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackerReadBenchmark
+{
+    //Same frame of TrackerBenchmarkTest
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    //Grid of the objects in the downsampled frame
+    private static final int COLUMNS = 10;
+
+    @Param({"1", "10", "50"})
+    public int numObjects;
+
+    private ObjectTracker tracker;
+    private String[] ids;
+    private final float[] position = new float[4];
+    private FloatBuffer values;
+
+    @Setup
+    public void setUp()
+    {
+        if (!ObjectTracker.isLibraryFound())
+            throw new IllegalStateException("libtensorflow_demo not found in java.library.path");
+
+        //Random texture, smoothed on blocks of 4 pixels so that it has corners to track
+        final int cellsPerRow = WIDTH / 4;
+        final byte[] cells = new byte[cellsPerRow * (HEIGHT / 4)];
+        new Random(42).nextBytes(cells);
+        final byte[] frame = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                frame[y * WIDTH + x] = cells[(y / 4) * cellsPerRow + x / 4];
+
+        final int factor = ObjectTracker.DOWNSAMPLE_FACTOR;
+        final int width = WIDTH / factor;
+        final int height = HEIGHT / factor;
+        final byte[] downsampled = new byte[width * height];
+
+        tracker = new ObjectTracker(WIDTH, HEIGHT, WIDTH, true);
+        tracker.init();
+        ObjectTracker.downsampleImageNative(WIDTH, HEIGHT, WIDTH, frame, factor, downsampled);
+        final long timestamp = 1;
+        tracker.nextFrameNative(downsampled, null, timestamp, null);
+
+        final int rows = (numObjects + COLUMNS - 1) / COLUMNS;
+        final float cellWidth = width / (float) COLUMNS;
+        final float cellHeight = height / (float) rows;
+        ids = new String[numObjects];
+        for (int i = 0; i < numObjects; i++)
+        {
+            ids[i] = "object" + i;
+            final float left = (i % COLUMNS) * cellWidth + 2;
+            final float top = (i / COLUMNS) * cellHeight + 2;
+            tracker.registerNewObjectWithAppearanceNative(ids[i], left, top,
+                    left + cellWidth - 4, top + cellHeight - 4, downsampled);
+            tracker.setPreviousPositionNative(ids[i], left, top, left + cellWidth - 4,
+                    top + cellHeight - 4, timestamp);
+        }
+
+        values = ObjectTracker.allocateTrackedValues(numObjects);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        for (final String id : ids)
+            tracker.forgetNative(id);
+        tracker.releaseMemoryNative();
+    }
+
+    @Benchmark
+    public float byId()
+    {
+        float sum = 0;
+        for (final String id : ids)
+        {
+            tracker.getTrackedPositionNative(id, position);
+            sum += position[0] + tracker.getCurrentCorrelation(id);
+            if (tracker.isObjectVisible(id))
+                sum++;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int byHandle()
+    {
+        return tracker.getTrackedObjectsNative(values, numObjects);
+    }
+}